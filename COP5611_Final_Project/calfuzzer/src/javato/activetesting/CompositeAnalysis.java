@@ -0,0 +1,356 @@
+package javato.activetesting;
+
+import javato.activetesting.analysis.Analysis;
+import javato.activetesting.analysis.ArrayRangeAnalysis;
+import javato.activetesting.analysis.EventKind;
+import javato.activetesting.analysis.LegacyAnalysisAdapter;
+import javato.activetesting.analysis.Observer;
+import javato.activetesting.analysis.PrimitiveAnalysis;
+import javato.activetesting.analysis.PrimitiveAnalysisImpl;
+import javato.activetesting.analysis.ShadowAnalysis;
+import javato.activetesting.analysis.ShadowState;
+import javato.activetesting.analysis.SharedTrackerAnalysis;
+import javato.activetesting.analysis.SharedTrackers;
+import javato.activetesting.common.Parameters;
+import javato.activetesting.lockset.LockSetTracker;
+import javato.activetesting.reentrant.IgnoreRentrantLock;
+import javato.activetesting.vc.VectorClockTracker;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
+/**
+ * Copyright (c) 2007-2008,
+ * Koushik Sen    <ksen@cs.berkeley.edu>
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * <p/>
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * <p/>
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * <p/>
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class CompositeAnalysis extends PrimitiveAnalysisImpl implements ArrayRangeAnalysis, ShadowAnalysis {
+    private final PrimitiveAnalysis[] analyses;
+    // for each analysis, whether it reads the shared trackers and so only sees outermost lock events
+    private final boolean[] shared;
+    // the analysis that keeps its state in the shadow states, the first ShadowAnalysis, or -1
+    private final int shadow;
+    private final VectorClockTracker vcTracker;
+    private final LockSetTracker lsTracker;
+    private final IgnoreRentrantLock ignoreRentrantLock;
+    private final Object trackerLock = new Object();
+
+    public CompositeAnalysis() {
+        this(load(Parameters.compositeAnalyses), Parameters.ERROR_LIST_FILE, Parameters.ERROR_LOG_FILE);
+    }
+
+    /**
+     * Runs the given analyses on the same execution. Analyses that implement
+     * SharedTrackerAnalysis share one set of trackers, updated here once per
+     * event, and write their results next to errorListFile and errorLogFile
+     * with their name as prefix, e.g. hybrid.error.list and igoodlock.error.log.
+     */
+    public CompositeAnalysis(List<PrimitiveAnalysis> analyses, String errorListFile, String errorLogFile) {
+        SharedTrackers trackers = new SharedTrackers();
+        vcTracker = trackers.getVectorClockTracker();
+        lsTracker = trackers.getLockSetTracker();
+        ignoreRentrantLock = trackers.getIgnoreRentrantLock();
+        this.analyses = analyses.toArray(new PrimitiveAnalysis[analyses.size()]);
+        shared = new boolean[this.analyses.length];
+        int shadow = -1;
+        for (int i = 0; i < this.analyses.length; i++) {
+            PrimitiveAnalysis a = this.analyses[i];
+            // finish() is called from here, after all events
+            detachShutdownHook(a);
+            if (a instanceof SharedTrackerAnalysis) {
+                String name = nameOf(a);
+                ((SharedTrackerAnalysis) a).shareTrackers(trackers,
+                        errorFile(errorListFile, name), errorFile(errorLogFile, name));
+                shared[i] = true;
+            }
+            if (shadow < 0 && a instanceof ShadowAnalysis) {
+                shadow = i;
+            }
+        }
+        this.shadow = shadow;
+    }
+
+    /**
+     * The events of the analyses in javato.composite.analyses, plus those
+     * that keep the shared trackers up to date.
+     */
+    public static EnumSet<EventKind> subscribedEvents() {
+        EnumSet<EventKind> ret = EnumSet.of(EventKind.LOCK_BEFORE, EventKind.UNLOCK_AFTER,
+                EventKind.START_BEFORE, EventKind.JOIN_AFTER);
+        for (String name : Parameters.compositeAnalyses.split(",")) {
+            if (name.trim().length() > 0) {
+                ret.addAll(EventKind.subscribedBy(name));
+            }
+        }
+        return ret;
+    }
+
+    private static List<PrimitiveAnalysis> load(String classNames) {
+        List<PrimitiveAnalysis> ret = new ArrayList<PrimitiveAnalysis>();
+        for (String name : classNames.split(",")) {
+            name = name.trim();
+            if (name.length() == 0) continue;
+            try {
+                Object a = Class.forName(name).getDeclaredConstructor().newInstance();
+                ret.add(a instanceof PrimitiveAnalysis ? (PrimitiveAnalysis) a : new LegacyAnalysisAdapter((Analysis) a));
+            } catch (Exception e) {
+                System.err.println("Cannot find or instantiate Analysis class: " + name);
+                e.printStackTrace();
+                System.exit(1);
+            }
+        }
+        return ret;
+    }
+
+    private static String nameOf(PrimitiveAnalysis a) {
+        String name = a.getClass().getSimpleName();
+        if (name.endsWith("Analysis") && name.length() > "Analysis".length()) {
+            name = name.substring(0, name.length() - "Analysis".length());
+        }
+        return name.toLowerCase();
+    }
+
+    static String errorFile(String file, String name) {
+        File f = new File(file);
+        return new File(f.getParentFile(), name + "." + f.getName()).getPath();
+    }
+
+    public void lockBefore(int iid, int thread, int lock, Object actualLock) {
+        synchronized (trackerLock) {
+            boolean outermost = ignoreRentrantLock.lockBefore(thread, lock);
+            if (outermost) {
+                lsTracker.lockBefore(iid, thread, lock);
+            }
+            for (int i = 0; i < analyses.length; i++) {
+                if (outermost || !shared[i]) analyses[i].lockBefore(iid, thread, lock, actualLock);
+            }
+        }
+    }
+
+    public void lockAfter(int iid, int thread, int lock, Object actualLock) {
+        synchronized (trackerLock) {
+            for (PrimitiveAnalysis a : analyses) a.lockAfter(iid, thread, lock, actualLock);
+        }
+    }
+
+    public void unlockAfter(int iid, int thread, int lock) {
+        synchronized (trackerLock) {
+            boolean outermost = ignoreRentrantLock.unlockAfter(thread, lock);
+            if (outermost) {
+                lsTracker.unlockAfter(thread);
+            }
+            for (int i = 0; i < analyses.length; i++) {
+                if (outermost || !shared[i]) analyses[i].unlockAfter(iid, thread, lock);
+            }
+        }
+    }
+
+    public void newExprAfter(int iid, int object, int objOnWhichMethodIsInvoked) {
+        synchronized (trackerLock) {
+            for (PrimitiveAnalysis a : analyses) a.newExprAfter(iid, object, objOnWhichMethodIsInvoked);
+        }
+    }
+
+    public void methodEnterBefore(int iid, int thread, int method) {
+        synchronized (trackerLock) {
+            for (PrimitiveAnalysis a : analyses) a.methodEnterBefore(iid, thread, method);
+        }
+    }
+
+    public void methodExitAfter(int iid, int thread, int method) {
+        synchronized (trackerLock) {
+            for (PrimitiveAnalysis a : analyses) a.methodExitAfter(iid, thread, method);
+        }
+    }
+
+    public void startBefore(int iid, int parent, int child) {
+        synchronized (trackerLock) {
+            vcTracker.startBefore(parent, child);
+            for (PrimitiveAnalysis a : analyses) a.startBefore(iid, parent, child);
+        }
+    }
+
+    public void startAfter(int iid, int parent, Object child) {
+        synchronized (trackerLock) {
+            for (PrimitiveAnalysis a : analyses) a.startAfter(iid, parent, child);
+        }
+    }
+
+    public void waitBefore(int iid, int thread, int lock) {
+        synchronized (trackerLock) {
+            for (PrimitiveAnalysis a : analyses) a.waitBefore(iid, thread, lock);
+        }
+    }
+
+    public void waitAfter(int iid, int thread, int lock) {
+        synchronized (trackerLock) {
+            for (PrimitiveAnalysis a : analyses) a.waitAfter(iid, thread, lock);
+        }
+    }
+
+    public void notifyBefore(int iid, int thread, int lock) {
+        synchronized (trackerLock) {
+            for (PrimitiveAnalysis a : analyses) a.notifyBefore(iid, thread, lock);
+        }
+    }
+
+    public void notifyAllBefore(int iid, int thread, int lock) {
+        synchronized (trackerLock) {
+            for (PrimitiveAnalysis a : analyses) a.notifyAllBefore(iid, thread, lock);
+        }
+    }
+
+    public void joinAfter(int iid, int parent, int child) {
+        synchronized (trackerLock) {
+            vcTracker.joinAfter(parent, child);
+            for (PrimitiveAnalysis a : analyses) a.joinAfter(iid, parent, child);
+        }
+    }
+
+    public void readBefore(int iid, int thread, long memory, boolean isVolatile) {
+        synchronized (trackerLock) {
+            for (PrimitiveAnalysis a : analyses) a.readBefore(iid, thread, memory, isVolatile);
+        }
+    }
+
+    public void readAfter(int iid, int thread, long memory, boolean isVolatile) {
+        synchronized (trackerLock) {
+            for (PrimitiveAnalysis a : analyses) a.readAfter(iid, thread, memory, isVolatile);
+        }
+    }
+
+    public void writeBefore(int iid, int thread, long memory, boolean isVolatile) {
+        synchronized (trackerLock) {
+            for (PrimitiveAnalysis a : analyses) a.writeBefore(iid, thread, memory, isVolatile);
+        }
+    }
+
+    public void readRangeBefore(int iid, int thread, int array, int lo, int hi) {
+        synchronized (trackerLock) {
+            for (PrimitiveAnalysis a : analyses) {
+                if (a instanceof ArrayRangeAnalysis) {
+                    ((ArrayRangeAnalysis) a).readRangeBefore(iid, thread, array, lo, hi);
+                } else {
+                    for (int i = lo; i < hi; i++) {
+                        a.readBefore(iid, thread, Observer.idInt(array, i), false);
+                    }
+                }
+            }
+        }
+    }
+
+    public void writeRangeBefore(int iid, int thread, int array, int lo, int hi) {
+        synchronized (trackerLock) {
+            for (PrimitiveAnalysis a : analyses) {
+                if (a instanceof ArrayRangeAnalysis) {
+                    ((ArrayRangeAnalysis) a).writeRangeBefore(iid, thread, array, lo, hi);
+                } else {
+                    for (int i = lo; i < hi; i++) {
+                        a.writeBefore(iid, thread, Observer.idInt(array, i), false);
+                    }
+                }
+            }
+        }
+    }
+
+    public void readBefore(int iid, int thread, long memory, ShadowState state) {
+        synchronized (trackerLock) {
+            for (int i = 0; i < analyses.length; i++) {
+                if (i == shadow) {
+                    ((ShadowAnalysis) analyses[i]).readBefore(iid, thread, memory, state);
+                } else {
+                    analyses[i].readBefore(iid, thread, memory, false);
+                }
+            }
+        }
+    }
+
+    public void writeBefore(int iid, int thread, long memory, ShadowState state) {
+        synchronized (trackerLock) {
+            for (int i = 0; i < analyses.length; i++) {
+                if (i == shadow) {
+                    ((ShadowAnalysis) analyses[i]).writeBefore(iid, thread, memory, state);
+                } else {
+                    analyses[i].writeBefore(iid, thread, memory, false);
+                }
+            }
+        }
+    }
+
+    public void writeAfter(int iid, int thread, long memory, boolean isVolatile) {
+        synchronized (trackerLock) {
+            for (PrimitiveAnalysis a : analyses) a.writeAfter(iid, thread, memory, isVolatile);
+        }
+    }
+
+    public void writeAfter(int iid, int thread, String local, Object value, String type) {
+        synchronized (trackerLock) {
+            for (PrimitiveAnalysis a : analyses) a.writeAfter(iid, thread, local, value, type);
+        }
+    }
+
+    public void writePrimitiveAfter(int iid, int thread, String local, long bits, String type) {
+        synchronized (trackerLock) {
+            for (PrimitiveAnalysis a : analyses) a.writePrimitiveAfter(iid, thread, local, bits, type);
+        }
+    }
+
+    public void openDeterministicBlock(int bid) {
+        synchronized (trackerLock) {
+            for (PrimitiveAnalysis a : analyses) a.openDeterministicBlock(bid);
+        }
+    }
+
+    public void closeDeterministicBlock(int bid) {
+        synchronized (trackerLock) {
+            for (PrimitiveAnalysis a : analyses) a.closeDeterministicBlock(bid);
+        }
+    }
+
+    public void requireDeterministic(int thread, Object invariant) {
+        synchronized (trackerLock) {
+            for (PrimitiveAnalysis a : analyses) a.requireDeterministic(thread, invariant);
+        }
+    }
+
+    public void assertDeterministic(int thread, Object invariant) {
+        synchronized (trackerLock) {
+            for (PrimitiveAnalysis a : analyses) a.assertDeterministic(thread, invariant);
+        }
+    }
+
+    public void finish() {
+        synchronized (trackerLock) {
+            for (PrimitiveAnalysis a : analyses) a.finish();
+        }
+    }
+}
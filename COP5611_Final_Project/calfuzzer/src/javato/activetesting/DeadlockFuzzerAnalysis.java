@@ -2,6 +2,8 @@ package javato.activetesting;
 
 import javato.activetesting.activechecker.ActiveChecker;
 import javato.activetesting.analysis.CheckerAnalysisImpl;
+import javato.activetesting.analysis.EventKind;
+import javato.activetesting.analysis.Subscribes;
 import javato.activetesting.common.Parameters;
 import javato.activetesting.igoodlock.DeadlockCycleInfo;
 import javato.activetesting.igoodlock.Node;
@@ -42,6 +44,7 @@ import java.util.List;
  * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
  * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
+@Subscribes({EventKind.LOCK_BEFORE, EventKind.UNLOCK_AFTER})
 public class DeadlockFuzzerAnalysis extends CheckerAnalysisImpl {
     private LockSetTracker lsTracker;
     private IgnoreRentrantLock ignoreRentrantLock;
@@ -78,7 +81,7 @@ public class DeadlockFuzzerAnalysis extends CheckerAnalysisImpl {
     }
 
 
-    public void lockBefore(Integer iid, Integer thread, Integer lock, Object actualLock) {
+    public void lockBefore(int iid, int thread, int lock, Object actualLock) {
         synchronized (ActiveChecker.lock) {
             if (ignoreRentrantLock.lockBefore(thread, lock)) {
                 boolean isDeadlock = lsTracker.lockBefore(iid, thread, lock);
@@ -97,7 +100,7 @@ public class DeadlockFuzzerAnalysis extends CheckerAnalysisImpl {
         ActiveChecker.blockIfRequired();
     }
 
-    public void unlockAfter(Integer iid, Integer thread, Integer lock) {
+    public void unlockAfter(int iid, int thread, int lock) {
         synchronized (ActiveChecker.lock) {
             if (ignoreRentrantLock.unlockAfter(thread, lock)) {
                 lsTracker.unlockAfter(thread);
@@ -105,40 +108,34 @@ public class DeadlockFuzzerAnalysis extends CheckerAnalysisImpl {
         }
     }
 
-    public void newExprAfter(Integer iid, Integer object, Integer objOnWhichMethodIsInvoked) {
+    public void newExprAfter(int iid, int object, int objOnWhichMethodIsInvoked) {
     }
 
-    public void methodEnterBefore(Integer iid, Integer thread) {
+    public void startBefore(int iid, int parent, int child) {
     }
 
-    public void methodExitAfter(Integer iid, Integer thread) {
+    public void waitAfter(int iid, int thread, int lock) {
     }
 
-    public void startBefore(Integer iid, Integer parent, Integer child) {
+    public void notifyBefore(int iid, int thread, int lock) {
     }
 
-    public void waitAfter(Integer iid, Integer thread, Integer lock) {
+    public void notifyAllBefore(int iid, int thread, int lock) {
     }
 
-    public void notifyBefore(Integer iid, Integer thread, Integer lock) {
+    public void joinAfter(int iid, int parent, int child) {
     }
 
-    public void notifyAllBefore(Integer iid, Integer thread, Integer lock) {
+    public void readBefore(int iid, int thread, long memory, boolean isVolatile) {
     }
 
-    public void joinAfter(Integer iid, Integer parent, Integer child) {
-    }
-
-    public void readBefore(Integer iid, Integer thread, Long memory, boolean isVolatile) {
-    }
-
-    public void readAfter(Integer iid, Integer thread, Long memory, boolean isVolatile) {
+    public void readAfter(int iid, int thread, long memory, boolean isVolatile) {
 		}
 
-    public void writeBefore(Integer iid, Integer thread, Long memory, boolean isVolatile) {
+    public void writeBefore(int iid, int thread, long memory, boolean isVolatile) {
     }
 
-    public void writeAfter(Integer iid, Integer thread, Long memory, boolean isVolatile) {
+    public void writeAfter(int iid, int thread, long memory, boolean isVolatile) {
     }
 
     public void finish() {
@@ -0,0 +1,115 @@
+package javato.activetesting;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import javato.activetesting.analysis.PrimitiveAnalysisImpl;
+import javato.activetesting.analysis.EventKind;
+import javato.activetesting.analysis.Subscribes;
+
+/**
+ * Copyright (c) 2007-2008,
+ * Koushik Sen    <ksen@cs.berkeley.edu>
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * <p/>
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * <p/>
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * <p/>
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+@Subscribes({EventKind.LOCK_BEFORE, EventKind.UNLOCK_AFTER, EventKind.START_BEFORE,
+        EventKind.JOIN_AFTER, EventKind.WAIT_BEFORE, EventKind.NOTIFY_BEFORE,
+        EventKind.NOTIFY_ALL_BEFORE, EventKind.READ_BEFORE, EventKind.WRITE_BEFORE})
+public class EventCountAnalysis extends PrimitiveAnalysisImpl {
+    // initialize() runs from the superclass constructor, so no initializers here
+    private AtomicLong reads;
+    private AtomicLong writes;
+    private AtomicLong syncs;
+    private long start;
+
+    /**
+     * Counts the events the instrumented program sends to the analysis,
+     * to compare instrumentation options such as
+     * javato.eliminate.redundant.accesses or javato.escape.analysis.
+     */
+    public void initialize() {
+        reads = new AtomicLong();
+        writes = new AtomicLong();
+        syncs = new AtomicLong();
+        start = System.currentTimeMillis();
+    }
+
+    public void lockBefore(int iid, int thread, int lock, Object actualLock) {
+        syncs.incrementAndGet();
+    }
+
+    public void unlockAfter(int iid, int thread, int lock) {
+        syncs.incrementAndGet();
+    }
+
+    public void startBefore(int iid, int parent, int child) {
+        syncs.incrementAndGet();
+    }
+
+    public void joinAfter(int iid, int parent, int child) {
+        syncs.incrementAndGet();
+    }
+
+    public void waitBefore(int iid, int thread, int lock) {
+        syncs.incrementAndGet();
+    }
+
+    public void notifyBefore(int iid, int thread, int lock) {
+        syncs.incrementAndGet();
+    }
+
+    public void notifyAllBefore(int iid, int thread, int lock) {
+        syncs.incrementAndGet();
+    }
+
+    public void readBefore(int iid, int thread, long memory, boolean isVolatile) {
+        reads.incrementAndGet();
+    }
+
+    public void writeBefore(int iid, int thread, long memory, boolean isVolatile) {
+        writes.incrementAndGet();
+    }
+
+    public long getReads() {
+        return reads.get();
+    }
+
+    public long getWrites() {
+        return writes.get();
+    }
+
+    public long getSyncs() {
+        return syncs.get();
+    }
+
+    public void finish() {
+        System.out.println("Events: " + reads.get() + " reads, " + writes.get() + " writes, "
+                + syncs.get() + " synchronization events in " + (System.currentTimeMillis() - start) + " ms");
+    }
+}
@@ -1,7 +1,16 @@
 package javato.activetesting;
 
 import javato.activetesting.activechecker.ActiveChecker;
-import javato.activetesting.analysis.AnalysisImpl;
+import javato.activetesting.analysis.ArrayRangeAnalysis;
+import javato.activetesting.analysis.PrimitiveAnalysis;
+import javato.activetesting.analysis.PrimitiveAnalysisImpl;
+import javato.activetesting.analysis.ShadowAnalysis;
+import javato.activetesting.analysis.ShadowState;
+import javato.activetesting.analysis.SharedTrackerAnalysis;
+import javato.activetesting.analysis.SharedTrackers;
+import javato.activetesting.analysis.EventKind;
+import javato.activetesting.analysis.Subscribes;
+import javato.activetesting.async.ShardedAnalysis;
 import javato.activetesting.hybridracedetection.HybridRaceTracker;
 import javato.activetesting.lockset.LockSet;
 import javato.activetesting.lockset.LockSetTracker;
@@ -41,12 +50,23 @@ import javato.activetesting.common.Parameters;
  * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
  * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
-public class HybridAnalysis extends AnalysisImpl {
+@Subscribes({EventKind.LOCK_BEFORE, EventKind.UNLOCK_AFTER, EventKind.START_BEFORE,
+        EventKind.WAIT_BEFORE, EventKind.WAIT_AFTER, EventKind.NOTIFY_BEFORE,
+        EventKind.NOTIFY_ALL_BEFORE, EventKind.JOIN_AFTER, EventKind.READ_BEFORE,
+        EventKind.WRITE_BEFORE})
+public class HybridAnalysis extends PrimitiveAnalysisImpl implements ShardedAnalysis, SharedTrackerAnalysis,
+        ArrayRangeAnalysis, ShadowAnalysis {
     //private ContextIndexingTracker ciTracker;
     private VectorClockTracker vcTracker;
     private LockSetTracker lsTracker;
     private IgnoreRentrantLock ignoreRentrantLock;
     private HybridRaceTracker eb;
+    // set when the trackers are owned and updated by a CompositeAnalysis
+    private boolean sharedTrackers;
+    private String errorListFile;
+    private String errorLogFile;
+    // guards this instance only, so that shards of an asynchronous run do not contend
+    private final Object trackerLock = new Object();
 
     public void initialize() {
         //ciTracker = new ContextIndexingTracker();
@@ -56,14 +76,28 @@ public class HybridAnalysis extends AnalysisImpl {
             ignoreRentrantLock = new IgnoreRentrantLock();
             eb = new HybridRaceTracker();
         }
+        errorListFile = Parameters.ERROR_LIST_FILE;
+        errorLogFile = Parameters.ERROR_LOG_FILE;
     }
 
-    public void lockBefore(Integer iid, Integer thread, Integer lock, Object actualLock) {
-        synchronized (ActiveChecker.lock) {
+    public void shareTrackers(SharedTrackers trackers, String errorListFile, String errorLogFile) {
+        synchronized (trackerLock) {
+            vcTracker = trackers.getVectorClockTracker();
+            lsTracker = trackers.getLockSetTracker();
+            ignoreRentrantLock = trackers.getIgnoreRentrantLock();
+            sharedTrackers = true;
+            this.errorListFile = errorListFile;
+            this.errorLogFile = errorLogFile;
+        }
+    }
+
+    public void lockBefore(int iid, int thread, int lock, Object actualLock) {
+        if (sharedTrackers) return;
+        synchronized (trackerLock) {
             if (ignoreRentrantLock.lockBefore(thread, lock)) {
 //                if (Parameters.trackLockRaces) {
 //                    LockSet ls = lsTracker.getLockSet(thread);
-//                    Long mem = (long) lock;
+//                    long mem = lock;
 //                    eb.checkRace(iid, thread, mem , false, vcTracker.getVectorClock(thread), ls,true,false);
 //                    eb.addEvent(iid, thread, mem, false, vcTracker.getVectorClock(thread), ls);
 //                }
@@ -72,16 +106,16 @@ public class HybridAnalysis extends AnalysisImpl {
         }
     }
 
-    public void waitBefore(Integer iid, Integer thread, Integer lock) {
-        synchronized (ActiveChecker.lock) {
+    public void waitBefore(int iid, int thread, int lock) {
+        synchronized (trackerLock) {
 //            if (Parameters.trackLockRaces) {
 //                LockSet ls = lsTracker.getLockSet(thread);
-//                Long mem = (long) lock;
+//                long mem = lock;
 //                eb.checkRace(iid, thread, mem , false, vcTracker.getVectorClock(thread), ls,true,false);
 //                eb.addEvent(iid, thread, mem, false, vcTracker.getVectorClock(thread), ls);
 //            } else {
-                Integer acquireIid = lsTracker.getLockAcquireIID(thread,lock);
-                Long mem = (long) lock;
+                int acquireIid = lsTracker.getLockAcquireIID(thread,lock);
+                long mem = lock;
                 eb.checkRace(acquireIid, thread, mem , false, vcTracker.getVectorClock(thread), LockSet.emptySet,true,false);
                 eb.addEvent(acquireIid, thread, mem, false, vcTracker.getVectorClock(thread), LockSet.emptySet);
 
@@ -89,101 +123,139 @@ public class HybridAnalysis extends AnalysisImpl {
         }
     }
 
-    public void unlockAfter(Integer iid, Integer thread, Integer lock) {
-        synchronized (ActiveChecker.lock) {
+    public void unlockAfter(int iid, int thread, int lock) {
+        if (sharedTrackers) return;
+        synchronized (trackerLock) {
             if (ignoreRentrantLock.unlockAfter(thread, lock)) {
                 lsTracker.unlockAfter(thread);
             }
         }
     }
 
-    public void newExprAfter(Integer iid, Integer object, Integer objOnWhichMethodIsInvoked) {
+    public void newExprAfter(int iid, int object, int objOnWhichMethodIsInvoked) {
         //ciTracker.newExprAfter(iid, object, 3); //@todo 3 must be parameterized
     }
 
-    public void methodEnterBefore(Integer iid, Integer thread) {
-        //ciTracker.methodEnterBefore(iid);
-    }
-
-    public void methodExitAfter(Integer iid, Integer thread) {
-        //ciTracker.methodExitAfter(iid);
-    }
-
-    public void startBefore(Integer iid, Integer parent, Integer child) {
-        synchronized (ActiveChecker.lock) {
+    public void startBefore(int iid, int parent, int child) {
+        if (sharedTrackers) return;
+        synchronized (trackerLock) {
             vcTracker.startBefore(parent, child);
         }
     }
 
-    public void waitAfter(Integer iid, Integer thread, Integer lock) {
+    public void waitAfter(int iid, int thread, int lock) {
 //        if (!Parameters.trackLockRaces) {
-//            synchronized (ActiveChecker.lock) {
+//            synchronized (trackerLock) {
 //                vcTracker.waitAfter(thread, lock);
 //            }
 //        }
     }
 
-    public void notifyBefore(Integer iid, Integer thread, Integer lock) {
+    public void notifyBefore(int iid, int thread, int lock) {
 //        if (!Parameters.trackLockRaces) {
-//            synchronized (ActiveChecker.lock) {
+//            synchronized (trackerLock) {
 //                vcTracker.notifyBefore(thread, lock);
 //            }
 //        }
-        synchronized (ActiveChecker.lock) {
+        synchronized (trackerLock) {
 //            if (!Parameters.trackLockRaces) {
-                Integer acquireIid = lsTracker.getLockAcquireIID(thread,lock);
-                Long mem = (long) lock;
+                int acquireIid = lsTracker.getLockAcquireIID(thread,lock);
+                long mem = lock;
                 eb.checkRace(acquireIid, thread, mem , true, vcTracker.getVectorClock(thread), LockSet.emptySet,true,false);
                 eb.addEvent(acquireIid, thread, mem, true, vcTracker.getVectorClock(thread), LockSet.emptySet);
             }
 //        }
     }
 
-    public void notifyAllBefore(Integer iid, Integer thread, Integer lock) {
+    public void notifyAllBefore(int iid, int thread, int lock) {
 //        if (!Parameters.trackLockRaces) {
-//            synchronized (ActiveChecker.lock) {
+//            synchronized (trackerLock) {
 //                vcTracker.notifyBefore(thread, lock);
 //            }
 //        }
-        synchronized (ActiveChecker.lock) {
+        synchronized (trackerLock) {
 //            if (!Parameters.trackLockRaces) {
-                Integer acquireIid = lsTracker.getLockAcquireIID(thread,lock);
-                Long mem = (long) lock;
+                int acquireIid = lsTracker.getLockAcquireIID(thread,lock);
+                long mem = lock;
                 eb.checkRace(acquireIid, thread, mem , true, vcTracker.getVectorClock(thread), LockSet.emptySet,true,false);
                 eb.addEvent(acquireIid, thread, mem, true, vcTracker.getVectorClock(thread), LockSet.emptySet);
 //            }
         }
     }
 
-    public void joinAfter(Integer iid, Integer parent, Integer child) {
-        synchronized (ActiveChecker.lock) {
+    public void joinAfter(int iid, int parent, int child) {
+        if (sharedTrackers) return;
+        synchronized (trackerLock) {
             vcTracker.joinAfter(parent, child);
         }
     }
 
-    public void readBefore(Integer iid, Integer thread, Long memory, boolean isVolatile) {
-        synchronized (ActiveChecker.lock) {
+    public void readBefore(int iid, int thread, long memory, boolean isVolatile) {
+        synchronized (trackerLock) {
             LockSet ls = lsTracker.getLockSet(thread);
             eb.checkRace(iid, thread, memory, true, vcTracker.getVectorClock(thread), ls, false,isVolatile);
             eb.addEvent(iid, thread, memory, true, vcTracker.getVectorClock(thread), ls);
         }
     }
 
-    public void writeBefore(Integer iid, Integer thread, Long memory, boolean isVolatile) {
-        synchronized (ActiveChecker.lock) {
+    public void writeBefore(int iid, int thread, long memory, boolean isVolatile) {
+        synchronized (trackerLock) {
             LockSet ls = lsTracker.getLockSet(thread);
             eb.checkRace(iid, thread, memory, false, vcTracker.getVectorClock(thread), ls, false,isVolatile);
             eb.addEvent(iid, thread, memory, false, vcTracker.getVectorClock(thread), ls);
         }
     }
 
-    public void writeAfter(Integer iid, Integer thread, Long memory, boolean isVolatile) {
+    public void readBefore(int iid, int thread, long memory, ShadowState state) {
+        synchronized (trackerLock) {
+            eb.checkRace(iid, thread, true, vcTracker.getVectorClock(thread), lsTracker.getLockSetId(thread),
+                    lsTracker.getLockSetIds(), state);
+        }
+    }
+
+    public void writeBefore(int iid, int thread, long memory, ShadowState state) {
+        synchronized (trackerLock) {
+            eb.checkRace(iid, thread, false, vcTracker.getVectorClock(thread), lsTracker.getLockSetId(thread),
+                    lsTracker.getLockSetIds(), state);
+        }
+    }
+
+    public void readRangeBefore(int iid, int thread, int array, int lo, int hi) {
+        synchronized (trackerLock) {
+            LockSet ls = lsTracker.getLockSet(thread);
+            eb.checkRangeRace(iid, thread, array, lo, hi, true, vcTracker.getVectorClock(thread), ls);
+            eb.addRangeEvent(iid, thread, array, lo, hi, true, vcTracker.getVectorClock(thread), ls);
+        }
+    }
+
+    public void writeRangeBefore(int iid, int thread, int array, int lo, int hi) {
+        synchronized (trackerLock) {
+            LockSet ls = lsTracker.getLockSet(thread);
+            eb.checkRangeRace(iid, thread, array, lo, hi, false, vcTracker.getVectorClock(thread), ls);
+            eb.addRangeEvent(iid, thread, array, lo, hi, false, vcTracker.getVectorClock(thread), ls);
+        }
+    }
+
+    public void writeAfter(int iid, int thread, long memory, boolean isVolatile) {
 		}
 
 
+    public PrimitiveAnalysis newShard() {
+        return new HybridAnalysis();
+    }
+
+    public void mergeShard(PrimitiveAnalysis shard) {
+        HybridAnalysis other = (HybridAnalysis) shard;
+        synchronized (trackerLock) {
+            synchronized (other.trackerLock) {
+                eb.mergeRaces(other.eb);
+            }
+        }
+    }
+
     public void finish() {
-        synchronized (ActiveChecker.lock) {
-            eb.dumpRaces();
+        synchronized (trackerLock) {
+            eb.dumpRaces(errorListFile, errorLogFile);
         }
     }
 }
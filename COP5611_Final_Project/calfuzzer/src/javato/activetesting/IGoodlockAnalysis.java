@@ -1,8 +1,12 @@
 package javato.activetesting;
 
 import javato.activetesting.activechecker.ActiveChecker;
-import javato.activetesting.analysis.AnalysisImpl;
 import javato.activetesting.analysis.Observer;
+import javato.activetesting.analysis.PrimitiveAnalysisImpl;
+import javato.activetesting.analysis.SharedTrackerAnalysis;
+import javato.activetesting.analysis.SharedTrackers;
+import javato.activetesting.analysis.EventKind;
+import javato.activetesting.analysis.Subscribes;
 import javato.activetesting.igoodlock.GoodlockDS;
 import javato.activetesting.reentrant.IgnoreRentrantLock;
 import javato.activetesting.common.Parameters;
@@ -39,72 +43,54 @@ import javato.activetesting.common.Parameters;
  * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
  * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
-public class IGoodlockAnalysis extends AnalysisImpl {
+@Subscribes({EventKind.LOCK_BEFORE, EventKind.UNLOCK_AFTER})
+public class IGoodlockAnalysis extends PrimitiveAnalysisImpl implements SharedTrackerAnalysis {
     private GoodlockDS gl;
     private IgnoreRentrantLock ignoreRentrantLock;
+    // set when lock events arrive already filtered by a CompositeAnalysis
+    private boolean sharedTrackers;
+    private String errorListFile;
+    private String errorLogFile;
 
     public void initialize() {
         synchronized (ActiveChecker.lock) {
             ignoreRentrantLock = new IgnoreRentrantLock();
             gl = new GoodlockDS();
         }
+        errorListFile = Parameters.ERROR_LIST_FILE;
+        errorLogFile = Parameters.ERROR_LOG_FILE;
     }
 
-    public void lockBefore(Integer iid, Integer thread, Integer lock, Object actualLock) {
+    public void shareTrackers(SharedTrackers trackers, String errorListFile, String errorLogFile) {
         synchronized (ActiveChecker.lock) {
-            if (ignoreRentrantLock.lockBefore(thread, lock)) {
+            ignoreRentrantLock = trackers.getIgnoreRentrantLock();
+            sharedTrackers = true;
+            this.errorListFile = errorListFile;
+            this.errorLogFile = errorLogFile;
+        }
+    }
+
+    public void lockBefore(int iid, int thread, int lock, Object actualLock) {
+        synchronized (ActiveChecker.lock) {
+            if (sharedTrackers || ignoreRentrantLock.lockBefore(thread, lock)) {
                 gl.lock(iid, thread, lock);
             }
         }
     }
 
-    public void unlockAfter(Integer iid, Integer thread, Integer lock) {
+    public void unlockAfter(int iid, int thread, int lock) {
         synchronized (ActiveChecker.lock) {
-            if (ignoreRentrantLock.unlockAfter(thread, lock)) {
+            if (sharedTrackers || ignoreRentrantLock.unlockAfter(thread, lock)) {
                 gl.unlock(iid, thread, lock);
             }
         }
     }
 
-    public void newExprAfter(Integer iid, Integer object, Integer objOnWhichMethodIsInvoked) {
-    }
-
-    public void methodEnterBefore(Integer iid, Integer thread) {
-    }
-
-    public void methodExitAfter(Integer iid, Integer thread) {
-    }
-
-    public void startBefore(Integer iid, Integer parent, Integer child) {
-    }
-
-    public void waitAfter(Integer iid, Integer thread, Integer lock) {
-    }
-
-    public void notifyBefore(Integer iid, Integer thread, Integer lock) {
-    }
-
-    public void notifyAllBefore(Integer iid, Integer thread, Integer lock) {
-    }
-
-    public void joinAfter(Integer iid, Integer parent, Integer child) {
-    }
-
-    public void readBefore(Integer iid, Integer thread, Long memory, boolean isVolatile) {
-    }
-
-    public void writeBefore(Integer iid, Integer thread, Long memory, boolean isVolatile) {
-    }
-
-    public void writeAfter(Integer iid, Integer thread, Long memory, boolean isVolatile) {
-    }
-
-
     public void finish() {
         synchronized (ActiveChecker.lock) {
             int nDeadlocks;
-            nDeadlocks = gl.dumpDeadlocks();
-            Observer.writeIntegerList(Parameters.ERROR_LIST_FILE, nDeadlocks);
+            nDeadlocks = gl.dumpDeadlocks(errorLogFile);
+            Observer.writeIntegerList(errorListFile, nDeadlocks);
         }
     }
 }
@@ -4,8 +4,16 @@ import java.util.*;
 import java.util.Map.Entry;
 
 import javato.activetesting.activechecker.ActiveChecker;
-import javato.activetesting.analysis.AnalysisImpl;
+import javato.activetesting.analysis.PrimitiveAnalysisImpl;
+import javato.activetesting.analysis.SharedTrackerAnalysis;
+import javato.activetesting.analysis.SharedTrackers;
+import javato.activetesting.analysis.EventKind;
+import javato.activetesting.analysis.Subscribes;
+import javato.activetesting.common.IntHashMap;
+import javato.activetesting.common.IntStack;
+import javato.activetesting.common.LongHashMap;
 import javato.activetesting.common.Parameters;
+import javato.activetesting.lockset.LockSetTracker;
 
 /**
  * Copyright (c) 2007-2008,
@@ -49,55 +57,71 @@ import javato.activetesting.common.Parameters;
  * using global variables for memory location and heap memory
  * locations as shared memory locations.
  */
-public class LocksetAnalysis extends AnalysisImpl 
+@Subscribes({EventKind.LOCK_BEFORE, EventKind.UNLOCK_AFTER, EventKind.METHOD_ENTER_BEFORE,
+        EventKind.METHOD_EXIT_AFTER, EventKind.READ_BEFORE, EventKind.WRITE_BEFORE})
+public class LocksetAnalysis extends PrimitiveAnalysisImpl implements SharedTrackerAnalysis
 {
 	public enum MemoryState {Virgin, Exclusive, Shared, SharedModified};
 
 	/* Data per thread -- */
-	/*
-	 * Contains stacks for each thread that contains sequences of iids of 
-	 * method enter executions. This will keep in tract of methods entered
-	 * during multithreading and their code locations.
-	 */
-	public HashMap<Integer /*thread*/, LinkedList<Integer> /*seq of iids*/>  stacks = new HashMap<Integer, LinkedList<Integer>>();
-	
 	/*
 	 * Represents L(t): Sequence of lock identifiers held by a current thread.
 	 * Let L(t) be the set of locks held by the thread 't' during multithreading.
 	 * Locks will be added and removed during multithreading and be used to check
 	 * for data races.
 	 */
-	public HashMap<Integer /*thread*/, LinkedList<Integer> /*seq of locks*/> heldLocks = new HashMap<Integer, LinkedList<Integer>>();
-	/* -- Data per thread */
+	public IntHashMap<LinkedList<Integer> /*seq of locks*/> heldLocks = new IntHashMap<LinkedList<Integer>>();
 
-	/* Data per memory -- */
 	/*
-	 * Represents C(v): Contains sets of candidate locks for each memory location. 
-	 * For each memory location 'v', initialize C(v) to be the set of all candidate 
-	 * locks.
+	 * Represents L(t) when this analysis runs inside a CompositeAnalysis.
+	 * The lock sets are then kept once for all analyses of the run, so
+	 * heldLocks is left empty and L(t) is read from here instead.
 	 */
-	public HashMap<Long /*memory*/, HashSet<Integer/*set of locks*/>> candidates = new HashMap<Long, HashSet<Integer>>();
-	
-	/*
-	 * Contains monitoring states of each memory location during multithreading. 
-	 * During each read/write operation, change the memory states accordingly to 
-	 * the lock discipline.
-	 */
-	public HashMap<Long /*memory*/, MemoryState /*state*/> state = new HashMap<Long, MemoryState>();
-	
+	public LockSetTracker sharedLocks;
+	/* -- Data per thread */
+
+	/* Data per memory -- */
 	/*
-	 * Contains the thread that first accesses memory location. This variable 
-	 * will be used to record the first thread that accesses the memory location 
-	 * and be checked if a new thread is accessing the memory location.
+	 * Contains the monitored data of a single memory location. The candidate
+	 * lockset, memory state, first thread and last access location of a memory
+	 * location are kept together so that each read/write operation only has to
+	 * look up the memory location once.
 	 */
-	public HashMap<Long /*memory*/, Integer /*thread*/> firstThread = new HashMap<Long, Integer>();
-	
+	public static class MemoryInfo
+	{
+		/*
+		 * Represents C(v): Contains the set of candidate locks for the memory location.
+		 * For each memory location 'v', initialize C(v) to be the set of all candidate
+		 * locks. This is null until the first intersection with L(t).
+		 */
+		public HashSet<Integer /*set of locks*/> candidates;
+
+		/*
+		 * Contains the monitoring state of the memory location during multithreading.
+		 * During each read/write operation, change the memory state accordingly to
+		 * the lock discipline.
+		 */
+		public MemoryState state = MemoryState.Virgin;
+
+		/*
+		 * Contains the thread that first accesses the memory location. This variable
+		 * will be used to check if a new thread is accessing the memory location.
+		 */
+		public int firstThread;
+
+		/*
+		 * Contains the code line location of the last read/write operation that
+		 * accesses the memory location. This will be used to record the read/write
+		 * operation that occurs right before the data race detection.
+		 */
+		public int lastAccessLoc;
+	}
+
 	/*
-	 * Contains code line locations of each read/write operation that accesses the 
-	 * memory location. This will be used to record the read/write operations that 
-	 * occur right before the data race detection.
+	 * Contains the monitored data of each memory location, keyed by the
+	 * primitive memory location so that no boxing happens per access.
 	 */
-	public HashMap<Long /*memory*/, Integer /*iid*/> lastAccessLoc = new HashMap<Long, Integer>();
+	public LongHashMap<MemoryInfo /*data of memory*/> memories = new LongHashMap<MemoryInfo>();
 	
 	/*
 	 * Contains the memory locations and code line locations of where the data races
@@ -115,62 +139,21 @@ public class LocksetAnalysis extends AnalysisImpl
 	 */
 	public void initialize()
 	{
-		stacks = new HashMap<Integer, LinkedList<Integer>>();
-		heldLocks = new HashMap<Integer, LinkedList<Integer>>();
-		candidates = new HashMap<Long, HashSet<Integer>>();
-		state = new HashMap<Long, MemoryState>();
-		firstThread = new HashMap<Long, Integer>();
-		lastAccessLoc = new HashMap<Long, Integer>();
+		heldLocks = new IntHashMap<LinkedList<Integer>>();
+		memories = new LongHashMap<MemoryInfo>();
 		raceDetections = new HashMap<Long, String>();
+		sharedLocks = null;
 	}
 
 	/*
-	 * This function will execute before a target method is called.
-	 * This functions adds the iid of a method entered during 
-	 * multithreading when the target program executes.
+	 * This function is called by a CompositeAnalysis before the target
+	 * program starts. From then on the locks held by each thread are
+	 * read from the shared lock set tracker. This analysis doesn't
+	 * write any error files, so the file names are not used.
 	 */
-	public void methodEnterBefore(Integer iid, Integer thread, String method)
+	public void shareTrackers(SharedTrackers trackers, String errorListFile, String errorLogFile)
 	{
-		synchronized(stacks)
-		{
-			// Get the stack sequence of iids from the current thread.
-			LinkedList<Integer> st = stacks.get(thread);
-
-			// Check if there is a stack for the current thread.
-			if(st == null)
-            {
-				/*
-				 * Add a new empy stack to the current thread if
-				 * the thread doesn't already have a stack.
-				 */
-				st = new LinkedList<Integer>();
-				stacks.put(thread, st);
-			}
-
-			/*
-			 * Pushes the iid into the stack for this thread which 
-			 * represents the code location of a method called and
-			 * entered durign multithreading.
-			 */
-			st.addFirst(iid);
-		}
-	}
-
-	/*
-	 * This function will execute before a target method is called.
-	 * This functions removes the iid of a method exited during 
-	 * multithreading when the target program executes.
-	 */
-	public void methodExitAfter(Integer iid, Integer thread, String method)
-	{
-		synchronized(stacks)
-		{
-			// Get the stack sequence of iids from the current thread.
-			LinkedList<Integer> st = stacks.get(thread);
-			
-			// Pops the top-most iid from the stack.
-			st.removeFirst();
-		}
+		sharedLocks = trackers.getLockSetTracker();
 	}
 
 	/*
@@ -179,30 +162,23 @@ public class LocksetAnalysis extends AnalysisImpl
 	 * during multithreading and prints out the given thread's stack
 	 * trace.
 	 */
-	private void printStackTrace(Integer thread, Integer iid)
+	private void printStackTrace(int thread, int iid)
 	{
-		// Used to contain the stack of the given thread.
-		LinkedList<Integer> st;
-
 		// Start of printing the stack trace of the current thread.
 		System.out.println("Stack trace of thread:" + thread);
 		System.out.println("\tThread - " + javato.activetesting.analysis.Observer.getIidToLine(iid));
 
-		synchronized(stacks)
+		/*
+		 * Get the stack sequence of iids from the current thread. The
+		 * observer keeps it from the method enter and exit events, which
+		 * is why this analysis subscribes to them.
+		 */
+		IntStack st = javato.activetesting.analysis.Observer.callStack();
+
+		// Print each code line location of each method entered in the current thread, innermost first.
+		for(int i = 0; i < st.size(); i++)
 		{
-			// Get the stack sequence of iids from the current thread.
-			st = stacks.get(thread);
-			
-			// Check if the stack isn't empty first.
-			if (st != null)
-            {
-				// Iterate through the sequence of iids in the stack of the current thread.
-				for (Iterator<Integer> itr = st.iterator(); itr.hasNext();)
-				{
-					// Print each code line location of each method entered in the current thread.
-					System.out.println("\t" + javato.activetesting.analysis.Observer.getIidToLine(itr.next()));
-				}
-			}
+			System.out.println("\t" + javato.activetesting.analysis.Observer.getIidToLine(st.get(i)));
 		}
 	}
 
@@ -213,8 +189,14 @@ public class LocksetAnalysis extends AnalysisImpl
 	 * to the set of locks acquired for the current thread during
 	 * multithreading.
 	 */
-	public void lockBefore(Integer iid, Integer thread, Integer lock, Object actualLock)
+	public void lockBefore(int iid, int thread, int lock, Object actualLock)
 	{
+		// The shared lock set tracker has already recorded the lock.
+		if(sharedLocks != null)
+		{
+			return;
+		}
+
 		synchronized(heldLocks)
 		{
 			// Check if there is a lock set for the current thread.
@@ -251,7 +233,7 @@ public class LocksetAnalysis extends AnalysisImpl
 	 * The function will execute after entering a synchronized 
 	 * block or a synchronized method. 
 	 */
-	public void lockAfter(Integer iid, Integer thread, Integer lock, Object actualLock)
+	public void lockAfter(int iid, int thread, int lock, Object actualLock)
 	{
 
 	}
@@ -264,8 +246,14 @@ public class LocksetAnalysis extends AnalysisImpl
 	 * multithreading. This method is assumed to be executed only
 	 * after lockBefore(iid, thread, lock).
 	 */
-	public void unlockAfter(Integer iid, Integer thread, Integer lock)
+	public void unlockAfter(int iid, int thread, int lock)
 	{
+		// The shared lock set tracker has already removed the lock.
+		if(sharedLocks != null)
+		{
+			return;
+		}
+
 		synchronized(heldLocks)
 		{
 			// Check if there is a lock set for the current thread.
@@ -293,7 +281,7 @@ public class LocksetAnalysis extends AnalysisImpl
             	 * from the set of locks from the current
             	 * thread.
             	 */
-                heldLocks.get(thread).remove(lock);
+                heldLocks.get(thread).remove(Integer.valueOf(lock));
             }
 		}
 	}
@@ -301,7 +289,7 @@ public class LocksetAnalysis extends AnalysisImpl
 	/*
 	 * The function will execute before a new thread is starting. 
 	 */
-	public void startBefore(Integer iid, Integer parent, Integer child) 
+	public void startBefore(int iid, int parent, int child) 
 	{
 		
 	}
@@ -309,7 +297,7 @@ public class LocksetAnalysis extends AnalysisImpl
 	/*
 	 * The function will execute after a thread awakens from a waiting.
 	 */
-	public void waitAfter(Integer iid, Integer thread, Integer lock) 
+	public void waitAfter(int iid, int thread, int lock) 
 	{
 		
 	}
@@ -317,7 +305,7 @@ public class LocksetAnalysis extends AnalysisImpl
 	/*
 	 * The function will execute before notify(). 
 	 */
-	public void notifyBefore(Integer iid, Integer thread, Integer lock) 
+	public void notifyBefore(int iid, int thread, int lock) 
 	{
 		
 	}
@@ -325,7 +313,7 @@ public class LocksetAnalysis extends AnalysisImpl
 	/*
 	 * The function will execute before notifyAll(). 
 	 */
-	public void notifyAllBefore(Integer iid, Integer thread, Integer lock) 
+	public void notifyAllBefore(int iid, int thread, int lock) 
 	{
 		
 	}
@@ -333,7 +321,7 @@ public class LocksetAnalysis extends AnalysisImpl
 	/*
 	 * The function will execute after joining with a child thread.
 	 */
-	public void joinAfter(Integer iid, Integer parent, Integer child) 
+	public void joinAfter(int iid, int parent, int child) 
 	{
 		
 	}
@@ -365,20 +353,22 @@ public class LocksetAnalysis extends AnalysisImpl
      * the memory state will remain as Shared-Modifed and check for data 
      * race detections.
      */
-	public void readBefore(Integer iid, Integer thread, Long memory, boolean isVolatile)
+	public void readBefore(int iid, int thread, long memory, boolean isVolatile)
 	{
 		// Check if the memory location's memory state is recorded already.
-		if(!state.containsKey(memory))
+		MemoryInfo info = memories.get(memory);
+		if(info == null)
 		{
 			/*
 			 * If the state isn't already recorded for the memory location,
 			 * intialize the memory location as memory state Virgin.
 			 */
-			state.put(memory, MemoryState.Virgin);
+			info = new MemoryInfo();
+			memories.put(memory, info);
 		}
 
 		// Get the current memory state of the current memory location.
-		MemoryState currentState = state.get(memory);
+		MemoryState currentState = info.state;
 
 		// Make memory state changes for an Exclusive state.
 		if(currentState == MemoryState.Exclusive)
@@ -388,7 +378,7 @@ public class LocksetAnalysis extends AnalysisImpl
 			 * memory location different from the thread
 			 * that first accessed the memory location.
 			 */
-			if(firstThread.get(memory) != thread)
+			if(info.firstThread != thread)
 			{
 				/*
 				 * If a new thread is accessing the memory 
@@ -397,8 +387,8 @@ public class LocksetAnalysis extends AnalysisImpl
 				 * intersect the candidate lockset C(v) and 
 				 * the lockset of the current thread L(t).
 				 */
-                state.put(memory, MemoryState.Shared);
-                intersectLocks(memory, thread);
+                info.state = MemoryState.Shared;
+                intersectLocks(info, thread);
 			}
 		}
 
@@ -410,7 +400,7 @@ public class LocksetAnalysis extends AnalysisImpl
 			 * lockset of the memory location C(v) and the lockset 
 			 * of the current thread L(t).
 			 */
-			intersectLocks(memory, thread);
+			intersectLocks(info, thread);
 		}
 
 		// Make memory state changes for a Shared-Modified state.
@@ -421,14 +411,14 @@ public class LocksetAnalysis extends AnalysisImpl
 			 * lockset of the memory location C(v) and the lockset 
 			 * of the current thread L(t).
 			 */
-			intersectLocks(memory, thread);
+			intersectLocks(info, thread);
 
 			/*
 			 * Check if the memory location is volatile and the
 			 * current candidate lockset of the memory location
 			 * C(v) is empty after intersecting locksets.
 			 */
-			if(!isVolatile && candidates.get(memory).isEmpty())
+			if(!isVolatile && info.candidates.isEmpty())
             {
 				/*
 				 * If so, print the stack trace of the current thread
@@ -438,7 +428,7 @@ public class LocksetAnalysis extends AnalysisImpl
 				 * occurs.
 				 */
                 printStackTrace(thread, iid);
-                System.out.println("Last accessed memory location: " + javato.activetesting.analysis.Observer.getIidToLine(lastAccessLoc.get(memory)));
+                System.out.println("Last accessed memory location: " + javato.activetesting.analysis.Observer.getIidToLine(info.lastAccessLoc));
                 raceDetections.put(memory, javato.activetesting.analysis.Observer.getIidToLine(iid));
             }
 		}
@@ -448,13 +438,13 @@ public class LocksetAnalysis extends AnalysisImpl
 		 * get the iid of the last access to the memory location before
 		 * the data race occurs.
 		 */
-		lastAccessLoc.put(memory, iid);
+		info.lastAccessLoc = iid;
 	}
 
 	/*
      * This function will execute after every read operation.
      */
-	public void readAfter(Integer iid, Integer thread, Long memory, boolean isVolatile)
+	public void readAfter(int iid, int thread, long memory, boolean isVolatile)
 	{
 		
 	}
@@ -487,26 +477,28 @@ public class LocksetAnalysis extends AnalysisImpl
      * the memory state will remain as Shared-Modified and check for data 
      * race detections.
      */
-	public void writeBefore(Integer iid, Integer thread, Long memory, boolean isVolatile)
+	public void writeBefore(int iid, int thread, long memory, boolean isVolatile)
 	{
 		/*
 		 * Check if the memory location's memory 
 		 * state is recorded already.
 		 */
-		if(!state.containsKey(memory))
+		MemoryInfo info = memories.get(memory);
+		if(info == null)
 		{
 			/*
 			 * If the state isn't already recorded for the memory location,
 			 * intialize the memory location as memory state Virgin.
 			 */
-			state.put(memory, MemoryState.Virgin);
+			info = new MemoryInfo();
+			memories.put(memory, info);
 		}
 		
 		/*
 		 * Get the current memory state of the 
 		 * current memory location.
 		 */
-		MemoryState currentState = state.get(memory);
+		MemoryState currentState = info.state;
 
 		// Make memory state changes for a Virgin state.
 		if(currentState == MemoryState.Virgin)
@@ -517,8 +509,8 @@ public class LocksetAnalysis extends AnalysisImpl
 			 * the first thread that accesses the memory
 			 * location.
 			 */
-            state.put(memory, MemoryState.Exclusive);
-            firstThread.put(memory, thread);
+            info.state = MemoryState.Exclusive;
+            info.firstThread = thread;
 		}
 
 		// Make memory state changes for an Exclusive state.
@@ -529,7 +521,7 @@ public class LocksetAnalysis extends AnalysisImpl
 			 * memory location different from the thread
 			 * that first accessed the memory location.
 			 */
-			if(firstThread.get(memory) != thread)
+			if(info.firstThread != thread)
 			{
 				/*
 				 * If a new thread is accessing the memory 
@@ -538,10 +530,10 @@ public class LocksetAnalysis extends AnalysisImpl
 				 * and intersect the candidate lockset C(v) and 
 				 * the lockset of the current thread L(t).
 				 */
-                state.put(memory, MemoryState.SharedModified); 
-                intersectLocks(memory, thread);
+                info.state = MemoryState.SharedModified; 
+                intersectLocks(info, thread);
                 
-                if(!isVolatile && candidates.get(memory).isEmpty())
+                if(!isVolatile && info.candidates.isEmpty())
                 {
                 	/*
     				 * If so, print the stack trace of the current thread
@@ -551,7 +543,7 @@ public class LocksetAnalysis extends AnalysisImpl
     				 * occurs.
     				 */
                     printStackTrace(thread, iid);
-                    System.out.println("Last accessed memory location: " + javato.activetesting.analysis.Observer.getIidToLine(lastAccessLoc.get(memory)));
+                    System.out.println("Last accessed memory location: " + javato.activetesting.analysis.Observer.getIidToLine(info.lastAccessLoc));
                     raceDetections.put(memory, javato.activetesting.analysis.Observer.getIidToLine(iid));
                 }
 			}
@@ -565,8 +557,8 @@ public class LocksetAnalysis extends AnalysisImpl
 			 * to Shared-Modified and intersect the candidate lockset 
 			 * C(v) and the lockset of the current thread L(t).
 			 */
-            state.put(memory, MemoryState.SharedModified);
-            intersectLocks(memory, thread);
+            info.state = MemoryState.SharedModified;
+            intersectLocks(info, thread);
 		}
 
 		// Make memory state changes for an Shared-Modified state.
@@ -577,14 +569,14 @@ public class LocksetAnalysis extends AnalysisImpl
 			 * lockset of the memory location C(v) and the lockset 
 			 * of the current thread L(t).
 			 */
-			intersectLocks(memory, thread);
+			intersectLocks(info, thread);
 
 			/*
 			 * Check if the memory location is volatile and the
 			 * current candidate lockset of the memory location
 			 * C(v) is empty after intersecting locksets.
 			 */
-			if(!isVolatile && candidates.get(memory).isEmpty())
+			if(!isVolatile && info.candidates.isEmpty())
             {
 				/*
 				 * If so, print the stack trace of the current thread
@@ -594,7 +586,7 @@ public class LocksetAnalysis extends AnalysisImpl
 				 * occurs.
 				 */
                 printStackTrace(thread, iid);
-                System.out.println("Last accessed memory location: " + javato.activetesting.analysis.Observer.getIidToLine(lastAccessLoc.get(memory)));
+                System.out.println("Last accessed memory location: " + javato.activetesting.analysis.Observer.getIidToLine(info.lastAccessLoc));
                 raceDetections.put(memory, javato.activetesting.analysis.Observer.getIidToLine(iid));
             }
 		}
@@ -604,13 +596,13 @@ public class LocksetAnalysis extends AnalysisImpl
 		 * get the iid of the last access to the memory location before
 		 * the data race occurs.
 		 */
-		lastAccessLoc.put(memory, iid);
+		info.lastAccessLoc = iid;
 	}
 
 	/*
      * This function will execute after every write operation.
      */
-	public void writeAfter(Integer iid, Integer thread, Long memory, boolean isVolatile)
+	public void writeAfter(int iid, int thread, long memory, boolean isVolatile)
 	{
 
 	}
@@ -621,7 +613,7 @@ public class LocksetAnalysis extends AnalysisImpl
 	 * location C(v) and the locks currently held by a given thread L(t) 
 	 * and having C(v) equal the resulting intersection of locks.
 	 */
-	private void intersectLocks(Long memory, Integer thread)
+	private void intersectLocks(MemoryInfo info, int thread)
 	{
 		/*
 		 * Check if there is a candidate lockset provided for
@@ -629,7 +621,7 @@ public class LocksetAnalysis extends AnalysisImpl
 		 * considered the first update to the candidate lockset
 		 * of the memory location C(v).
 		 */
-		if(!candidates.containsKey(memory))
+		if(info.candidates == null)
 		{
 			/*
 			 * If so, copy the locks held by the current thread L(t)
@@ -639,26 +631,10 @@ public class LocksetAnalysis extends AnalysisImpl
 			 * held locks of the current thread should just be the
 			 * same locks held by the current thread.
 			 */
-			HashSet<Integer> lockset = new HashSet<Integer>();
-			
-			// Check if the HashMap contains the thread already.
-			if(heldLocks.containsKey(thread))
-			{
-				for(int i = 0; i < heldLocks.get(thread).size(); i++)
-				{
-					lockset.add(heldLocks.get(thread).get(i));
-				}
-			}
-			
-			// Add a lockset to the thread is there isn't one added already.
-			else
-			{
-				LinkedList<Integer> locks = new LinkedList<Integer>();
-				heldLocks.put(thread, locks);
-			}
+			HashSet<Integer> lockset = new HashSet<Integer>(locksHeldBy(thread));
 			
 			// Update the candidate lockset for the memory location.
-			candidates.put(memory, lockset);
+			info.candidates = lockset;
 		}
 		
 		/*
@@ -669,14 +645,40 @@ public class LocksetAnalysis extends AnalysisImpl
 		 */
 		else
 		{
-			// Check if the HashMap contains the thread already. If not, add a lockset to the thread.
-			if(!heldLocks.containsKey(thread))
+			/*
+			 * Nothing can be removed from an empty C(v), so skip the
+			 * intersection once the memory location has no candidate
+			 * locks left.
+			 */
+			if(!info.candidates.isEmpty())
 			{
-				LinkedList<Integer> locks = new LinkedList<Integer>();
+				info.candidates.retainAll(locksHeldBy(thread));
+			}
+		}
+	}
+
+	/*
+	 * This function returns L(t), the locks currently held by the given
+	 * thread, either from heldLocks or from the shared lock set tracker.
+	 * The returned collection must not be modified.
+	 */
+	private Collection<Integer> locksHeldBy(int thread)
+	{
+		if(sharedLocks != null)
+		{
+			return sharedLocks.getLockSet(thread);
+		}
+
+		synchronized(heldLocks)
+		{
+			// Add a lockset to the thread if there isn't one added already.
+			LinkedList<Integer> locks = heldLocks.get(thread);
+			if(locks == null)
+			{
+				locks = new LinkedList<Integer>();
 				heldLocks.put(thread, locks);
 			}
-			
-			candidates.get(memory).retainAll(heldLocks.get(thread));
+			return locks;
 		}
 	}
 
@@ -690,7 +692,7 @@ public class LocksetAnalysis extends AnalysisImpl
 	public void finish()
 	{
 		System.out.println("Lockset Analysis -");
-		System.out.println("Total # of data race detections: " + lastAccessLoc.size());
+		System.out.println("Total # of data race detections: " + memories.size());
 		
 		// Identify the memory locations and code line locations of each data race.
 		System.out.println("Memory Location:\tCode Location:");
@@ -702,7 +704,7 @@ public class LocksetAnalysis extends AnalysisImpl
 			 * Get the memory and code locations from the 
 			 * HashMap's Key and Value.
 			 */
-			Long memory = entry.getKey();
+			long memory = entry.getKey();
 			String code = entry.getValue();
 			
 			// Print the data race's memory location and code line location.
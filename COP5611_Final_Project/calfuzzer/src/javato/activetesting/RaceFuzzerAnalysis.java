@@ -2,6 +2,9 @@ package javato.activetesting;
 
 import javato.activetesting.activechecker.ActiveChecker;
 import javato.activetesting.analysis.CheckerAnalysisImpl;
+import javato.activetesting.analysis.EventKind;
+import javato.activetesting.analysis.ObserverForActiveTesting;
+import javato.activetesting.analysis.Subscribes;
 import javato.activetesting.common.Parameters;
 import javato.activetesting.hybridracedetection.CommutativePair;
 import javato.activetesting.hybridracedetection.HybridRaceTracker;
@@ -44,6 +47,7 @@ import java.io.IOException;
  * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
  * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
+@Subscribes({EventKind.LOCK_BEFORE, EventKind.START_AFTER, EventKind.READ_BEFORE, EventKind.WRITE_BEFORE})
 public class RaceFuzzerAnalysis extends CheckerAnalysisImpl {
     private CommutativePair racePair;
 
@@ -52,10 +56,23 @@ public class RaceFuzzerAnalysis extends CheckerAnalysisImpl {
             LinkedHashSet<CommutativePair> seenRaces = HybridRaceTracker.getRacesFromFile();
             racePair = (CommutativePair) (seenRaces.toArray())[Parameters.errorId - 1];
         }
+        if (getClass().getName().equals(Parameters.analysisClass)) {
+            // only the accesses of the race to be created need to call in;
+            // not done under CompositeAnalysis, whose other analyses need them all
+            ObserverForActiveTesting.disableEvent(EventKind.READ_BEFORE);
+            ObserverForActiveTesting.disableEvent(EventKind.WRITE_BEFORE);
+            if (!Parameters.trackLockRaces) {
+                ObserverForActiveTesting.disableEvent(EventKind.LOCK_BEFORE);
+            }
+            if (racePair != null) {
+                ObserverForActiveTesting.enableIid(racePair.getX());
+                ObserverForActiveTesting.enableIid(racePair.getY());
+            }
+        }
         //System.out.println("IID pairs "+racePair);
     }
 
-    public void lockBefore(Integer iid, Integer thread, Integer lock, Object actualLock) {
+    public void lockBefore(int iid, int thread, int lock, Object actualLock) {
         if (Parameters.trackLockRaces) {
             if (racePair != null && racePair.contains(iid)) {
                 synchronized (ActiveChecker.lock) {
@@ -66,22 +83,16 @@ public class RaceFuzzerAnalysis extends CheckerAnalysisImpl {
         }
     }
 
-    public void unlockAfter(Integer iid, Integer thread, Integer lock) {
-    }
-
-    public void newExprAfter(Integer iid, Integer object, Integer objOnWhichMethodIsInvoked) {
-    }
-
-    public void methodEnterBefore(Integer iid, Integer thread) {
+    public void unlockAfter(int iid, int thread, int lock) {
     }
 
-    public void methodExitAfter(Integer iid, Integer thread) {
+    public void newExprAfter(int iid, int object, int objOnWhichMethodIsInvoked) {
     }
 
-    public void startBefore(Integer iid, Integer parent, Integer child) {
+    public void startBefore(int iid, int parent, int child) {
     }
 
-    public void startAfter(Integer iid, Integer parent, Object child) {
+    public void startAfter(int iid, int parent, Object child) {
         try {
             Thread.sleep(Parameters.afterStartSleepDuration);
         } catch (InterruptedException ex) {
@@ -89,19 +100,19 @@ public class RaceFuzzerAnalysis extends CheckerAnalysisImpl {
         }
     }
     
-    public void waitAfter(Integer iid, Integer thread, Integer lock) {
+    public void waitAfter(int iid, int thread, int lock) {
     }
 
-    public void notifyBefore(Integer iid, Integer thread, Integer lock) {
+    public void notifyBefore(int iid, int thread, int lock) {
     }
 
-    public void notifyAllBefore(Integer iid, Integer thread, Integer lock) {
+    public void notifyAllBefore(int iid, int thread, int lock) {
     }
 
-    public void joinAfter(Integer iid, Integer parent, Integer child) {
+    public void joinAfter(int iid, int parent, int child) {
     }
 
-    public void readBefore(Integer iid, Integer thread, Long memory, boolean isVolatile) {
+    public void readBefore(int iid, int thread, long memory, boolean isVolatile) {
         if (racePair != null && racePair.contains(iid)) {
             //System.out.println("read ...");
             synchronized (ActiveChecker.lock) {
@@ -111,11 +122,11 @@ public class RaceFuzzerAnalysis extends CheckerAnalysisImpl {
         }
     }
 
-    public void readAfter(Integer iid, Integer thread, Long memory, boolean isVolatile) {
+    public void readAfter(int iid, int thread, long memory, boolean isVolatile) {
 		}
 
 
-    public void writeBefore(Integer iid, Integer thread, Long memory, boolean isVolatile) {
+    public void writeBefore(int iid, int thread, long memory, boolean isVolatile) {
         if (racePair != null && racePair.contains(iid)) {
             //System.out.println("write ...");
             synchronized (ActiveChecker.lock) {
@@ -125,7 +136,7 @@ public class RaceFuzzerAnalysis extends CheckerAnalysisImpl {
         }
     }
 
-    public void writeAfter(Integer iid, Integer thread, Long memory, boolean isVolatile) {
+    public void writeAfter(int iid, int thread, long memory, boolean isVolatile) {
 		}
 
     public void finish() {
@@ -0,0 +1,162 @@
+package javato.activetesting;
+
+import javato.activetesting.analysis.PrimitiveAnalysisImpl;
+import javato.activetesting.common.Parameters;
+import javato.activetesting.trace.TraceWriter;
+
+import java.io.File;
+import java.io.IOException;
+
+import static javato.activetesting.trace.TraceFormat.*;
+
+/**
+ * Copyright (c) 2007-2008,
+ * Koushik Sen    <ksen@cs.berkeley.edu>
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * <p/>
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * <p/>
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * <p/>
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class TraceRecordingAnalysis extends PrimitiveAnalysisImpl {
+    private TraceWriter writer;
+
+    public void initialize() {
+        try {
+            writer = new TraceWriter(new File(Parameters.traceDir), (long) Parameters.traceSegmentMB << 20,
+                    Parameters.traceMaxValues);
+        } catch (IOException e) {
+            System.err.println("Cannot create trace in " + Parameters.traceDir);
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    public void lockBefore(int iid, int thread, int lock, Object actualLock) {
+        writer.write(LOCK_BEFORE, false, iid, thread, lock, 0);
+    }
+
+    public void lockAfter(int iid, int thread, int lock, Object actualLock) {
+        writer.write(LOCK_AFTER, false, iid, thread, lock, 0);
+    }
+
+    public void unlockAfter(int iid, int thread, int lock) {
+        writer.write(UNLOCK_AFTER, false, iid, thread, lock, 0);
+    }
+
+    public void newExprAfter(int iid, int object, int objOnWhichMethodIsInvoked) {
+        writer.write(NEW_EXPR_AFTER, false, iid, object, objOnWhichMethodIsInvoked, 0);
+    }
+
+    public void methodEnterBefore(int iid, int thread, int method) {
+        writer.write(METHOD_ENTER_BEFORE, false, iid, thread, method, 0);
+    }
+
+    public void methodExitAfter(int iid, int thread, int method) {
+        writer.write(METHOD_EXIT_AFTER, false, iid, thread, method, 0);
+    }
+
+    public void startBefore(int iid, int parent, int child) {
+        writer.write(START_BEFORE, false, iid, parent, child, 0);
+    }
+
+    public void startAfter(int iid, int parent, Object child) {
+        writer.write(START_AFTER, false, iid, parent, 0, 0);
+    }
+
+    public void waitBefore(int iid, int thread, int lock) {
+        writer.write(WAIT_BEFORE, false, iid, thread, lock, 0);
+    }
+
+    public void waitAfter(int iid, int thread, int lock) {
+        writer.write(WAIT_AFTER, false, iid, thread, lock, 0);
+    }
+
+    public void notifyBefore(int iid, int thread, int lock) {
+        writer.write(NOTIFY_BEFORE, false, iid, thread, lock, 0);
+    }
+
+    public void notifyAllBefore(int iid, int thread, int lock) {
+        writer.write(NOTIFY_ALL_BEFORE, false, iid, thread, lock, 0);
+    }
+
+    public void joinAfter(int iid, int parent, int child) {
+        writer.write(JOIN_AFTER, false, iid, parent, child, 0);
+    }
+
+    public void readBefore(int iid, int thread, long memory, boolean isVolatile) {
+        writer.write(READ_BEFORE, isVolatile, iid, thread, 0, memory);
+    }
+
+    public void readAfter(int iid, int thread, long memory, boolean isVolatile) {
+        writer.write(READ_AFTER, isVolatile, iid, thread, 0, memory);
+    }
+
+    public void writeBefore(int iid, int thread, long memory, boolean isVolatile) {
+        writer.write(WRITE_BEFORE, isVolatile, iid, thread, 0, memory);
+    }
+
+    public void writeAfter(int iid, int thread, long memory, boolean isVolatile) {
+        writer.write(WRITE_AFTER, isVolatile, iid, thread, 0, memory);
+    }
+
+    public void writeAfter(int iid, int thread, String local, Object value, String type) {
+        long v = ((long) writer.stringId(type) << 32) | (writer.valueId(String.valueOf(value)) & 0xffffffffL);
+        writer.write(LOCAL_WRITE_AFTER, false, iid, thread, writer.stringId(local), v);
+    }
+
+    public void writePrimitiveAfter(int iid, int thread, String local, long bits, String type) {
+        writer.write(LOCAL_PRIMITIVE_WRITE_AFTER, false, iid, thread, writer.stringId(local + '\0' + type), bits);
+    }
+
+    public void openDeterministicBlock(int bid) {
+        writer.write(OPEN_DETERMINISTIC_BLOCK, false, 0, bid, 0, 0);
+    }
+
+    public void closeDeterministicBlock(int bid) {
+        writer.write(CLOSE_DETERMINISTIC_BLOCK, false, 0, bid, 0, 0);
+    }
+
+    public void requireDeterministic(int thread, Object invariant) {
+        writer.write(REQUIRE_DETERMINISTIC, false, 0, thread, 0, writer.valueId(String.valueOf(invariant)));
+    }
+
+    public void assertDeterministic(int thread, Object invariant) {
+        writer.write(ASSERT_DETERMINISTIC, false, 0, thread, 0, writer.valueId(String.valueOf(invariant)));
+    }
+
+    public void finish() {
+        try {
+            long n = writer.close();
+            System.out.println("Recorded " + n + " events to " + Parameters.traceDir);
+            if (writer.getDroppedValues() > 0) {
+                System.out.println(writer.getDroppedValues() + " values were not recorded, raise javato.trace.values.max to keep them");
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
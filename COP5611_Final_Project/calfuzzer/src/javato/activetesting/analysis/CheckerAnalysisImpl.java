@@ -36,7 +36,7 @@ import javato.activetesting.scheduler.StallBreaker;
  * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
  * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
-abstract public class CheckerAnalysisImpl extends Thread implements Analysis {
+abstract public class CheckerAnalysisImpl extends Thread implements PrimitiveAnalysis {
     public CheckerAnalysisImpl() {
         initialize();
         (new LivelockBreaker(Parameters.livelockCheckerInterval)).start();
@@ -50,25 +50,28 @@ abstract public class CheckerAnalysisImpl extends Thread implements Analysis {
 
     /* Default implementations. */
     public void initialize() { }
-    public void lockBefore(Integer iid, Integer thread, Integer lock, Object actualLock) { }
-    public void lockAfter(Integer iid, Integer thread, Integer lock, Object actualLock) { }
-    public void unlockAfter(Integer iid, Integer thread, Integer lock) { }
-    public void newExprAfter(Integer iid, Integer object, Integer objOnWhichMethodIsInvoked) { }
-    public void methodEnterBefore(Integer iid, Integer thread, String method) { }
-    public void methodExitAfter(Integer iid, Integer thread, String method) { }
-    public void startBefore(Integer iid, Integer parent, Integer child) { }
-    public void startAfter(Integer iid, Integer parent, Object child) { }
-    public void waitBefore(Integer iid, Integer thread, Integer lock) { }
-    public void waitAfter(Integer iid, Integer thread, Integer lock) { }
-    public void notifyBefore(Integer iid, Integer thread, Integer lock) { }
-    public void notifyAllBefore(Integer iid, Integer thread, Integer lock) { }
-    public void joinAfter(Integer iid, Integer parent, Integer child) { }
-    public void readBefore(Integer iid, Integer thread, Long memory, boolean isVolatile) { }
-    public void writeBefore(Integer iid, Integer thread, Long memory, boolean isVolatile) { }
-    public void writeAfter(Integer iid, Thread thread, String local, Object value, String type) { }
-    public void openDeterministicBlock(Integer bid) { }
-    public void closeDeterministicBlock(Integer bid) { }
-    public void requireDeterministic(Integer thread, Object invariant) { }
-    public void assertDeterministic(Integer thread, Object invariant) { }
+    public void lockBefore(int iid, int thread, int lock, Object actualLock) { }
+    public void lockAfter(int iid, int thread, int lock, Object actualLock) { }
+    public void unlockAfter(int iid, int thread, int lock) { }
+    public void newExprAfter(int iid, int object, int objOnWhichMethodIsInvoked) { }
+    public void methodEnterBefore(int iid, int thread, int method) { }
+    public void methodExitAfter(int iid, int thread, int method) { }
+    public void startBefore(int iid, int parent, int child) { }
+    public void startAfter(int iid, int parent, Object child) { }
+    public void waitBefore(int iid, int thread, int lock) { }
+    public void waitAfter(int iid, int thread, int lock) { }
+    public void notifyBefore(int iid, int thread, int lock) { }
+    public void notifyAllBefore(int iid, int thread, int lock) { }
+    public void joinAfter(int iid, int parent, int child) { }
+    public void readBefore(int iid, int thread, long memory, boolean isVolatile) { }
+    public void readAfter(int iid, int thread, long memory, boolean isVolatile) { }
+    public void writeBefore(int iid, int thread, long memory, boolean isVolatile) { }
+    public void writeAfter(int iid, int thread, long memory, boolean isVolatile) { }
+    public void writeAfter(int iid, int thread, String local, Object value, String type) { }
+    public void writePrimitiveAfter(int iid, int thread, String local, long bits, String type) { }
+    public void openDeterministicBlock(int bid) { }
+    public void closeDeterministicBlock(int bid) { }
+    public void requireDeterministic(int thread, Object invariant) { }
+    public void assertDeterministic(int thread, Object invariant) { }
     public void finish() { }
 }
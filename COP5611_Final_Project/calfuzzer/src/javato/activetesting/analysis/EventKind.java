@@ -0,0 +1,193 @@
+package javato.activetesting.analysis;
+
+import javato.activetesting.common.Parameters;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.EnumSet;
+
+/**
+ * Copyright (c) 2007-2008,
+ * Koushik Sen    <ksen@cs.berkeley.edu>
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * <p/>
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * <p/>
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * <p/>
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+/**
+ * The callbacks of {@link PrimitiveAnalysis}. An analysis lists the ones it
+ * uses with {@link Subscribes}, or with a static subscribedEvents() method
+ * when that depends on its configuration, and the instrumentor leaves out
+ * the calls for the others. Analyses that declare nothing get every event.
+ */
+public enum EventKind {
+    LOCK_BEFORE,
+    LOCK_AFTER,
+    UNLOCK_AFTER,
+    NEW_EXPR_AFTER,
+    METHOD_ENTER_BEFORE,
+    METHOD_EXIT_AFTER,
+    START_BEFORE,
+    START_AFTER,
+    WAIT_BEFORE,
+    WAIT_AFTER,
+    NOTIFY_BEFORE,
+    NOTIFY_ALL_BEFORE,
+    JOIN_AFTER,
+    READ_BEFORE,
+    READ_AFTER,
+    WRITE_BEFORE,
+    WRITE_AFTER,
+    // writeAfter and writePrimitiveAfter for tracked locals
+    LOCAL_WRITE_AFTER,
+    // deterministic blocks, requireDeterministic and assertDeterministic
+    DETERMINISM;
+
+    // set by the load-time agent, which instruments in this very process
+    private static EnumSet<EventKind> loadTimeEvents;
+
+    @SuppressWarnings("unchecked")
+    public static EnumSet<EventKind> subscribedBy(Class<?> c) {
+        try {
+            Method m = c.getMethod("subscribedEvents");
+            if (Modifier.isStatic(m.getModifiers())) {
+                return EnumSet.copyOf((EnumSet<EventKind>) m.invoke(null));
+            }
+        } catch (NoSuchMethodException e) {
+            // fall back to the annotation
+        } catch (Exception e) {
+            System.err.println("Cannot get the events of " + c.getName());
+            e.printStackTrace();
+            System.exit(1);
+        }
+        Subscribes s = c.getAnnotation(Subscribes.class);
+        if (s == null) {
+            return EnumSet.allOf(EventKind.class);
+        }
+        EnumSet<EventKind> ret = EnumSet.noneOf(EventKind.class);
+        ret.addAll(Arrays.asList(s.value()));
+        return ret;
+    }
+
+    /**
+     * The events the named analysis consumes; all of them if the name is null.
+     * Does not instantiate the analysis.
+     */
+    public static EnumSet<EventKind> subscribedBy(String analysisClass) {
+        if (analysisClass == null || analysisClass.length() == 0) {
+            return EnumSet.allOf(EventKind.class);
+        }
+        try {
+            return subscribedBy(Class.forName(analysisClass.trim(), false, EventKind.class.getClassLoader()));
+        } catch (ClassNotFoundException e) {
+            System.err.println("Cannot find Analysis class: " + analysisClass);
+            System.exit(1);
+            return null;
+        }
+    }
+
+    /**
+     * The events to instrument for: those of the analyses in
+     * javato.instr.analyses, or else of javato.activetesting.analysis.class,
+     * or else all of them.
+     */
+    public static EnumSet<EventKind> forInstrumentation() {
+        if (Parameters.instrAnalyses.length() == 0) {
+            return subscribedBy(Parameters.analysisClass);
+        }
+        EnumSet<EventKind> ret = EnumSet.noneOf(EventKind.class);
+        for (String a : Parameters.instrAnalyses.split(",")) {
+            ret.addAll(subscribedBy(a));
+        }
+        return ret;
+    }
+
+    public static boolean any(EnumSet<EventKind> events, EventKind... kinds) {
+        for (EventKind k : kinds) {
+            if (events.contains(k)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Records which events the program was instrumented with, so that an
+     * analysis needing others can refuse to run rather than miss them.
+     */
+    public static void write(String file, EnumSet<EventKind> events) {
+        try {
+            PrintWriter pw = new PrintWriter(new FileWriter(file));
+            for (EventKind k : events) {
+                pw.println(k.name());
+            }
+            pw.close();
+        } catch (IOException e) {
+            System.err.println("Error while writing to " + file);
+            System.exit(1);
+        }
+    }
+
+    public static void setInstrumented(EnumSet<EventKind> events) {
+        loadTimeEvents = events;
+    }
+
+    /**
+     * The events the running program was instrumented with, or null if
+     * unknown, i.e. for older instrumentations.
+     */
+    public static EnumSet<EventKind> instrumented() {
+        if (loadTimeEvents != null) {
+            return loadTimeEvents;
+        }
+        return read(Parameters.instrEventsFile);
+    }
+
+    /**
+     * Returns null if the file does not exist, i.e. for older instrumentations.
+     */
+    public static EnumSet<EventKind> read(String file) {
+        try {
+            BufferedReader in = new BufferedReader(new FileReader(file));
+            EnumSet<EventKind> ret = EnumSet.noneOf(EventKind.class);
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.trim().length() > 0) {
+                    ret.add(valueOf(line.trim()));
+                }
+            }
+            in.close();
+            return ret;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
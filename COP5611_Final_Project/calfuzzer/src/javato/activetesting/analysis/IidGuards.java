@@ -0,0 +1,156 @@
+package javato.activetesting.analysis;
+
+import javato.activetesting.common.Parameters;
+
+/**
+ * Copyright (c) 2007-2008,
+ * Koushik Sen    <ksen@cs.berkeley.edu>
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * <p/>
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * <p/>
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * <p/>
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+/**
+ * Switches for the call sites of the instrumented program, indexed by iid.
+ * Code instrumented with javato.iid.guards reads off[iid] before a call into
+ * the observer and skips the call if it is set, so a site that is switched
+ * off costs an array load and a branch. Analyses switch sites through
+ * {@link ObserverForActiveTesting}.
+ * <p/>
+ * A site is switched by its iid, or along with all sites of its event kind
+ * unless its iid was switched on or off by itself. The kind of a site is
+ * learned the first time it reaches the observer while its kind is off.
+ * <p/>
+ * The table is read without locking: a thread may see a switch only at its
+ * next synchronization, and a site may report a few events after it was
+ * switched off.
+ */
+public final class IidGuards {
+    private static final byte DEFAULT = 0;
+    private static final byte FORCED_ON = 1;
+    private static final byte FORCED_OFF = 2;
+
+    // replaced by a longer copy when it grows; the instrumented code reads it
+    // through isOff, as iids past the end of the table are never switched off
+    private static boolean[] off = new boolean[Math.max(1, Observer.readInteger(Parameters.iidCountFile, 0))];
+    private static byte[] overrides = new byte[off.length];
+    // 1 + the ordinal of the kind that switched an iid off, or 0
+    private static byte[] kinds = new byte[off.length];
+    private static final boolean[] kindOff = new boolean[EventKind.values().length];
+
+    private IidGuards() {
+    }
+
+    /**
+     * Called for every event that passed its guard. True if the event kind
+     * is switched off for this site, which is then switched off too.
+     */
+    public static boolean skip(int iid, EventKind kind) {
+        if (!kindOff[kind.ordinal()]) return false;
+        byte[] o = overrides;
+        if (iid < o.length && o[iid] == FORCED_ON) return false;
+        byte[] k = kinds;
+        if (iid < k.length && k[iid] == kind.ordinal() + 1) return true;
+        return switchOff(iid, kind);
+    }
+
+    private static synchronized boolean switchOff(int iid, EventKind kind) {
+        if (!kindOff[kind.ordinal()]) return false;
+        ensureCapacity(iid + 1);
+        if (overrides[iid] == FORCED_ON) return false;
+        kinds[iid] = (byte) (kind.ordinal() + 1);
+        off[iid] = true;
+        return true;
+    }
+
+    /**
+     * Switches a site off for good unless it was switched on by itself; for
+     * sites whose events would all be dropped anyway.
+     */
+    public static void retire(int iid) {
+        boolean[] g = off;
+        if (iid < g.length && g[iid]) return;
+        synchronized (IidGuards.class) {
+            ensureCapacity(iid + 1);
+            if (overrides[iid] != FORCED_ON) {
+                off[iid] = true;
+            }
+        }
+    }
+
+    public static synchronized void setIid(int iid, boolean on) {
+        ensureCapacity(iid + 1);
+        overrides[iid] = on ? FORCED_ON : FORCED_OFF;
+        kinds[iid] = 0;
+        off[iid] = !on;
+    }
+
+    /**
+     * Lets the kind of the site decide again whether the site is on.
+     */
+    public static synchronized void resetIid(int iid) {
+        ensureCapacity(iid + 1);
+        overrides[iid] = DEFAULT;
+        off[iid] = false;
+    }
+
+    public static synchronized void setKind(EventKind kind, boolean on) {
+        kindOff[kind.ordinal()] = !on;
+        if (on) {
+            byte k = (byte) (kind.ordinal() + 1);
+            for (int i = 0; i < kinds.length; i++) {
+                if (kinds[i] == k) {
+                    kinds[i] = 0;
+                    off[i] = overrides[i] == FORCED_OFF;
+                }
+            }
+        }
+    }
+
+    public static boolean isOff(int iid) {
+        boolean[] g = off;
+        return iid < g.length && g[iid];
+    }
+
+    /**
+     * Makes room for iids below size; the load-time agent calls this before
+     * it hands out a class using new iids.
+     */
+    public static synchronized void ensureCapacity(int size) {
+        if (size <= off.length) return;
+        size = Math.max(size, off.length * 2);
+        byte[] o = new byte[size];
+        System.arraycopy(overrides, 0, o, 0, overrides.length);
+        byte[] k = new byte[size];
+        System.arraycopy(kinds, 0, k, 0, kinds.length);
+        boolean[] g = new boolean[size];
+        System.arraycopy(off, 0, g, 0, off.length);
+        overrides = o;
+        kinds = k;
+        off = g;
+    }
+}
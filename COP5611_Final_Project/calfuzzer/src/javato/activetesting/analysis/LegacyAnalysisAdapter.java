@@ -0,0 +1,162 @@
+package javato.activetesting.analysis;
+
+/**
+ * Copyright (c) 2007-2008,
+ * Koushik Sen    <ksen@cs.berkeley.edu>
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * <p/>
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * <p/>
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * <p/>
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+/**
+ * Lets an analysis written against the boxed {@link Analysis} interface run
+ * behind the primitive observer.  Boxing now happens here, once per event,
+ * and only for analyses that have not been ported.
+ */
+public class LegacyAnalysisAdapter implements PrimitiveAnalysis {
+    private final Analysis analysis;
+
+    public LegacyAnalysisAdapter(Analysis analysis) {
+        this.analysis = analysis;
+    }
+
+    public Analysis getAnalysis() {
+        return analysis;
+    }
+
+    public static Object box(long bits, String type) {
+        if (type.equals("java.lang.Integer")) return (int) bits;
+        if (type.equals("java.lang.Long")) return bits;
+        if (type.equals("java.lang.Boolean")) return bits != 0;
+        if (type.equals("java.lang.Double")) return Double.longBitsToDouble(bits);
+        if (type.equals("java.lang.Float")) return Float.intBitsToFloat((int) bits);
+        if (type.equals("java.lang.Character")) return (char) bits;
+        if (type.equals("java.lang.Short")) return (short) bits;
+        if (type.equals("java.lang.Byte")) return (byte) bits;
+        throw new IllegalArgumentException("Not a primitive wrapper type " + type);
+    }
+
+    // the analysis was initialized by its own constructor
+    public void initialize() {
+    }
+
+    public void lockBefore(int iid, int thread, int lock, Object actualLock) {
+        analysis.lockBefore(iid, thread, lock, actualLock);
+    }
+
+    public void lockAfter(int iid, int thread, int lock, Object actualLock) {
+        analysis.lockAfter(iid, thread, lock, actualLock);
+    }
+
+    public void unlockAfter(int iid, int thread, int lock) {
+        analysis.unlockAfter(iid, thread, lock);
+    }
+
+    public void newExprAfter(int iid, int object, int objOnWhichMethodIsInvoked) {
+        analysis.newExprAfter(iid, object, objOnWhichMethodIsInvoked);
+    }
+
+    public void methodEnterBefore(int iid, int thread, int method) {
+        analysis.methodEnterBefore(iid, thread, Observer.getMethod(method));
+    }
+
+    public void methodExitAfter(int iid, int thread, int method) {
+        analysis.methodExitAfter(iid, thread, Observer.getMethod(method));
+    }
+
+    public void startBefore(int iid, int parent, int child) {
+        analysis.startBefore(iid, parent, child);
+    }
+
+    public void startAfter(int iid, int parent, Object child) {
+        analysis.startAfter(iid, parent, child);
+    }
+
+    public void waitBefore(int iid, int thread, int lock) {
+        analysis.waitBefore(iid, thread, lock);
+    }
+
+    public void waitAfter(int iid, int thread, int lock) {
+        analysis.waitAfter(iid, thread, lock);
+    }
+
+    public void notifyBefore(int iid, int thread, int lock) {
+        analysis.notifyBefore(iid, thread, lock);
+    }
+
+    public void notifyAllBefore(int iid, int thread, int lock) {
+        analysis.notifyAllBefore(iid, thread, lock);
+    }
+
+    public void joinAfter(int iid, int parent, int child) {
+        analysis.joinAfter(iid, parent, child);
+    }
+
+    public void readBefore(int iid, int thread, long memory, boolean isVolatile) {
+        analysis.readBefore(iid, thread, memory, isVolatile);
+    }
+
+    public void readAfter(int iid, int thread, long memory, boolean isVolatile) {
+        analysis.readAfter(iid, thread, memory, isVolatile);
+    }
+
+    public void writeBefore(int iid, int thread, long memory, boolean isVolatile) {
+        analysis.writeBefore(iid, thread, memory, isVolatile);
+    }
+
+    public void writeAfter(int iid, int thread, long memory, boolean isVolatile) {
+        analysis.writeAfter(iid, thread, memory, isVolatile);
+    }
+
+    public void writeAfter(int iid, int thread, String local, Object value, String type) {
+        analysis.writeAfter(iid, Thread.currentThread(), local, value, type);
+    }
+
+    public void writePrimitiveAfter(int iid, int thread, String local, long bits, String type) {
+        analysis.writeAfter(iid, Thread.currentThread(), local, box(bits, type), type);
+    }
+
+    public void openDeterministicBlock(int bid) {
+        analysis.openDeterministicBlock(bid);
+    }
+
+    public void closeDeterministicBlock(int bid) {
+        analysis.closeDeterministicBlock(bid);
+    }
+
+    public void requireDeterministic(int thread, Object invariant) {
+        analysis.requireDeterministic(thread, invariant);
+    }
+
+    public void assertDeterministic(int thread, Object invariant) {
+        analysis.assertDeterministic(thread, invariant);
+    }
+
+    public void finish() {
+        analysis.finish();
+    }
+}
@@ -1,9 +1,11 @@
 package javato.activetesting.analysis;
 
+import javato.activetesting.common.IntStack;
 import javato.activetesting.common.Parameters;
-import javato.activetesting.common.WeakIdentityHashMap;
+import javato.activetesting.common.ObjectIdRegistry;
 
 import java.io.*;
+import java.lang.reflect.Field;
 import java.util.ArrayList;
 
 /**
@@ -40,11 +42,11 @@ import java.util.ArrayList;
  */
 public class Observer {
 
-    private static WeakIdentityHashMap objectMap = new WeakIdentityHashMap(3511);
-    private static int currentId = readInteger(Parameters.usedObjectId, 1);
+    private static final ObjectIdRegistry objectIds = new ObjectIdRegistry(readInteger(Parameters.usedObjectId, 1));
     private static ArrayList<String> iidToLineMap = null;
+    private static ArrayList<String> methodTable = null;
 
-    public static Long idInt(int f, int s) {
+    public static long idInt(int f, int s) {
         long l = f;
         l = l << 32;
         l += s;
@@ -54,7 +56,9 @@ public class Observer {
     public static String getIidToLine(Integer iid) {
         ObjectInputStream in;
         if (iidToLineMap != null) {
-            return iidToLineMap.get(iid).replaceAll(".html#", "#");
+            synchronized (iidToLineMap) {
+                return iidToLineMap.get(iid).replaceAll(".html#", "#");
+            }
         } else {
             try {
                 in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(Parameters.iidToLineMapFile)));
@@ -71,27 +75,144 @@ public class Observer {
         }
     }
 
-    synchronized public static Integer uniqueId(Object o) {
-        Object val = objectMap.get(o);
-        if (val == null) {
-            val = currentId++;
-            objectMap.put(o, val);
+    /**
+     * Used by the load-time agent, whose map grows as classes load and is
+     * only written out at exit. Readers lock the map.
+     */
+    public static void setIidToLineMap(ArrayList<String> map) {
+        iidToLineMap = map;
+    }
+
+    /**
+     * The signature of the method the instrumentor gave the id passed to
+     * myMethodEnterBefore and myMethodExitAfter, or null if it is unknown.
+     */
+    public static String getMethod(int method) {
+        ArrayList<String> table = methodTable;
+        if (table == null) {
+            try {
+                ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(Parameters.methodTableFile)));
+                @SuppressWarnings("unchecked")
+                ArrayList<String> read = (ArrayList<String>) in.readObject();
+                table = read;
+                in.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+                table = new ArrayList<String>();
+            } catch (ClassNotFoundException e) {
+                e.printStackTrace();
+                table = new ArrayList<String>();
+            }
+            methodTable = table;
+        }
+        synchronized (table) {
+            return method >= 0 && method < table.size() ? table.get(method) : null;
         }
-        return (Integer) val;
     }
 
-    synchronized public static Object idToObject(int id) {
-        for (Object ret : objectMap.keySet()) {
-            Integer val = (Integer) objectMap.get(ret);
-            if (val != null) {
-                if (val == id)
-                    return ret;
+    /**
+     * Used by the load-time agent, like setIidToLineMap.
+     */
+    public static void setMethodTable(ArrayList<String> table) {
+        methodTable = table;
+    }
+
+    // the current thread's id is looked up in objectIds once and then served
+    // from this slot; a pooled thread keeps its id across the tasks it runs
+    private static final ThreadLocal<Integer> threadIds = new ThreadLocal<Integer>() {
+        protected Integer initialValue() {
+            return uniqueId(Thread.currentThread());
+        }
+    };
+
+    public static int currentThreadId() {
+        return threadIds.get();
+    }
+
+    // the iids of the calls the current thread is in, pushed and popped by the
+    // method enter and exit hooks when the analysis subscribes to those events
+    private static final ThreadLocal<IntStack> callStacks = new ThreadLocal<IntStack>() {
+        protected IntStack initialValue() {
+            return new IntStack();
+        }
+    };
+
+    /**
+     * The call stack of the current thread, innermost call on top. Only the
+     * thread itself may use it, and it is empty in a thread that replays
+     * events of other threads, as the worker of AsyncAnalysis does.
+     */
+    public static IntStack callStack() {
+        return callStacks.get();
+    }
+
+    /*
+     * With javato.oid.field the instrumentor adds an int field named OID_FIELD
+     * to the classes it instruments, which caches the id of each object of
+     * those classes so that objectIds is only searched the first time the
+     * object is seen. Threads racing on an unset field get the same id from
+     * objectIds, so the field needs no synchronization. The instrumentors make
+     * the classes with the field ObjectIdHolders where they can, see
+     * javato.activetesting.asm.OidAccessors; the field of the others is found
+     * by reflection. Arrays, uninstrumented classes and Cloneable classes,
+     * whose clones would copy the field, are looked up in objectIds every time.
+     */
+    public static final String OID_FIELD = "javato$oid";
+    private static final ClassValue<Field> oidFields = new ClassValue<Field>() {
+        protected Field computeValue(Class<?> c) {
+            if (c.isArray() || Cloneable.class.isAssignableFrom(c)) {
+                return null;
+            }
+            for (; c != null; c = c.getSuperclass()) {
+                try {
+                    Field f = c.getDeclaredField(OID_FIELD);
+                    f.setAccessible(true);
+                    return f;
+                } catch (NoSuchFieldException e) {
+                    // look in the superclass
+                }
             }
+            return null;
         }
-        return "Unknown Object";
+    };
+
+    public static int uniqueId(Object o) {
+        // only instrumented classes are ObjectIdHolders
+        if (o instanceof ObjectIdHolder && !(o instanceof Cloneable)) {
+            ObjectIdHolder h = (ObjectIdHolder) o;
+            int id = h.javato$getOid();
+            if (id == 0) {
+                id = objectIds.getOrAssign(o);
+                h.javato$setOid(id);
+            }
+            return id;
+        }
+        if (Parameters.oidField && o != null) {
+            Field f = oidFields.get(o.getClass());
+            if (f != null) {
+                try {
+                    int id = f.getInt(o);
+                    if (id == 0) {
+                        id = objectIds.getOrAssign(o);
+                        f.setInt(o, id);
+                    }
+                    return id;
+                } catch (IllegalAccessException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+        return objectIds.getOrAssign(o);
+    }
+
+    public static Object idToObject(int id) {
+        Object ret = objectIds.getObject(id);
+        if (ret == null)
+            return "Unknown Object";
+        return ret;
     }
 
-    public static Long id(Object o, int x) {
+    public static long id(Object o, int x) {
         return idInt(uniqueId(o), x);
     }
 
@@ -1,8 +1,12 @@
 package javato.activetesting.analysis;
 
+import javato.activetesting.async.AsyncAnalysis;
+import javato.activetesting.common.IntStack;
 import javato.activetesting.common.Parameters;
-import javato.activetesting.common.IIDAccessCounter;
+import javato.activetesting.sampling.SamplingPolicy;
 
+import java.lang.reflect.Array;
+import java.util.EnumSet;
 import java.util.LinkedList;
 
 /**
@@ -39,18 +43,51 @@ import java.util.LinkedList;
  * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
 public class ObserverForActiveTesting extends Observer {
-    private static SyncMethodCache cache = new SyncMethodCache();
-    public static Analysis analysis;
+    // the state below is package-private for the copies of the hooks in the
+    // BoundObserver that javato.activetesting.asm.ObserverSpecializer generates
+    static final SyncMethodCache cache = new SyncMethodCache();
+    public static PrimitiveAnalysis analysis;
     //private static AtomicLong counter = new AtomicLong(0);
     //private static boolean stopRW = false;
-    private static IIDAccessCounter counters = new IIDAccessCounter();
+    static final SamplingPolicy sampling = SamplingPolicy.create(Parameters.samplingPolicy);
+    // calls for events the analysis does not subscribe to return at once
+    static final EnumSet<EventKind> events = EventKind.subscribedBy(Parameters.analysisClass);
+    static final boolean onLockBefore = events.contains(EventKind.LOCK_BEFORE);
+    static final boolean onLockAfter = events.contains(EventKind.LOCK_AFTER);
+    static final boolean onUnlockAfter = events.contains(EventKind.UNLOCK_AFTER);
+    static final boolean onNewExprAfter = events.contains(EventKind.NEW_EXPR_AFTER);
+    static final boolean onMethodEnterBefore = events.contains(EventKind.METHOD_ENTER_BEFORE);
+    static final boolean onMethodExitAfter = events.contains(EventKind.METHOD_EXIT_AFTER);
+    // the call stacks of Observer.callStack are kept when both are
+    static final boolean onCalls = onMethodEnterBefore && onMethodExitAfter;
+    static final boolean onStartBefore = events.contains(EventKind.START_BEFORE);
+    static final boolean onStartAfter = events.contains(EventKind.START_AFTER);
+    static final boolean onWaitBefore = events.contains(EventKind.WAIT_BEFORE);
+    static final boolean onWaitAfter = events.contains(EventKind.WAIT_AFTER);
+    static final boolean onNotifyBefore = events.contains(EventKind.NOTIFY_BEFORE);
+    static final boolean onNotifyAllBefore = events.contains(EventKind.NOTIFY_ALL_BEFORE);
+    static final boolean onJoinAfter = events.contains(EventKind.JOIN_AFTER);
+    static final boolean onReadBefore = events.contains(EventKind.READ_BEFORE);
+    static final boolean onReadAfter = events.contains(EventKind.READ_AFTER);
+    static final boolean onWriteBefore = events.contains(EventKind.WRITE_BEFORE);
+    static final boolean onWriteAfter = events.contains(EventKind.WRITE_AFTER);
+    static final boolean onLocalWriteAfter = events.contains(EventKind.LOCAL_WRITE_AFTER);
+    static final boolean onDeterminism = events.contains(EventKind.DETERMINISM);
 
     static {
         System.out.println("Analysis class " + Parameters.analysisClass);
         if (Parameters.analysisClass != null) {
             try {
-                Class t = Class.forName(Parameters.analysisClass);
-                analysis = (Analysis) t.newInstance();
+                Class<?> t = Class.forName(Parameters.analysisClass);
+                Object a = t.getDeclaredConstructor().newInstance();
+                if (a instanceof PrimitiveAnalysis) {
+                    analysis = (PrimitiveAnalysis) a;
+                } else {
+                    analysis = new LegacyAnalysisAdapter((Analysis) a);
+                }
+                if (Parameters.asyncAnalysis) {
+                    analysis = AsyncAnalysis.wrap(analysis);
+                }
 
             } catch (Exception e) {
                 System.err.println("Cannot find or instantiate Analysis class: " + Parameters.analysisClass + Thread.currentThread());
@@ -58,6 +95,22 @@ public class ObserverForActiveTesting extends Observer {
                 System.exit(1);
             }
         }
+        EnumSet<EventKind> instrumented = EventKind.instrumented();
+        if (instrumented != null && !instrumented.containsAll(events)) {
+            EnumSet<EventKind> missing = EnumSet.copyOf(events);
+            missing.removeAll(instrumented);
+            System.err.println("The program was instrumented without the events " + missing + " that "
+                    + Parameters.analysisClass + " needs; instrument it with javato.instr.analyses including it");
+            System.exit(1);
+        }
+        sampling.setPairing(onReadBefore && onReadAfter || onWriteBefore && onWriteAfter);
+        if (sampling.isCounting()) {
+            Runtime.getRuntime().addShutdownHook(new Thread() {
+                public void run() {
+                    sampling.report(System.out);
+                }
+            });
+        }
     }
 
 
@@ -73,20 +126,75 @@ public class ObserverForActiveTesting extends Observer {
         }
     };
 
-    public static void myMethodEnterBefore(int iid, String sig) {
-        analysis.methodEnterBefore(iid, uniqueId(Thread.currentThread()), sig);
+    /*
+     * Switches for single call sites and whole event kinds, which analyses
+     * may flip at any time; see IidGuards. A switched off site reports
+     * nothing to the analysis. Sites of the lock bookkeeping for calls to
+     * synchronized methods and of deterministic blocks always run, but
+     * report no lock events when switched off.
+     */
+
+    public static void enableIid(int iid) {
+        IidGuards.setIid(iid, true);
     }
 
-    public static void myMethodExitAfter(int iid, String sig) {
-        analysis.methodExitAfter(iid, uniqueId(Thread.currentThread()), sig);
+    public static void disableIid(int iid) {
+        IidGuards.setIid(iid, false);
     }
 
+    /**
+     * Undoes enableIid and disableIid, so that the site follows its event kind.
+     */
+    public static void resetIid(int iid) {
+        IidGuards.resetIid(iid);
+    }
 
+    public static void enableEvent(EventKind kind) {
+        IidGuards.setKind(kind, true);
+    }
+
+    public static void disableEvent(EventKind kind) {
+        IidGuards.setKind(kind, false);
+    }
+
+    public static void myMethodEnterBefore(int iid, int method) {
+        if (!onMethodEnterBefore) return;
+        // kept even for guarded-off calls so that it matches the calls
+        if (onCalls) callStack().push(iid);
+        if (IidGuards.skip(iid, EventKind.METHOD_ENTER_BEFORE)) return;
+        analysis.methodEnterBefore(iid, currentThreadId(), method);
+    }
+
+    public static void myMethodExitAfter(int iid, int method) {
+        if (!onMethodExitAfter) return;
+        if (onCalls) {
+            IntStack st = callStack();
+            // calls entered before the analysis was switched on have no entry
+            if (st.size() > 0) st.pop();
+        }
+        if (IidGuards.skip(iid, EventKind.METHOD_EXIT_AFTER)) return;
+        analysis.methodExitAfter(iid, currentThreadId(), method);
+    }
+
+
+    /**
+     * Called before a virtual call whose target may or may not be synchronized
+     * depending on the receiver's class.
+     */
     public static void myLockBefore(int iid, Object lock, String sig) {
-        boolean isSynchronized = cache.isSynchronized(iid, lock, sig);
+        myLockBefore(iid, lock, cache.isSynchronized(iid, lock, sig));
+    }
+
+    /**
+     * Called before a call whose target the instrumentor resolved; the matching
+     * myUnlockAfter(int) pops what is pushed here.
+     */
+    public static void myLockBefore(int iid, Object lock, boolean isSynchronized) {
         if (isSynchronized) {
             ((LinkedList) lockStack.get()).addFirst(lock);
-            analysis.lockBefore(iid, uniqueId(Thread.currentThread()), uniqueId(lock),lock);
+            if (onLockBefore && !IidGuards.skip(iid, EventKind.LOCK_BEFORE)) {
+                analysis.lockBefore(iid, currentThreadId(), uniqueId(lock),lock);
+            }
         } else {
             ((LinkedList) lockStack.get()).addFirst(null);
         }
@@ -94,25 +202,33 @@ public class ObserverForActiveTesting extends Observer {
     }
 
     public static void myLockBefore(int iid, int oid, String className) {
+        if (!onLockBefore) return;
+        if (IidGuards.skip(iid, EventKind.LOCK_BEFORE)) return;
         Class c = null;
         try {
             c = Class.forName(className);
         } catch (ClassNotFoundException e) {
             e.printStackTrace();
         }
-        analysis.lockBefore(iid, uniqueId(Thread.currentThread()), oid, c);
+        analysis.lockBefore(iid, currentThreadId(), oid, c);
     }
 
     public static void myLockBefore(int iid, Object lock) {
-        analysis.lockBefore(iid, uniqueId(Thread.currentThread()), uniqueId(lock),lock);
+        if (!onLockBefore) return;
+        if (IidGuards.skip(iid, EventKind.LOCK_BEFORE)) return;
+        analysis.lockBefore(iid, currentThreadId(), uniqueId(lock),lock);
     }
 
 		/*Shin -- */
 		public static void myLockAfter(int iid, Object lock, String sig) {
-			analysis.lockAfter(iid, uniqueId(Thread.currentThread()), uniqueId(lock), lock) ;
+			if (!onLockAfter) return;
+			if (IidGuards.skip(iid, EventKind.LOCK_AFTER)) return;
+			analysis.lockAfter(iid, currentThreadId(), uniqueId(lock), lock) ;
 		}
 
 		public static void myLockAfter(int iid, int lock, String className) {
+			if (!onLockAfter) return;
+			if (IidGuards.skip(iid, EventKind.LOCK_AFTER)) return;
 			Class c = null ;
 			try {
 				c = Class.forName(className) ;
@@ -120,18 +236,22 @@ public class ObserverForActiveTesting extends Observer {
 			catch (ClassNotFoundException e) {
 				e.printStackTrace() ;
 			}
-			analysis.lockAfter(iid, uniqueId(Thread.currentThread()), lock, c) ;
+			analysis.lockAfter(iid, currentThreadId(), lock, c) ;
 		}
 
 		public static void myLockAfter(int iid, Object lock) {
-			analysis.lockAfter(iid, uniqueId(Thread.currentThread()), uniqueId(lock), lock) ;
+			if (!onLockAfter) return;
+			if (IidGuards.skip(iid, EventKind.LOCK_AFTER)) return;
+			analysis.lockAfter(iid, currentThreadId(), uniqueId(lock), lock) ;
 		}
 
 		public static void myLockAfter(int iid) {
+			if (!onLockAfter) return;
+			if (IidGuards.skip(iid, EventKind.LOCK_AFTER)) return;
 			LinkedList ls = ((LinkedList) lockStack.get()) ;
 			LinkedList<Integer> is = ((LinkedList<Integer>) iidStack.get()) ;
 			Object lock = ls.getFirst() ;
-			analysis.lockAfter(iid, uniqueId(Thread.currentThread()), uniqueId(lock), lock) ;
+			analysis.lockAfter(iid, currentThreadId(), uniqueId(lock), lock) ;
 		}
 		/*--Shin*/
 
@@ -141,178 +261,364 @@ public class ObserverForActiveTesting extends Observer {
         Object lock = ls.removeFirst();
         int entryIid = is.removeFirst();
         while (iid != entryIid + 1) { // this is a hack; needs better handling in future
-            if (lock != null) {
-                analysis.unlockAfter(iid, uniqueId(Thread.currentThread()), uniqueId(lock));
+            if (lock != null && onUnlockAfter && !IidGuards.skip(iid, EventKind.UNLOCK_AFTER)) {
+                analysis.unlockAfter(iid, currentThreadId(), uniqueId(lock));
             }
             lock = ls.removeFirst();
             entryIid = is.removeFirst();
         }
         if (iid != entryIid + 1) {
-            System.out.println("thread " + uniqueId(Thread.currentThread()));
+            System.out.println("thread " + currentThreadId());
         }
         assert iid == entryIid + 1;
-        if (lock != null) {
-            analysis.unlockAfter(iid, uniqueId(Thread.currentThread()), uniqueId(lock));
+        if (lock != null && onUnlockAfter && !IidGuards.skip(iid, EventKind.UNLOCK_AFTER)) {
+            analysis.unlockAfter(iid, currentThreadId(), uniqueId(lock));
         }
     }
 
     public static void myUnlockAfter(int iid, int oid) {
-        analysis.unlockAfter(iid, uniqueId(Thread.currentThread()), oid);
+        if (!onUnlockAfter) return;
+        if (IidGuards.skip(iid, EventKind.UNLOCK_AFTER)) return;
+        analysis.unlockAfter(iid, currentThreadId(), oid);
     }
 
     public static void myUnlockAfter(int iid, Object lock) {
-        analysis.unlockAfter(iid, uniqueId(Thread.currentThread()), uniqueId(lock));
+        if (!onUnlockAfter) return;
+        if (IidGuards.skip(iid, EventKind.UNLOCK_AFTER)) return;
+        analysis.unlockAfter(iid, currentThreadId(), uniqueId(lock));
     }
 
     public static void myNewExprInANonStaticMethodAfter(int iid, Object o, Object objOnWhichMethodIsInvoked) {
+        if (!onNewExprAfter) return;
+        if (IidGuards.skip(iid, EventKind.NEW_EXPR_AFTER)) return;
         analysis.newExprAfter(iid, uniqueId(o), uniqueId(objOnWhichMethodIsInvoked));
     }
 
     public static void myNewExprInAStaticMethodAfter(int iid, Object o) {
+        if (!onNewExprAfter) return;
+        if (IidGuards.skip(iid, EventKind.NEW_EXPR_AFTER)) return;
         analysis.newExprAfter(iid, uniqueId(o), 0);
     }
 
     public static void myStartBefore(int iid, Object t) {
-        analysis.startBefore(iid, uniqueId(Thread.currentThread()), uniqueId(t));
+        if (!onStartBefore) return;
+        if (IidGuards.skip(iid, EventKind.START_BEFORE)) return;
+        analysis.startBefore(iid, currentThreadId(), uniqueId(t));
     }
 
     public static void myStartAfter(int iid, Object t) {
-        analysis.startAfter(iid, uniqueId(Thread.currentThread()), t);
+        if (!onStartAfter) return;
+        if (IidGuards.skip(iid, EventKind.START_AFTER)) return;
+        analysis.startAfter(iid, currentThreadId(), t);
     }
 
 
     public static void myWaitBefore(int iid, Object lock) {
-        analysis.waitBefore(iid, uniqueId(Thread.currentThread()), uniqueId(lock));
+        if (!onWaitBefore) return;
+        if (IidGuards.skip(iid, EventKind.WAIT_BEFORE)) return;
+        analysis.waitBefore(iid, currentThreadId(), uniqueId(lock));
     }
 
     public static void myWaitAfter(int iid, Object lock) {
-        analysis.waitAfter(iid, uniqueId(Thread.currentThread()), uniqueId(lock));
+        if (!onWaitAfter) return;
+        if (IidGuards.skip(iid, EventKind.WAIT_AFTER)) return;
+        analysis.waitAfter(iid, currentThreadId(), uniqueId(lock));
     }
 
     public static void myNotifyBefore(int iid, Object lock) {
-        analysis.notifyBefore(iid, uniqueId(Thread.currentThread()), uniqueId(lock));
+        if (!onNotifyBefore) return;
+        if (IidGuards.skip(iid, EventKind.NOTIFY_BEFORE)) return;
+        analysis.notifyBefore(iid, currentThreadId(), uniqueId(lock));
     }
 
     public static void myNotifyAllBefore(int iid, Object lock) {
-        analysis.notifyAllBefore(iid, uniqueId(Thread.currentThread()), uniqueId(lock));
+        if (!onNotifyAllBefore) return;
+        if (IidGuards.skip(iid, EventKind.NOTIFY_ALL_BEFORE)) return;
+        analysis.notifyAllBefore(iid, currentThreadId(), uniqueId(lock));
     }
 
     public static void myJoinAfter(int iid, Object thread) {
-        analysis.joinAfter(iid, uniqueId(Thread.currentThread()), uniqueId(thread));
+        if (!onJoinAfter) return;
+        if (IidGuards.skip(iid, EventKind.JOIN_AFTER)) return;
+        analysis.joinAfter(iid, currentThreadId(), uniqueId(thread));
     }
 
     public static void myReadBefore(int iid, Object o, int field) {
-        if (counters.needToIgnore(iid)) return;
-        analysis.readBefore(iid, uniqueId(Thread.currentThread()), id(o, field), false);
+        if (!onReadBefore) return;
+        if (IidGuards.skip(iid, EventKind.READ_BEFORE)) return;
+        int thread = currentThreadId();
+        if (sampling.skipIid(iid, thread)) return;
+        long memory = id(o, field);
+        if (sampling.skipAccess(iid, thread, memory)) return;
+        analysis.readBefore(iid, thread, memory, false);
     }
 
     public static void myReadBefore(int iid, int clss, int field) {
-        if (counters.needToIgnore(iid)) return;
-        analysis.readBefore(iid, uniqueId(Thread.currentThread()), idInt(clss, field), false);
+        if (!onReadBefore) return;
+        if (IidGuards.skip(iid, EventKind.READ_BEFORE)) return;
+        int thread = currentThreadId();
+        if (sampling.skipIid(iid, thread)) return;
+        long memory = idInt(clss, field);
+        if (sampling.skipAccess(iid, thread, memory)) return;
+        analysis.readBefore(iid, thread, memory, false);
     }
 
     public static void myReadAfter(int iid, Object o, int field) {
-        if (counters.needToIgnore(iid)) return;
-        analysis.readAfter(iid, uniqueId(Thread.currentThread()), id(o, field), false);
+        if (!onReadAfter) return;
+        if (IidGuards.skip(iid, EventKind.READ_AFTER)) return;
+        int thread = currentThreadId();
+        long memory = id(o, field);
+        if (sampling.skipAfter(iid, thread, memory)) return;
+        analysis.readAfter(iid, thread, memory, false);
     }
 
     public static void myReadAfter(int iid, int clss, int field) {
-        if (counters.needToIgnore(iid)) return;
-        analysis.readAfter(iid, uniqueId(Thread.currentThread()), idInt(clss, field), false);
+        if (!onReadAfter) return;
+        if (IidGuards.skip(iid, EventKind.READ_AFTER)) return;
+        int thread = currentThreadId();
+        long memory = idInt(clss, field);
+        if (sampling.skipAfter(iid, thread, memory)) return;
+        analysis.readAfter(iid, thread, memory, false);
     }
 
     public static void myVReadBefore(int iid, Object o, int field) {
-        if (counters.needToIgnore(iid)) return;
-        analysis.readBefore(iid, uniqueId(Thread.currentThread()), id(o, field), true);
+        if (!onReadBefore) return;
+        if (IidGuards.skip(iid, EventKind.READ_BEFORE)) return;
+        int thread = currentThreadId();
+        if (sampling.skipIid(iid, thread)) return;
+        long memory = id(o, field);
+        if (sampling.skipAccess(iid, thread, memory)) return;
+        analysis.readBefore(iid, thread, memory, true);
     }
 
     public static void myVReadBefore(int iid, int clss, int field) {
-        if (counters.needToIgnore(iid)) return;
-        analysis.readBefore(iid, uniqueId(Thread.currentThread()), idInt(clss, field), true);
+        if (!onReadBefore) return;
+        if (IidGuards.skip(iid, EventKind.READ_BEFORE)) return;
+        int thread = currentThreadId();
+        if (sampling.skipIid(iid, thread)) return;
+        long memory = idInt(clss, field);
+        if (sampling.skipAccess(iid, thread, memory)) return;
+        analysis.readBefore(iid, thread, memory, true);
     }
 
     public static void myWriteBefore(int iid, Object o, int field) {
-        if (counters.needToIgnore(iid)) return;
-        analysis.writeBefore(iid, uniqueId(Thread.currentThread()), id(o, field), false);
+        if (!onWriteBefore) return;
+        if (IidGuards.skip(iid, EventKind.WRITE_BEFORE)) return;
+        int thread = currentThreadId();
+        if (sampling.skipIid(iid, thread)) return;
+        long memory = id(o, field);
+        if (sampling.skipAccess(iid, thread, memory)) return;
+        analysis.writeBefore(iid, thread, memory, false);
+    }
+
+    /*
+     * The accesses to the fields of the classes in javato.shadow.classes, with
+     * the shadow state of the field; see ShadowState. The state is null in an
+     * object no constructor of the class ran on, such as a deserialized one.
+     */
+
+    public static void myReadBefore(int iid, Object o, int field, ShadowState state) {
+        if (!onReadBefore) return;
+        if (IidGuards.skip(iid, EventKind.READ_BEFORE)) return;
+        int thread = currentThreadId();
+        if (sampling.skipIid(iid, thread)) return;
+        long memory = id(o, field);
+        if (sampling.skipAccess(iid, thread, memory)) return;
+        if (state != null && analysis instanceof ShadowAnalysis && state.claim(o)) {
+            ((ShadowAnalysis) analysis).readBefore(iid, thread, memory, state);
+        } else {
+            analysis.readBefore(iid, thread, memory, false);
+        }
+    }
+
+    public static void myWriteBefore(int iid, Object o, int field, ShadowState state) {
+        if (!onWriteBefore) return;
+        if (IidGuards.skip(iid, EventKind.WRITE_BEFORE)) return;
+        int thread = currentThreadId();
+        if (sampling.skipIid(iid, thread)) return;
+        long memory = id(o, field);
+        if (sampling.skipAccess(iid, thread, memory)) return;
+        if (state != null && analysis instanceof ShadowAnalysis && state.claim(o)) {
+            ((ShadowAnalysis) analysis).writeBefore(iid, thread, memory, state);
+        } else {
+            analysis.writeBefore(iid, thread, memory, false);
+        }
+    }
+
+    /*
+     * The accesses a counted loop makes to the elements lo to hi - 1 of an
+     * array, called once before the loop; see javato.instrumentor.ArrayLoopAnalysis.
+     * Analyses that are no ArrayRangeAnalysis get one event per element.
+     */
+
+    public static void myReadRangeBefore(int iid, Object array, int lo, int hi) {
+        if (!onReadBefore) return;
+        if (IidGuards.skip(iid, EventKind.READ_BEFORE)) return;
+        // the loop throws before its first access when the array is null
+        if (array == null) return;
+        lo = Math.max(lo, 0);
+        hi = Math.min(hi, Array.getLength(array));
+        if (lo >= hi) return;
+        int thread = currentThreadId();
+        if (sampling.skipIid(iid, thread)) return;
+        int oid = uniqueId(array);
+        if (analysis instanceof ArrayRangeAnalysis) {
+            // the first element stands for the range
+            if (sampling.skipAccess(iid, thread, idInt(oid, lo))) return;
+            ((ArrayRangeAnalysis) analysis).readRangeBefore(iid, thread, oid, lo, hi);
+        } else {
+            for (int i = lo; i < hi; i++) {
+                long memory = idInt(oid, i);
+                if (sampling.skipAccess(iid, thread, memory)) continue;
+                analysis.readBefore(iid, thread, memory, false);
+            }
+        }
+    }
+
+    public static void myWriteRangeBefore(int iid, Object array, int lo, int hi) {
+        if (!onWriteBefore) return;
+        if (IidGuards.skip(iid, EventKind.WRITE_BEFORE)) return;
+        if (array == null) return;
+        lo = Math.max(lo, 0);
+        hi = Math.min(hi, Array.getLength(array));
+        if (lo >= hi) return;
+        int thread = currentThreadId();
+        if (sampling.skipIid(iid, thread)) return;
+        int oid = uniqueId(array);
+        if (analysis instanceof ArrayRangeAnalysis) {
+            if (sampling.skipAccess(iid, thread, idInt(oid, lo))) return;
+            ((ArrayRangeAnalysis) analysis).writeRangeBefore(iid, thread, oid, lo, hi);
+        } else {
+            for (int i = lo; i < hi; i++) {
+                long memory = idInt(oid, i);
+                if (sampling.skipAccess(iid, thread, memory)) continue;
+                analysis.writeBefore(iid, thread, memory, false);
+            }
+        }
     }
 
     public static void myWriteBefore(int iid, int clss, int field) {
-        if (counters.needToIgnore(iid)) return;
-        analysis.writeBefore(iid, uniqueId(Thread.currentThread()), idInt(clss, field), false);
+        if (!onWriteBefore) return;
+        if (IidGuards.skip(iid, EventKind.WRITE_BEFORE)) return;
+        int thread = currentThreadId();
+        if (sampling.skipIid(iid, thread)) return;
+        long memory = idInt(clss, field);
+        if (sampling.skipAccess(iid, thread, memory)) return;
+        analysis.writeBefore(iid, thread, memory, false);
     }
 
     public static void myWriteAfter(int iid, Object o, int field) {
-        if (counters.needToIgnore(iid)) return;
-        analysis.writeAfter(iid, uniqueId(Thread.currentThread()), id(o, field), false);
+        if (!onWriteAfter) return;
+        if (IidGuards.skip(iid, EventKind.WRITE_AFTER)) return;
+        int thread = currentThreadId();
+        long memory = id(o, field);
+        if (sampling.skipAfter(iid, thread, memory)) return;
+        analysis.writeAfter(iid, thread, memory, false);
     }
 
     public static void myWriteAfter(int iid, int clss, int field) {
-        if (counters.needToIgnore(iid)) return;
-        analysis.writeAfter(iid, uniqueId(Thread.currentThread()), idInt(clss, field), false);
+        if (!onWriteAfter) return;
+        if (IidGuards.skip(iid, EventKind.WRITE_AFTER)) return;
+        int thread = currentThreadId();
+        long memory = idInt(clss, field);
+        if (sampling.skipAfter(iid, thread, memory)) return;
+        analysis.writeAfter(iid, thread, memory, false);
     }
 
     public static void myVWriteBefore(int iid, Object o, int field) {
-        if (counters.needToIgnore(iid)) return;
-        analysis.writeBefore(iid, uniqueId(Thread.currentThread()), id(o, field), true);
+        if (!onWriteBefore) return;
+        if (IidGuards.skip(iid, EventKind.WRITE_BEFORE)) return;
+        int thread = currentThreadId();
+        if (sampling.skipIid(iid, thread)) return;
+        long memory = id(o, field);
+        if (sampling.skipAccess(iid, thread, memory)) return;
+        analysis.writeBefore(iid, thread, memory, true);
     }
 
     public static void myVWriteBefore(int iid, int clss, int field) {
-        if (counters.needToIgnore(iid)) return;
-        analysis.writeBefore(iid, uniqueId(Thread.currentThread()), idInt(clss, field), true);
+        if (!onWriteBefore) return;
+        if (IidGuards.skip(iid, EventKind.WRITE_BEFORE)) return;
+        int thread = currentThreadId();
+        if (sampling.skipIid(iid, thread)) return;
+        long memory = idInt(clss, field);
+        if (sampling.skipAccess(iid, thread, memory)) return;
+        analysis.writeBefore(iid, thread, memory, true);
     }
 
 
     public static void myWriteAfter(int iid, String local, Object value, String type) {
-        analysis.writeAfter(iid, Thread.currentThread(), local, value, type);
+        if (!onLocalWriteAfter) return;
+        if (IidGuards.skip(iid, EventKind.LOCAL_WRITE_AFTER)) return;
+        analysis.writeAfter(iid, currentThreadId(), local, value, type);
     }
 
     public static void myWriteAfter(int iid, String local, byte value) {
-        analysis.writeAfter(iid, Thread.currentThread(), local, value, "java.lang.Byte");
+        if (!onLocalWriteAfter) return;
+        if (IidGuards.skip(iid, EventKind.LOCAL_WRITE_AFTER)) return;
+        analysis.writePrimitiveAfter(iid, currentThreadId(), local, value, "java.lang.Byte");
     }
 
     public static void myWriteAfter(int iid, String local, char value) {
-        analysis.writeAfter(iid, Thread.currentThread(), local, value, "java.lang.Character");
+        if (!onLocalWriteAfter) return;
+        if (IidGuards.skip(iid, EventKind.LOCAL_WRITE_AFTER)) return;
+        analysis.writePrimitiveAfter(iid, currentThreadId(), local, value, "java.lang.Character");
     }
 
     public static void myWriteAfter(int iid, String local, short value) {
-        analysis.writeAfter(iid, Thread.currentThread(), local, value, "java.lang.Short");
+        if (!onLocalWriteAfter) return;
+        if (IidGuards.skip(iid, EventKind.LOCAL_WRITE_AFTER)) return;
+        analysis.writePrimitiveAfter(iid, currentThreadId(), local, value, "java.lang.Short");
     }
 
     public static void myWriteAfter(int iid, String local, int value) {
-        analysis.writeAfter(iid, Thread.currentThread(), local, value, "java.lang.Integer");
+        if (!onLocalWriteAfter) return;
+        if (IidGuards.skip(iid, EventKind.LOCAL_WRITE_AFTER)) return;
+        analysis.writePrimitiveAfter(iid, currentThreadId(), local, value, "java.lang.Integer");
     }
 
     public static void myWriteAfter(int iid, String local, long value) {
-        analysis.writeAfter(iid, Thread.currentThread(), local, value, "java.lang.Long");
+        if (!onLocalWriteAfter) return;
+        if (IidGuards.skip(iid, EventKind.LOCAL_WRITE_AFTER)) return;
+        analysis.writePrimitiveAfter(iid, currentThreadId(), local, value, "java.lang.Long");
     }
 
     public static void myWriteAfter(int iid, String local, float value) {
-        analysis.writeAfter(iid, Thread.currentThread(), local, value, "java.lang.Float");
+        if (!onLocalWriteAfter) return;
+        if (IidGuards.skip(iid, EventKind.LOCAL_WRITE_AFTER)) return;
+        analysis.writePrimitiveAfter(iid, currentThreadId(), local, Float.floatToRawIntBits(value), "java.lang.Float");
     }
 
     public static void myWriteAfter(int iid, String local, double value) {
-        analysis.writeAfter(iid, Thread.currentThread(), local, value, "java.lang.Double");
+        if (!onLocalWriteAfter) return;
+        if (IidGuards.skip(iid, EventKind.LOCAL_WRITE_AFTER)) return;
+        analysis.writePrimitiveAfter(iid, currentThreadId(), local, Double.doubleToRawLongBits(value), "java.lang.Double");
     }
 
     public static void myWriteAfter(int iid, String local, boolean value) {
-        analysis.writeAfter(iid, Thread.currentThread(), local, value, "java.lang.Boolean");
+        if (!onLocalWriteAfter) return;
+        if (IidGuards.skip(iid, EventKind.LOCAL_WRITE_AFTER)) return;
+        analysis.writePrimitiveAfter(iid, currentThreadId(), local, value ? 1 : 0, "java.lang.Boolean");
     }
 
     public static void myOpenDeterministicBlock(int iid) {
-        analysis.openDeterministicBlock(uniqueId(Thread.currentThread()));
+        if (!onDeterminism) return;
+        analysis.openDeterministicBlock(currentThreadId());
     }
 
     public static void myCloseDeterministicBlock(int iid) {
-        analysis.closeDeterministicBlock(uniqueId(Thread.currentThread()));
+        if (!onDeterminism) return;
+        analysis.closeDeterministicBlock(currentThreadId());
     }
 
     /** Parameter 'invariant' must be serializable. */
     public static void requireDeterministic(Object invariant) {
-        analysis.requireDeterministic(uniqueId(Thread.currentThread()), invariant);
+        if (!onDeterminism) return;
+        analysis.requireDeterministic(currentThreadId(), invariant);
     }
 
     /** Parameter 'invariant' must be serializable. */
     public static void assertDeterministic(Object invariant) {
-        analysis.assertDeterministic(uniqueId(Thread.currentThread()), invariant);
+        if (!onDeterminism) return;
+        analysis.assertDeterministic(currentThreadId(), invariant);
     }
 }
@@ -0,0 +1,86 @@
+package javato.activetesting.analysis;
+
+/**
+ * Copyright (c) 2007-2008,
+ * Koushik Sen    <ksen@cs.berkeley.edu>
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * <p/>
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * <p/>
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * <p/>
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+abstract public class PrimitiveAnalysisImpl extends Thread implements PrimitiveAnalysis {
+    public PrimitiveAnalysisImpl() {
+        initialize();
+        Runtime.getRuntime().addShutdownHook(this);
+    }
+
+    public void run() {
+        finish();
+    }
+
+    /**
+     * Keeps the JVM from calling finish() on a at exit, for wrappers that call
+     * it themselves.
+     */
+    public static void detachShutdownHook(PrimitiveAnalysis a) {
+        Object hook = a instanceof LegacyAnalysisAdapter ? ((LegacyAnalysisAdapter) a).getAnalysis() : a;
+        if (hook instanceof Thread) {
+            try {
+                Runtime.getRuntime().removeShutdownHook((Thread) hook);
+            } catch (IllegalStateException e) {
+                // shutdown already in progress
+            }
+        }
+    }
+
+    /* Default implementations. */
+    public void initialize() { }
+    public void lockBefore(int iid, int thread, int lock, Object actualLock) { }
+    public void lockAfter(int iid, int thread, int lock, Object actualLock) { }
+    public void unlockAfter(int iid, int thread, int lock) { }
+    public void newExprAfter(int iid, int object, int objOnWhichMethodIsInvoked) { }
+    public void methodEnterBefore(int iid, int thread, int method) { }
+    public void methodExitAfter(int iid, int thread, int method) { }
+    public void startBefore(int iid, int parent, int child) { }
+    public void startAfter(int iid, int parent, Object child) { }
+    public void waitBefore(int iid, int thread, int lock) { }
+    public void waitAfter(int iid, int thread, int lock) { }
+    public void notifyBefore(int iid, int thread, int lock) { }
+    public void notifyAllBefore(int iid, int thread, int lock) { }
+    public void joinAfter(int iid, int parent, int child) { }
+    public void readBefore(int iid, int thread, long memory, boolean isVolatile) { }
+    public void readAfter(int iid, int thread, long memory, boolean isVolatile) { }
+    public void writeBefore(int iid, int thread, long memory, boolean isVolatile) { }
+    public void writeAfter(int iid, int thread, long memory, boolean isVolatile) { }
+    public void writeAfter(int iid, int thread, String local, Object value, String type) { }
+    public void writePrimitiveAfter(int iid, int thread, String local, long bits, String type) { }
+    public void openDeterministicBlock(int bid) { }
+    public void closeDeterministicBlock(int bid) { }
+    public void requireDeterministic(int thread, Object invariant) { }
+    public void assertDeterministic(int thread, Object invariant) { }
+    public void finish() { }
+}
@@ -0,0 +1,213 @@
+package javato.activetesting.analysis;
+
+import javato.activetesting.common.Parameters;
+
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * Copyright (c) 2007-2008,
+ * Koushik Sen    <ksen@cs.berkeley.edu>
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * <p/>
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * <p/>
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * <p/>
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public final class ShadowState {
+    /*
+     * With javato.shadow.classes the instrumentor adds, next to each
+     * non-volatile instance field of the listed classes, a final field named
+     * companion(field) that every constructor of the class sets to a new
+     * ShadowState. The instrumented accesses of the field pass it to the
+     * observer, and an analysis that implements ShadowAnalysis keeps the race
+     * detection state of the memory location in it, instead of in a map keyed
+     * by the location: the epoch of the last write, the last read of each
+     * thread, kept as a single epoch until a second thread reads, and the
+     * locksets of those accesses as ids, see javato.activetesting.lockset.LockSetIds.
+     *
+     * The fields of a ShadowState other than owner are only read and written
+     * by the analysis, under its lock.
+     */
+
+    private static final String SUFFIX = "$javato$shadow";
+    private static final AtomicReferenceFieldUpdater<ShadowState, Object> OWNER
+            = AtomicReferenceFieldUpdater.newUpdater(ShadowState.class, Object.class, "owner");
+
+    // the object the state was first used for; a clone of it shares the state
+    private volatile Object owner;
+
+    // the last write: its iid, or -1 if there is none yet, and its epoch and lockset id
+    private int writeIid = -1;
+    private int writeThread;
+    private long writeClock;
+    private int writeLocks;
+
+    // the last read of each thread that read, in the order the threads first read;
+    // the first is kept in the fields and the others in the arrays
+    private int readers;
+    private int readIid;
+    private int readThread;
+    private long readClock;
+    private int readLocks;
+    private int[] moreIids;
+    private int[] moreThreads;
+    private long[] moreClocks;
+    private int[] moreLocks;
+
+    /**
+     * Whether the instrumentor adds shadow fields to the class. The class must
+     * then be instrumented, as the accesses from other classes use them.
+     */
+    public static boolean shadows(String className) {
+        return shadows(className, Parameters.shadowClasses);
+    }
+
+    /**
+     * Whether the class name starts with one of the comma separated prefixes.
+     */
+    public static boolean shadows(String className, String prefixes) {
+        for (String prefix : prefixes.split(",")) {
+            prefix = prefix.trim();
+            if (prefix.length() > 0 && className.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public static String companion(String field) {
+        return field + SUFFIX;
+    }
+
+    public static boolean isCompanion(String field) {
+        return field.endsWith(SUFFIX);
+    }
+
+    /**
+     * Whether the state is that of a field of o. Object.clone copies the
+     * shadow fields along with the others, so the state of a field of a clone
+     * may be the one of the original; the object that first gets here keeps
+     * the state, and the other falls back to the maps of the analysis.
+     */
+    public boolean claim(Object o) {
+        Object owner = this.owner;
+        if (owner == null) {
+            return OWNER.compareAndSet(this, null, o) || this.owner == o;
+        }
+        return owner == o;
+    }
+
+    public boolean hasWrite() {
+        return writeIid >= 0;
+    }
+
+    public int getWriteIid() {
+        return writeIid;
+    }
+
+    public int getWriteThread() {
+        return writeThread;
+    }
+
+    public long getWriteClock() {
+        return writeClock;
+    }
+
+    public int getWriteLocks() {
+        return writeLocks;
+    }
+
+    public void write(int iid, int thread, long clock, int locks) {
+        writeIid = iid;
+        writeThread = thread;
+        writeClock = clock;
+        writeLocks = locks;
+    }
+
+    public int getReaders() {
+        return readers;
+    }
+
+    public int getReadIid(int i) {
+        return i == 0 ? readIid : moreIids[i - 1];
+    }
+
+    public int getReadThread(int i) {
+        return i == 0 ? readThread : moreThreads[i - 1];
+    }
+
+    public long getReadClock(int i) {
+        return i == 0 ? readClock : moreClocks[i - 1];
+    }
+
+    public int getReadLocks(int i) {
+        return i == 0 ? readLocks : moreLocks[i - 1];
+    }
+
+    /**
+     * Makes the access the last read of thread.
+     */
+    public void read(int iid, int thread, long clock, int locks) {
+        if (readers == 0 || readThread == thread) {
+            readIid = iid;
+            readThread = thread;
+            readClock = clock;
+            readLocks = locks;
+            if (readers == 0) readers = 1;
+            return;
+        }
+        int i = 0;
+        while (i < readers - 1 && moreThreads[i] != thread) {
+            i++;
+        }
+        if (i == readers - 1) {
+            if (moreThreads == null || i == moreThreads.length) {
+                int n = moreThreads == null ? 2 : 2 * moreThreads.length;
+                moreIids = copyOf(moreIids, n);
+                moreThreads = copyOf(moreThreads, n);
+                moreClocks = copyOf(moreClocks, n);
+                moreLocks = copyOf(moreLocks, n);
+            }
+            readers++;
+        }
+        moreIids[i] = iid;
+        moreThreads[i] = thread;
+        moreClocks[i] = clock;
+        moreLocks[i] = locks;
+    }
+
+    private static int[] copyOf(int[] a, int n) {
+        int[] ret = new int[n];
+        if (a != null) System.arraycopy(a, 0, ret, 0, a.length);
+        return ret;
+    }
+
+    private static long[] copyOf(long[] a, int n) {
+        long[] ret = new long[n];
+        if (a != null) System.arraycopy(a, 0, ret, 0, a.length);
+        return ret;
+    }
+}
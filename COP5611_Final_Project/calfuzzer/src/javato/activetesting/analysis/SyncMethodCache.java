@@ -1,9 +1,7 @@
 package javato.activetesting.analysis;
 
 import java.lang.reflect.Method;
-import java.util.HashSet;
-import java.util.IdentityHashMap;
-import java.util.TreeSet;
+import java.lang.reflect.Modifier;
 
 /**
  * Copyright (c) 2007-2008,
@@ -38,96 +36,135 @@ import java.util.TreeSet;
  * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
 public class SyncMethodCache {
-    private IdentityHashMap<Class, TreeSet<Integer>> synchronizedIids
-            = new IdentityHashMap<Class, TreeSet<Integer>>();
-    private IdentityHashMap<Class, TreeSet<Integer>> nonSynchronizedIids
-            = new IdentityHashMap<Class, TreeSet<Integer>>();
-
-    private IdentityHashMap<Class, HashSet<String>> synchronizedSigs
-            = new IdentityHashMap<Class, HashSet<String>>();
-    private IdentityHashMap<Class, HashSet<String>> nonSynchronizedSigs
-            = new IdentityHashMap<Class, HashSet<String>>();
+    // answers for one receiver class, keyed by iid; reads take no lock
+    private final ClassValue<SiteTable> tables = new ClassValue<SiteTable>() {
+        protected SiteTable computeValue(Class<?> type) {
+            return new SiteTable(type);
+        }
+    };
 
-    private enum SYNC_STATUS {
-        SYNC, NONSYNC, UNKNOWN
+    /**
+     * Fallback for call sites whose target the instrumentor could not resolve,
+     * i.e. virtual calls where some overriding methods are synchronized and some
+     * are not.
+     *
+     * @param sig name and parameter types of the called method as Soot prints
+     *            them, e.g. foo(int,java.lang.String[])
+     */
+    public boolean isSynchronized(int iid, Object lock, String sig) {
+        return tables.get(lock.getClass()).isSynchronized(iid, sig);
     }
 
-    private SYNC_STATUS getFromCache(int iid, Class cls, String sig) {
-        TreeSet<Integer> syncIids = synchronizedIids.get(cls);
-        if (syncIids != null) {
-            if (syncIids.contains(iid)) return SYNC_STATUS.SYNC;
-        }
-        TreeSet<Integer> nonSyncIids = nonSynchronizedIids.get(cls);
-        if (nonSyncIids != null) {
-            if (nonSyncIids.contains(iid)) return SYNC_STATUS.NONSYNC;
-        }
+    private static final class SiteTable {
+        private final Class type;
+        // open addressing; state is 0 for an empty slot, 1 for false, 2 for true
+        private volatile int[] keys = new int[8];
+        private volatile byte[] states = new byte[8];
 
-        HashSet<String> syncSigs = synchronizedSigs.get(cls);
-        if (syncSigs != null) {
-            if (syncSigs.contains(sig)) return SYNC_STATUS.SYNC;
+        SiteTable(Class type) {
+            this.type = type;
         }
-        HashSet<String> nonSyncSigs = nonSynchronizedSigs.get(cls);
-        if (nonSyncSigs != null) {
-            if (nonSyncSigs.contains(sig)) return SYNC_STATUS.NONSYNC;
-        }
-
-        return SYNC_STATUS.UNKNOWN;
-    }
 
-    private void setToCache(int iid, Class cls, String sig, boolean isSync) {
-        if (isSync) {
-            TreeSet<Integer> syncIids = synchronizedIids.get(cls);
-            if (syncIids == null) {
-                syncIids = new TreeSet<Integer>();
-                synchronizedIids.put(cls, syncIids);
+        boolean isSynchronized(int iid, String sig) {
+            int[] k = keys;
+            byte[] st = states;
+            if (k.length != st.length) {
+                // caught between the two writes of a resize
+                return lookup(iid, sig);
             }
-            syncIids.add(iid);
-            HashSet<String> syncSigs = synchronizedSigs.get(cls);
-            if (syncSigs == null) {
-                syncSigs = new HashSet<String>();
-                synchronizedSigs.put(cls, syncSigs);
+            int mask = k.length - 1;
+            for (int i = mix(iid) & mask; st[i] != 0; i = (i + 1) & mask) {
+                if (k[i] == iid) return st[i] == 2;
             }
-            syncSigs.add(sig);
-        } else {
-            TreeSet<Integer> nonSyncIids = nonSynchronizedIids.get(cls);
-            if (nonSyncIids == null) {
-                nonSyncIids = new TreeSet<Integer>();
-                nonSynchronizedIids.put(cls, nonSyncIids);
+            return lookup(iid, sig);
+        }
+
+        private synchronized boolean lookup(int iid, String sig) {
+            int[] k = keys;
+            byte[] st = states;
+            int mask = k.length - 1;
+            int i = mix(iid) & mask;
+            for (; st[i] != 0; i = (i + 1) & mask) {
+                if (k[i] == iid) return st[i] == 2;
+            }
+            boolean sync = resolve(type, sig);
+            int used = 1;
+            for (byte b : st) {
+                if (b != 0) used++;
             }
-            nonSyncIids.add(iid);
-            HashSet<String> nonSyncSigs = nonSynchronizedSigs.get(cls);
-            if (nonSyncSigs == null) {
-                nonSyncSigs = new HashSet<String>();
-                nonSynchronizedSigs.put(cls, nonSyncSigs);
+            if (used * 2 > k.length) {
+                int[] nk = new int[k.length * 2];
+                byte[] ns = new byte[k.length * 2];
+                int nmask = nk.length - 1;
+                for (int j = 0; j < k.length; j++) {
+                    if (st[j] == 0) continue;
+                    int p = mix(k[j]) & nmask;
+                    while (ns[p] != 0) p = (p + 1) & nmask;
+                    nk[p] = k[j];
+                    ns[p] = st[j];
+                }
+                k = nk;
+                st = ns;
+                mask = nmask;
+                i = mix(iid) & mask;
+                while (st[i] != 0) i = (i + 1) & mask;
             }
-            nonSyncSigs.add(sig);
+            k[i] = iid;
+            st[i] = sync ? (byte) 2 : (byte) 1;
+            keys = k;
+            states = st;
+            return sync;
         }
-    }
 
-    public synchronized boolean isSynchronized(int iid, Object lock, String sig) {
-        Class c = lock.getClass();
-        Class cls = c;
-        SYNC_STATUS stat = getFromCache(iid, cls, sig);
-        if (stat == SYNC_STATUS.SYNC) return true;
-        if (stat == SYNC_STATUS.NONSYNC) return false;
+        private static int mix(int iid) {
+            return iid * 0x9E3779B9;
+        }
+    }
 
-        while (c != null) {
-            Method[] ms = c.getDeclaredMethods();
-            for (Method m : ms) {
-                String mname = m.toString();
-                if (mname.indexOf(sig) != -1) {
-                    if (mname.indexOf("synchronized") != -1) {
-                        setToCache(iid, cls, sig, true);
-                        return true;
-                    } else {
-                        setToCache(iid, cls, sig, false);
-                        return false;
-                    }
+    /**
+     * Finds the method a virtual call with the given signature dispatches to on
+     * an instance of c, matching the name and parameter types exactly so that
+     * overloads are told apart.
+     */
+    static boolean resolve(Class c, String sig) {
+        for (; c != null; c = c.getSuperclass()) {
+            for (Method m : c.getDeclaredMethods()) {
+                int mod = m.getModifiers();
+                if (Modifier.isStatic(mod) || Modifier.isPrivate(mod) || !sig.equals(signature(m))) {
+                    continue;
+                }
+                if (m.isBridge()) {
+                    // the bridge calls the real method, which does the locking
+                    return bridgedIsSynchronized(c, m);
                 }
+                return Modifier.isSynchronized(mod);
+            }
+        }
+        return false;
+    }
+
+    private static boolean bridgedIsSynchronized(Class c, Method bridge) {
+        for (Method m : c.getDeclaredMethods()) {
+            if (!m.isBridge() && m.getName().equals(bridge.getName())
+                    && m.getParameterTypes().length == bridge.getParameterTypes().length
+                    && Modifier.isSynchronized(m.getModifiers())) {
+                return true;
             }
-            c = c.getSuperclass();
         }
-        setToCache(iid, cls, sig, false);
         return false;
     }
+
+    static String signature(Method m) {
+        StringBuilder sb = new StringBuilder(m.getName()).append('(');
+        Class[] params = m.getParameterTypes();
+        for (int i = 0; i < params.length; i++) {
+            if (i > 0) sb.append(',');
+            sb.append(typeName(params[i]));
+        }
+        return sb.append(')').toString();
+    }
+
+    private static String typeName(Class t) {
+        return t.isArray() ? typeName(t.getComponentType()) + "[]" : t.getName();
+    }
 }
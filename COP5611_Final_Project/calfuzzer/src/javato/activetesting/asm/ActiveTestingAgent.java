@@ -0,0 +1,94 @@
+package javato.activetesting.asm;
+
+import javato.activetesting.analysis.EventKind;
+import javato.activetesting.analysis.Observer;
+import javato.activetesting.common.Parameters;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.Instrumentation;
+import java.security.ProtectionDomain;
+import java.util.jar.JarFile;
+
+/**
+ * Copyright (c) 2007-2008,
+ * Koushik Sen    <ksen@cs.berkeley.edu>
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * <p/>
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * <p/>
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * <p/>
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class ActiveTestingAgent implements ClassFileTransformer {
+    private final IidTable table;
+
+    public ActiveTestingAgent(IidTable table) {
+        this.table = table;
+    }
+
+    /**
+     * Instruments application classes as they are loaded, in place of the
+     * offline Soot instrumentor, e.g.
+     * java -javaagent:calfuzzer-agent.jar -Djavato.activetesting.analysis.class=... Main
+     */
+    public static void premain(String args, Instrumentation inst) {
+        final File file = new File(Parameters.agentIidFile);
+        final IidTable table = IidTable.load(file);
+        Observer.setIidToLineMap(table.getLines());
+        Observer.setMethodTable(table.getMethods());
+        EventKind.setInstrumented(ObserverMethodAdapter.events);
+        if (Parameters.bindObserver) {
+            try {
+                inst.appendToSystemClassLoaderSearch(new JarFile(ObserverSpecializer.jar()));
+            } catch (IOException e) {
+                System.err.println("Cannot generate BoundObserver: " + e);
+                e.printStackTrace();
+                System.exit(1);
+            }
+        }
+        inst.addTransformer(new ActiveTestingAgent(table));
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            public void run() {
+                table.save(file);
+            }
+        });
+    }
+
+    public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,
+                            ProtectionDomain protectionDomain, byte[] classfileBuffer) {
+        if (classBeingRedefined != null || !AsmInstrumenter.shouldInstrument(className)) {
+            return null;
+        }
+        try {
+            return AsmInstrumenter.instrument(classfileBuffer, loader, table);
+        } catch (Throwable t) {
+            // the class still runs, only without events
+            System.err.println("Cannot instrument " + className + ": " + t);
+            return null;
+        }
+    }
+}
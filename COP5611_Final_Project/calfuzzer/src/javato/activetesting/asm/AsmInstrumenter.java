@@ -0,0 +1,104 @@
+package javato.activetesting.asm;
+
+import javato.activetesting.analysis.IidGuards;
+import javato.instrumentor.ClassScanner;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * Copyright (c) 2007-2008,
+ * Koushik Sen    <ksen@cs.berkeley.edu>
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * <p/>
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * <p/>
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * <p/>
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class AsmInstrumenter {
+    private static final String[] EXCLUDED = {
+            "java/", "javax/", "sun/", "com/sun/", "jdk/", "javato/", "org/objectweb/asm/", "edu/berkeley/cs/detcheck/"
+    };
+
+    private static class ResolvingClassWriter extends ClassWriter {
+        private final ClassResolver resolver;
+
+        ResolvingClassWriter(int flags, ClassResolver resolver) {
+            super(flags);
+            this.resolver = resolver;
+        }
+
+        // the default loads both classes, which must not happen while one of
+        // them may be the class being defined
+        protected String getCommonSuperClass(String type1, String type2) {
+            return resolver.commonSuperClass(type1, type2);
+        }
+    }
+
+    private AsmInstrumenter() {
+    }
+
+    public static boolean shouldInstrument(String internalName) {
+        if (internalName == null) return false;
+        for (String prefix : EXCLUDED) {
+            if (internalName.startsWith(prefix)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Adds the ObserverForActiveTesting calls the Soot instrumentor would add,
+     * taking the class's iids from table.
+     */
+    public static byte[] instrument(byte[] bytes, ClassLoader loader, IidTable table) {
+        ClassScanner scanner = ClassScanner.scan(bytes);
+        ClassReader cr = new ClassReader(bytes);
+        int version = cr.readUnsignedShort(6);
+        ClassResolver resolver = ClassResolver.forLoader(loader);
+        ClassWriter cw;
+        int readFlags = 0;
+        if (version >= Opcodes.V1_6) {
+            // the inserted code invalidates the stack map frames, so recompute them
+            cw = new ResolvingClassWriter(ClassWriter.COMPUTE_FRAMES, resolver);
+            readFlags = ClassReader.SKIP_FRAMES;
+        } else {
+            cw = new ResolvingClassWriter(ClassWriter.COMPUTE_MAXS, resolver);
+        }
+        IidTable.Range iids = table.assign(scanner.getClassName(), scanner.getIidBound());
+        ObserverClassAdapter adapter = new ObserverClassAdapter(cw, table, iids, resolver);
+        if (ObserverMethodAdapter.eliminateRedundant) {
+            adapter.setBlockStarts(RedundantAccesses.blockStarts(cr, readFlags));
+        }
+        cr.accept(adapter, readFlags);
+        if (ObserverMethodAdapter.guards) {
+            // the class may run in this JVM, so its guards must be in the table
+            synchronized (table.getLines()) {
+                IidGuards.ensureCapacity(table.getLines().size());
+            }
+        }
+        return cw.toByteArray();
+    }
+}
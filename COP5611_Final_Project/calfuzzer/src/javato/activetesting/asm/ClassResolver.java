@@ -0,0 +1,262 @@
+package javato.activetesting.asm;
+
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.Attribute;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+/**
+ * Copyright (c) 2007-2008,
+ * Koushik Sen    <ksen@cs.berkeley.edu>
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * <p/>
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * <p/>
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * <p/>
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class ClassResolver {
+    private static final Map<ClassLoader, ClassResolver> resolvers = new WeakHashMap<ClassLoader, ClassResolver>();
+    private static final ClassResolver bootResolver = new ClassResolver(null);
+
+    private final ClassLoader loader;
+    private final Map<String, Info> infos = new HashMap<String, Info>();
+
+    private static class Info implements ClassVisitor {
+        String superName;
+        String[] interfaces = new String[0];
+        boolean isInterface;
+        final Map<String, Integer> fields = new HashMap<String, Integer>();
+        final Set<String> methods = new HashSet<String>();
+
+        public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+            this.superName = superName;
+            this.interfaces = interfaces == null ? new String[0] : interfaces;
+            this.isInterface = (access & Opcodes.ACC_INTERFACE) != 0;
+        }
+
+        public FieldVisitor visitField(int access, String name, String desc, String signature, Object value) {
+            fields.put(name, access);
+            return null;
+        }
+
+        public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+            methods.add(name + desc);
+            return null;
+        }
+
+        public void visitSource(String source, String debug) { }
+        public void visitOuterClass(String owner, String name, String desc) { }
+        public AnnotationVisitor visitAnnotation(String desc, boolean visible) { return null; }
+        public void visitAttribute(Attribute attr) { }
+        public void visitInnerClass(String name, String outerName, String innerName, int access) { }
+        public void visitEnd() { }
+    }
+
+    private ClassResolver(ClassLoader loader) {
+        this.loader = loader;
+    }
+
+    /**
+     * Answers questions about the classes a loader can see from their class
+     * files, without loading them, since it is used while classes are being
+     * defined.
+     */
+    public static ClassResolver forLoader(ClassLoader loader) {
+        if (loader == null) {
+            return bootResolver;
+        }
+        synchronized (resolvers) {
+            ClassResolver r = resolvers.get(loader);
+            if (r == null) {
+                r = new ClassResolver(loader);
+                resolvers.put(loader, r);
+            }
+            return r;
+        }
+    }
+
+    private synchronized Info info(String name) {
+        if (infos.containsKey(name)) {
+            return infos.get(name);
+        }
+        Info info = null;
+        try {
+            InputStream in = loader == null
+                    ? ClassLoader.getSystemResourceAsStream(name + ".class")
+                    : loader.getResourceAsStream(name + ".class");
+            if (in != null) {
+                try {
+                    info = new Info();
+                    new ClassReader(in).accept(info, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+                } finally {
+                    in.close();
+                }
+            }
+        } catch (Exception e) {
+            // a class file newer than ASM can read
+            info = reflect(name);
+        }
+        infos.put(name, info);
+        return info;
+    }
+
+    // only for classes whose class file cannot be parsed, typically the JDK's own
+    private Info reflect(String name) {
+        try {
+            Class<?> c = Class.forName(name.replace('/', '.'), false, loader);
+            Info info = new Info();
+            info.superName = c.getSuperclass() == null ? null : c.getSuperclass().getName().replace('.', '/');
+            Class<?>[] is = c.getInterfaces();
+            info.interfaces = new String[is.length];
+            for (int i = 0; i < is.length; i++) {
+                info.interfaces[i] = is[i].getName().replace('.', '/');
+            }
+            info.isInterface = c.isInterface();
+            for (Field f : c.getDeclaredFields()) {
+                info.fields.put(f.getName(), f.getModifiers());
+            }
+            for (Method m : c.getDeclaredMethods()) {
+                info.methods.add(m.getName() + Type.getMethodDescriptor(m));
+            }
+            return info;
+        } catch (Throwable t) {
+            return null;
+        }
+    }
+
+    /**
+     * The class that declares the field name as seen from owner, or owner
+     * itself if it cannot be found.
+     */
+    public String declaringClass(String owner, String name) {
+        String d = findField(owner, name, new HashSet<String>());
+        return d == null ? owner : d;
+    }
+
+    private String findField(String c, String name, Set<String> seen) {
+        if (c == null || !seen.add(c)) return null;
+        Info info = info(c);
+        if (info == null) return null;
+        if (info.fields.containsKey(name)) return c;
+        for (String i : info.interfaces) {
+            String d = findField(i, name, seen);
+            if (d != null) return d;
+        }
+        return findField(info.superName, name, seen);
+    }
+
+    /**
+     * The class that declares the method a call to owner.name desc resolves
+     * to, searching superclasses before interfaces as the JVM does, or owner
+     * itself if it cannot be found.
+     */
+    public String declaringMethodClass(String owner, String name, String desc) {
+        for (String c = owner; c != null; c = info(c) == null ? null : info(c).superName) {
+            Info info = info(c);
+            if (info != null && info.methods.contains(name + desc)) return c;
+        }
+        String d = findInterfaceMethod(owner, name + desc, new HashSet<String>());
+        return d == null ? owner : d;
+    }
+
+    private String findInterfaceMethod(String c, String method, Set<String> seen) {
+        if (c == null || !seen.add(c)) return null;
+        Info info = info(c);
+        if (info == null) return null;
+        if (info.isInterface && info.methods.contains(method)) return c;
+        for (String i : info.interfaces) {
+            String d = findInterfaceMethod(i, method, seen);
+            if (d != null) return d;
+        }
+        return findInterfaceMethod(info.superName, method, seen);
+    }
+
+    public boolean isVolatile(String owner, String name) {
+        String d = findField(owner, name, new HashSet<String>());
+        return d != null && Modifier.isVolatile(info(d).fields.get(name));
+    }
+
+    public boolean isSubclassOf(String c, String superName) {
+        for (int i = 0; c != null && i < 100; i++) {
+            if (c.equals(superName)) return true;
+            Info info = info(c);
+            if (info == null) return false;
+            c = info.superName;
+        }
+        return false;
+    }
+
+    /**
+     * True if c is iface or one of its subtypes, or if part of the hierarchy
+     * of c cannot be read.
+     */
+    public boolean mayImplement(String c, String iface) {
+        return mayImplement(c, iface, new HashSet<String>());
+    }
+
+    private boolean mayImplement(String c, String iface, Set<String> seen) {
+        if (c == null || !seen.add(c)) return false;
+        if (c.equals(iface)) return true;
+        Info info = info(c);
+        if (info == null) return true;
+        for (String i : info.interfaces) {
+            if (mayImplement(i, iface, seen)) return true;
+        }
+        return mayImplement(info.superName, iface, seen);
+    }
+
+    /**
+     * What ClassWriter needs to compute frames: the nearest common superclass
+     * of two classes, or Object if either is an interface.
+     */
+    public String commonSuperClass(String a, String b) {
+        Info ia = info(a);
+        Info ib = info(b);
+        if (ia == null || ib == null || ia.isInterface || ib.isInterface) {
+            return "java/lang/Object";
+        }
+        if (isSubclassOf(b, a)) return a;
+        if (isSubclassOf(a, b)) return b;
+        for (String c = ia.superName; c != null; c = info(c) == null ? null : info(c).superName) {
+            if (isSubclassOf(b, c)) return c;
+        }
+        return "java/lang/Object";
+    }
+}
@@ -0,0 +1,247 @@
+package javato.activetesting.asm;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import javato.activetesting.common.Parameters;
+
+/**
+ * Copyright (c) 2007-2008,
+ * Koushik Sen    <ksen@cs.berkeley.edu>
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * <p/>
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * <p/>
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * <p/>
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class IidTable implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final String UNKNOWN_LINE = "unknown.java.html#0";
+
+    private static class ClassEntry implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        int base;
+        int size;
+    }
+
+    /**
+     * The iids of one class, handed out while it is instrumented.
+     */
+    public static class Range {
+        private final IidTable table;
+        private int next;
+        private final int limit;
+
+        Range(IidTable table, int base, int limit) {
+            this.table = table;
+            this.next = base;
+            this.limit = limit;
+        }
+
+        public int next(String line) {
+            if (next >= limit) {
+                throw new IllegalStateException("more iids needed than the " + limit + " estimated");
+            }
+            table.setLine(next, line);
+            return next++;
+        }
+    }
+
+    private final HashMap<String, ClassEntry> classes = new HashMap<String, ClassEntry>();
+    private final HashMap<String, Integer> fieldIds = new HashMap<String, Integer>();
+    private final HashMap<String, Integer> classIds = new HashMap<String, Integer>();
+    private final HashMap<String, Integer> methodIds = new HashMap<String, Integer>();
+    private final ArrayList<String> methods = new ArrayList<String>();
+    // also the lock for everything in here, as Observer reads it while we add to it
+    private final ArrayList<String> lines = new ArrayList<String>();
+
+    /**
+     * Reads the table a previous run saved, so that classes keep their iids
+     * across runs, or starts an empty one.
+     */
+    public static IidTable load(File file) {
+        if (file.exists()) {
+            try {
+                ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)));
+                try {
+                    return (IidTable) in.readObject();
+                } finally {
+                    in.close();
+                }
+            } catch (Exception e) {
+                System.err.println("Ignoring unreadable iid table " + file + ": " + e);
+            }
+        }
+        return new IidTable();
+    }
+
+    /**
+     * Saves the table along with the iid-to-line map and iid count that the
+     * offline instrumentor would have written.
+     */
+    public void save(File file) {
+        synchronized (lines) {
+            try {
+                ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+                out.writeObject(this);
+                out.close();
+            } catch (IOException e) {
+                System.err.println("Error while writing " + file);
+                e.printStackTrace();
+            }
+            saveIidToLine();
+        }
+    }
+
+    /**
+     * Writes iidToLine.map, its html listing, methods.map and javato.iidcount.
+     */
+    public void saveIidToLine() {
+        synchronized (lines) {
+            try {
+                ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(Parameters.iidToLineMapFile)));
+                out.writeObject(lines);
+                out.close();
+                PrintStream html = new PrintStream(new BufferedOutputStream(new FileOutputStream(Parameters.iidToLineMapFile + ".html")));
+                html.println("<html><body>");
+                for (int i = 0; i < lines.size(); i++) {
+                    html.println("<a href=\"tmpclasses/" + lines.get(i) + "\">" + i + "</a><br>");
+                }
+                html.println("</html></body>");
+                html.close();
+                out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(Parameters.methodTableFile)));
+                out.writeObject(methods);
+                out.close();
+                PrintWriter pw = new PrintWriter(Parameters.iidCountFile);
+                pw.println(lines.size());
+                pw.close();
+            } catch (IOException e) {
+                System.err.println("Error while writing " + Parameters.iidToLineMapFile);
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Gives a class its iid range: the one it had before if the estimate
+     * still fits, otherwise a new one after all others.
+     */
+    public Range assign(String className, int bound) {
+        synchronized (lines) {
+            ClassEntry e = classes.get(className);
+            if (e == null || e.size < bound) {
+                e = new ClassEntry();
+                e.base = lines.size();
+                e.size = bound;
+                classes.put(className, e);
+                for (int i = 0; i < bound; i++) {
+                    lines.add(UNKNOWN_LINE);
+                }
+            }
+            return new Range(this, e.base, e.base + e.size);
+        }
+    }
+
+    void setLine(int iid, String line) {
+        synchronized (lines) {
+            lines.set(iid, line);
+        }
+    }
+
+    /**
+     * Field ids, like the offline instrumentor's symbol table, go by name only.
+     */
+    public int fieldId(String name) {
+        synchronized (lines) {
+            Integer id = fieldIds.get(name);
+            if (id == null) {
+                id = fieldIds.size() + 1;
+                fieldIds.put(name, id);
+            }
+            return id;
+        }
+    }
+
+    /**
+     * Stands in for a class in the memory ids of its static fields. Negative,
+     * so that it never equals an object id.
+     */
+    public int classId(String name) {
+        synchronized (lines) {
+            Integer id = classIds.get(name);
+            if (id == null) {
+                id = -(classIds.size() + 1);
+                classIds.put(name, id);
+            }
+            return id;
+        }
+    }
+
+    /**
+     * Method ids go by the signature at the call site, 0, 1, ... in the
+     * order the signatures are first seen.
+     */
+    public int methodId(String signature) {
+        synchronized (lines) {
+            Integer id = methodIds.get(signature);
+            if (id == null) {
+                id = methods.size();
+                methodIds.put(signature, id);
+                synchronized (methods) {
+                    methods.add(signature);
+                }
+            }
+            return id;
+        }
+    }
+
+    /**
+     * The live method id to signature list; lock it to read it while
+     * classes load.
+     */
+    public ArrayList<String> getMethods() {
+        return methods;
+    }
+
+    /**
+     * The live iid-to-line list; lock it to read it while classes load.
+     */
+    public ArrayList<String> getLines() {
+        return lines;
+    }
+}
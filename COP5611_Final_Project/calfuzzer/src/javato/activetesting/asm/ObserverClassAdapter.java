@@ -0,0 +1,200 @@
+package javato.activetesting.asm;
+
+import javato.activetesting.analysis.Observer;
+import javato.activetesting.analysis.ShadowState;
+import javato.activetesting.common.Parameters;
+import org.objectweb.asm.ClassAdapter;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Copyright (c) 2007-2008,
+ * Koushik Sen    <ksen@cs.berkeley.edu>
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * <p/>
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * <p/>
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * <p/>
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class ObserverClassAdapter extends ClassAdapter {
+    static boolean oidField = Parameters.oidField;
+    static String shadowClasses = Parameters.shadowClasses;
+    private final IidTable table;
+    private final IidTable.Range iids;
+    private final ClassResolver resolver;
+    private String className;
+    private int version;
+    private String sourceFile;
+    private boolean isInterface;
+    private boolean hasOidField;
+    private boolean oidAccessors;
+    private boolean hasOidAccessors;
+    // the fields that get a shadow field, with their access flags
+    private final List<String> shadowed = new ArrayList<String>();
+    private final List<Integer> shadowedAccess = new ArrayList<Integer>();
+    private final Set<String> fields = new HashSet<String>();
+    // by method name and descriptor, see RedundantAccesses.blockStarts
+    private Map<String, BitSet> blockStarts;
+
+    public ObserverClassAdapter(ClassVisitor cv, IidTable table, IidTable.Range iids, ClassResolver resolver) {
+        super(cv);
+        this.table = table;
+        this.iids = iids;
+        this.resolver = resolver;
+    }
+
+    public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+        this.className = name;
+        this.version = version;
+        this.isInterface = (access & Opcodes.ACC_INTERFACE) != 0;
+        int slash = name.lastIndexOf('/');
+        int dollar = name.indexOf('$', slash + 1);
+        this.sourceFile = (dollar < 0 ? name : name.substring(0, dollar)) + ".java";
+        if (oidField && !isInterface && OidAccessors.wanted(superName, interfaces, resolver)) {
+            oidAccessors = true;
+            interfaces = OidAccessors.withHolder(interfaces);
+        }
+        super.visit(version, access, name, signature, superName, interfaces);
+    }
+
+    public void visitSource(String source, String debug) {
+        if (source != null) {
+            int slash = className.lastIndexOf('/');
+            sourceFile = className.substring(0, slash + 1) + source;
+        }
+        super.visitSource(source, debug);
+    }
+
+    public FieldVisitor visitField(int access, String name, String desc, String signature, Object value) {
+        if (name.equals(Observer.OID_FIELD)) {
+            hasOidField = true;
+        }
+        fields.add(name);
+        if (!isInterface && shadows(className, name, (access & Opcodes.ACC_STATIC) != 0,
+                (access & Opcodes.ACC_VOLATILE) != 0)) {
+            shadowed.add(name);
+            shadowedAccess.add(access);
+        }
+        return super.visitField(access, name, desc, signature, value);
+    }
+
+    public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+        if (name.equals("javato$getOid") || name.equals("javato$setOid")) {
+            // left by an earlier run, not to be instrumented again
+            hasOidAccessors = true;
+            return super.visitMethod(access, name, desc, signature, exceptions);
+        }
+        boolean hasCode = (access & (Opcodes.ACC_ABSTRACT | Opcodes.ACC_NATIVE)) == 0;
+        boolean synchronize = hasCode && (access & Opcodes.ACC_SYNCHRONIZED) != 0 && !Parameters.ignoreConcurrency
+                && ObserverMethodAdapter.emitsLocks();
+        if (synchronize) {
+            // the adapter takes the monitor itself, so that it can report it
+            access &= ~Opcodes.ACC_SYNCHRONIZED;
+        }
+        MethodVisitor mv = super.visitMethod(access, name, desc, signature, exceptions);
+        if (!hasCode || mv == null) {
+            return mv;
+        }
+        return new ObserverMethodAdapter(mv, this, access, name, synchronize,
+                blockStarts == null ? null : blockStarts.get(name + desc));
+    }
+
+    public void setBlockStarts(Map<String, BitSet> blockStarts) {
+        this.blockStarts = blockStarts;
+    }
+
+    public void visitEnd() {
+        if (oidField && !isInterface && !hasOidField) {
+            FieldVisitor fv = super.visitField(Opcodes.ACC_PRIVATE | Opcodes.ACC_TRANSIENT | Opcodes.ACC_SYNTHETIC,
+                    Observer.OID_FIELD, "I", null, null);
+            if (fv != null) {
+                fv.visitEnd();
+            }
+        }
+        if (oidAccessors && !hasOidAccessors) {
+            OidAccessors.addMethods(cv, className);
+        }
+        for (int i = 0; i < shadowed.size(); i++) {
+            String companion = ShadowState.companion(shadowed.get(i));
+            if (fields.contains(companion)) continue;
+            int access = shadowedAccess.get(i) & (Opcodes.ACC_PUBLIC | Opcodes.ACC_PROTECTED | Opcodes.ACC_PRIVATE);
+            FieldVisitor fv = super.visitField(access | Opcodes.ACC_FINAL | Opcodes.ACC_TRANSIENT | Opcodes.ACC_SYNTHETIC,
+                    companion, ObserverMethodAdapter.SHADOW_DESC, null, null);
+            if (fv != null) {
+                fv.visitEnd();
+            }
+        }
+        super.visitEnd();
+    }
+
+    /**
+     * Whether the field name of the class owner gets a shadow field, see
+     * ShadowState; owner is an internal name, and isStatic and isVolatile
+     * are those of the field.
+     */
+    static boolean shadows(String owner, String name, boolean isStatic, boolean isVolatile) {
+        return !isStatic && !isVolatile && !ShadowState.isCompanion(name) && !name.equals(Observer.OID_FIELD)
+                && ShadowState.shadows(owner.replace('/', '.'), shadowClasses);
+    }
+
+    // the fields of the class that get a shadow field, set by the constructors
+    List<String> getShadowed() {
+        return shadowed;
+    }
+
+    String getClassName() {
+        return className;
+    }
+
+    int getVersion() {
+        return version;
+    }
+
+    String getSourceFile() {
+        return sourceFile;
+    }
+
+    IidTable getTable() {
+        return table;
+    }
+
+    IidTable.Range getIids() {
+        return iids;
+    }
+
+    ClassResolver getResolver() {
+        return resolver;
+    }
+}
@@ -0,0 +1,706 @@
+package javato.activetesting.asm;
+
+import javato.activetesting.analysis.EventKind;
+import javato.activetesting.analysis.ShadowState;
+import javato.activetesting.common.Parameters;
+import javato.instrumentor.ClassScanner;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodAdapter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.EnumSet;
+
+/**
+ * Copyright (c) 2007-2008,
+ * Koushik Sen    <ksen@cs.berkeley.edu>
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * <p/>
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * <p/>
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * <p/>
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class ObserverMethodAdapter extends MethodAdapter implements Opcodes {
+    // with javato.observer.bind the calls go to the copies ObserverSpecializer generates
+    private static final String OBSERVER
+            = Parameters.bindObserver ? ObserverSpecializer.BOUND : ObserverSpecializer.OBSERVER;
+    private static final String HOOKS
+            = Parameters.bindObserver ? ObserverSpecializer.BOUND_HOOKS : ObserverSpecializer.HOOKS;
+    private static final String OBJECT_HOOK = "(ILjava/lang/Object;)V";
+    private static final String ACCESS_HOOK = "(ILjava/lang/Object;I)V";
+    private static final String STATIC_ACCESS_HOOK = "(III)V";
+    private static final String SHADOW = "javato/activetesting/analysis/ShadowState";
+    static final String SHADOW_DESC = "L" + SHADOW + ";";
+    private static final String SHADOW_HOOK = "(ILjava/lang/Object;I" + SHADOW_DESC + ")V";
+    // only the events the analyses to be run subscribe to are instrumented
+    static final EnumSet<EventKind> events = EventKind.forInstrumentation();
+    private static final String GUARDS = "javato/activetesting/analysis/IidGuards";
+    // not final, so that tests can switch it
+    static boolean guards = Parameters.iidGuards;
+    static boolean eliminateRedundant = Parameters.eliminateRedundantAccesses;
+
+    private final ObserverClassAdapter cls;
+    private final boolean isStatic;
+    private final boolean synchronize;
+    private int line = 0;
+    // false until super() or this() has been called in a constructor
+    private boolean thisInitialized;
+    // {iid, 1 if DUPed} for each NEW whose constructor has not been called yet
+    private final ArrayList<int[]> pendingNews = new ArrayList<int[]>();
+    private boolean justNew = false;
+    private final RedundantAccesses redundant = new RedundantAccesses();
+    // see RedundantAccesses.blockStarts; null if every label starts a block
+    private final BitSet blockStarts;
+    private int labels;
+
+    private int lockBeforeIid, lockAfterIid, unlockIid;
+    private final Label bodyStart = new Label();
+
+    public ObserverMethodAdapter(MethodVisitor mv, ObserverClassAdapter cls, int access, String name,
+                                 boolean synchronize, BitSet blockStarts) {
+        super(mv);
+        this.blockStarts = blockStarts;
+        this.cls = cls;
+        this.isStatic = (access & ACC_STATIC) != 0;
+        this.synchronize = synchronize;
+        this.thisInitialized = !name.equals("<init>");
+    }
+
+    static boolean emits(EventKind kind) {
+        return events.contains(kind);
+    }
+
+    static boolean emitsLocks() {
+        return EventKind.any(events, EventKind.LOCK_BEFORE, EventKind.LOCK_AFTER, EventKind.UNLOCK_AFTER);
+    }
+
+    private String line() {
+        return cls.getSourceFile() + ".html#" + line;
+    }
+
+    private int nextIid() {
+        return cls.getIids().next(line());
+    }
+
+    private void push(int value) {
+        if (value >= -1 && value <= 5) {
+            super.visitInsn(ICONST_0 + value);
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            super.visitIntInsn(BIPUSH, value);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            super.visitIntInsn(SIPUSH, value);
+        } else {
+            super.visitLdcInsn(value);
+        }
+    }
+
+    private void observe(String name, String desc) {
+        super.visitMethodInsn(INVOKESTATIC, OBSERVER, name, desc);
+    }
+
+    // [o] -> []
+    private void objectHook(String name, int iid) {
+        push(iid);
+        super.visitInsn(SWAP);
+        observe(name, OBJECT_HOOK);
+    }
+
+    // [o] -> []
+    private void fieldHook(String name, int iid, int field) {
+        push(iid);
+        super.visitInsn(SWAP);
+        push(field);
+        observe(name, ACCESS_HOOK);
+    }
+
+    // [o] -> []; like fieldHook, with the shadow state of the field
+    private void shadowHook(String name, int iid, int field, String owner, String fieldName) {
+        // [o] -> [o, s] -> [iid, o, s] -> [iid, o, field, s]
+        super.visitInsn(DUP);
+        super.visitFieldInsn(GETFIELD, owner, ShadowState.companion(fieldName), SHADOW_DESC);
+        push(iid);
+        super.visitInsn(DUP_X2);
+        super.visitInsn(POP);
+        push(field);
+        super.visitInsn(SWAP);
+        observe(name, SHADOW_HOOK);
+    }
+
+    // [a, i] -> []
+    private void arrayHook(String name, int iid) {
+        push(iid);
+        super.visitInsn(DUP_X2);
+        super.visitInsn(POP);
+        observe(name, ACCESS_HOOK);
+    }
+
+    private void staticHook(String name, int iid, int clss, int field) {
+        push(iid);
+        push(clss);
+        push(field);
+        observe(name, STATIC_ACCESS_HOOK);
+    }
+
+    // [o] -> []
+    private void allocHook(int iid) {
+        push(iid);
+        super.visitInsn(SWAP);
+        if (!isStatic && thisInitialized) {
+            super.visitVarInsn(ALOAD, 0);
+            observe("myNewExprInANonStaticMethodAfter", "(ILjava/lang/Object;Ljava/lang/Object;)V");
+        } else {
+            observe("myNewExprInAStaticMethodAfter", OBJECT_HOOK);
+        }
+    }
+
+    // skips to the returned label, to be placed with endGuard, if the iid is switched off
+    private Label guard(int iid) {
+        if (!guards) return null;
+        Label skip = new Label();
+        push(iid);
+        super.visitMethodInsn(INVOKESTATIC, GUARDS, "isOff", "(I)Z");
+        super.visitJumpInsn(IFNE, skip);
+        return skip;
+    }
+
+    // like guard, for a hook whose operands are already on the stack; pops them instead
+    private Label guardOrPop(int iid, int pop) {
+        if (!guards) return null;
+        Label on = new Label();
+        Label done = new Label();
+        push(iid);
+        super.visitMethodInsn(INVOKESTATIC, GUARDS, "isOff", "(I)Z");
+        super.visitJumpInsn(IFEQ, on);
+        super.visitInsn(pop);
+        super.visitJumpInsn(GOTO, done);
+        super.visitLabel(on);
+        return done;
+    }
+
+    private void endGuard(Label label) {
+        if (label != null) {
+            super.visitLabel(label);
+        }
+    }
+
+    private void loadLock() {
+        if (!isStatic) {
+            super.visitVarInsn(ALOAD, 0);
+        } else if (cls.getVersion() >= V1_5) {
+            super.visitLdcInsn(Type.getObjectType(cls.getClassName()));
+        } else {
+            super.visitLdcInsn(cls.getClassName().replace('/', '.'));
+            super.visitMethodInsn(INVOKESTATIC, "java/lang/Class", "forName", "(Ljava/lang/String;)Ljava/lang/Class;");
+        }
+    }
+
+    private void unlock() {
+        loadLock();
+        super.visitInsn(MONITOREXIT);
+        if (emits(EventKind.UNLOCK_AFTER)) {
+            Label g = guard(unlockIid);
+            loadLock();
+            objectHook("myUnlockAfter", unlockIid);
+            endGuard(g);
+        }
+    }
+
+    public void visitCode() {
+        super.visitCode();
+        if (!thisInitialized) {
+            // before super(), so that the shadow fields are set before anything can see the object
+            for (String field : cls.getShadowed()) {
+                super.visitVarInsn(ALOAD, 0);
+                super.visitTypeInsn(NEW, SHADOW);
+                super.visitInsn(DUP);
+                super.visitMethodInsn(INVOKESPECIAL, SHADOW, "<init>", "()V");
+                super.visitFieldInsn(PUTFIELD, cls.getClassName(), ShadowState.companion(field), SHADOW_DESC);
+            }
+        }
+        if (synchronize) {
+            // given a line once the first line number is seen
+            lockBeforeIid = nextIid();
+            lockAfterIid = nextIid();
+            unlockIid = nextIid();
+            loadLock();
+            if (emits(EventKind.LOCK_BEFORE)) {
+                Label g = guard(lockBeforeIid);
+                super.visitInsn(DUP);
+                objectHook("myLockBefore", lockBeforeIid);
+                endGuard(g);
+            }
+            super.visitInsn(MONITORENTER);
+            if (emits(EventKind.LOCK_AFTER)) {
+                Label g = guard(lockAfterIid);
+                loadLock();
+                objectHook("myLockAfter", lockAfterIid);
+                endGuard(g);
+            }
+            super.visitLabel(bodyStart);
+        }
+    }
+
+    public void visitLineNumber(int line, Label start) {
+        if (synchronize && this.line == 0) {
+            cls.getTable().setLine(lockBeforeIid, cls.getSourceFile() + ".html#" + line);
+            cls.getTable().setLine(lockAfterIid, cls.getSourceFile() + ".html#" + line);
+            cls.getTable().setLine(unlockIid, cls.getSourceFile() + ".html#" + line);
+        }
+        this.line = line;
+        super.visitLineNumber(line, start);
+    }
+
+    public void visitLabel(Label label) {
+        justNew = false;
+        // at the start of a block the accesses made on other paths are unknown
+        if (blockStarts == null || blockStarts.get(labels)) {
+            redundant.clear();
+        }
+        labels++;
+        super.visitLabel(label);
+    }
+
+    public void visitVarInsn(int opcode, int var) {
+        justNew = false;
+        if (opcode >= ILOAD && opcode <= ALOAD) {
+            redundant.load(var);
+        } else if (opcode >= ISTORE && opcode <= ASTORE) {
+            redundant.store(var);
+        } else {
+            redundant.clear();
+        }
+        super.visitVarInsn(opcode, var);
+    }
+
+    public void visitIincInsn(int var, int increment) {
+        redundant.store(var);
+        super.visitIincInsn(var, increment);
+    }
+
+    public void visitLdcInsn(Object cst) {
+        justNew = false;
+        if (cst instanceof Integer) {
+            redundant.constant(cst);
+        } else {
+            redundant.other();
+        }
+        super.visitLdcInsn(cst);
+    }
+
+    // the fall-through successor has no other predecessor, so what is available stays
+    public void visitJumpInsn(int opcode, Label label) {
+        justNew = false;
+        redundant.other();
+        super.visitJumpInsn(opcode, label);
+    }
+
+    public void visitIntInsn(int opcode, int operand) {
+        justNew = false;
+        if (opcode == NEWARRAY) {
+            redundant.other();
+        } else {
+            redundant.constant(operand);
+        }
+        super.visitIntInsn(opcode, operand);
+        if (opcode == NEWARRAY) {
+            newArray();
+        }
+    }
+
+    public void visitTypeInsn(int opcode, String type) {
+        justNew = false;
+        redundant.other();
+        if (opcode == NEW) {
+            pendingNews.add(new int[]{nextIid(), 0});
+            super.visitTypeInsn(opcode, type);
+            justNew = true;
+            return;
+        }
+        super.visitTypeInsn(opcode, type);
+        if (opcode == ANEWARRAY) {
+            newArray();
+        }
+    }
+
+    public void visitMultiANewArrayInsn(String desc, int dims) {
+        justNew = false;
+        redundant.other();
+        super.visitMultiANewArrayInsn(desc, dims);
+        newArray();
+    }
+
+    private void newArray() {
+        int iid = nextIid();
+        if (!Parameters.ignoreAlloc && emits(EventKind.NEW_EXPR_AFTER)) {
+            Label g = guard(iid);
+            super.visitInsn(DUP);
+            allocHook(iid);
+            endGuard(g);
+        }
+    }
+
+    public void visitInsn(int opcode) {
+        if (opcode == DUP && justNew) {
+            pendingNews.get(pendingNews.size() - 1)[1] = 1;
+        }
+        justNew = false;
+        switch (opcode) {
+            case IALOAD: case LALOAD: case FALOAD: case DALOAD:
+            case AALOAD: case BALOAD: case CALOAD: case SALOAD: {
+                boolean again = redundant.arrayLoad() && eliminateRedundant;
+                if (!Parameters.ignoreArrays && EventKind.any(events, EventKind.READ_BEFORE, EventKind.READ_AFTER)) {
+                    arrayLoad(opcode, again);
+                    return;
+                }
+                break;
+            }
+            case ICONST_M1: case ICONST_0: case ICONST_1: case ICONST_2:
+            case ICONST_3: case ICONST_4: case ICONST_5:
+                redundant.constant(opcode - ICONST_0);
+                break;
+            case MONITORENTER: case MONITOREXIT:
+                redundant.clear();
+                break;
+            default:
+                redundant.other();
+        }
+        switch (opcode) {
+            case IASTORE: case LASTORE: case FASTORE: case DASTORE:
+            case AASTORE: case BASTORE: case CASTORE: case SASTORE:
+                if (!Parameters.ignoreArrays && EventKind.any(events, EventKind.WRITE_BEFORE, EventKind.WRITE_AFTER)) {
+                    arrayStore(opcode);
+                    return;
+                }
+                break;
+            case MONITORENTER:
+                if (!Parameters.ignoreConcurrency && EventKind.any(events, EventKind.LOCK_BEFORE, EventKind.LOCK_AFTER)) {
+                    int before = nextIid();
+                    int after = nextIid();
+                    boolean hookBefore = emits(EventKind.LOCK_BEFORE);
+                    boolean hookAfter = emits(EventKind.LOCK_AFTER);
+                    if (hookBefore) {
+                        Label g = guard(before);
+                        super.visitInsn(DUP);
+                        objectHook("myLockBefore", before);
+                        endGuard(g);
+                    }
+                    if (hookAfter) {
+                        super.visitInsn(DUP);
+                        super.visitInsn(MONITORENTER);
+                        Label g = guardOrPop(after, POP);
+                        objectHook("myLockAfter", after);
+                        endGuard(g);
+                    } else {
+                        super.visitInsn(MONITORENTER);
+                    }
+                    return;
+                }
+                break;
+            case MONITOREXIT:
+                if (!Parameters.ignoreConcurrency && emits(EventKind.UNLOCK_AFTER)) {
+                    int iid = nextIid();
+                    super.visitInsn(DUP);
+                    super.visitInsn(MONITOREXIT);
+                    Label g = guardOrPop(iid, POP);
+                    objectHook("myUnlockAfter", iid);
+                    endGuard(g);
+                    return;
+                }
+                break;
+            case IRETURN: case LRETURN: case FRETURN: case DRETURN: case ARETURN: case RETURN:
+                if (synchronize) {
+                    unlock();
+                }
+                break;
+        }
+        super.visitInsn(opcode);
+    }
+
+    private void arrayLoad(int opcode, boolean again) {
+        int before = nextIid();
+        int after = nextIid();
+        if (again) {
+            super.visitInsn(opcode);
+            return;
+        }
+        if (emits(EventKind.READ_BEFORE)) {
+            Label g = guard(before);
+            super.visitInsn(DUP2);
+            arrayHook("myReadBefore", before);
+            endGuard(g);
+        }
+        if (!emits(EventKind.READ_AFTER)) {
+            super.visitInsn(opcode);
+            return;
+        }
+        super.visitInsn(DUP2);
+        super.visitInsn(opcode);
+        if (opcode == LALOAD || opcode == DALOAD) {
+            super.visitInsn(DUP2_X2);
+            super.visitInsn(POP2);
+        } else {
+            super.visitInsn(DUP_X2);
+            super.visitInsn(POP);
+        }
+        Label g = guardOrPop(after, POP2);
+        arrayHook("myReadAfter", after);
+        endGuard(g);
+    }
+
+    // the store itself moves into RuntimeHooks, where the value is out of the way
+    private void arrayStore(int opcode) {
+        int iid = nextIid();
+        nextIid();
+        push(iid);
+        String name, desc;
+        switch (opcode) {
+            case IASTORE: name = "iastore"; desc = "([IIII)V"; break;
+            case LASTORE: name = "lastore"; desc = "([JIJI)V"; break;
+            case FASTORE: name = "fastore"; desc = "([FIFI)V"; break;
+            case DASTORE: name = "dastore"; desc = "([DIDI)V"; break;
+            case AASTORE: name = "aastore"; desc = "([Ljava/lang/Object;ILjava/lang/Object;I)V"; break;
+            case BASTORE: name = "bastore"; desc = "(Ljava/lang/Object;III)V"; break;
+            case CASTORE: name = "castore"; desc = "([CIII)V"; break;
+            default: name = "sastore"; desc = "([SIII)V"; break;
+        }
+        super.visitMethodInsn(INVOKESTATIC, HOOKS, name, desc);
+    }
+
+    public void visitFieldInsn(int opcode, String owner, String name, String desc) {
+        justNew = false;
+        if (Parameters.ignoreFields || !thisInitialized) {
+            redundant.other();
+            super.visitFieldInsn(opcode, owner, name, desc);
+            return;
+        }
+        ClassResolver resolver = cls.getResolver();
+        boolean isVolatile = resolver.isVolatile(owner, name);
+        boolean again = redundant.field(opcode == GETSTATIC || opcode == PUTSTATIC,
+                opcode == PUTSTATIC || opcode == PUTFIELD, resolver.declaringClass(owner, name), name, isVolatile)
+                && eliminateRedundant;
+        boolean wide = desc.equals("J") || desc.equals("D");
+        int field = cls.getTable().fieldId(name);
+        int before = nextIid();
+        int after = nextIid();
+        boolean read = opcode == GETSTATIC || opcode == GETFIELD;
+        boolean hookBefore = emits(read ? EventKind.READ_BEFORE : EventKind.WRITE_BEFORE);
+        // volatile accesses only have a before event
+        boolean hookAfter = !isVolatile && emits(read ? EventKind.READ_AFTER : EventKind.WRITE_AFTER);
+        if (!hookBefore && !hookAfter || again) {
+            super.visitFieldInsn(opcode, owner, name, desc);
+            return;
+        }
+        String beforeHook = (isVolatile ? "myV" : "my") + (read ? "ReadBefore" : "WriteBefore");
+        boolean shadow = opcode != GETSTATIC && opcode != PUTSTATIC
+                && ObserverClassAdapter.shadows(resolver.declaringClass(owner, name), name, false, isVolatile);
+        String afterHook = read ? "myReadAfter" : "myWriteAfter";
+        switch (opcode) {
+            case GETSTATIC:
+            case PUTSTATIC: {
+                int clss = cls.getTable().classId(resolver.declaringClass(owner, name).replace('/', '.'));
+                if (hookBefore) {
+                    Label g = guard(before);
+                    staticHook(beforeHook, before, clss, field);
+                    endGuard(g);
+                }
+                super.visitFieldInsn(opcode, owner, name, desc);
+                if (hookAfter) {
+                    Label g = guard(after);
+                    staticHook(afterHook, after, clss, field);
+                    endGuard(g);
+                }
+                return;
+            }
+            case GETFIELD:
+                // [o] -> [o, o] -> [o, v] -> [v, o] -> [v]
+                if (hookAfter) {
+                    super.visitInsn(DUP);
+                }
+                if (hookBefore) {
+                    Label g = guard(before);
+                    super.visitInsn(DUP);
+                    if (shadow) {
+                        shadowHook(beforeHook, before, field, owner, name);
+                    } else {
+                        fieldHook(beforeHook, before, field);
+                    }
+                    endGuard(g);
+                }
+                super.visitFieldInsn(opcode, owner, name, desc);
+                if (hookAfter) {
+                    if (wide) {
+                        super.visitInsn(DUP2_X1);
+                        super.visitInsn(POP2);
+                    } else {
+                        super.visitInsn(SWAP);
+                    }
+                    Label g = guardOrPop(after, POP);
+                    fieldHook(afterHook, after, field);
+                    endGuard(g);
+                }
+                return;
+            default:
+                // [o, v] -> [v, o] -> [o, v, o], and another o below for the after hook
+                if (wide) {
+                    super.visitInsn(DUP2_X1);
+                    super.visitInsn(POP2);
+                    super.visitInsn(DUP_X2);
+                } else {
+                    super.visitInsn(SWAP);
+                    super.visitInsn(DUP_X1);
+                }
+                if (hookAfter) {
+                    super.visitInsn(wide ? DUP_X2 : DUP_X1);
+                }
+                if (hookBefore) {
+                    Label g = guardOrPop(before, POP);
+                    if (shadow) {
+                        shadowHook(beforeHook, before, field, owner, name);
+                    } else {
+                        fieldHook(beforeHook, before, field);
+                    }
+                    endGuard(g);
+                } else {
+                    super.visitInsn(POP);
+                }
+                super.visitFieldInsn(opcode, owner, name, desc);
+                if (hookAfter) {
+                    Label g = guardOrPop(after, POP);
+                    fieldHook(afterHook, after, field);
+                    endGuard(g);
+                }
+        }
+    }
+
+    public void visitMethodInsn(int opcode, String owner, String name, String desc) {
+        justNew = false;
+        // the callee may lock, wait or notify
+        redundant.clear();
+        if (Parameters.ignoreMethods
+                || !EventKind.any(events, EventKind.METHOD_ENTER_BEFORE, EventKind.METHOD_EXIT_AFTER)) {
+            invoke(opcode, owner, name, desc);
+            return;
+        }
+        int method = cls.getTable().methodId(ClassScanner.methodSymbol(owner, name, desc));
+        int enter = nextIid();
+        int exit = nextIid();
+        if (emits(EventKind.METHOD_ENTER_BEFORE)) {
+            Label g = guard(enter);
+            push(enter);
+            push(method);
+            observe("myMethodEnterBefore", "(II)V");
+            endGuard(g);
+        }
+        invoke(opcode, owner, name, desc);
+        if (emits(EventKind.METHOD_EXIT_AFTER)) {
+            Label g = guard(exit);
+            push(exit);
+            push(method);
+            observe("myMethodExitAfter", "(II)V");
+            endGuard(g);
+        }
+    }
+
+    private void invoke(int opcode, String owner, String name, String desc) {
+        if (opcode == INVOKESPECIAL && name.equals("<init>")) {
+            super.visitMethodInsn(opcode, owner, name, desc);
+            if (pendingNews.isEmpty()) {
+                thisInitialized = true;
+            } else {
+                int[] pending = pendingNews.remove(pendingNews.size() - 1);
+                if (pending[1] == 1 && !Parameters.ignoreAlloc && emits(EventKind.NEW_EXPR_AFTER)) {
+                    Label g = guard(pending[0]);
+                    super.visitInsn(DUP);
+                    allocHook(pending[0]);
+                    endGuard(g);
+                }
+            }
+            return;
+        }
+        if (!Parameters.ignoreConcurrency && (opcode == INVOKEVIRTUAL || opcode == INVOKEINTERFACE)) {
+            String hook = null;
+            String hookDesc = null;
+            int iids = 1;
+            if (name.equals("wait") && (desc.equals("()V") || desc.equals("(J)V") || desc.equals("(JI)V"))) {
+                if (EventKind.any(events, EventKind.WAIT_BEFORE, EventKind.WAIT_AFTER)) {
+                    hook = "wait";
+                }
+                iids = 2;
+            } else if (name.equals("notify") && desc.equals("()V")) {
+                if (emits(EventKind.NOTIFY_BEFORE)) {
+                    hook = name;
+                }
+            } else if (name.equals("notifyAll") && desc.equals("()V")) {
+                if (emits(EventKind.NOTIFY_ALL_BEFORE)) {
+                    hook = name;
+                }
+            } else if (opcode == INVOKEVIRTUAL && !owner.startsWith("[")
+                    && cls.getResolver().isSubclassOf(owner, "java/lang/Thread")) {
+                if (name.equals("start") && desc.equals("()V")) {
+                    if (EventKind.any(events, EventKind.START_BEFORE, EventKind.START_AFTER)) {
+                        hook = "start";
+                    }
+                    iids = 2;
+                } else if (name.equals("join") && (desc.equals("()V") || desc.equals("(J)V") || desc.equals("(JI)V"))) {
+                    if (emits(EventKind.JOIN_AFTER)) {
+                        hook = "join";
+                    }
+                }
+                hookDesc = "(Ljava/lang/Thread;" + desc.substring(1, desc.length() - 2) + "I)V";
+            }
+            if (hook != null) {
+                if (hookDesc == null) {
+                    hookDesc = "(Ljava/lang/Object;" + desc.substring(1, desc.length() - 2) + "I)V";
+                }
+                int iid = nextIid();
+                for (int i = 1; i < iids; i++) {
+                    nextIid();
+                }
+                push(iid);
+                super.visitMethodInsn(INVOKESTATIC, HOOKS, hook, hookDesc);
+                return;
+            }
+        }
+        super.visitMethodInsn(opcode, owner, name, desc);
+    }
+
+    public void visitMaxs(int maxStack, int maxLocals) {
+        if (synchronize) {
+            // releases the monitor when the body throws, like the JVM would
+            Label bodyEnd = new Label();
+            Label handler = new Label();
+            super.visitLabel(bodyEnd);
+            super.visitLabel(handler);
+            unlock();
+            super.visitInsn(ATHROW);
+            super.visitTryCatchBlock(bodyStart, bodyEnd, handler, null);
+        }
+        super.visitMaxs(maxStack, maxLocals);
+    }
+}
@@ -0,0 +1,315 @@
+package javato.activetesting.asm;
+
+import org.objectweb.asm.ClassAdapter;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodAdapter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Set;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+/**
+ * Copyright (c) 2007-2008,
+ * Koushik Sen    <ksen@cs.berkeley.edu>
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * <p/>
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * <p/>
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * <p/>
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class ObserverSpecializer implements Opcodes {
+    public static final String OBSERVER = "javato/activetesting/analysis/ObserverForActiveTesting";
+    public static final String BOUND = "javato/activetesting/analysis/BoundObserver";
+    public static final String HOOKS = "javato/activetesting/asm/RuntimeHooks";
+    public static final String BOUND_HOOKS = "javato/activetesting/asm/BoundRuntimeHooks";
+    private static final String ANALYSIS_DESC = "Ljavato/activetesting/analysis/PrimitiveAnalysis;";
+
+    private static Set<String> hooks;
+
+    /*
+     * ObserverForActiveTesting calls the analysis through a field that anyone
+     * may assign, so the JIT can only inline the analysis into a hook when the
+     * hook has seen a single analysis class so far. BoundObserver is a copy of
+     * the hooks of ObserverForActiveTesting that reads the analysis from a
+     * static final field instead, which HotSpot folds into a constant once
+     * the class is initialized: every call to the analysis is then direct and
+     * can be inlined, up into the instrumented code. The field is set from
+     * ObserverForActiveTesting.analysis when BoundObserver is initialized, so
+     * that later assignments to that field are not seen by BoundObserver.
+     */
+
+    private static boolean isHook(int access, String name) {
+        return (access & ACC_STATIC) != 0 && (access & (ACC_PRIVATE | ACC_SYNTHETIC)) == 0
+                && !name.equals("<clinit>");
+    }
+
+    /**
+     * Returns the name and descriptor of each method BoundObserver copies.
+     */
+    static synchronized Set<String> hooks() {
+        if (hooks == null) {
+            final Set<String> ret = new HashSet<String>();
+            new ClassReader(resource(OBSERVER)).accept(new ClassAdapter(new ClassWriter(0)) {
+                public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+                    if (isHook(access, name)) ret.add(name + desc);
+                    return null;
+                }
+            }, ClassReader.SKIP_CODE);
+            hooks = ret;
+        }
+        return hooks;
+    }
+
+    /**
+     * Returns BoundObserver.
+     */
+    public static byte[] generate() {
+        ClassWriter cw = new ClassWriter(0);
+        new ClassReader(resource(OBSERVER)).accept(new Copier(cw, OBSERVER, BOUND, hooks()) {
+            public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+                super.visit(version, access | ACC_FINAL, name, signature, superName, interfaces);
+                FieldVisitor fv = cv.visitField(ACC_PRIVATE | ACC_STATIC | ACC_FINAL, "analysis", ANALYSIS_DESC, null, null);
+                fv.visitEnd();
+                MethodVisitor mv = cv.visitMethod(ACC_STATIC, "<clinit>", "()V", null, null);
+                mv.visitCode();
+                mv.visitFieldInsn(GETSTATIC, OBSERVER, "analysis", ANALYSIS_DESC);
+                mv.visitFieldInsn(PUTSTATIC, BOUND, "analysis", ANALYSIS_DESC);
+                mv.visitInsn(RETURN);
+                mv.visitMaxs(1, 0);
+                mv.visitEnd();
+            }
+
+            public FieldVisitor visitField(int access, String name, String desc, String signature, Object value) {
+                return null;
+            }
+
+            public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+                return isHook(access, name) ? super.visitMethod(access, name, desc, signature, exceptions) : null;
+            }
+        }, 0);
+        return cw.toByteArray();
+    }
+
+    /**
+     * Returns BoundRuntimeHooks, the RuntimeHooks that call BoundObserver.
+     */
+    public static byte[] generateHooks() {
+        ClassWriter cw = new ClassWriter(0);
+        new ClassReader(resource(HOOKS)).accept(new Copier(cw, HOOKS, BOUND_HOOKS, hooks()), 0);
+        return cw.toByteArray();
+    }
+
+    /**
+     * Returns the class with its calls to ObserverForActiveTesting turned
+     * into calls to BoundObserver, or the class itself if it has none.
+     */
+    public static byte[] retarget(byte[] bytes) {
+        final boolean[] changed = new boolean[1];
+        ClassReader cr = new ClassReader(bytes);
+        ClassWriter cw = new ClassWriter(cr, 0);
+        final Set<String> hooks = hooks();
+        cr.accept(new ClassAdapter(cw) {
+            public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+                return new MethodAdapter(super.visitMethod(access, name, desc, signature, exceptions)) {
+                    public void visitMethodInsn(int opcode, String owner, String name, String desc) {
+                        if (opcode == INVOKESTATIC && owner.equals(OBSERVER) && hooks.contains(name + desc)) {
+                            owner = BOUND;
+                            changed[0] = true;
+                        }
+                        super.visitMethodInsn(opcode, owner, name, desc);
+                    }
+                };
+            }
+        }, 0);
+        return changed[0] ? cw.toByteArray() : bytes;
+    }
+
+    /**
+     * Writes BoundObserver into the instrumented classes in dir and makes
+     * them call it; returns the number of classes changed.
+     */
+    public static int bind(File dir) throws IOException {
+        LinkedList<File> todo = new LinkedList<File>();
+        todo.add(dir);
+        int n = 0;
+        while (!todo.isEmpty()) {
+            File[] files = todo.removeFirst().listFiles();
+            if (files == null) continue;
+            for (File f : files) {
+                if (f.isDirectory()) {
+                    todo.add(f);
+                } else if (f.getName().endsWith(".class")) {
+                    byte[] bytes = read(f);
+                    byte[] out = retarget(bytes);
+                    if (out != bytes) {
+                        write(f, out);
+                        n++;
+                    }
+                }
+            }
+        }
+        write(dir);
+        return n;
+    }
+
+    /**
+     * Writes BoundObserver and BoundRuntimeHooks below dir.
+     */
+    public static void write(File dir) throws IOException {
+        File f = new File(dir, BOUND + ".class");
+        f.getParentFile().mkdirs();
+        write(f, generate());
+        f = new File(dir, BOUND_HOOKS + ".class");
+        f.getParentFile().mkdirs();
+        write(f, generateHooks());
+    }
+
+    /**
+     * Returns a temporary jar with BoundObserver and BoundRuntimeHooks, for
+     * the load-time agent to add to the class path.
+     */
+    public static File jar() throws IOException {
+        File f = File.createTempFile("javato-bound", ".jar");
+        f.deleteOnExit();
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(f));
+        try {
+            out.putNextEntry(new ZipEntry(BOUND + ".class"));
+            out.write(generate());
+            out.closeEntry();
+            out.putNextEntry(new ZipEntry(BOUND_HOOKS + ".class"));
+            out.write(generateHooks());
+            out.closeEntry();
+        } finally {
+            out.close();
+        }
+        return f;
+    }
+
+    /**
+     * Copies the class from to the class to, with its reads of the analysis
+     * and calls to the hooks of ObserverForActiveTesting going to BoundObserver,
+     * and its calls to itself going to the copy.
+     */
+    private static class Copier extends ClassAdapter {
+        private final String from;
+        private final String to;
+        private final Set<String> hooks;
+
+        Copier(ClassWriter cw, String from, String to, Set<String> hooks) {
+            super(cw);
+            this.from = from;
+            this.to = to;
+            this.hooks = hooks;
+        }
+
+        public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+            super.visit(version, access, to, signature, superName, interfaces);
+        }
+
+        public void visitOuterClass(String owner, String name, String desc) {
+        }
+
+        public void visitInnerClass(String name, String outerName, String innerName, int access) {
+        }
+
+        public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+            return new MethodAdapter(super.visitMethod(access, name, desc, signature, exceptions)) {
+                public void visitFieldInsn(int opcode, String owner, String name, String desc) {
+                    if (opcode == GETSTATIC && owner.equals(OBSERVER) && name.equals("analysis")) {
+                        owner = BOUND;
+                    }
+                    super.visitFieldInsn(opcode, owner, name, desc);
+                }
+
+                public void visitMethodInsn(int opcode, String owner, String name, String desc) {
+                    if (opcode == INVOKESTATIC && owner.equals(OBSERVER) && hooks.contains(name + desc)) {
+                        owner = BOUND;
+                    } else if (owner.equals(from) && !from.equals(OBSERVER)) {
+                        owner = to;
+                    }
+                    super.visitMethodInsn(opcode, owner, name, desc);
+                }
+            };
+        }
+    }
+
+    private static byte[] resource(String name) {
+        InputStream in = ObserverSpecializer.class.getClassLoader().getResourceAsStream(name + ".class");
+        if (in == null) {
+            throw new IllegalStateException("Cannot find " + name);
+        }
+        try {
+            try {
+                return read(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    static byte[] read(File f) throws IOException {
+        InputStream in = new FileInputStream(f);
+        try {
+            return read(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int n;
+        while ((n = in.read(buf)) > 0) {
+            out.write(buf, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    static void write(File f, byte[] bytes) throws IOException {
+        OutputStream os = new FileOutputStream(f);
+        try {
+            os.write(bytes);
+        } finally {
+            os.close();
+        }
+    }
+}
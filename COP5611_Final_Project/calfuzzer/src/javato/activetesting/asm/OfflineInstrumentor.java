@@ -0,0 +1,279 @@
+package javato.activetesting.asm;
+
+import javato.activetesting.analysis.EventKind;
+import javato.activetesting.common.Parameters;
+import org.objectweb.asm.ClassReader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Copyright (c) 2007-2008,
+ * Koushik Sen    <ksen@cs.berkeley.edu>
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * <p/>
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * <p/>
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * <p/>
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class OfflineInstrumentor {
+    // Soot options that take a value we have no use for
+    private static final Set<String> IGNORED_WITH_VALUE = new HashSet<String>();
+
+    static {
+        IGNORED_WITH_VALUE.add("-f");
+        IGNORED_WITH_VALUE.add("-output-format");
+        IGNORED_WITH_VALUE.add("-i");
+        IGNORED_WITH_VALUE.add("-include");
+        IGNORED_WITH_VALUE.add("-main-class");
+    }
+
+    private final List<String> inputs = new ArrayList<String>();
+    private final List<String> excludes = new ArrayList<String>();
+    private final List<String> mainClasses = new ArrayList<String>();
+    private String outDir = "sootOutput";
+    private String classPath = System.getProperty("java.class.path");
+    private final IidTable table = new IidTable();
+    private ClassLoader loader;
+    private int instrumented = 0;
+
+    /**
+     * Takes the arguments the instr target passes to Soot, so that either
+     * backend can be chosen with javato.instr.backend alone.
+     */
+    public OfflineInstrumentor(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String a = args[i];
+            if (a.equals("-d") || a.equals("-output-dir")) {
+                outDir = args[++i];
+            } else if (a.equals("-process-dir")) {
+                inputs.add(args[++i]);
+            } else if (a.equals("-x") || a.equals("-exclude")) {
+                excludes.add(args[++i]);
+            } else if (a.equals("-cp") || a.equals("-soot-classpath") || a.equals("-soot-class-path")) {
+                classPath = args[++i];
+            } else if (a.equals("-p") || a.equals("-phase-option")) {
+                i += 2;
+            } else if (IGNORED_WITH_VALUE.contains(a)) {
+                i++;
+            } else if (!a.startsWith("-")) {
+                mainClasses.add(a);
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        new OfflineInstrumentor(args).run();
+    }
+
+    public void run() {
+        long start = System.currentTimeMillis();
+        List<URL> urls = new ArrayList<URL>();
+        for (String p : inputs) {
+            urls.add(toURL(p));
+        }
+        for (String p : classPath.split(File.pathSeparator)) {
+            if (p.length() > 0) urls.add(toURL(p));
+        }
+        loader = new URLClassLoader(urls.toArray(new URL[urls.size()]), null);
+        try {
+            if (inputs.isEmpty()) {
+                instrumentReachable();
+            } else {
+                for (String p : inputs) {
+                    File f = new File(p);
+                    if (f.isDirectory()) {
+                        instrumentDir(f);
+                    } else {
+                        instrumentJar(f);
+                    }
+                }
+            }
+            if (Parameters.bindObserver) {
+                ObserverSpecializer.write(new File(outDir));
+            }
+        } catch (IOException e) {
+            System.err.println("Error while instrumenting: " + e);
+            e.printStackTrace();
+            System.exit(1);
+        }
+        table.saveIidToLine();
+        EventKind.write(Parameters.instrEventsFile, ObserverMethodAdapter.events);
+        System.out.println("Instrumented " + instrumented + " classes with ASM in "
+                + (System.currentTimeMillis() - start) + " ms");
+        if (Parameters.eliminateRedundantAccesses) {
+            System.out.println(RedundantAccesses.statistics());
+        }
+    }
+
+    private static URL toURL(String path) {
+        try {
+            return new File(path).toURI().toURL();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private boolean isExcluded(String internalName) {
+        String dotted = internalName.replace('/', '.');
+        for (String x : excludes) {
+            if (dotted.startsWith(x)) return true;
+        }
+        return !AsmInstrumenter.shouldInstrument(internalName);
+    }
+
+    private void instrumentDir(File dir) throws IOException {
+        LinkedList<File> todo = new LinkedList<File>();
+        todo.add(dir);
+        List<File> classes = new ArrayList<File>();
+        while (!todo.isEmpty()) {
+            File[] files = todo.removeFirst().listFiles();
+            if (files == null) continue;
+            for (File f : files) {
+                if (f.isDirectory()) {
+                    todo.add(f);
+                } else if (f.getName().endsWith(".class")) {
+                    classes.add(f);
+                }
+            }
+        }
+        for (File f : classes) {
+            InputStream in = new FileInputStream(f);
+            try {
+                process(read(in), true);
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    private void instrumentJar(File jar) throws IOException {
+        ZipFile zip = new ZipFile(jar);
+        try {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry e = entries.nextElement();
+                if (e.getName().endsWith(".class")) {
+                    InputStream in = zip.getInputStream(e);
+                    try {
+                        process(read(in), true);
+                    } finally {
+                        in.close();
+                    }
+                }
+            }
+        } finally {
+            zip.close();
+        }
+    }
+
+    // without -process-dir, Soot instruments what the main classes reach
+    private void instrumentReachable() throws IOException {
+        Set<String> seen = new HashSet<String>();
+        LinkedList<String> todo = new LinkedList<String>();
+        for (String c : mainClasses) {
+            todo.add(c.replace('.', '/'));
+        }
+        char[] buf = new char[1024];
+        while (!todo.isEmpty()) {
+            String name = todo.removeFirst();
+            if (!seen.add(name) || isExcluded(name)) continue;
+            InputStream in = loader.getResourceAsStream(name + ".class");
+            if (in == null) continue;
+            byte[] bytes;
+            try {
+                bytes = read(in);
+            } finally {
+                in.close();
+            }
+            process(bytes, false);
+            ClassReader cr = new ClassReader(bytes);
+            int n = cr.readUnsignedShort(8);
+            for (int i = 1; i < n; i++) {
+                int item = cr.getItem(i);
+                // CONSTANT_Class
+                if (item > 0 && cr.b[item - 1] == 7) {
+                    String ref = cr.readUTF8(item, buf);
+                    int dims = 0;
+                    while (dims < ref.length() && ref.charAt(dims) == '[') dims++;
+                    if (dims > 0) {
+                        if (ref.charAt(dims) != 'L') continue;
+                        ref = ref.substring(dims + 1, ref.length() - 1);
+                    }
+                    todo.add(ref);
+                }
+            }
+        }
+    }
+
+    private void process(byte[] bytes, boolean keepExcluded) throws IOException {
+        String name = new ClassReader(bytes).getClassName();
+        byte[] out = bytes;
+        if (isExcluded(name)) {
+            if (!keepExcluded) return;
+        } else {
+            try {
+                out = AsmInstrumenter.instrument(bytes, loader, table);
+                instrumented++;
+            } catch (Throwable t) {
+                System.err.println("Cannot instrument " + name + ", copying it unchanged: " + t);
+            }
+        }
+        File f = new File(outDir, name + ".class");
+        f.getParentFile().mkdirs();
+        OutputStream os = new FileOutputStream(f);
+        try {
+            os.write(out);
+        } finally {
+            os.close();
+        }
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int n;
+        while ((n = in.read(buf)) > 0) {
+            out.write(buf, 0, n);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,180 @@
+package javato.activetesting.asm;
+
+import javato.activetesting.analysis.Observer;
+import org.objectweb.asm.ClassAdapter;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+import java.util.LinkedList;
+
+/**
+ * Copyright (c) 2007-2008,
+ * Koushik Sen    <ksen@cs.berkeley.edu>
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * <p/>
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * <p/>
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * <p/>
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class OidAccessors implements Opcodes {
+    public static final String HOLDER = "javato/activetesting/analysis/ObjectIdHolder";
+    private static final String[] EXCLUDED = {"java/io/Serializable", "java/lang/Cloneable"};
+
+    /*
+     * A class with an Observer.OID_FIELD also implements ObjectIdHolder, so
+     * that Observer.uniqueId reads and writes the field through an interface
+     * call the JIT can inline instead of reflection. Serializable classes keep
+     * only the field, as the interface and its methods would change their
+     * default serialVersionUID, and so do Cloneable classes, whose ids are
+     * never cached. Classes whose hierarchy cannot be read count as both.
+     */
+
+    private OidAccessors() {
+    }
+
+    static boolean wanted(String superName, String[] interfaces, ClassResolver resolver) {
+        for (String s : EXCLUDED) {
+            if (superName != null && resolver.mayImplement(superName, s)) return false;
+            if (interfaces == null) continue;
+            for (String i : interfaces) {
+                if (resolver.mayImplement(i, s)) return false;
+            }
+        }
+        return true;
+    }
+
+    static String[] withHolder(String[] interfaces) {
+        if (interfaces == null) {
+            return new String[]{HOLDER};
+        }
+        if (Arrays.asList(interfaces).contains(HOLDER)) {
+            return interfaces;
+        }
+        String[] ret = new String[interfaces.length + 1];
+        System.arraycopy(interfaces, 0, ret, 0, interfaces.length);
+        ret[interfaces.length] = HOLDER;
+        return ret;
+    }
+
+    static void addMethods(ClassVisitor cv, String owner) {
+        MethodVisitor mv = cv.visitMethod(ACC_PUBLIC | ACC_SYNTHETIC, "javato$getOid", "()I", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitFieldInsn(GETFIELD, owner, Observer.OID_FIELD, "I");
+        mv.visitInsn(IRETURN);
+        mv.visitMaxs(1, 1);
+        mv.visitEnd();
+        mv = cv.visitMethod(ACC_PUBLIC | ACC_SYNTHETIC, "javato$setOid", "(I)V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitVarInsn(ILOAD, 1);
+        mv.visitFieldInsn(PUTFIELD, owner, Observer.OID_FIELD, "I");
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(2, 2);
+        mv.visitEnd();
+    }
+
+    /**
+     * Returns the class with the accessors added if it declares the field
+     * but not the accessors yet, or the class itself.
+     */
+    public static byte[] add(byte[] bytes, ClassResolver resolver) {
+        ClassReader cr = new ClassReader(bytes);
+        if ((cr.getAccess() & ACC_INTERFACE) != 0 || Arrays.asList(cr.getInterfaces()).contains(HOLDER)
+                || !wanted(cr.getSuperName(), cr.getInterfaces(), resolver)) {
+            return bytes;
+        }
+        final boolean[] hasField = new boolean[1];
+        ClassWriter cw = new ClassWriter(cr, 0);
+        cr.accept(new ClassAdapter(cw) {
+            private String name;
+
+            public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+                this.name = name;
+                super.visit(version, access, name, signature, superName, withHolder(interfaces));
+            }
+
+            public FieldVisitor visitField(int access, String name, String desc, String signature, Object value) {
+                if (name.equals(Observer.OID_FIELD) && desc.equals("I") && (access & ACC_STATIC) == 0) {
+                    hasField[0] = true;
+                }
+                return super.visitField(access, name, desc, signature, value);
+            }
+
+            public void visitEnd() {
+                if (hasField[0]) {
+                    addMethods(cv, name);
+                }
+                super.visitEnd();
+            }
+        }, 0);
+        return hasField[0] ? cw.toByteArray() : bytes;
+    }
+
+    /**
+     * Adds the accessors to the classes below dir that the Soot instrumentor
+     * gave the field; the classes they extend are looked up in dir and then
+     * on the class path. Returns the number of classes changed.
+     */
+    public static int addTo(File dir) throws IOException {
+        URLClassLoader loader = new URLClassLoader(new URL[]{dir.toURI().toURL()},
+                OidAccessors.class.getClassLoader());
+        try {
+            ClassResolver resolver = ClassResolver.forLoader(loader);
+            LinkedList<File> todo = new LinkedList<File>();
+            todo.add(dir);
+            int n = 0;
+            while (!todo.isEmpty()) {
+                File[] files = todo.removeFirst().listFiles();
+                if (files == null) continue;
+                for (File f : files) {
+                    if (f.isDirectory()) {
+                        todo.add(f);
+                    } else if (f.getName().endsWith(".class")) {
+                        byte[] bytes = ObserverSpecializer.read(f);
+                        byte[] out = add(bytes, resolver);
+                        if (out != bytes) {
+                            ObserverSpecializer.write(f, out);
+                            n++;
+                        }
+                    }
+                }
+            }
+            return n;
+        } finally {
+            loader.close();
+        }
+    }
+}
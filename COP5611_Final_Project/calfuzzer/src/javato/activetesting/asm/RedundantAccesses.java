@@ -0,0 +1,236 @@
+package javato.activetesting.asm;
+
+import org.objectweb.asm.ClassAdapter;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodAdapter;
+import org.objectweb.asm.MethodVisitor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Copyright (c) 2007-2008,
+ * Koushik Sen    <ksen@cs.berkeley.edu>
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * <p/>
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * <p/>
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * <p/>
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+/**
+ * The redundant access filter of javato.instrumentor.RedundantAccessAnalysis
+ * for the ASM backend, fed the instructions of one method in order. An
+ * access is redundant if the same access (read or write, base local, field
+ * or index) was made before in the same basic block, with no monitor, call,
+ * volatile access or store to the base or index local in between.
+ * <p/>
+ * Unlike the Soot pass nothing is carried across labels, and only accesses
+ * whose base and index are pushed by the instructions right before them
+ * are recognized: field reads of a local, array reads of a local at a local
+ * or constant index, and static field reads and writes.
+ */
+class RedundantAccesses {
+    private static final AtomicInteger sites = new AtomicInteger();
+    private static final AtomicInteger redundant = new AtomicInteger();
+
+    // base and index are "v" + local or "c" + constant
+    private static final class Access {
+        final String base;
+        final String index;
+        final String field;
+        final boolean write;
+
+        Access(String base, String index, String field, boolean write) {
+            this.base = base;
+            this.index = index;
+            this.field = field;
+            this.write = write;
+        }
+
+        boolean uses(String local) {
+            return local.equals(base) || local.equals(index);
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof Access)) return false;
+            Access a = (Access) o;
+            return write == a.write && eq(base, a.base) && eq(index, a.index) && eq(field, a.field);
+        }
+
+        public int hashCode() {
+            return (String.valueOf(base) + index + field).hashCode() * 2 + (write ? 1 : 0);
+        }
+
+        private static boolean eq(String a, String b) {
+            return a == null ? b == null : a.equals(b);
+        }
+    }
+
+    private final ArrayList<Access> available = new ArrayList<Access>();
+    // what the last two instructions pushed, if they were local loads or constants
+    private String last, beforeLast;
+
+    void load(int var) {
+        push("v" + var);
+    }
+
+    void constant(Object value) {
+        push("c" + value);
+    }
+
+    private void push(String operand) {
+        beforeLast = last;
+        last = operand;
+    }
+
+    /** Any other instruction that does not end the region. */
+    void other() {
+        last = beforeLast = null;
+    }
+
+    void store(int var) {
+        String local = "v" + var;
+        for (int i = available.size() - 1; i >= 0; i--) {
+            if (available.get(i).uses(local)) available.remove(i);
+        }
+        other();
+    }
+
+    /** A label, call or monitor instruction. */
+    void clear() {
+        available.clear();
+        other();
+    }
+
+    /**
+     * Returns true if the field access repeats one available here.
+     */
+    boolean field(boolean isStatic, boolean write, String declaring, String name, boolean isVolatile) {
+        if (isVolatile) {
+            clear();
+            return false;
+        }
+        sites.incrementAndGet();
+        String base = isStatic ? null : last;
+        if (!isStatic && (write || base == null || !base.startsWith("v"))) {
+            other();
+            return false;
+        }
+        return repeated(new Access(base, null, declaring + "." + name, write));
+    }
+
+    /**
+     * Returns true if the array read repeats one available here.
+     */
+    boolean arrayLoad() {
+        sites.incrementAndGet();
+        if (beforeLast == null || !beforeLast.startsWith("v") || last == null) {
+            other();
+            return false;
+        }
+        return repeated(new Access(beforeLast, last, null, false));
+    }
+
+    private boolean repeated(Access a) {
+        other();
+        if (available.contains(a)) {
+            redundant.incrementAndGet();
+            return true;
+        }
+        available.add(a);
+        return false;
+    }
+
+    /**
+     * For each method, by name and descriptor, the labels that start a block:
+     * jump and switch targets and exception handlers, numbered in the order
+     * the reader visits them. Other labels, such as those of line numbers, do
+     * not end a block. The reader must be run with the flags of the pass
+     * that instruments, so that it visits the same labels.
+     */
+    static Map<String, BitSet> blockStarts(ClassReader cr, int flags) {
+        final Map<String, BitSet> ret = new HashMap<String, BitSet>();
+        cr.accept(new ClassAdapter(new ClassWriter(0)) {
+            public MethodVisitor visitMethod(int access, final String name, final String desc,
+                                             String signature, String[] exceptions) {
+                return new MethodAdapter(super.visitMethod(access, name, desc, signature, exceptions)) {
+                    private final Map<Label, Integer> ordinals = new HashMap<Label, Integer>();
+                    private final Set<Label> targets = new HashSet<Label>();
+
+                    public void visitLabel(Label label) {
+                        ordinals.put(label, ordinals.size());
+                        super.visitLabel(label);
+                    }
+
+                    public void visitJumpInsn(int opcode, Label label) {
+                        targets.add(label);
+                        super.visitJumpInsn(opcode, label);
+                    }
+
+                    public void visitTableSwitchInsn(int min, int max, Label dflt, Label[] labels) {
+                        targets.add(dflt);
+                        targets.addAll(Arrays.asList(labels));
+                        super.visitTableSwitchInsn(min, max, dflt, labels);
+                    }
+
+                    public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels) {
+                        targets.add(dflt);
+                        targets.addAll(Arrays.asList(labels));
+                        super.visitLookupSwitchInsn(dflt, keys, labels);
+                    }
+
+                    public void visitTryCatchBlock(Label start, Label end, Label handler, String type) {
+                        targets.add(handler);
+                        super.visitTryCatchBlock(start, end, handler, type);
+                    }
+
+                    public void visitEnd() {
+                        BitSet starts = new BitSet();
+                        for (Label l : targets) {
+                            Integer i = ordinals.get(l);
+                            if (i != null) starts.set(i);
+                        }
+                        ret.put(name + desc, starts);
+                        super.visitEnd();
+                    }
+                };
+            }
+        }, flags);
+        return ret;
+    }
+
+    static String statistics() {
+        return "Redundant access elimination skipped " + redundant.get() + " of " + sites.get() + " access sites";
+    }
+}
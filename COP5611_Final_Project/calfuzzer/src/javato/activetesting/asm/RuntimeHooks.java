@@ -0,0 +1,150 @@
+package javato.activetesting.asm;
+
+import javato.activetesting.analysis.IidGuards;
+import javato.activetesting.analysis.ObserverForActiveTesting;
+
+/**
+ * Copyright (c) 2007-2008,
+ * Koushik Sen    <ksen@cs.berkeley.edu>
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * <p/>
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * <p/>
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * <p/>
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public final class RuntimeHooks {
+    /*
+     * Calls that replace instructions which would need their operands twice,
+     * once for the event and once for the instruction itself. Each takes the
+     * iid of its first event; a second event uses iid + 1. The iid switches
+     * of IidGuards are checked here rather than in the instrumented code.
+     */
+
+    private RuntimeHooks() {
+    }
+
+    public static void iastore(int[] a, int i, int v, int iid) {
+        if (!IidGuards.isOff(iid)) ObserverForActiveTesting.myWriteBefore(iid, a, i);
+        a[i] = v;
+        if (!IidGuards.isOff(iid + 1)) ObserverForActiveTesting.myWriteAfter(iid + 1, a, i);
+    }
+
+    public static void lastore(long[] a, int i, long v, int iid) {
+        if (!IidGuards.isOff(iid)) ObserverForActiveTesting.myWriteBefore(iid, a, i);
+        a[i] = v;
+        if (!IidGuards.isOff(iid + 1)) ObserverForActiveTesting.myWriteAfter(iid + 1, a, i);
+    }
+
+    public static void fastore(float[] a, int i, float v, int iid) {
+        if (!IidGuards.isOff(iid)) ObserverForActiveTesting.myWriteBefore(iid, a, i);
+        a[i] = v;
+        if (!IidGuards.isOff(iid + 1)) ObserverForActiveTesting.myWriteAfter(iid + 1, a, i);
+    }
+
+    public static void dastore(double[] a, int i, double v, int iid) {
+        if (!IidGuards.isOff(iid)) ObserverForActiveTesting.myWriteBefore(iid, a, i);
+        a[i] = v;
+        if (!IidGuards.isOff(iid + 1)) ObserverForActiveTesting.myWriteAfter(iid + 1, a, i);
+    }
+
+    public static void aastore(Object[] a, int i, Object v, int iid) {
+        if (!IidGuards.isOff(iid)) ObserverForActiveTesting.myWriteBefore(iid, a, i);
+        a[i] = v;
+        if (!IidGuards.isOff(iid + 1)) ObserverForActiveTesting.myWriteAfter(iid + 1, a, i);
+    }
+
+    // bastore stores into byte[] and boolean[] alike
+    public static void bastore(Object a, int i, int v, int iid) {
+        if (!IidGuards.isOff(iid)) ObserverForActiveTesting.myWriteBefore(iid, a, i);
+        if (a instanceof boolean[]) {
+            ((boolean[]) a)[i] = (v & 1) != 0;
+        } else {
+            ((byte[]) a)[i] = (byte) v;
+        }
+        if (!IidGuards.isOff(iid + 1)) ObserverForActiveTesting.myWriteAfter(iid + 1, a, i);
+    }
+
+    public static void castore(char[] a, int i, int v, int iid) {
+        if (!IidGuards.isOff(iid)) ObserverForActiveTesting.myWriteBefore(iid, a, i);
+        a[i] = (char) v;
+        if (!IidGuards.isOff(iid + 1)) ObserverForActiveTesting.myWriteAfter(iid + 1, a, i);
+    }
+
+    public static void sastore(short[] a, int i, int v, int iid) {
+        if (!IidGuards.isOff(iid)) ObserverForActiveTesting.myWriteBefore(iid, a, i);
+        a[i] = (short) v;
+        if (!IidGuards.isOff(iid + 1)) ObserverForActiveTesting.myWriteAfter(iid + 1, a, i);
+    }
+
+    public static void wait(Object o, int iid) throws InterruptedException {
+        if (!IidGuards.isOff(iid)) ObserverForActiveTesting.myWaitBefore(iid, o);
+        o.wait();
+        if (!IidGuards.isOff(iid + 1)) ObserverForActiveTesting.myWaitAfter(iid + 1, o);
+    }
+
+    public static void wait(Object o, long millis, int iid) throws InterruptedException {
+        if (!IidGuards.isOff(iid)) ObserverForActiveTesting.myWaitBefore(iid, o);
+        o.wait(millis);
+        if (!IidGuards.isOff(iid + 1)) ObserverForActiveTesting.myWaitAfter(iid + 1, o);
+    }
+
+    public static void wait(Object o, long millis, int nanos, int iid) throws InterruptedException {
+        if (!IidGuards.isOff(iid)) ObserverForActiveTesting.myWaitBefore(iid, o);
+        o.wait(millis, nanos);
+        if (!IidGuards.isOff(iid + 1)) ObserverForActiveTesting.myWaitAfter(iid + 1, o);
+    }
+
+    public static void notify(Object o, int iid) {
+        if (!IidGuards.isOff(iid)) ObserverForActiveTesting.myNotifyBefore(iid, o);
+        o.notify();
+    }
+
+    public static void notifyAll(Object o, int iid) {
+        if (!IidGuards.isOff(iid)) ObserverForActiveTesting.myNotifyAllBefore(iid, o);
+        o.notifyAll();
+    }
+
+    public static void start(Thread t, int iid) {
+        if (!IidGuards.isOff(iid)) ObserverForActiveTesting.myStartBefore(iid, t);
+        t.start();
+        if (!IidGuards.isOff(iid + 1)) ObserverForActiveTesting.myStartAfter(iid + 1, t);
+    }
+
+    public static void join(Thread t, int iid) throws InterruptedException {
+        t.join();
+        if (!IidGuards.isOff(iid)) ObserverForActiveTesting.myJoinAfter(iid, t);
+    }
+
+    public static void join(Thread t, long millis, int iid) throws InterruptedException {
+        t.join(millis);
+        if (!IidGuards.isOff(iid)) ObserverForActiveTesting.myJoinAfter(iid, t);
+    }
+
+    public static void join(Thread t, long millis, int nanos, int iid) throws InterruptedException {
+        t.join(millis, nanos);
+        if (!IidGuards.isOff(iid)) ObserverForActiveTesting.myJoinAfter(iid, t);
+    }
+}
@@ -0,0 +1,366 @@
+package javato.activetesting.async;
+
+import javato.activetesting.analysis.CheckerAnalysisImpl;
+import javato.activetesting.analysis.PrimitiveAnalysis;
+import javato.activetesting.analysis.PrimitiveAnalysisImpl;
+import javato.activetesting.common.Parameters;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Copyright (c) 2007-2008,
+ * Koushik Sen    <ksen@cs.berkeley.edu>
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * <p/>
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * <p/>
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * <p/>
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class AsyncAnalysis extends PrimitiveAnalysisImpl {
+    static final int LOCK_BEFORE = 1;
+    static final int LOCK_AFTER = 2;
+    static final int UNLOCK_AFTER = 3;
+    static final int NEW_EXPR_AFTER = 4;
+    static final int METHOD_ENTER_BEFORE = 5;
+    static final int METHOD_EXIT_AFTER = 6;
+    static final int START_BEFORE = 7;
+    static final int START_AFTER = 8;
+    static final int WAIT_BEFORE = 9;
+    static final int WAIT_AFTER = 10;
+    static final int NOTIFY_BEFORE = 11;
+    static final int NOTIFY_ALL_BEFORE = 12;
+    static final int JOIN_AFTER = 13;
+    static final int READ_BEFORE = 14;
+    static final int READ_AFTER = 15;
+    static final int WRITE_BEFORE = 16;
+    static final int WRITE_AFTER = 17;
+    static final int LOCAL_WRITE_AFTER = 18;
+    static final int LOCAL_PRIMITIVE_WRITE_AFTER = 19;
+    static final int OPEN_DETERMINISTIC_BLOCK = 20;
+    static final int CLOSE_DETERMINISTIC_BLOCK = 21;
+    static final int REQUIRE_DETERMINISTIC = 22;
+    static final int ASSERT_DETERMINISTIC = 23;
+
+    private static final int VOLATILE = 1;
+
+    private PrimitiveAnalysis root;
+    private Shard[] shards;
+    private int ringSize;
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+    private final ThreadLocal<EventRing[]> rings = new ThreadLocal<EventRing[]>() {
+        protected EventRing[] initialValue() {
+            EventRing[] r = new EventRing[shards.length];
+            for (int i = 0; i < r.length; i++) {
+                r[i] = new EventRing(Thread.currentThread(), ringSize);
+                shards[i].register(r[i]);
+            }
+            return r;
+        }
+    };
+
+    /**
+     * Wraps a passive analysis so that its callbacks run on background workers.
+     * Returns the analysis unchanged if it cannot run asynchronously.
+     */
+    public static PrimitiveAnalysis wrap(PrimitiveAnalysis analysis) {
+        if (analysis instanceof CheckerAnalysisImpl) {
+            System.err.println("Analysis " + analysis.getClass().getName()
+                    + " controls the scheduler and cannot run asynchronously; running it synchronously");
+            return analysis;
+        }
+        int n = analysis instanceof ShardedAnalysis ? Math.max(1, Parameters.asyncShards) : 1;
+        return new AsyncAnalysis(analysis, n, Parameters.asyncRingSize);
+    }
+
+    public AsyncAnalysis(PrimitiveAnalysis root, int nShards, int ringSize) {
+        this.root = root;
+        this.ringSize = ringSize;
+        shards = new Shard[nShards];
+        for (int i = 0; i < nShards; i++) {
+            PrimitiveAnalysis a = i == 0 ? root : ((ShardedAnalysis) root).newShard();
+            // only this wrapper may call finish(), after the workers have drained
+            detachShutdownHook(a);
+            shards[i] = new Shard(a, i);
+            shards[i].start();
+        }
+    }
+
+    private static int shardOf(long key, int n) {
+        int h = (int) (key ^ (key >>> 32)) * 0x9E3779B9;
+        return (h >>> 1) % n;
+    }
+
+    private void send(int shard, int kind, int iid, int a, int b, long c, Object o1, Object o2, Object o3) {
+        if (closed.get()) return;
+        EventRing ring = rings.get()[shard];
+        ring.awaitSpace();
+        ring.put(shards[shard].seq.getAndIncrement(), kind, iid, a, b, c, o1, o2, o3);
+    }
+
+    // synchronization events change the vector clocks and locksets every shard keeps
+    private void broadcast(int kind, int iid, int a, int b, long c, Object o1, Object o2, Object o3) {
+        for (int i = 0; i < shards.length; i++) {
+            send(i, kind, iid, a, b, c, o1, o2, o3);
+        }
+    }
+
+    private void access(int kind, int iid, int thread, long memory, boolean isVolatile) {
+        send(shards.length == 1 ? 0 : shardOf(memory, shards.length), kind, iid, thread,
+                isVolatile ? VOLATILE : 0, memory, null, null, null);
+    }
+
+    public void lockBefore(int iid, int thread, int lock, Object actualLock) {
+        broadcast(LOCK_BEFORE, iid, thread, lock, 0, actualLock, null, null);
+    }
+
+    public void lockAfter(int iid, int thread, int lock, Object actualLock) {
+        broadcast(LOCK_AFTER, iid, thread, lock, 0, actualLock, null, null);
+    }
+
+    public void unlockAfter(int iid, int thread, int lock) {
+        broadcast(UNLOCK_AFTER, iid, thread, lock, 0, null, null, null);
+    }
+
+    public void newExprAfter(int iid, int object, int objOnWhichMethodIsInvoked) {
+        send(shardOf(object, shards.length), NEW_EXPR_AFTER, iid, object, objOnWhichMethodIsInvoked, 0, null, null, null);
+    }
+
+    public void methodEnterBefore(int iid, int thread, int method) {
+        broadcast(METHOD_ENTER_BEFORE, iid, thread, method, 0, null, null, null);
+    }
+
+    public void methodExitAfter(int iid, int thread, int method) {
+        broadcast(METHOD_EXIT_AFTER, iid, thread, method, 0, null, null, null);
+    }
+
+    public void startBefore(int iid, int parent, int child) {
+        broadcast(START_BEFORE, iid, parent, child, 0, null, null, null);
+    }
+
+    public void startAfter(int iid, int parent, Object child) {
+        broadcast(START_AFTER, iid, parent, 0, 0, child, null, null);
+    }
+
+    public void waitBefore(int iid, int thread, int lock) {
+        broadcast(WAIT_BEFORE, iid, thread, lock, 0, null, null, null);
+    }
+
+    public void waitAfter(int iid, int thread, int lock) {
+        broadcast(WAIT_AFTER, iid, thread, lock, 0, null, null, null);
+    }
+
+    public void notifyBefore(int iid, int thread, int lock) {
+        broadcast(NOTIFY_BEFORE, iid, thread, lock, 0, null, null, null);
+    }
+
+    public void notifyAllBefore(int iid, int thread, int lock) {
+        broadcast(NOTIFY_ALL_BEFORE, iid, thread, lock, 0, null, null, null);
+    }
+
+    public void joinAfter(int iid, int parent, int child) {
+        broadcast(JOIN_AFTER, iid, parent, child, 0, null, null, null);
+    }
+
+    public void readBefore(int iid, int thread, long memory, boolean isVolatile) {
+        access(READ_BEFORE, iid, thread, memory, isVolatile);
+    }
+
+    public void readAfter(int iid, int thread, long memory, boolean isVolatile) {
+        access(READ_AFTER, iid, thread, memory, isVolatile);
+    }
+
+    public void writeBefore(int iid, int thread, long memory, boolean isVolatile) {
+        access(WRITE_BEFORE, iid, thread, memory, isVolatile);
+    }
+
+    public void writeAfter(int iid, int thread, long memory, boolean isVolatile) {
+        access(WRITE_AFTER, iid, thread, memory, isVolatile);
+    }
+
+    public void writeAfter(int iid, int thread, String local, Object value, String type) {
+        send(shardOf(thread, shards.length), LOCAL_WRITE_AFTER, iid, thread, 0, 0, local, value, type);
+    }
+
+    public void writePrimitiveAfter(int iid, int thread, String local, long bits, String type) {
+        send(shardOf(thread, shards.length), LOCAL_PRIMITIVE_WRITE_AFTER, iid, thread, 0, bits, local, type, null);
+    }
+
+    public void openDeterministicBlock(int bid) {
+        broadcast(OPEN_DETERMINISTIC_BLOCK, 0, bid, 0, 0, null, null, null);
+    }
+
+    public void closeDeterministicBlock(int bid) {
+        broadcast(CLOSE_DETERMINISTIC_BLOCK, 0, bid, 0, 0, null, null, null);
+    }
+
+    public void requireDeterministic(int thread, Object invariant) {
+        broadcast(REQUIRE_DETERMINISTIC, 0, thread, 0, 0, invariant, null, null);
+    }
+
+    public void assertDeterministic(int thread, Object invariant) {
+        broadcast(ASSERT_DETERMINISTIC, 0, thread, 0, 0, invariant, null, null);
+    }
+
+    /**
+     * Drains every shard, merges them into the analysis that was wrapped and lets it
+     * report. Events sent after this starts are dropped.
+     */
+    public void finish() {
+        if (!closed.compareAndSet(false, true)) return;
+        for (Shard s : shards) {
+            s.stopping = true;
+            LockSupport.unpark(s);
+        }
+        for (Shard s : shards) {
+            try {
+                s.join();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+        for (int i = 1; i < shards.length; i++) {
+            ((ShardedAnalysis) root).mergeShard(shards[i].analysis);
+        }
+        root.finish();
+    }
+
+    private static class Shard extends Thread {
+        final PrimitiveAnalysis analysis;
+        // next sequence number to hand out to a producer
+        final AtomicLong seq = new AtomicLong();
+        volatile boolean stopping;
+        private volatile EventRing[] rings = new EventRing[0];
+        // next sequence number to process; events are applied in exactly this order
+        private long next;
+
+        Shard(PrimitiveAnalysis analysis, int index) {
+            super("javato-async-analysis-" + index);
+            this.analysis = analysis;
+            setDaemon(true);
+        }
+
+        synchronized void register(EventRing ring) {
+            EventRing[] r = new EventRing[rings.length + 1];
+            System.arraycopy(rings, 0, r, 0, rings.length);
+            r[rings.length] = ring;
+            rings = r;
+        }
+
+        private synchronized void pruneRetiredRings() {
+            EventRing[] live = new EventRing[rings.length];
+            int n = 0;
+            for (EventRing ring : rings) {
+                if (!ring.isRetired()) live[n++] = ring;
+            }
+            if (n == rings.length) return;
+            EventRing[] r = new EventRing[n];
+            System.arraycopy(live, 0, r, 0, n);
+            rings = r;
+        }
+
+        public void run() {
+            int idle = 0;
+            while (true) {
+                boolean progressed = false;
+                EventRing[] r = rings;
+                for (int i = 0; i < r.length; i++) {
+                    EventRing ring = r[i];
+                    while (ring.peekSeq() == next) {
+                        consume(ring);
+                        next++;
+                        progressed = true;
+                    }
+                }
+                if (progressed) {
+                    idle = 0;
+                } else if (stopping && next == seq.get()) {
+                    return;
+                } else if (++idle < 100) {
+                    Thread.yield();
+                } else {
+                    if (idle % 1000 == 0) {
+                        pruneRetiredRings();
+                    }
+                    LockSupport.parkNanos(50000);
+                }
+            }
+        }
+
+        private void consume(EventRing ring) {
+            long h = ring.head.get();
+            int slot = (int) h & ring.mask;
+            int i = slot * EventRing.LONGS_PER_EVENT;
+            int o = slot * EventRing.REFS_PER_EVENT;
+            long k = ring.events[i + 1];
+            long ab = ring.events[i + 2];
+            long c = ring.events[i + 3];
+            Object o1 = ring.refs[o];
+            Object o2 = ring.refs[o + 1];
+            Object o3 = ring.refs[o + 2];
+            ring.refs[o] = ring.refs[o + 1] = ring.refs[o + 2] = null;
+            ring.head.lazySet(h + 1);
+            try {
+                dispatch((int) (k >>> 32), (int) k, (int) (ab >>> 32), (int) ab, c, o1, o2, o3);
+            } catch (Throwable e) {
+                // keep draining: producers block once a ring is full
+                e.printStackTrace();
+            }
+        }
+
+        private void dispatch(int kind, int iid, int a, int b, long c, Object o1, Object o2, Object o3) {
+            PrimitiveAnalysis an = analysis;
+            switch (kind) {
+                case LOCK_BEFORE: an.lockBefore(iid, a, b, o1); break;
+                case LOCK_AFTER: an.lockAfter(iid, a, b, o1); break;
+                case UNLOCK_AFTER: an.unlockAfter(iid, a, b); break;
+                case NEW_EXPR_AFTER: an.newExprAfter(iid, a, b); break;
+                case METHOD_ENTER_BEFORE: an.methodEnterBefore(iid, a, b); break;
+                case METHOD_EXIT_AFTER: an.methodExitAfter(iid, a, b); break;
+                case START_BEFORE: an.startBefore(iid, a, b); break;
+                case START_AFTER: an.startAfter(iid, a, o1); break;
+                case WAIT_BEFORE: an.waitBefore(iid, a, b); break;
+                case WAIT_AFTER: an.waitAfter(iid, a, b); break;
+                case NOTIFY_BEFORE: an.notifyBefore(iid, a, b); break;
+                case NOTIFY_ALL_BEFORE: an.notifyAllBefore(iid, a, b); break;
+                case JOIN_AFTER: an.joinAfter(iid, a, b); break;
+                case READ_BEFORE: an.readBefore(iid, a, c, b == VOLATILE); break;
+                case READ_AFTER: an.readAfter(iid, a, c, b == VOLATILE); break;
+                case WRITE_BEFORE: an.writeBefore(iid, a, c, b == VOLATILE); break;
+                case WRITE_AFTER: an.writeAfter(iid, a, c, b == VOLATILE); break;
+                case LOCAL_WRITE_AFTER: an.writeAfter(iid, a, (String) o1, o2, (String) o3); break;
+                case LOCAL_PRIMITIVE_WRITE_AFTER: an.writePrimitiveAfter(iid, a, (String) o1, c, (String) o2); break;
+                case OPEN_DETERMINISTIC_BLOCK: an.openDeterministicBlock(a); break;
+                case CLOSE_DETERMINISTIC_BLOCK: an.closeDeterministicBlock(a); break;
+                case REQUIRE_DETERMINISTIC: an.requireDeterministic(a, o1); break;
+                case ASSERT_DETERMINISTIC: an.assertDeterministic(a, o1); break;
+                default:
+                    System.err.println("Unknown event kind " + kind);
+            }
+        }
+    }
+}
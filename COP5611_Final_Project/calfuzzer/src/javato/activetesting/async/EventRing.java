@@ -0,0 +1,103 @@
+package javato.activetesting.async;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Copyright (c) 2007-2008,
+ * Koushik Sen    <ksen@cs.berkeley.edu>
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * <p/>
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * <p/>
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * <p/>
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+final class EventRing {
+    static final int LONGS_PER_EVENT = 4;
+    static final int REFS_PER_EVENT = 3;
+
+    // slot i holds: seq, kind<<32|iid, a<<32|b, c
+    final long[] events;
+    final Object[] refs;
+    final int mask;
+    final Thread owner;
+
+    // written by the application thread only
+    final AtomicLong tail = new AtomicLong();
+    // written by the shard worker only
+    final AtomicLong head = new AtomicLong();
+
+    EventRing(Thread owner, int capacity) {
+        this.owner = owner;
+        int c = 1;
+        while (c < capacity) c <<= 1;
+        events = new long[c * LONGS_PER_EVENT];
+        refs = new Object[c * REFS_PER_EVENT];
+        mask = c - 1;
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+
+    /** Blocks the producer until there is room for one more event. */
+    void awaitSpace() {
+        long t = tail.get();
+        int spins = 0;
+        while (t - head.get() > mask) {
+            if (++spins < 64) continue;
+            Thread.yield();
+        }
+    }
+
+    void put(long seq, int kind, int iid, int a, int b, long c, Object o1, Object o2, Object o3) {
+        long t = tail.get();
+        int slot = (int) t & mask;
+        int i = slot * LONGS_PER_EVENT;
+        events[i] = seq;
+        events[i + 1] = ((long) kind << 32) | (iid & 0xffffffffL);
+        events[i + 2] = ((long) a << 32) | (b & 0xffffffffL);
+        events[i + 3] = c;
+        if (o1 != null || o2 != null || o3 != null) {
+            int r = slot * REFS_PER_EVENT;
+            refs[r] = o1;
+            refs[r + 1] = o2;
+            refs[r + 2] = o3;
+        }
+        tail.lazySet(t + 1);
+    }
+
+    /** Sequence number of the oldest unconsumed event, or -1 if the ring is empty. */
+    long peekSeq() {
+        long h = head.get();
+        if (h == tail.get()) return -1;
+        return events[((int) h & mask) * LONGS_PER_EVENT];
+    }
+
+    /** True once the owning thread has died and everything it sent has been consumed. */
+    boolean isRetired() {
+        return !owner.isAlive() && head.get() == tail.get();
+    }
+}
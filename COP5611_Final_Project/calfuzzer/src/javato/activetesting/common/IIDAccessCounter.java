@@ -1,7 +1,6 @@
 package javato.activetesting.common;
 
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 /**
  * Copyright (c) 2007-2008,
@@ -36,36 +35,69 @@ import java.util.concurrent.ConcurrentHashMap;
  * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
 public class IIDAccessCounter {
-    private ConcurrentHashMap<Integer, AtomicInteger> iidToCount;
-
-    //private int[] counts;
+    // ints between two counters, so that hot iids do not share a cache line
+    private final int stride;
+    private volatile AtomicIntegerArray counts;
 
     public IIDAccessCounter() {
-        iidToCount = new ConcurrentHashMap<Integer, AtomicInteger>(7919);
-        //counts = new int[7919];
+        this(0);
     }
 
-//    public boolean needToIgnore(int iid) {
-//        int bucket = iid % 7919;
-//        if (counts[bucket] > Parameters.maxPausesInActiveTesting) return true;
-//        synchronized (this) {
-//            counts[bucket]++;
-//        }
-//        return false;
-//    }
-    public boolean needToIgnore(Integer iid) {
-//        return false;
-        AtomicInteger tmp = iidToCount.get(iid);
-        if (tmp==null) {
-            tmp = new AtomicInteger(0);
-            iidToCount.putIfAbsent(iid,tmp);
-            return false;
-        }
-        if (tmp.get()>Parameters.maxPausesInActiveTesting) {
+    /**
+     * @param iids number of iids handed out by the instrumentor; the table grows if
+     *             a larger iid shows up
+     */
+    public IIDAccessCounter(int iids) {
+        stride = Math.max(1, Parameters.iidCounterStride);
+        counts = new AtomicIntegerArray(Math.max(iids, 1) * stride);
+    }
+
+    /**
+     * Lets the first maxPausesInActiveTesting + 1 events of every iid through.
+     * Once an iid is over the limit this is a single array read.
+     */
+    public boolean needToIgnore(int iid) {
+        AtomicIntegerArray c = table(iid);
+        int i = iid * stride;
+        if (c.get(i) > Parameters.maxPausesInActiveTesting) {
             return true;
-        } else {
-            tmp.incrementAndGet();
-            return false;
         }
+        return c.getAndIncrement(i) > Parameters.maxPausesInActiveTesting;
+    }
+
+    /**
+     * Uncapped counter for callers that decide on their own; saturates at
+     * Integer.MAX_VALUE instead of wrapping.
+     */
+    public int getAndIncrement(int iid) {
+        AtomicIntegerArray c = table(iid);
+        int i = iid * stride;
+        int n = c.getAndIncrement(i);
+        if (n < 0) {
+            c.set(i, Integer.MAX_VALUE);
+            return Integer.MAX_VALUE;
+        }
+        return n;
+    }
+
+    private AtomicIntegerArray table(int iid) {
+        AtomicIntegerArray c = counts;
+        if (iid * stride >= c.length()) {
+            c = grow(iid);
+        }
+        return c;
+    }
+
+    // counts bumped while the copy is made may be lost; that only lets a few more events through
+    private synchronized AtomicIntegerArray grow(int iid) {
+        AtomicIntegerArray c = counts;
+        if (iid * stride < c.length()) return c;
+        int size = Math.max(c.length() * 2, (iid + 1) * stride);
+        AtomicIntegerArray bigger = new AtomicIntegerArray(size);
+        for (int i = 0; i < c.length(); i += stride) {
+            bigger.set(i, c.get(i));
+        }
+        counts = bigger;
+        return bigger;
     }
 }
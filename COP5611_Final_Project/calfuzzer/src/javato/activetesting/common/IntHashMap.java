@@ -0,0 +1,200 @@
+package javato.activetesting.common;
+
+import java.io.Serializable;
+
+/**
+ * Copyright (c) 2007-2008,
+ * Koushik Sen    <ksen@cs.berkeley.edu>
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * <p/>
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * <p/>
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * <p/>
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+/**
+ * Open-addressing hash map from primitive int keys to objects, used on the
+ * per-event paths of the analyses where boxing a key for every lookup would
+ * allocate.  Null values are not allowed; a null slot marks an empty bucket.
+ * <p/>
+ * Entries can be walked without allocating an iterator:
+ * <pre>
+ * for (int i = 0; i &lt; map.capacity(); i++) {
+ *     V v = map.valueAt(i);
+ *     if (v != null) { ... map.keyAt(i) ... }
+ * }
+ * </pre>
+ */
+public class IntHashMap<V> implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private int[] keys;
+    private Object[] values;
+    private int size;
+    private int mask;
+    private int threshold;
+
+    public IntHashMap() {
+        this(16);
+    }
+
+    public IntHashMap(int initialCapacity) {
+        int cap = 4;
+        while (cap < initialCapacity * 2)
+            cap <<= 1;
+        allocate(cap);
+    }
+
+    private void allocate(int cap) {
+        keys = new int[cap];
+        values = new Object[cap];
+        mask = cap - 1;
+        threshold = cap / 2;
+    }
+
+    private int slot(int key) {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    public V get(int key) {
+        Object[] vals = values;
+        for (int i = slot(key); ; i = (i + 1) & mask) {
+            Object v = vals[i];
+            if (v == null)
+                return null;
+            if (keys[i] == key)
+                return value(v);
+        }
+    }
+
+    public boolean containsKey(int key) {
+        return get(key) != null;
+    }
+
+    public V put(int key, V value) {
+        if (value == null)
+            throw new NullPointerException("null values are not supported");
+        int i = slot(key);
+        for (; values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                V old = value(values[i]);
+                values[i] = value;
+                return old;
+            }
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size > threshold)
+            rehash();
+        return null;
+    }
+
+    public V remove(int key) {
+        int i = slot(key);
+        for (; values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                V old = value(values[i]);
+                values[i] = null;
+                size--;
+                // shift back the entries of the run that follows the hole
+                int hole = i;
+                for (int j = (i + 1) & mask; values[j] != null; j = (j + 1) & mask) {
+                    int home = slot(keys[j]);
+                    boolean stays = hole <= j ? (home > hole && home <= j) : (home > hole || home <= j);
+                    if (!stays) {
+                        keys[hole] = keys[j];
+                        values[hole] = values[j];
+                        values[j] = null;
+                        hole = j;
+                    }
+                }
+                return old;
+            }
+        }
+        return null;
+    }
+
+    // the values array holds only Vs
+    @SuppressWarnings("unchecked")
+    private V value(Object v) {
+        return (V) v;
+    }
+
+    private void insert(int key, Object value) {
+        int i = slot(key);
+        while (values[i] != null)
+            i = (i + 1) & mask;
+        keys[i] = key;
+        values[i] = value;
+        size++;
+    }
+
+    private void rehash() {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(oldKeys.length << 1);
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != null)
+                insert(oldKeys[i], oldValues[i]);
+        }
+    }
+
+    public void clear() {
+        java.util.Arrays.fill(values, null);
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int capacity() {
+        return values.length;
+    }
+
+    public int keyAt(int slot) {
+        return keys[slot];
+    }
+
+    public V valueAt(int slot) {
+        return value(values[slot]);
+    }
+
+    public int[] keys() {
+        int[] ret = new int[size];
+        int n = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null)
+                ret[n++] = keys[i];
+        }
+        return ret;
+    }
+}
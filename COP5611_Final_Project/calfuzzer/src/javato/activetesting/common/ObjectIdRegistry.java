@@ -0,0 +1,280 @@
+package javato.activetesting.common;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Copyright (c) 2007-2008,
+ * Koushik Sen    <ksen@cs.berkeley.edu>
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * <p/>
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * <p/>
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * <p/>
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+/**
+ * Assigns integer ids to objects by identity while holding the objects weakly.
+ * <p/>
+ * The table is split into segments chosen by the identity hash code of the key.
+ * A lookup of an object that already has an id never takes a lock; assigning a
+ * new id only locks the segment the object falls into, so threads touching
+ * different objects do not serialize on a single monitor.  Entries whose
+ * referent has been collected are expunged lazily on the next insert into
+ * their segment.
+ */
+public class ObjectIdRegistry {
+    public static final int NO_ID = -1;
+
+    private static final int MAXIMUM_CAPACITY = 1 << 30;
+    private static final int MAX_SEGMENTS = 1 << 16;
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private final AtomicInteger nextId;
+    private final Segment[] segments;
+    private final int segmentShift;
+    private final int segmentMask;
+
+    public ObjectIdRegistry(int firstId) {
+        this(firstId, 4096, Runtime.getRuntime().availableProcessors() * 4);
+    }
+
+    public ObjectIdRegistry(int firstId, int initialCapacity, int concurrencyLevel) {
+        if (concurrencyLevel > MAX_SEGMENTS)
+            concurrencyLevel = MAX_SEGMENTS;
+        int sshift = 0;
+        int ssize = 1;
+        while (ssize < concurrencyLevel) {
+            ++sshift;
+            ssize <<= 1;
+        }
+        segmentShift = 32 - sshift;
+        segmentMask = ssize - 1;
+        segments = new Segment[ssize];
+
+        if (initialCapacity > MAXIMUM_CAPACITY)
+            initialCapacity = MAXIMUM_CAPACITY;
+        int c = initialCapacity / ssize;
+        if (c * ssize < initialCapacity)
+            ++c;
+        int cap = 2;
+        while (cap < c)
+            cap <<= 1;
+        for (int i = 0; i < ssize; i++)
+            segments[i] = new Segment(cap);
+        nextId = new AtomicInteger(firstId);
+    }
+
+    /**
+     * Spreads the identity hash code so that both the segment index (high bits)
+     * and the bucket index (low bits) are well distributed.
+     */
+    private static int hash(Object o) {
+        int h = System.identityHashCode(o);
+        h += (h << 15) ^ 0xffffcd7d;
+        h ^= (h >>> 10);
+        h += (h << 3);
+        h ^= (h >>> 6);
+        h += (h << 2) + (h << 14);
+        return h ^ (h >>> 16);
+    }
+
+    private Segment segmentFor(int hash) {
+        return segments[(hash >>> segmentShift) & segmentMask];
+    }
+
+    /**
+     * Returns the id of o, assigning the next free id if o has not been seen.
+     */
+    public int getOrAssign(Object o) {
+        int h = hash(o);
+        Segment s = segmentFor(h);
+        int id = s.get(o, h);
+        if (id != NO_ID)
+            return id;
+        return s.putIfAbsent(o, h, nextId);
+    }
+
+    /**
+     * Returns the id of o or NO_ID if o has not been assigned one.
+     */
+    public int get(Object o) {
+        int h = hash(o);
+        return segmentFor(h).get(o, h);
+    }
+
+    /**
+     * Reverse lookup.  This walks every segment and is meant for reporting only.
+     */
+    public Object getObject(int id) {
+        for (Segment s : segments) {
+            AtomicReferenceArray<Entry> tab = s.table;
+            for (int i = 0; i < tab.length(); i++) {
+                for (Entry e = tab.get(i); e != null; e = e.next) {
+                    if (e.id == id) {
+                        Object ret = e.get();
+                        if (ret != null)
+                            return ret;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    public int nextId() {
+        return nextId.get();
+    }
+
+    public int size() {
+        int ret = 0;
+        for (Segment s : segments)
+            ret += s.count;
+        return ret;
+    }
+
+    private static final class Entry extends WeakReference<Object> {
+        final int hash;
+        final int id;
+        final Entry next;
+
+        Entry(Object key, int hash, int id, Entry next, ReferenceQueue<Object> queue) {
+            super(key, queue);
+            this.hash = hash;
+            this.id = id;
+            this.next = next;
+        }
+    }
+
+    /**
+     * Chains are immutable once published, so readers can walk them without
+     * locking; writers replace the head of a bucket (or the whole table on a
+     * rehash) under the segment lock.
+     */
+    private static final class Segment extends ReentrantLock {
+        private static final long serialVersionUID = 1L;
+
+        volatile AtomicReferenceArray<Entry> table;
+        volatile int count;
+        int threshold;
+        final ReferenceQueue<Object> queue = new ReferenceQueue<Object>();
+
+        Segment(int capacity) {
+            setTable(new AtomicReferenceArray<Entry>(capacity));
+        }
+
+        private void setTable(AtomicReferenceArray<Entry> tab) {
+            threshold = (int) (tab.length() * LOAD_FACTOR);
+            table = tab;
+        }
+
+        int get(Object key, int hash) {
+            AtomicReferenceArray<Entry> tab = table;
+            Entry e = tab.get(hash & (tab.length() - 1));
+            while (e != null) {
+                if (e.hash == hash && e.get() == key)
+                    return e.id;
+                e = e.next;
+            }
+            return NO_ID;
+        }
+
+        int putIfAbsent(Object key, int hash, AtomicInteger nextId) {
+            lock();
+            try {
+                expungeStaleEntries();
+                AtomicReferenceArray<Entry> tab = table;
+                int index = hash & (tab.length() - 1);
+                Entry first = tab.get(index);
+                for (Entry e = first; e != null; e = e.next) {
+                    if (e.hash == hash && e.get() == key)
+                        return e.id;
+                }
+                int id = nextId.getAndIncrement();
+                tab.set(index, new Entry(key, hash, id, first, queue));
+                int c = count + 1;
+                if (c > threshold && tab.length() < MAXIMUM_CAPACITY) {
+                    c = rehash(tab);
+                }
+                count = c;
+                return id;
+            } finally {
+                unlock();
+            }
+        }
+
+        /**
+         * Copies the live entries into a table of twice the size and returns
+         * their number.  Entries are re-created because their links are final.
+         */
+        private int rehash(AtomicReferenceArray<Entry> oldTable) {
+            int oldCapacity = oldTable.length();
+            AtomicReferenceArray<Entry> newTable = new AtomicReferenceArray<Entry>(oldCapacity << 1);
+            int sizeMask = newTable.length() - 1;
+            int live = 0;
+            for (int i = 0; i < oldCapacity; i++) {
+                for (Entry e = oldTable.get(i); e != null; e = e.next) {
+                    Object key = e.get();
+                    if (key == null)
+                        continue;
+                    int index = e.hash & sizeMask;
+                    newTable.set(index, new Entry(key, e.hash, e.id, newTable.get(index), queue));
+                    live++;
+                }
+            }
+            setTable(newTable);
+            return live;
+        }
+
+        private void expungeStaleEntries() {
+            Object x;
+            while ((x = queue.poll()) != null) {
+                Entry stale = (Entry) x;
+                AtomicReferenceArray<Entry> tab = table;
+                int index = stale.hash & (tab.length() - 1);
+                Entry first = tab.get(index);
+                Entry e = first;
+                while (e != null && e != stale)
+                    e = e.next;
+                if (e == null)
+                    continue; // already dropped by a rehash
+                int removed = 1;
+                Entry newFirst = stale.next;
+                for (Entry p = first; p != stale; p = p.next) {
+                    Object key = p.get();
+                    if (key != null)
+                        newFirst = new Entry(key, p.hash, p.id, newFirst, queue);
+                    else
+                        removed++;
+                }
+                tab.set(index, newFirst);
+                count = count - removed;
+            }
+        }
+    }
+}
@@ -40,6 +40,14 @@ public class Parameters {
     public static final long livelockCheckerInterval = Long.getLong("javato.activeChecker.livelockCheckerInterval", 200);
     public static final int deadlockCycleLength = Integer.getInteger("javato.deadlock.cycle.length", 2);
     public static final int maxPausesInActiveTesting = Integer.getInteger("javato.max.iid.count",100);
+    public static final int iidCounterStride = Integer.getInteger("javato.iid.counter.stride", 16);
+
+    // sampling of memory accesses, see javato.activetesting.sampling.SamplingPolicy
+    public static final String samplingPolicy = System.getProperty("javato.sampling.policy", "fixed");
+    public static final int samplingBurst = Integer.getInteger("javato.sampling.burst", 10);
+    public static final double samplingMinRate = Double.parseDouble(System.getProperty("javato.sampling.min.rate", "0.001"));
+    public static final int samplingPairCap = Integer.getInteger("javato.sampling.pair.cap", 100);
+    public static final long samplingBudget = Long.getLong("javato.sampling.budget", 1000000);
 
     // hybrid race detection and thrille specific
     public static final int N_VECTOR_CLOCKS_WINDOW = 5;
@@ -62,10 +70,41 @@ public class Parameters {
     public static final boolean trackLocals = Boolean.getBoolean("javato.track.locals");
     public static final boolean trackDeterministicLocals
         = Boolean.getBoolean("javato.track.locals.deterministic");
+    public static final boolean escapeAnalysis = Boolean.getBoolean("javato.escape.analysis");
+    // instruments only accesses that may race, see javato.instrumentor.MayRaceAnalysis
+    public static final boolean mayRaceAnalysis = Boolean.getBoolean("javato.mayrace.analysis");
+    // instruments only lock sites that may be on a deadlock cycle, see javato.instrumentor.LockOrderAnalysis
+    public static final boolean lockOrderAnalysis = Boolean.getBoolean("javato.lockorder.analysis");
+    public static final boolean eliminateRedundantAccesses
+        = Boolean.getBoolean("javato.eliminate.redundant.accesses");
+    // reports the array accesses of counted loops once per loop, see javato.instrumentor.ArrayLoopAnalysis
+    public static final boolean arrayRanges = Boolean.getBoolean("javato.array.ranges");
+    // adds an object id field to instrumented classes, see javato.activetesting.analysis.Observer
+    public static final boolean oidField = Boolean.getBoolean("javato.oid.field");
+    // classes, by name prefix, whose fields get shadow state fields, see javato.activetesting.analysis.ShadowState
+    public static final String shadowClasses = System.getProperty("javato.shadow.classes", "");
+    // guards every observer call with a runtime switch, see javato.activetesting.analysis.IidGuards
+    public static final boolean iidGuards = Boolean.getBoolean("javato.iid.guards");
+    // calls a generated BoundObserver instead, see javato.activetesting.asm.ObserverSpecializer
+    public static final boolean bindObserver = Boolean.getBoolean("javato.observer.bind");
+    // worker JVMs instrumenting -process-dir classes in parallel, see ShardedInstrumentation
+    public static final int instrShards = Integer.getInteger("javato.instr.shards", 1);
+    public static final String instrShardHeap = System.getProperty("javato.instr.shard.heap", "1024m");
+    // directory of the incremental instrumentation cache, see InstrumentationCache
+    public static final String instrCache = System.getProperty("javato.instr.cache", "");
+    // "asm" instruments with javato.activetesting.asm.OfflineInstrumentor instead of Soot
+    public static final String instrBackend = System.getProperty("javato.instr.backend", "soot");
+    // analyses, comma separated, whose events the instrumentor emits; see EventKind
+    public static final String instrAnalyses = System.getProperty("javato.instr.analyses", "");
+    // iid table kept by the load-time agent across runs, see javato.activetesting.asm.ActiveTestingAgent
+    public static final String agentIidFile = System.getProperty("javato.agent.iids", "javato.agent.iids");
 
     // various files for persistent data and logs
     public static final String iidToLineMapFile = "iidToLine.map";
+    public static final String methodTableFile = "methods.map";
     public static final String usedObjectId = "javato.usedids";
+    public static final String iidCountFile = "javato.iidcount";
+    public static final String instrEventsFile = "javato.instr.events";
     public static final String ERROR_STAT_FILE = System.getProperty("javato.activetesting.errorstat.file", "error.stat");
     public static final String ERROR_LOG_FILE = System.getProperty("javato.activetesting.errorlog.file", "error.log");
     public static final String ERROR_LIST_FILE = System.getProperty("javato.activetesting.errorlist.file", "error.list");
@@ -75,6 +114,24 @@ public class Parameters {
     // entry class and must be specified
     public static final String analysisClass = System.getProperty("javato.activetesting.analysis.class");
 
+    // analyses run together by javato.activetesting.CompositeAnalysis
+    public static final String compositeAnalyses = System.getProperty("javato.composite.analyses",
+            "javato.activetesting.HybridAnalysis,javato.activetesting.IGoodlockAnalysis,javato.activetesting.LocksetAnalysis");
+
+    // asynchronous analysis specific
+    public static final boolean asyncAnalysis = Boolean.getBoolean("javato.async.analysis");
+    public static final int asyncShards = Integer.getInteger("javato.async.shards",
+            Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+    public static final int asyncRingSize = Integer.getInteger("javato.async.ring.size", 1024);
+
+    // trace recording specific
+    public static final String traceDir = System.getProperty("javato.trace.dir", "trace");
+    public static final int traceSegmentMB = Integer.getInteger("javato.trace.segment.mb", 64);
+    // distinct values of locals and invariants kept in the string table
+    public static final int traceMaxValues = Integer.getInteger("javato.trace.values.max", 1 << 16);
+    public static final int offlineThreads = Integer.getInteger("javato.offline.threads",
+            Runtime.getRuntime().availableProcessors());
+
     // deterministic scheduler specific
     public static final boolean isDeterministicSchedule = Boolean.getBoolean("javato.schedule.deterministic");
     public static final long deterministicSchedulerRandomSeed = Long.getLong("javato.schedule.seed",682190);
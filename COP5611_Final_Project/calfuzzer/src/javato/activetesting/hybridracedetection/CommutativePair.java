@@ -61,6 +61,14 @@ public class CommutativePair implements Serializable {
         isVolatile = aVolatile;
     }
 
+    public int getX() {
+        return x;
+    }
+
+    public int getY() {
+        return y;
+    }
+
     public boolean containsWrite(Integer iid) {
         return (x.equals(iid) && !isXRead) || (y.equals(iid) && !isYRead);
     }
@@ -69,6 +77,10 @@ public class CommutativePair implements Serializable {
         return x.equals(iid) || y.equals(iid);
     }
 
+    public boolean contains(int iid) {
+        return x == iid || y == iid;
+    }
+
     public boolean contains(Integer iid1, Integer iid2) {
         return (x.equals(iid1) && y.equals(iid2)) || (y.equals(iid1) && x.equals(iid2));
     }
@@ -103,6 +115,10 @@ public class CommutativePair implements Serializable {
                 +Observer.getIidToLine(y)+":"+yCount+":"+isYRead+":"+isLock+":"+isVolatile);
     }
 
+    public boolean isLock() {
+        return isLock;
+    }
+
     public boolean contains(Integer iid, long visitCount) {
         if ((x.equals(iid) && xCount==visitCount) || (y.equals(iid) && yCount==visitCount))
             return true;
@@ -1,8 +1,12 @@
 package javato.activetesting.hybridracedetection;
 
+import javato.activetesting.common.IntHashMap;
+import javato.activetesting.common.LongHashMap;
 import javato.activetesting.common.Parameters;
 import javato.activetesting.common.MutableLong;
+import javato.activetesting.analysis.ShadowState;
 import javato.activetesting.lockset.LockSet;
+import javato.activetesting.lockset.LockSetIds;
 import javato.activetesting.vc.VectorClock;
 
 import java.io.*;
@@ -44,18 +48,63 @@ public class HybridRaceTracker {
     private LinkedHashSet<CommutativePair> alreadySeenRaces;
 
     // m -> t -> list(vc,ls->Set(iid))
-    private Map<Long, Map<Integer, LinkedList<VCLockPair>>> readMap;
-    private Map<Long, Map<Integer, LinkedList<VCLockPair>>> writeMap;
+    private LongHashMap<IntHashMap<ArrayList<VCLockPair>>> readMap;
+    private LongHashMap<IntHashMap<ArrayList<VCLockPair>>> writeMap;
 
-    private Map<Integer, MutableLong> iidVisitCount;
+    // the accesses range events made to each of the elements lo to hi - 1 of an array
+    private static final class Range {
+        final int lo;
+        final int hi;
+        IntHashMap<ArrayList<VCLockPair>> reads;
+        IntHashMap<ArrayList<VCLockPair>> writes;
+
+        Range(int lo, int hi) {
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        // the same accesses over lo to hi - 1, a part of this range
+        Range copy(int lo, int hi) {
+            Range r = new Range(lo, hi);
+            r.reads = copy(reads);
+            r.writes = copy(writes);
+            return r;
+        }
+
+        private static IntHashMap<ArrayList<VCLockPair>> copy(IntHashMap<ArrayList<VCLockPair>> threadLists) {
+            if (threadLists == null) return null;
+            IntHashMap<ArrayList<VCLockPair>> c = new IntHashMap<ArrayList<VCLockPair>>(4);
+            for (int s = 0; s < threadLists.capacity(); s++) {
+                ArrayList<VCLockPair> vcs = threadLists.valueAt(s);
+                if (vcs == null) continue;
+                ArrayList<VCLockPair> cs = new ArrayList<VCLockPair>(Parameters.N_VECTOR_CLOCKS_WINDOW + 1);
+                for (int i = 0; i < vcs.size(); i++) {
+                    cs.add(vcs.get(i).copy());
+                }
+                c.put(threadLists.keyAt(s), cs);
+            }
+            return c;
+        }
+    }
+
+    // array id -> the ranges range events accessed in it, sorted and disjoint: a range
+    // event is split over the ranges it overlaps, so an element is in at most one
+    private IntHashMap<ArrayList<Range>> ranges;
+    // the ids of the objects and arrays with a location in the maps, so that range
+    // events only look up the elements of arrays also accessed one element at a time
+    private IntHashMap<Boolean> mapped;
+
+    private IntHashMap<MutableLong> iidVisitCount;
     private int lockRaceCount = 0;
     private int dataRaceCount = 0;
 
 
     public HybridRaceTracker() {
-        readMap = new TreeMap<Long, Map<Integer, LinkedList<VCLockPair>>>();
-        writeMap = new TreeMap<Long, Map<Integer, LinkedList<VCLockPair>>>();
-        iidVisitCount = new TreeMap<Integer, MutableLong>();
+        readMap = new LongHashMap<IntHashMap<ArrayList<VCLockPair>>>();
+        writeMap = new LongHashMap<IntHashMap<ArrayList<VCLockPair>>>();
+        ranges = new IntHashMap<ArrayList<Range>>();
+        mapped = new IntHashMap<Boolean>();
+        iidVisitCount = new IntHashMap<MutableLong>();
 
         alreadySeenRaces = getRacesFromFile();
     }
@@ -76,10 +125,14 @@ public class HybridRaceTracker {
     }
 
     public void dumpRaces() {
+        dumpRaces(Parameters.ERROR_LIST_FILE, Parameters.ERROR_LOG_FILE);
+    }
+
+    public void dumpRaces(String listFile, String logFile) {
         ObjectOutputStream out;
-        javato.activetesting.analysis.Observer.writeIntegerList(Parameters.ERROR_LIST_FILE, alreadySeenRaces.size());
+        javato.activetesting.analysis.Observer.writeIntegerList(listFile, alreadySeenRaces.size());
         try {
-            out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(Parameters.ERROR_LOG_FILE)));
+            out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(logFile)));
             out.writeObject(alreadySeenRaces);
             for(CommutativePair cp:alreadySeenRaces) {
                 cp.printcryptic(System.out);
@@ -91,28 +144,93 @@ public class HybridRaceTracker {
         }
     }
 
-    public void checkRace(Integer iid, Integer t, Long m, boolean isRead, VectorClock vc, LockSet ls,
+    /**
+     * Adds the races found by another tracker that saw a different part of the
+     * accesses of the same execution.
+     */
+    public void mergeRaces(HybridRaceTracker other) {
+        for (CommutativePair cp : other.alreadySeenRaces) {
+            if (alreadySeenRaces.add(cp)) {
+                if (cp.isLock()) lockRaceCount++;
+                else dataRaceCount++;
+            }
+        }
+    }
+
+    public Set<CommutativePair> getRaces() {
+        return Collections.unmodifiableSet(alreadySeenRaces);
+    }
+
+    public void checkRace(int iid, int t, long m, boolean isRead, VectorClock vc, LockSet ls,
                           boolean isLock, boolean isVolatile) {
-        Map<Integer, LinkedList<VCLockPair>> threadLists1;
-        Map<Integer, LinkedList<VCLockPair>> threadLists2 = null;
+        checkRace(iid, t, m, isRead, vc, ls, isLock, isVolatile, writeMap.get(m), isRead ? null : readMap.get(m));
+    }
 
+    private void checkRace(int iid, int t, long m, boolean isRead, VectorClock vc, LockSet ls,
+                           boolean isLock, boolean isVolatile, IntHashMap<ArrayList<VCLockPair>> threadLists1,
+                           IntHashMap<ArrayList<VCLockPair>> threadLists2) {
         long visitC = incAndGetVisitCount(iid);
 
-        if (isRead) {
-            threadLists1 = writeMap.get(m);
-        } else {
-            threadLists1 = writeMap.get(m);
-            threadLists2 = readMap.get(m);
-        }
         if (threadLists1 != null) {
             checkRaceAux(iid, threadLists1, t, vc, ls, m,visitC,isLock,isRead,false,isVolatile);
         }
         if (threadLists2 != null) {
             checkRaceAux(iid, threadLists2, t, vc, ls, m, visitC,isLock,isRead,true,isVolatile);
         }
+        if (!ranges.isEmpty()) {
+            ArrayList<Range> rs = ranges.get((int) (m >>> 32));
+            if (rs != null) {
+                int index = (int) m;
+                int i = floor(rs, index);
+                Range r = i < 0 ? null : rs.get(i);
+                if (r != null && index < r.hi) {
+                    if (r.writes != null) {
+                        checkRaceAux(iid, r.writes, t, vc, ls, m, visitC, isLock, isRead, false, isVolatile);
+                    }
+                    if (!isRead && r.reads != null) {
+                        checkRaceAux(iid, r.reads, t, vc, ls, m, visitC, isLock, isRead, true, isVolatile);
+                    }
+                }
+            }
+        }
     }
 
-    private long incAndGetVisitCount(Integer iid) {
+    /**
+     * Like checkRace for a data access to each of the elements lo to hi - 1 of
+     * the array with id array, made by one range event.
+     */
+    public void checkRangeRace(int iid, int t, int array, int lo, int hi, boolean isRead, VectorClock vc, LockSet ls) {
+        long visitC = incAndGetVisitCount(iid);
+        ArrayList<Range> rs = ranges.get(array);
+        if (rs != null) {
+            for (int i = Math.max(floor(rs, lo), 0); i < rs.size() && rs.get(i).lo < hi; i++) {
+                Range r = rs.get(i);
+                if (r.hi <= lo) continue;
+                long m = javato.activetesting.analysis.Observer.idInt(array, Math.max(lo, r.lo));
+                if (r.writes != null) {
+                    checkRaceAux(iid, r.writes, t, vc, ls, m, visitC, false, isRead, false, false);
+                }
+                if (!isRead && r.reads != null) {
+                    checkRaceAux(iid, r.reads, t, vc, ls, m, visitC, false, isRead, true, false);
+                }
+            }
+        }
+        if (mapped.containsKey(array)) {
+            for (int i = lo; i < hi; i++) {
+                long m = javato.activetesting.analysis.Observer.idInt(array, i);
+                IntHashMap<ArrayList<VCLockPair>> threadLists = writeMap.get(m);
+                if (threadLists != null) {
+                    checkRaceAux(iid, threadLists, t, vc, ls, m, visitC, false, isRead, false, false);
+                }
+                threadLists = isRead ? null : readMap.get(m);
+                if (threadLists != null) {
+                    checkRaceAux(iid, threadLists, t, vc, ls, m, visitC, false, isRead, true, false);
+                }
+            }
+        }
+    }
+
+    private long incAndGetVisitCount(int iid) {
         if (Parameters.LOG_IID_VISIT_COUNT) {
             MutableLong l = iidVisitCount.get(iid);
             if (l==null) {
@@ -125,54 +243,34 @@ public class HybridRaceTracker {
         return 0;
     }
 
-    protected void checkRaceAux(Integer iid, Map<Integer, LinkedList<VCLockPair>> threadLists,
-                                Integer t, VectorClock vc, LockSet ls, Long m, long iidVisitCount,
+    protected void checkRaceAux(int iid, IntHashMap<ArrayList<VCLockPair>> threadLists,
+                                int t, VectorClock vc, LockSet ls, long m, long iidVisitCount,
                                 boolean isLock, boolean isRead1, boolean isRead2, boolean isVolatile) {
-        for (Integer t2 : threadLists.keySet()) {
-            if (!t2.equals(t)) {
-                Long c2 = vc.getValue(t2);
-                LinkedList<VCLockPair> vcs = threadLists.get(t2);
-                for (VCLockPair c : vcs) {
+        // walk the tables by slot rather than through iterators; this runs on every access
+        for (int s1 = 0; s1 < threadLists.capacity(); s1++) {
+            ArrayList<VCLockPair> vcs = threadLists.valueAt(s1);
+            if (vcs == null) continue;
+            int t2 = threadLists.keyAt(s1);
+            if (t2 != t) {
+                long c2 = vc.getValue(t2);
+                for (int i = 0; i < vcs.size(); i++) {
+                    VCLockPair c = vcs.get(i);
                     if (c2 < c.getClock()) {
-                        Map<LockSet, TreeMap<Integer,Long>> lockSets = c.getLockSets();
-                        for (LockSet ls2 : lockSets.keySet()) {
+                        for (int j = 0; j < c.size(); j++) {
+                            LockSet ls2 = c.lockSetAt(j);
                             if (!ls2.intersects(ls)) {
-                                TreeMap<Integer,Long> iids = lockSets.get(ls2);
-                                CommutativePair cp;
-                                for (Integer iid2 : iids.keySet()) {
+                                IntHashMap<MutableLong> iids = c.iidsAt(j);
+                                for (int s2 = 0; s2 < iids.capacity(); s2++) {
+                                    MutableLong iid2Visits = iids.valueAt(s2);
+                                    if (iid2Visits == null) continue;
+                                    int iid2 = iids.keyAt(s2);
                                     long iid2Count = 0;
                                     if (Parameters.LOG_IID_VISIT_COUNT) {
-                                        iid2Count = iids.get(iid2);
+                                        iid2Count = iid2Visits.val;
                                     }
-                                    cp = new CommutativePair(iid, iidVisitCount,isRead1,iid2,iid2Count,isRead2,isLock,isVolatile);
                                     if (Parameters.trackWaitNotifyOnly && !isLock)
                                         return;
-                                    if (!alreadySeenRaces.contains(cp)) {
-                                        //printLocation();
-                                        alreadySeenRaces.add(cp);
-                                        if (isLock) lockRaceCount++;
-                                        else dataRaceCount++;
-                                        if (Parameters.LOG_IID_VISIT_COUNT) {
-                                            if (isLock)
-                                                System.out.print("Lock race between ");
-                                            else
-                                                System.out.print("Data race between ");
-
-                                            System.out.println(javato.activetesting.analysis.Observer.getIidToLine(iid) + ":"+iidVisitCount+ " and "
-                                                    + javato.activetesting.analysis.Observer.getIidToLine(iid2)+":"+iid2Count);
-                                        } else {
-                                            if (isLock)
-                                                System.out.print("Lock race between ");
-                                            else
-                                                System.out.print("Data race between ");
-                                            System.out.println(javato.activetesting.analysis.Observer.getIidToLine(iid) + " and "
-                                                    + javato.activetesting.analysis.Observer.getIidToLine(iid2));
-
-                                        }
-                                    } else if (Parameters.removeOlderRace) {
-                                        alreadySeenRaces.remove(cp);
-                                        alreadySeenRaces.add(cp);
-                                    }
+                                    addRace(iid, iidVisitCount, isRead1, iid2, iid2Count, isRead2, isLock, isVolatile);
                                 }
                             }
                         }
@@ -185,45 +283,181 @@ public class HybridRaceTracker {
         }
     }
 
-    public void addEvent(Integer iid, Integer t, Long m, boolean isRead, VectorClock vc, LockSet ls) {
-        Map<Long, Map<Integer, LinkedList<VCLockPair>>> currentMap = isRead ? readMap : writeMap;
-        Map<Integer, LinkedList<VCLockPair>> threadLists = currentMap.get(m);
+    private void addRace(int iid, long iidVisitCount, boolean isRead1, int iid2, long iid2Count, boolean isRead2,
+                         boolean isLock, boolean isVolatile) {
+        CommutativePair cp = new CommutativePair(iid, iidVisitCount,isRead1,iid2,iid2Count,isRead2,isLock,isVolatile);
+        if (!alreadySeenRaces.contains(cp)) {
+            //printLocation();
+            alreadySeenRaces.add(cp);
+            if (isLock) lockRaceCount++;
+            else dataRaceCount++;
+            if (Parameters.LOG_IID_VISIT_COUNT) {
+                if (isLock)
+                    System.out.print("Lock race between ");
+                else
+                    System.out.print("Data race between ");
+
+                System.out.println(javato.activetesting.analysis.Observer.getIidToLine(iid) + ":"+iidVisitCount+ " and "
+                        + javato.activetesting.analysis.Observer.getIidToLine(iid2)+":"+iid2Count);
+            } else {
+                if (isLock)
+                    System.out.print("Lock race between ");
+                else
+                    System.out.print("Data race between ");
+                System.out.println(javato.activetesting.analysis.Observer.getIidToLine(iid) + " and "
+                        + javato.activetesting.analysis.Observer.getIidToLine(iid2));
+
+            }
+        } else if (Parameters.removeOlderRace) {
+            alreadySeenRaces.remove(cp);
+            alreadySeenRaces.add(cp);
+        }
+    }
+
+    /**
+     * checkRace followed by addEvent for a field whose state is kept in its
+     * ShadowState rather than in the maps, with the lockset given by its id
+     * in ids. The access is compared with the last write and the last read of
+     * each thread only, where the maps keep the last few clocks of each thread
+     * with all the iids seen at them: a race on the location is still found,
+     * but only with the latest of several conflicting accesses of a thread,
+     * and the other access is reported with a visit count of 0.
+     */
+    public void checkRace(int iid, int t, boolean isRead, VectorClock vc, int locks, LockSetIds ids, ShadowState s) {
+        long visitC = incAndGetVisitCount(iid);
+        if (!Parameters.trackWaitNotifyOnly) {
+            if (s.hasWrite()) {
+                int t2 = s.getWriteThread();
+                if (t2 != t && vc.getValue(t2) < s.getWriteClock() && !ids.intersects(locks, s.getWriteLocks())) {
+                    addRace(iid, visitC, isRead, s.getWriteIid(), 0, false, false, false);
+                }
+            }
+            if (!isRead) {
+                for (int i = 0; i < s.getReaders(); i++) {
+                    int t2 = s.getReadThread(i);
+                    if (t2 != t && vc.getValue(t2) < s.getReadClock(i) && !ids.intersects(locks, s.getReadLocks(i))) {
+                        addRace(iid, visitC, false, s.getReadIid(i), 0, true, false, false);
+                    }
+                }
+            }
+        }
+        if (isRead) {
+            s.read(iid, t, vc.getValue(t), locks);
+        } else {
+            s.write(iid, t, vc.getValue(t), locks);
+        }
+    }
+
+    public void addEvent(int iid, int t, long m, boolean isRead, VectorClock vc, LockSet ls) {
+        LongHashMap<IntHashMap<ArrayList<VCLockPair>>> currentMap = isRead ? readMap : writeMap;
+        IntHashMap<ArrayList<VCLockPair>> threadLists = currentMap.get(m);
         if (threadLists == null) {
-            threadLists = new TreeMap<Integer, LinkedList<VCLockPair>>();
+            threadLists = new IntHashMap<ArrayList<VCLockPair>>(4);
             currentMap.put(m, threadLists);
+            mapped.put((int) (m >>> 32), Boolean.TRUE);
+        }
+        addEventAux(iid, threadLists, t, vc, ls);
+    }
+
+    /**
+     * Like addEvent, for a range event. The event is added to each stored
+     * range inside lo to hi - 1, after splitting those that cross lo or hi
+     * and filling the gaps, so the state grows with the number of distinct
+     * bounds rather than with the number of elements, and an element access
+     * looks up one range.
+     */
+    public void addRangeEvent(int iid, int t, int array, int lo, int hi, boolean isRead, VectorClock vc, LockSet ls) {
+        if (lo >= hi) return;
+        ArrayList<Range> rs = ranges.get(array);
+        if (rs == null) {
+            rs = new ArrayList<Range>(2);
+            ranges.put(array, rs);
+        }
+        split(rs, lo);
+        split(rs, hi);
+        int i = floor(rs, lo);
+        if (i < 0 || rs.get(i).lo < lo) i++;
+        int at = lo;
+        while (at < hi) {
+            Range r;
+            if (i < rs.size() && rs.get(i).lo == at) {
+                r = rs.get(i);
+            } else {
+                r = new Range(at, i < rs.size() ? Math.min(rs.get(i).lo, hi) : hi);
+                rs.add(i, r);
+            }
+            addEvent(iid, t, isRead, vc, ls, r);
+            at = r.hi;
+            i++;
+        }
+    }
+
+    // the index of the last range in rs that starts at or before index, or -1
+    private static int floor(ArrayList<Range> rs, int index) {
+        int low = 0;
+        int high = rs.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (rs.get(mid).lo <= index) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return high;
+    }
+
+    // makes index the start of a range if a range of rs has it inside
+    private static void split(ArrayList<Range> rs, int index) {
+        int i = floor(rs, index);
+        if (i < 0) return;
+        Range r = rs.get(i);
+        if (r.lo == index || r.hi <= index) return;
+        rs.set(i, r.copy(r.lo, index));
+        rs.add(i + 1, r.copy(index, r.hi));
+    }
+
+    private void addEvent(int iid, int t, boolean isRead, VectorClock vc, LockSet ls, Range range) {
+        IntHashMap<ArrayList<VCLockPair>> threadLists = isRead ? range.reads : range.writes;
+        if (threadLists == null) {
+            threadLists = new IntHashMap<ArrayList<VCLockPair>>(4);
+            if (isRead) {
+                range.reads = threadLists;
+            } else {
+                range.writes = threadLists;
+            }
         }
         addEventAux(iid, threadLists, t, vc, ls);
     }
 
-    protected void addEventAux(Integer iid, Map<Integer, LinkedList<VCLockPair>> threadLists, Integer t, VectorClock vc, LockSet ls) {
-        LinkedList<VCLockPair> vcLists = threadLists.get(t);
+    protected void addEventAux(int iid, IntHashMap<ArrayList<VCLockPair>> threadLists, int t, VectorClock vc, LockSet ls) {
+        ArrayList<VCLockPair> vcLists = threadLists.get(t);
         if (vcLists == null) {
-            vcLists = new LinkedList<VCLockPair>();
+            vcLists = new ArrayList<VCLockPair>(Parameters.N_VECTOR_CLOCKS_WINDOW + 1);
             threadLists.put(t, vcLists);
         }
         long c = vc.getValue(t);
         VCLockPair cPair;
-        if (vcLists.isEmpty() || vcLists.getFirst().getClock() < c) {
+        // newest pair first, at most N_VECTOR_CLOCKS_WINDOW of them
+        if (vcLists.isEmpty() || vcLists.get(0).getClock() < c) {
             cPair = new VCLockPair(c);
-            vcLists.addFirst(cPair);
+            vcLists.add(0, cPair);
             if (vcLists.size() > Parameters.N_VECTOR_CLOCKS_WINDOW) {
-                vcLists.removeLast();
+                vcLists.remove(vcLists.size() - 1);
             }
         } else {
-            cPair = vcLists.getFirst();
+            cPair = vcLists.get(0);
         }
-        HashMap<LockSet, TreeMap<Integer,Long>> lockSets = cPair.getLockSets();
-        TreeMap<Integer,Long> iids = lockSets.get(ls);
-        if (iids == null) {
-            iids = new TreeMap<Integer,Long>();
-            lockSets.put(new LockSet(ls), iids);
+        IntHashMap<MutableLong> iids = cPair.getIids(ls);
+        MutableLong visits = iids.get(iid);
+        if (visits == null) {
+            visits = new MutableLong(0);
+            iids.put(iid, visits);
+        } else if (!Parameters.removeOlderAccess) {
+            return;
         }
-        if (Parameters.removeOlderAccess || (!Parameters.removeOlderAccess && !iids.containsKey(iid))) {
-            if (Parameters.LOG_IID_VISIT_COUNT) {
-                iids.put(iid,iidVisitCount.get(iid).val);
-            } else {
-                iids.put(iid,0l);
-            }
+        if (Parameters.LOG_IID_VISIT_COUNT) {
+            visits.val = iidVisitCount.get(iid).val;
         }
     }
 
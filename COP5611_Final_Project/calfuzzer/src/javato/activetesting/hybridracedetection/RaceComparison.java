@@ -0,0 +1,126 @@
+package javato.activetesting.hybridracedetection;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Copyright (c) 2007-2008,
+ * Koushik Sen    <ksen@cs.berkeley.edu>
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * <p/>
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * <p/>
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * <p/>
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class RaceComparison {
+    /*
+     * Compares the races HybridAnalysis found in two runs of the same program
+     * that was instrumented differently, e.g. without and with
+     * javato.mayrace.analysis. The iids of the two instrumentations differ
+     * once one of them drops sites, so a race is compared by the source lines
+     * of its two accesses. A race of the first run that is missing from the
+     * second is one the second instrumentation lost. Lock races are left
+     * out: they come from lock, wait and notify events, which neither
+     * instrumentation drops, and whether a run sees one depends only on
+     * whether the notify came before the wait.
+     *
+     *   RaceComparison error.log iidToLine.map error.log iidToLine.map
+     *
+     * prints those races and exits with 1 if there are any.
+     */
+
+    /**
+     * The data races as "line||line", the lines of each race in order.
+     */
+    public static Set<String> byLines(Collection<CommutativePair> races, List<String> iidToLine) {
+        Set<String> ret = new TreeSet<String>();
+        for (CommutativePair cp : races) {
+            if (cp.isLock()) {
+                continue;
+            }
+            String x = iidToLine.get(cp.getX());
+            String y = iidToLine.get(cp.getY());
+            ret.add(x.compareTo(y) <= 0 ? x + "||" + y : y + "||" + x);
+        }
+        return ret;
+    }
+
+    /**
+     * The data races of the first run that the second did not find.
+     */
+    public static Set<String> missing(Collection<CommutativePair> races, List<String> iidToLine,
+                                      Collection<CommutativePair> others, List<String> otherIidToLine) {
+        Set<String> ret = byLines(races, iidToLine);
+        ret.removeAll(byLines(others, otherIidToLine));
+        return ret;
+    }
+
+    // the elements, in order, of the collection of Ts serialized in file
+    private static <T> List<T> read(String file, Class<T> type) throws IOException, ClassNotFoundException {
+        ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)));
+        Object o;
+        try {
+            o = in.readObject();
+        } finally {
+            in.close();
+        }
+        if (!(o instanceof Collection)) {
+            throw new IOException(file + " holds a " + o.getClass().getName() + ", not a collection");
+        }
+        List<T> ret = new ArrayList<T>();
+        for (Object e : (Collection<?>) o) {
+            ret.add(type.cast(e));
+        }
+        return ret;
+    }
+
+    public static void main(String[] args) throws IOException, ClassNotFoundException {
+        if (args.length != 4) {
+            System.err.println("Usage: RaceComparison <error log> <iid map> <error log> <iid map>");
+            System.exit(2);
+        }
+        List<CommutativePair> races = read(args[0], CommutativePair.class);
+        List<String> lines = read(args[1], String.class);
+        List<CommutativePair> others = read(args[2], CommutativePair.class);
+        List<String> otherLines = read(args[3], String.class);
+        Set<String> lost = missing(races, lines, others, otherLines);
+        System.out.println("Data races: " + byLines(races, lines).size() + " in " + args[0] + ", "
+                + byLines(others, otherLines).size() + " in " + args[2] + ", " + lost.size() + " missing");
+        for (String race : lost) {
+            System.out.println("missing: " + race);
+        }
+        if (!lost.isEmpty()) {
+            System.exit(1);
+        }
+    }
+}
@@ -1,11 +1,12 @@
 package javato.activetesting.hybridracedetection;
 
 
+import javato.activetesting.common.IntHashMap;
+import javato.activetesting.common.MutableLong;
 import javato.activetesting.lockset.LockSet;
 
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.TreeSet;
-import java.util.TreeMap;
 
 /**
  * Copyright (c) 2007-2008,
@@ -41,18 +42,67 @@ import java.util.TreeMap;
  */
 public class VCLockPair {
     private long clockValue;
-    private HashMap<LockSet, TreeMap<Integer,Long>> lockSets;
+    // ls -> iid -> visit count; the lists are kept alongside the map so that
+    // race checks can walk the locksets by index
+    private HashMap<LockSet, IntHashMap<MutableLong>> lockSets;
+    private ArrayList<LockSet> lockSetList;
+    private ArrayList<IntHashMap<MutableLong>> iidsList;
+    // lockset snapshots are shared until the thread's locks change, so
+    // consecutive accesses usually hit this without hashing the set
+    private LockSet lastLockSet;
+    private IntHashMap<MutableLong> lastIids;
 
     public VCLockPair(long c) {
         clockValue = c;
-        lockSets = new HashMap<LockSet, TreeMap<Integer,Long>>();
+        lockSets = new HashMap<LockSet, IntHashMap<MutableLong>>();
+        lockSetList = new ArrayList<LockSet>(2);
+        iidsList = new ArrayList<IntHashMap<MutableLong>>(2);
     }
 
     public long getClock() {
         return clockValue;
     }
 
-    public HashMap<LockSet, TreeMap<Integer,Long>> getLockSets() {
-        return lockSets;
+    public int size() {
+        return lockSetList.size();
+    }
+
+    public LockSet lockSetAt(int i) {
+        return lockSetList.get(i);
+    }
+
+    public IntHashMap<MutableLong> iidsAt(int i) {
+        return iidsList.get(i);
+    }
+
+    // a pair with the same clock, locksets and iids that can change independently of this one
+    public VCLockPair copy() {
+        VCLockPair c = new VCLockPair(clockValue);
+        for (int i = 0; i < lockSetList.size(); i++) {
+            IntHashMap<MutableLong> from = iidsList.get(i);
+            IntHashMap<MutableLong> to = c.getIids(lockSetList.get(i));
+            for (int s = 0; s < from.capacity(); s++) {
+                MutableLong visits = from.valueAt(s);
+                if (visits != null) to.put(from.keyAt(s), new MutableLong(visits.val));
+            }
+        }
+        return c;
+    }
+
+    public IntHashMap<MutableLong> getIids(LockSet ls) {
+        if (ls == lastLockSet) {
+            return lastIids;
+        }
+        IntHashMap<MutableLong> iids = lockSets.get(ls);
+        if (iids == null) {
+            LockSet copy = new LockSet(ls);
+            iids = new IntHashMap<MutableLong>(4);
+            lockSets.put(copy, iids);
+            lockSetList.add(copy);
+            iidsList.add(iids);
+        }
+        lastLockSet = ls;
+        lastIids = iids;
+        return iids;
     }
 }
@@ -65,10 +65,14 @@ public class DeadlockCycleInfo implements Serializable {
     }
 
     public int write() {
+        return write(Parameters.ERROR_LOG_FILE);
+    }
+
+    public int write(String file) {
         ObjectOutputStream out;
         System.out.println("# of deadlocks detected " + cycles.size());
         try {
-            out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(Parameters.ERROR_LOG_FILE)));
+            out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
             out.writeObject(this);
             out.close();
         } catch (IOException e) {
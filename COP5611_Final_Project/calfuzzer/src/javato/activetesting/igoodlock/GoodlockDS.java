@@ -115,6 +115,10 @@ public class GoodlockDS {
     }
 
     public int dumpDeadlocks() {
+        return dumpDeadlocks(Parameters.ERROR_LOG_FILE);
+    }
+
+    public int dumpDeadlocks(String logFile) {
         if (deadlocks == null)
             findDeadlocks();
         DeadlockCycleInfo ret = new DeadlockCycleInfo(deadlocks.size());
@@ -122,6 +126,6 @@ public class GoodlockDS {
             ret.addACycle();
             path.addCycleToDeadlockCycleInfo(ret);
         }
-        return ret.write();
+        return ret.write(logFile);
     }
 }
@@ -1,10 +1,26 @@
 package javato.activetesting.instrumentor;
 
+import javato.activetesting.DeadlockFuzzerAnalysis;
+import javato.activetesting.IGoodlockAnalysis;
+import javato.activetesting.analysis.EventKind;
+import javato.activetesting.asm.ObserverSpecializer;
+import javato.activetesting.asm.OfflineInstrumentor;
+import javato.activetesting.asm.OidAccessors;
 import javato.activetesting.common.Parameters;
+import javato.instrumentor.InstrumentationCache;
+import javato.instrumentor.LockOrderAnalysis;
 import javato.instrumentor.RecursiveVisitor;
+import javato.instrumentor.ShardedInstrumentation;
+import javato.instrumentor.MayRaceAnalysis;
+import javato.instrumentor.ThreadEscapeAnalysis;
 import javato.instrumentor.TransformClass;
 import javato.instrumentor.Visitor;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
 /**
  * Copyright (c) 2007-2008,
  * Pallavi Joshi   <pallavi@cs.berkeley.edu>
@@ -38,14 +54,120 @@ import javato.instrumentor.Visitor;
  * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
 public class InstrumentorForActiveTesting {
+    // the analyses for which the lock-order pass keeps every lock event they need
+    private static final List<String> LOCK_ORDER_ANALYSES = Arrays.asList(
+            IGoodlockAnalysis.class.getName(), DeadlockFuzzerAnalysis.class.getName());
+
     public static void main(String[] args) {
+        if (Parameters.instrBackend.equals("asm")) {
+            OfflineInstrumentor.main(args);
+            return;
+        }
+        if (Parameters.lockOrderAnalysis) {
+            checkLockOrderAnalyses();
+        }
         RecursiveVisitor vv = new RecursiveVisitor(null);
         VisitorForActiveTesting pv = new VisitorForActiveTesting(vv);
         vv.setNextVisitor(pv);
         Visitor.setObserverClass("javato.activetesting.analysis.ObserverForActiveTesting");
         TransformClass processor = new TransformClass();
-        processor.processAllAtOnce(args, pv);
+        if (ShardedInstrumentation.isShard()) {
+            ShardedInstrumentation.runShard(args, processor, pv);
+            if (Parameters.eliminateRedundantAccesses) {
+                pv.printRedundantAccessStatistics();
+            }
+            return;
+        }
+        if (InstrumentationCache.canCache(args)) {
+            new InstrumentationCache(args).run(processor, pv);
+        } else if (ShardedInstrumentation.canShard(args)) {
+            new ShardedInstrumentation(args).run(InstrumentorForActiveTesting.class.getName());
+        } else {
+            processor.processAllAtOnce(args, pv);
+        }
         Visitor.dumpIidToLine();
+        Visitor.dumpMethodTable();
         pv.writeSymTblSize();
+        pv.writeIidCount();
+        EventKind.write(Parameters.instrEventsFile, EventKind.forInstrumentation());
+        if (Parameters.oidField) {
+            addOidAccessors(args);
+        }
+        if (Parameters.bindObserver) {
+            bindObserver(args);
+        }
+        if (Parameters.escapeAnalysis) {
+            ThreadEscapeAnalysis.v().printStatistics();
+        }
+        if (Parameters.mayRaceAnalysis) {
+            MayRaceAnalysis.v().printStatistics();
+        }
+        if (Parameters.lockOrderAnalysis) {
+            LockOrderAnalysis.v().printStatistics();
+        }
+        if (Parameters.eliminateRedundantAccesses) {
+            pv.printRedundantAccessStatistics();
+        }
+        if (Parameters.arrayRanges) {
+            pv.printArrayRangeStatistics();
+        }
+    }
+
+    /*
+     * The lock-order pass drops lock events that other analyses, e.g. the
+     * locksets of the race detectors, rely on, so the instrumented program
+     * may only be run with the deadlock analyses.
+     */
+    private static void checkLockOrderAnalyses() {
+        String analyses = Parameters.instrAnalyses.length() > 0 ? Parameters.instrAnalyses : Parameters.analysisClass;
+        if (analyses == null || analyses.trim().length() == 0) {
+            System.err.println("javato.lockorder.analysis needs javato.instr.analyses to name the analyses to be run, out of "
+                    + LOCK_ORDER_ANALYSES);
+            System.exit(1);
+        }
+        for (String a : analyses.split(",")) {
+            if (!LOCK_ORDER_ANALYSES.contains(a.trim())) {
+                System.err.println("javato.lockorder.analysis drops lock events that " + a.trim()
+                        + " needs; it only works with " + LOCK_ORDER_ANALYSES);
+                System.exit(1);
+            }
+        }
+    }
+
+    private static String outputDir(String[] args) {
+        String outDir = "sootOutput";
+        for (int i = 0; i + 1 < args.length; i++) {
+            if (args[i].equals("-d") || args[i].equals("-output-dir")) {
+                outDir = args[i + 1];
+            }
+        }
+        return outDir;
+    }
+
+    // Soot would instrument methods added while it runs, so the oid field
+    // accessors are added to the classes it wrote, like the bound observer
+    private static void addOidAccessors(String[] args) {
+        String outDir = outputDir(args);
+        try {
+            int n = OidAccessors.addTo(new File(outDir));
+            System.out.println("Added object id accessors to " + n + " classes");
+        } catch (IOException e) {
+            System.err.println("Cannot add the object id accessors in " + outDir + ": " + e);
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    // Soot must resolve the observer, so the calls are retargeted after it wrote the classes
+    private static void bindObserver(String[] args) {
+        String outDir = outputDir(args);
+        try {
+            int n = ObserverSpecializer.bind(new File(outDir));
+            System.out.println("Bound " + n + " classes to BoundObserver");
+        } catch (IOException e) {
+            System.err.println("Cannot bind the observer in " + outDir + ": " + e);
+            e.printStackTrace();
+            System.exit(1);
+        }
     }
 }
@@ -1,14 +1,32 @@
 package javato.activetesting.instrumentor;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.Iterator ;
-
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javato.instrumentor.ArrayLoopAnalysis;
+import javato.instrumentor.LockOrderAnalysis;
+import javato.instrumentor.MayRaceAnalysis;
+import javato.instrumentor.RedundantAccessAnalysis;
+import javato.instrumentor.ThreadEscapeAnalysis;
 import javato.instrumentor.UnknownASTNodeException;
 import javato.instrumentor.Visitor;
 import javato.instrumentor.contexts.*;
+import javato.activetesting.analysis.EventKind;
+import javato.activetesting.analysis.IidGuards;
+import javato.activetesting.analysis.Observer;
+import javato.activetesting.analysis.ShadowState;
 import javato.activetesting.common.Parameters;
 import soot.*;
 import soot.jimple.*;
+import soot.toolkits.graph.BriefUnitGraph;
 import soot.util.Chain;
 
 /**
@@ -45,6 +63,16 @@ import soot.util.Chain;
  * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
 public class VisitorForActiveTesting extends Visitor {
+    // only the events the analyses to be run subscribe to are instrumented
+    private static final EnumSet<EventKind> events = EventKind.forInstrumentation();
+    // observer calls that run even when their iid is switched off
+    private static final Set<String> unguarded = new HashSet<String>(Arrays.asList(
+            "void myLockBefore(int,java.lang.Object,boolean)",
+            "void myLockBefore(int,java.lang.Object,java.lang.String)",
+            "void myLockAfter(int)",
+            "void myUnlockAfter(int)",
+            "void myOpenDeterministicBlock(int)",
+            "void myCloseDeterministicBlock(int)"));
 
     public static final String openDeterministicBlockSig
         = "<edu.berkeley.cs.detcheck.Determinism: void openDeterministicBlock()>";
@@ -57,6 +85,23 @@ public class VisitorForActiveTesting extends Visitor {
     // performance, because tracking locals is very expensive.
     private boolean containsDeterministicBlock = false;
 
+    // accesses of the current method already covered by an earlier one
+    private RedundantAccessAnalysis redundantAccesses;
+    private int accessSites;
+    private int redundantAccessSites;
+    // array accesses of the current method in counted loops, see addRangeCall
+    private ArrayLoopAnalysis arrayLoops;
+    private int arrayAccessSites;
+    private int rangeAccessSites;
+    private Local rangeLo;
+    private Local rangeHi;
+    private Local rangeLen;
+    private Local rangeOk;
+    // loop entry -> the test that skips the loop's range calls
+    private final Map<Unit, Unit> rangeGates = new HashMap<Unit, Unit>();
+    // holds the shadow state of the field accessed next in the current method, see addShadowCall
+    private Local shadowState;
+
     public VisitorForActiveTesting(Visitor visitor) {
         super(visitor);
     }
@@ -124,10 +169,32 @@ public class VisitorForActiveTesting extends Visitor {
     }
 
     public void visitMethodBegin(SootMethod sm, Chain units) {
+        // must run on the body before any call is inserted
+        redundantAccesses = null;
+        if (Parameters.eliminateRedundantAccesses) {
+            redundantAccesses = new RedundantAccessAnalysis(new BriefUnitGraph(sm.getActiveBody()));
+            accessSites += redundantAccesses.getAccessCount();
+            redundantAccessSites += redundantAccesses.getRedundantCount();
+        }
+        arrayLoops = null;
+        if (Parameters.arrayRanges) {
+            arrayLoops = new ArrayLoopAnalysis(sm.getActiveBody());
+            arrayAccessSites += arrayLoops.getAccessCount();
+        }
+        rangeLo = null;
+        rangeHi = null;
+        rangeLen = null;
+        rangeOk = null;
+        rangeGates.clear();
+        shadowState = null;
         nextVisitor.visitMethodBegin(sm, units);
+        if (Parameters.oidField) {
+            addOidField(sm.getDeclaringClass());
+        }
+        addShadowFields(sm.getDeclaringClass());
 
 				if (!sm.isAbstract()) { // Shin
-					if (sm.isSynchronized()) {
+					if (sm.isSynchronized() && emitsLocks() && !cannotDeadlock(sm)) {
 		        if (sm.getName().contains("<clinit>") || sm.getName().contains("<init>"))
 	            return;
 
@@ -179,11 +246,115 @@ public class VisitorForActiveTesting extends Visitor {
 				
     }
 
+    // caches the object ids of the class, see Observer.uniqueId
+    private static void addOidField(SootClass c) {
+        if (c.isInterface() || c.declaresFieldByName(Observer.OID_FIELD)) {
+            return;
+        }
+        c.addField(new SootField(Observer.OID_FIELD, IntType.v(), Modifier.PRIVATE | Modifier.TRANSIENT));
+    }
+
+    // whether the field has a shadow field, see ShadowState; decided from the
+    // field and the name of its class alone, so that all shards agree
+    private static boolean isShadowed(SootField f) {
+        int m = f.getModifiers();
+        return !Modifier.isStatic(m) && !Modifier.isVolatile(m) && !ShadowState.isCompanion(f.getName())
+                && !f.getName().equals(Observer.OID_FIELD) && ShadowState.shadows(f.getDeclaringClass().getName());
+    }
+
+    // adds the shadow fields of all the fields of the class at once, whichever are accessed;
+    // called for the class of each method and of each shadowed field accessed, as the class
+    // may be instrumented by another shard or after the method accessing it
+    private static void addShadowFields(SootClass c) {
+        if (c.isInterface() || !ShadowState.shadows(c.getName())) {
+            return;
+        }
+        RefType type = RefType.v(ShadowState.class.getName());
+        for (SootField f : new ArrayList<SootField>(c.getFields())) {
+            String companion = ShadowState.companion(f.getName());
+            if (isShadowed(f) && !c.declaresFieldByName(companion)) {
+                int visibility = f.getModifiers() & (Modifier.PUBLIC | Modifier.PROTECTED | Modifier.PRIVATE);
+                c.addField(new SootField(companion, type, visibility | Modifier.FINAL | Modifier.TRANSIENT));
+            }
+        }
+    }
+
+    /**
+     * Sets the shadow fields of the class at the start of a constructor,
+     * before super() or this() is called, to new ShadowStates.
+     */
+    private static void addShadowInits(SootMethod sm, Chain units) {
+        SootClass c = sm.getDeclaringClass();
+        if (!sm.getName().equals("<init>") || !ShadowState.shadows(c.getName())) {
+            return;
+        }
+        Body body = sm.getActiveBody();
+        Stmt first = null;
+        for (Object u : units) {
+            if (!(u instanceof IdentityStmt)) {
+                first = (Stmt) u;
+                break;
+            }
+        }
+        RefType type = RefType.v(ShadowState.class.getName());
+        SootMethodRef init = Scene.v().makeMethodRef(type.getSootClass(), "<init>",
+                new ArrayList<Type>(), VoidType.v(), false);
+        Local state = null;
+        for (SootField f : new ArrayList<SootField>(c.getFields())) {
+            if (!isShadowed(f)) {
+                continue;
+            }
+            if (state == null) {
+                state = Jimple.v().newLocal("$newShadowState", type);
+                body.getLocals().add(state);
+            }
+            SootFieldRef companion = Scene.v().makeFieldRef(c, ShadowState.companion(f.getName()), type, false);
+            units.insertBefore(Jimple.v().newAssignStmt(state, Jimple.v().newNewExpr(type)), first);
+            units.insertBefore(Jimple.v().newInvokeStmt(Jimple.v().newSpecialInvokeExpr(state, init)), first);
+            units.insertBefore(Jimple.v().newAssignStmt(
+                    Jimple.v().newInstanceFieldRef(body.getThisLocal(), companion), state), first);
+        }
+    }
+
+    /**
+     * Inserts before s
+     *   $shadowState = base.f$javato$shadow;
+     *   methodName(iid, base, field, $shadowState);
+     */
+    private void addShadowCall(SootMethod sm, Chain units, Stmt s, String methodName,
+                               InstanceFieldRef instanceFieldRef, Value field) {
+        SootField f = instanceFieldRef.getField();
+        RefType type = RefType.v(ShadowState.class.getName());
+        if (shadowState == null) {
+            shadowState = Jimple.v().newLocal("$shadowState", type);
+            sm.getActiveBody().getLocals().add(shadowState);
+        }
+        Value base = instanceFieldRef.getBase();
+        addShadowFields(f.getDeclaringClass());
+        SootFieldRef companion = Scene.v().makeFieldRef(f.getDeclaringClass(), ShadowState.companion(f.getName()),
+                type, false);
+        LinkedList<Value> args = new LinkedList<Value>();
+        args.addLast(IntConstant.v(getAndIncCounter()));
+        args.addLast(base);
+        args.addLast(field);
+        args.addLast(shadowState);
+        SootMethodRef hook = Scene.v().getMethod("<" + observerClass + ": void " + methodName
+                + "(int,java.lang.Object,int," + type + ")>").makeRef();
+        units.insertBefore(Jimple.v().newAssignStmt(shadowState, Jimple.v().newInstanceFieldRef(base, companion)), s);
+        units.insertBefore(Jimple.v().newInvokeStmt(Jimple.v().newStaticInvokeExpr(hook, args)), s);
+    }
+
     public void visitMethodEnd(SootMethod sm, Chain units) {
         nextVisitor.visitMethodEnd(sm, units);
+        addShadowInits(sm, units);
+        addLocalWrites(sm, units);
+        if (Parameters.iidGuards) {
+            addIidGuards(sm, units);
+        }
+    }
 
-        if (!Parameters.trackLocals
-            && !(Parameters.trackDeterministicLocals && containsDeterministicBlock))
+    private void addLocalWrites(SootMethod sm, Chain units) {
+        if (!tracksLocals())
             return;
 
         if (sm.getName().contains("<clinit>") || sm.getName().contains("<init>"))
@@ -230,10 +401,41 @@ public class VisitorForActiveTesting extends Visitor {
         }
     }
 
+    /**
+     * Puts "if (IidGuards.isOff(iid)) skip the call" around every observer
+     * call but those whose state later calls depend on.
+     */
+    private void addIidGuards(SootMethod sm, Chain units) {
+        Body body = sm.getActiveBody();
+        SootMethodRef isOff = Scene.v().loadClassAndSupport(IidGuards.class.getName()).getMethodByName("isOff").makeRef();
+        Local bit = null;
+        Iterator it = units.snapshotIterator();
+        while (it.hasNext()) {
+            Stmt s = (Stmt) it.next();
+            if (!(s instanceof InvokeStmt)) {
+                continue;
+            }
+            InvokeExpr call = s.getInvokeExpr();
+            SootMethodRef m = call.getMethodRef();
+            if (!m.declaringClass().getName().equals(observerClass) || call.getArgCount() == 0
+                    || !(call.getArg(0) instanceof IntConstant) || unguarded.contains(m.getSubSignature().getString())) {
+                continue;
+            }
+            if (bit == null) {
+                bit = Jimple.v().newLocal("$iidOff", BooleanType.v());
+                body.getLocals().add(bit);
+            }
+            NopStmt skip = Jimple.v().newNopStmt();
+            units.insertBefore(Jimple.v().newAssignStmt(bit, Jimple.v().newStaticInvokeExpr(isOff, call.getArg(0))), s);
+            units.insertBefore(Jimple.v().newIfStmt(Jimple.v().newNeExpr(bit, IntConstant.v(0)), skip), s);
+            units.insertAfter(skip, s);
+        }
+    }
+
     public void visitStmtAssign(SootMethod sm, Chain units, AssignStmt assignStmt) {
         Value leftOp = assignStmt.getLeftOp();
         Value rightOp = assignStmt.getRightOp();
-        if (!Parameters.ignoreAlloc) {
+        if (!Parameters.ignoreAlloc && emits(EventKind.NEW_EXPR_AFTER)) {
             if ((rightOp instanceof NewExpr)
                     || (rightOp instanceof NewArrayExpr)
                     || (rightOp instanceof NewMultiArrayExpr)) {
@@ -255,15 +457,19 @@ public class VisitorForActiveTesting extends Visitor {
     }
 
     public void visitStmtEnterMonitor(SootMethod sm, Chain units, EnterMonitorStmt enterMonitorStmt) {
-        if (!Parameters.ignoreConcurrency) {
-            addCallWithObject(units, enterMonitorStmt, "myLockBefore", enterMonitorStmt.getOp(), true);
-            addCallWithObject(units, enterMonitorStmt, "myLockAfter", enterMonitorStmt.getOp(), false); /*[Shin]*/
+        if (!Parameters.ignoreConcurrency && !cannotDeadlock(enterMonitorStmt)) {
+            if (emits(EventKind.LOCK_BEFORE)) {
+                addCallWithObject(units, enterMonitorStmt, "myLockBefore", enterMonitorStmt.getOp(), true);
+            }
+            if (emits(EventKind.LOCK_AFTER)) {
+                addCallWithObject(units, enterMonitorStmt, "myLockAfter", enterMonitorStmt.getOp(), false); /*[Shin]*/
+            }
         }
         nextVisitor.visitStmtEnterMonitor(sm, units, enterMonitorStmt);
     }
 
     public void visitStmtExitMonitor(SootMethod sm, Chain units, ExitMonitorStmt exitMonitorStmt) {
-        if (!Parameters.ignoreConcurrency) {
+        if (!Parameters.ignoreConcurrency && emits(EventKind.UNLOCK_AFTER) && !cannotDeadlock(exitMonitorStmt)) {
             addCallWithObject(units, exitMonitorStmt, "myUnlockAfter", exitMonitorStmt.getOp(), false);
         }
         nextVisitor.visitStmtExitMonitor(sm, units, exitMonitorStmt);
@@ -275,45 +481,78 @@ public class VisitorForActiveTesting extends Visitor {
 
         if (!Parameters.ignoreConcurrency) {
             if (sig.equals("void wait()")) {
-                addCallWithObject(units, s, "myWaitBefore", base, true);
-                addCallWithObject(units, s, "myWaitAfter", base, false);
+                if (emits(EventKind.WAIT_BEFORE)) {
+                    addCallWithObject(units, s, "myWaitBefore", base, true);
+                }
+                if (emits(EventKind.WAIT_AFTER)) {
+                    addCallWithObject(units, s, "myWaitAfter", base, false);
+                }
             } else if (sig.equals("void wait(long)") || sig.equals("void wait(long,int)")) {
-                addCallWithObject(units, s, "myWaitBefore", base, true);
-                addCallWithObject(units, s, "myWaitAfter", base, false);
+                if (emits(EventKind.WAIT_BEFORE)) {
+                    addCallWithObject(units, s, "myWaitBefore", base, true);
+                }
+                if (emits(EventKind.WAIT_AFTER)) {
+                    addCallWithObject(units, s, "myWaitAfter", base, false);
+                }
             } else if (sig.equals("void notify()")) {
-                addCallWithObject(units, s, "myNotifyBefore", base, true);
+                if (emits(EventKind.NOTIFY_BEFORE)) {
+                    addCallWithObject(units, s, "myNotifyBefore", base, true);
+                }
             } else if (sig.equals("void notifyAll()")) {
-                addCallWithObject(units, s, "myNotifyAllBefore", base, true);
+                if (emits(EventKind.NOTIFY_ALL_BEFORE)) {
+                    addCallWithObject(units, s, "myNotifyAllBefore", base, true);
+                }
             } else if (sig.equals("void start()") && isThreadSubType(invokeExpr.getMethod().getDeclaringClass())) {
-                addCallWithObject(units, s, "myStartBefore", base, true);
-                addCallWithObject(units, s, "myStartAfter", base, false);
+                if (emits(EventKind.START_BEFORE)) {
+                    addCallWithObject(units, s, "myStartBefore", base, true);
+                }
+                if (emits(EventKind.START_AFTER)) {
+                    addCallWithObject(units, s, "myStartAfter", base, false);
+                }
             } else if (sig.equals("void join()") && isThreadSubType(invokeExpr.getMethod().getDeclaringClass())) {
-                addCallWithObject(units, s, "myJoinAfter", base, false);
+                if (emits(EventKind.JOIN_AFTER)) {
+                    addCallWithObject(units, s, "myJoinAfter", base, false);
+                }
             } else if ((sig.equals("void join(long)") || sig.equals("void join(long,int)"))
                        && isThreadSubType(invokeExpr.getMethod().getDeclaringClass())) {
-                addCallWithObject(units, s, "myJoinAfter", base, false);
+                if (emits(EventKind.JOIN_AFTER)) {
+                    addCallWithObject(units, s, "myJoinAfter", base, false);
+                }
             }
         }
 
         nextVisitor.visitInstanceInvokeExpr(sm, units, s, invokeExpr, context);
 
         if (!Parameters.ignoreMethods) {
-						Value sig2 = StringConstant.v(invokeExpr.getMethod().getDeclaringClass().getName() + invokeExpr.getMethod().getSignature()) ;
-            addCallWithString(units, s, "myMethodEnterBefore", sig2,  true); /*Shin*/
-            addCallWithString(units, s, "myMethodExitAfter", sig2, false); /*Shin*/
+            Value method = IntConstant.v(st.get(invokeExpr.getMethodRef().getSignature()));
+            if (emits(EventKind.METHOD_ENTER_BEFORE)) {
+                addCallWithInt(units, s, "myMethodEnterBefore", method,  true); /*Shin*/
+            }
+            if (emits(EventKind.METHOD_EXIT_AFTER)) {
+                addCallWithInt(units, s, "myMethodExitAfter", method, false); /*Shin*/
+            }
         }
 
         if (sig.indexOf("<init>") == -1) {
-            if (!Parameters.ignoreConcurrency) {
-                String ssig = sig.substring(sig.indexOf(' ') + 1);
-                Value sig2 = StringConstant.v(ssig);
-                addCallWithObjectString(units, s, "myLockBefore", base, sig2, true);
-                // t = t.syncMethod() is problematic, so do not pass t
-                addCall(units, s, "myUnlockAfter", false);
+            if (!Parameters.ignoreConcurrency && emitsLocks()) {
+                int status = synchronizedStatus(invokeExpr);
+                if (status != SYNC_NEVER && cannotDeadlock(s)) {
+                    status = SYNC_NEVER;
+                }
+                if (status == SYNC_ALWAYS) {
+                    addCallWithObjectBoolean(units, s, "myLockBefore", base, true, true);
+                } else if (status == SYNC_MAYBE) {
+                    String ssig = sig.substring(sig.indexOf(' ') + 1);
+                    Value sig2 = StringConstant.v(ssig);
+                    addCallWithObjectString(units, s, "myLockBefore", base, sig2, true);
+                }
+                if (status != SYNC_NEVER) {
+                    // t = t.syncMethod() is problematic, so do not pass t
+                    addCall(units, s, "myUnlockAfter", false);
+                }
             }
 
-        } else if (Parameters.trackLocals ||
-                   (Parameters.trackDeterministicLocals && containsDeterministicBlock)) {
+        } else if (tracksLocals()) {
             // Call to <init> -- add instrumentation call to myWriteAfter().
             //
             // NOTE: This captures assignments to locals of newly
@@ -333,17 +572,92 @@ public class VisitorForActiveTesting extends Visitor {
         }
     }
 
+    private static final int SYNC_NEVER = 0;
+    private static final int SYNC_ALWAYS = 1;
+    private static final int SYNC_MAYBE = 2;
+
+    /**
+     * Whether the target of an instance call is synchronized. Calls that cannot
+     * be overridden are answered exactly; virtual calls on application types
+     * are answered from the class hierarchy, since every overriding method is
+     * loaded. Calls on library types, whose subclasses may not all be in the
+     * Scene, are left to SyncMethodCache at runtime, and so are all virtual
+     * calls when only part of the application is instrumented.
+     */
+    private static int synchronizedStatus(InstanceInvokeExpr invokeExpr) {
+        SootMethod m = invokeExpr.getMethod();
+        if (invokeExpr instanceof SpecialInvokeExpr || m.isPrivate() || m.isFinal()
+                || m.getDeclaringClass().isFinal()) {
+            return m.isSynchronized() ? SYNC_ALWAYS : SYNC_NEVER;
+        }
+        SootClass declared = invokeExpr.getMethodRef().declaringClass();
+        if (partialProgram || !declared.isApplicationClass()) {
+            return SYNC_MAYBE;
+        }
+        try {
+            Hierarchy h = Scene.v().getActiveHierarchy();
+            Set<SootClass> receivers = new HashSet<SootClass>();
+            if (declared.isInterface()) {
+                for (Object c : h.getImplementersOf(declared)) {
+                    receivers.addAll(h.getSubclassesOfIncluding((SootClass) c));
+                }
+            } else {
+                receivers.addAll(h.getSubclassesOfIncluding(declared));
+            }
+            String subSig = m.getSubSignature();
+            boolean sync = false;
+            boolean nonSync = false;
+            for (SootClass c : receivers) {
+                if (c.isInterface() || c.isAbstract()) continue;
+                SootMethod target = dispatch(c, subSig);
+                if (target == null) continue;
+                if (target.isSynchronized()) {
+                    sync = true;
+                } else {
+                    nonSync = true;
+                }
+            }
+            if (!sync && !nonSync) {
+                return SYNC_MAYBE;
+            }
+            return sync ? (nonSync ? SYNC_MAYBE : SYNC_ALWAYS) : SYNC_NEVER;
+        } catch (RuntimeException e) {
+            // phantom or half-resolved classes
+            return SYNC_MAYBE;
+        }
+    }
+
+    private static SootMethod dispatch(SootClass c, String subSig) {
+        while (true) {
+            if (c.declaresMethod(subSig)) {
+                SootMethod m = c.getMethod(subSig);
+                return m.isAbstract() ? null : m;
+            }
+            if (!c.hasSuperclass()) return null;
+            c = c.getSuperclass();
+        }
+    }
+
     public void visitStaticInvokeExpr(SootMethod sm, Chain units, Stmt s, StaticInvokeExpr invokeExpr, InvokeContext context) {
+        // the hook visitMethodBegin put before the first statement is no call
+        // of the program; it would get a method id the shards did not agree on
+        if (invokeExpr.getMethodRef().declaringClass().getName().equals(observerClass)) {
+            return;
+        }
         nextVisitor.visitStaticInvokeExpr(sm, units, s, invokeExpr, context);
 
         if (!Parameters.ignoreMethods) {
-						String sig = invokeExpr.getMethod().getDeclaringClass().getName() + invokeExpr.getMethod().getSignature() ;
-						Value sig2 = StringConstant.v(sig) ;
-            addCallWithString(units, s, "myMethodEnterBefore", sig2, true);
-            addCallWithString(units, s, "myMethodExitAfter", sig2, false);
+            Value method = IntConstant.v(st.get(invokeExpr.getMethodRef().getSignature()));
+            if (emits(EventKind.METHOD_ENTER_BEFORE)) {
+                addCallWithInt(units, s, "myMethodEnterBefore", method, true);
+            }
+            if (emits(EventKind.METHOD_EXIT_AFTER)) {
+                addCallWithInt(units, s, "myMethodExitAfter", method, false);
+            }
         }
 
-        if (invokeExpr.getMethod().isSynchronized() && !Parameters.ignoreConcurrency) {
+        if (invokeExpr.getMethod().isSynchronized() && !Parameters.ignoreConcurrency && emitsLocks()
+                && !cannotDeadlock(s)) {
             addCallWithIntString(units, s, "myLockBefore",
                     IntConstant.v(st.get(invokeExpr.getMethod().getDeclaringClass().getName())),
                     StringConstant.v(invokeExpr.getMethod().getDeclaringClass().getName()),true);
@@ -352,7 +666,9 @@ public class VisitorForActiveTesting extends Visitor {
         }
 
         String sig = invokeExpr.getMethod().getSignature();
-        if (sig.equals(openDeterministicBlockSig)) {
+        if (!emits(EventKind.DETERMINISM)) {
+            // leave the calls to Determinism alone
+        } else if (sig.equals(openDeterministicBlockSig)) {
             addCall(units, s, "myOpenDeterministicBlock", true);
         } else if (sig.equals(closeDeterministicBlockSig)) {
             addCall(units, s, "myCloseDeterministicBlock", true);
@@ -360,14 +676,72 @@ public class VisitorForActiveTesting extends Visitor {
     }
 
 
+    public void printRedundantAccessStatistics() {
+        System.out.println("Redundant access elimination: skipped " + redundantAccessSites + " of " + accessSites
+                + " field and array access sites");
+    }
+
+    public void printArrayRangeStatistics() {
+        System.out.println("Array range events: " + rangeAccessSites + " of " + arrayAccessSites
+                + " array access sites are reported once per run of their loop");
+    }
+
+    private static boolean emits(EventKind kind) {
+        return events.contains(kind);
+    }
+
+    // calls to synchronized methods keep a lock stack in the observer, so
+    // they are instrumented for any of the lock events or none
+    private static boolean emitsLocks() {
+        return EventKind.any(events, EventKind.LOCK_BEFORE, EventKind.LOCK_AFTER, EventKind.UNLOCK_AFTER);
+    }
+
+    private boolean tracksLocals() {
+        return (Parameters.trackLocals
+                || (Parameters.trackDeterministicLocals && containsDeterministicBlock))
+            && emits(EventKind.LOCAL_WRITE_AFTER);
+    }
+
+    private boolean isRedundant(Stmt s) {
+        return redundantAccesses != null && redundantAccesses.isRedundant(s);
+    }
+
+    // accesses through objects that never leave their thread cannot race
+    private static boolean isThreadLocal(Value base) {
+        return Parameters.escapeAnalysis && ThreadEscapeAnalysis.v().isThreadLocal(base);
+    }
+
+    // nor can accesses the static race analysis pairs with no unprotected conflicting access
+    private static boolean cannotRace(Stmt s) {
+        return Parameters.mayRaceAnalysis && MayRaceAnalysis.v().cannotRace(s);
+    }
+
+    // the goodlock analyses need no lock events for locks on no short lock cycle
+    private static boolean cannotDeadlock(Stmt s) {
+        return Parameters.lockOrderAnalysis && LockOrderAnalysis.v().cannotDeadlock(s);
+    }
+
+    private static boolean cannotDeadlock(SootMethod m) {
+        return Parameters.lockOrderAnalysis && LockOrderAnalysis.v().cannotDeadlock(m);
+    }
+
     public void visitArrayRef(SootMethod sm, Chain units, Stmt s, ArrayRef arrayRef, RefContext context) {
-        if (!Parameters.ignoreArrays) {
+        if (!Parameters.ignoreArrays && !isThreadLocal(arrayRef.getBase()) && !isRedundant(s) && !cannotRace(s)
+                && !addRangeCall(sm, units, s, arrayRef, context)) {
             if (context == RHSContextImpl.getInstance()) {
-                addCallWithObjectInt(units, s, "myReadBefore", arrayRef.getBase(), arrayRef.getIndex(), true);
-                addCallWithObjectInt(units, s, "myReadAfter", arrayRef.getBase(), arrayRef.getIndex(), false);
+                if (emits(EventKind.READ_BEFORE)) {
+                    addCallWithObjectInt(units, s, "myReadBefore", arrayRef.getBase(), arrayRef.getIndex(), true);
+                }
+                if (emits(EventKind.READ_AFTER)) {
+                    addCallWithObjectInt(units, s, "myReadAfter", arrayRef.getBase(), arrayRef.getIndex(), false);
+                }
             } else {
-                addCallWithObjectInt(units, s, "myWriteBefore", arrayRef.getBase(), arrayRef.getIndex(), true);
-                addCallWithObjectInt(units, s, "myWriteAfter", arrayRef.getBase(), arrayRef.getIndex(), false); /*Shin*/
+                if (emits(EventKind.WRITE_BEFORE)) {
+                    addCallWithObjectInt(units, s, "myWriteBefore", arrayRef.getBase(), arrayRef.getIndex(), true);
+                }
+                if (emits(EventKind.WRITE_AFTER)) {
+                    addCallWithObjectInt(units, s, "myWriteAfter", arrayRef.getBase(), arrayRef.getIndex(), false); /*Shin*/
+                }
             }
         }
         nextVisitor.visitArrayRef(sm, units, s, arrayRef, context);
@@ -376,22 +750,43 @@ public class VisitorForActiveTesting extends Visitor {
     public void visitInstanceFieldRef(SootMethod sm, Chain units, Stmt s, InstanceFieldRef instanceFieldRef, RefContext context) {
         if (!Parameters.ignoreFields) {
             if ((!sm.getName().equals("<init>") || !instanceFieldRef.getField().getName().equals("this$0"))
-            && (!sm.getName().equals("<init>") || !instanceFieldRef.getField().getName().startsWith("val$")))
+            && (!sm.getName().equals("<init>") || !instanceFieldRef.getField().getName().startsWith("val$"))
+            && !isThreadLocal(instanceFieldRef.getBase()) && !isRedundant(s) && !cannotRace(s))
             {
                 Value v = IntConstant.v(st.get(instanceFieldRef.getField().getName()));
                 if (Modifier.isVolatile(instanceFieldRef.getField().getModifiers())) {
                     if (context == RHSContextImpl.getInstance()) {
-                        addCallWithObjectInt(units, s, "myVReadBefore", instanceFieldRef.getBase(), v, true);
+                        if (emits(EventKind.READ_BEFORE)) {
+                            addCallWithObjectInt(units, s, "myVReadBefore", instanceFieldRef.getBase(), v, true);
+                        }
                     } else {
-                        addCallWithObjectInt(units, s, "myVWriteBefore", instanceFieldRef.getBase(), v, true);
+                        if (emits(EventKind.WRITE_BEFORE)) {
+                            addCallWithObjectInt(units, s, "myVWriteBefore", instanceFieldRef.getBase(), v, true);
+                        }
                     }
                 } else {
                     if (context == RHSContextImpl.getInstance()) {
-                        addCallWithObjectInt(units, s, "myReadBefore", instanceFieldRef.getBase(), v, true);
-                        addCallWithObjectInt(units, s, "myReadAfter", instanceFieldRef.getBase(), v, false);
+                        if (emits(EventKind.READ_BEFORE)) {
+                            if (isShadowed(instanceFieldRef.getField())) {
+                                addShadowCall(sm, units, s, "myReadBefore", instanceFieldRef, v);
+                            } else {
+                                addCallWithObjectInt(units, s, "myReadBefore", instanceFieldRef.getBase(), v, true);
+                            }
+                        }
+                        if (emits(EventKind.READ_AFTER)) {
+                            addCallWithObjectInt(units, s, "myReadAfter", instanceFieldRef.getBase(), v, false);
+                        }
                     } else {
-                        addCallWithObjectInt(units, s, "myWriteBefore", instanceFieldRef.getBase(), v, true);
-                        addCallWithObjectInt(units, s, "myWriteAfter", instanceFieldRef.getBase(), v, false);
+                        if (emits(EventKind.WRITE_BEFORE)) {
+                            if (isShadowed(instanceFieldRef.getField())) {
+                                addShadowCall(sm, units, s, "myWriteBefore", instanceFieldRef, v);
+                            } else {
+                                addCallWithObjectInt(units, s, "myWriteBefore", instanceFieldRef.getBase(), v, true);
+                            }
+                        }
+                        if (emits(EventKind.WRITE_AFTER)) {
+                            addCallWithObjectInt(units, s, "myWriteAfter", instanceFieldRef.getBase(), v, false);
+                        }
                     }
                 }
             }
@@ -399,6 +794,111 @@ public class VisitorForActiveTesting extends Visitor {
         nextVisitor.visitInstanceFieldRef(sm, units, s, instanceFieldRef, context);
     }
 
+    /*
+     * Reports the accesses of s over a run of its counted loop with one call
+     * before the loop, see ArrayLoopAnalysis. As the loop throws part-way if
+     * one of its array accesses is out of bounds or on null, the ranges are
+     * checked first and the elements reported one at a time if that fails:
+     *
+     *   entry;
+     *   $rangeOk = 0;
+     *   if array == null goto gate;             for each range of the loop
+     *   $rangeLo = i + c;
+     *   if $rangeLo < 0 goto gate;
+     *   $rangeHi = n + c;
+     *   $rangeLen = lengthof array;
+     *   if $rangeHi > $rangeLen goto gate;
+     *   $rangeOk = 1;
+     *   gate: if $rangeOk == 0 goto head;
+     *   $rangeLo = i + c;
+     *   $rangeHi = n + c;
+     *   methodName(iid, array, $rangeLo, $rangeHi);
+     *   head: ...
+     *         if $rangeOk != 0 goto l;
+     *         myReadBefore(iid, array, i + c);
+     *         l: nop;
+     *         s;
+     *
+     * Returns false if s is in no such loop, or the analyses need the after
+     * event of each access.
+     */
+    private boolean addRangeCall(SootMethod sm, Chain units, Stmt s, ArrayRef arrayRef, RefContext context) {
+        ArrayLoopAnalysis.Range range = arrayLoops == null ? null : arrayLoops.rangeOf(s);
+        if (range == null) return false;
+        boolean read = context == RHSContextImpl.getInstance();
+        if (emits(read ? EventKind.READ_AFTER : EventKind.WRITE_AFTER)) return false;
+        rangeAccessSites++;
+        if (!emits(read ? EventKind.READ_BEFORE : EventKind.WRITE_BEFORE)) return true;
+        if (rangeLo == null) {
+            rangeLo = Jimple.v().newLocal("$rangeLo", IntType.v());
+            rangeHi = Jimple.v().newLocal("$rangeHi", IntType.v());
+            rangeLen = Jimple.v().newLocal("$rangeLen", IntType.v());
+            rangeOk = Jimple.v().newLocal("$rangeOk", IntType.v());
+            sm.getActiveBody().getLocals().add(rangeLo);
+            sm.getActiveBody().getLocals().add(rangeHi);
+            sm.getActiveBody().getLocals().add(rangeLen);
+            sm.getActiveBody().getLocals().add(rangeOk);
+        }
+
+        LinkedList<Value> args = new LinkedList<Value>();
+        args.addLast(IntConstant.v(getAndIncCounter()));
+        args.addLast(arrayRef.getBase());
+        args.addLast(rangeLo);
+        args.addLast(rangeHi);
+        String methodName = read ? "myReadRangeBefore" : "myWriteRangeBefore";
+        SootMethodRef hook = Scene.v().getMethod("<" + observerClass + ": void " + methodName
+                + "(int,java.lang.Object,int,int)>").makeRef();
+
+        List<Unit> stmts = new ArrayList<Unit>();
+        addRangeBounds(stmts, range);
+        stmts.add(Jimple.v().newInvokeStmt(Jimple.v().newStaticInvokeExpr(hook, args)));
+        units.insertAfter(stmts, addRangeCheck(units, range));
+
+        Unit inRange = Jimple.v().newNopStmt();
+        units.insertBefore(Jimple.v().newIfStmt(Jimple.v().newNeExpr(rangeOk, IntConstant.v(0)), inRange), s);
+        addCallWithObjectInt(units, s, read ? "myReadBefore" : "myWriteBefore", arrayRef.getBase(), arrayRef.getIndex(), true);
+        units.insertBefore(inRange, s);
+        return true;
+    }
+
+    // the check before the loop of range, once per loop; returns its gate
+    private Unit addRangeCheck(Chain units, ArrayLoopAnalysis.Range range) {
+        Unit gate = rangeGates.get(range.getEntry());
+        if (gate != null) return gate;
+        gate = Jimple.v().newIfStmt(Jimple.v().newEqExpr(rangeOk, IntConstant.v(0)), range.getHead());
+        List<Unit> stmts = new ArrayList<Unit>();
+        stmts.add(Jimple.v().newAssignStmt(rangeOk, IntConstant.v(0)));
+        for (ArrayLoopAnalysis.Range r : range.getLoopRanges()) {
+            stmts.add(Jimple.v().newIfStmt(Jimple.v().newEqExpr(r.getArray(), NullConstant.v()), gate));
+            addRangeBounds(stmts, r);
+            stmts.add(Jimple.v().newIfStmt(Jimple.v().newLtExpr(rangeLo, IntConstant.v(0)), gate));
+            stmts.add(Jimple.v().newAssignStmt(rangeLen, Jimple.v().newLengthExpr(r.getArray())));
+            stmts.add(Jimple.v().newIfStmt(Jimple.v().newGtExpr(rangeHi, rangeLen), gate));
+        }
+        stmts.add(Jimple.v().newAssignStmt(rangeOk, IntConstant.v(1)));
+        stmts.add(gate);
+        units.insertAfter(stmts, range.getEntry());
+        rangeGates.put(range.getEntry(), gate);
+        return gate;
+    }
+
+    // $rangeLo = i + c; $rangeHi = n + c;
+    private void addRangeBounds(List<Unit> stmts, ArrayLoopAnalysis.Range range) {
+        Value lo = range.getIndex();
+        if (range.getLoOffset() != 0) {
+            lo = Jimple.v().newAddExpr(range.getIndex(), IntConstant.v(range.getLoOffset()));
+        }
+        stmts.add(Jimple.v().newAssignStmt(rangeLo, lo));
+        Value hi = range.getBound();
+        if (range.getLengthOf() != null) {
+            hi = Jimple.v().newLengthExpr(range.getLengthOf());
+        }
+        stmts.add(Jimple.v().newAssignStmt(rangeHi, hi));
+        if (range.getHiOffset() != 0) {
+            stmts.add(Jimple.v().newAssignStmt(rangeHi, Jimple.v().newAddExpr(rangeHi, IntConstant.v(range.getHiOffset()))));
+        }
+    }
+
     public static void addCallWithLocalValue(Chain units, Stmt s, String methodName, Local l, boolean before) {
         StringConstant localName = StringConstant.v(l.getName());
         Type type = l.getType();
@@ -456,8 +956,7 @@ public class VisitorForActiveTesting extends Visitor {
 
             if (right instanceof NewExpr) {
                 // Skip
-            } else if (Parameters.trackLocals ||
-                       (Parameters.trackDeterministicLocals && containsDeterministicBlock)) {
+            } else if (tracksLocals()) {
                 if (local.getName().charAt(0) != '$') {
                     addCallWithLocalValue(units, s, "myWriteAfter", local, false);
                 }
@@ -467,22 +966,34 @@ public class VisitorForActiveTesting extends Visitor {
     }
 
     public void visitStaticFieldRef(SootMethod sm, Chain units, Stmt s, StaticFieldRef staticFieldRef, RefContext context) {
-        if (!Parameters.ignoreFields) {
+        if (!Parameters.ignoreFields && !isRedundant(s) && !cannotRace(s)) {
             Value v1 = IntConstant.v(st.get(staticFieldRef.getField().getDeclaringClass().getName()));
             Value v2 = IntConstant.v(st.get(staticFieldRef.getField().getName()));
             if (Modifier.isVolatile(staticFieldRef.getField().getModifiers())) {
                 if (context == RHSContextImpl.getInstance()) {
-                    addCallWithIntInt(units, s, "myVReadBefore", v1, v2, true);
+                    if (emits(EventKind.READ_BEFORE)) {
+                        addCallWithIntInt(units, s, "myVReadBefore", v1, v2, true);
+                    }
                 } else {
-                    addCallWithIntInt(units, s, "myVWriteBefore", v1, v2, true);
+                    if (emits(EventKind.WRITE_BEFORE)) {
+                        addCallWithIntInt(units, s, "myVWriteBefore", v1, v2, true);
+                    }
                 }
             } else {
                 if (context == RHSContextImpl.getInstance()) {
-                    addCallWithIntInt(units, s, "myReadBefore", v1, v2, true);
-                    addCallWithIntInt(units, s, "myReadAfter", v1, v2, false);
+                    if (emits(EventKind.READ_BEFORE)) {
+                        addCallWithIntInt(units, s, "myReadBefore", v1, v2, true);
+                    }
+                    if (emits(EventKind.READ_AFTER)) {
+                        addCallWithIntInt(units, s, "myReadAfter", v1, v2, false);
+                    }
                 } else {
-                    addCallWithIntInt(units, s, "myWriteBefore", v1, v2, true);
-                    addCallWithIntInt(units, s, "myWriteAfter", v1, v2, false);
+                    if (emits(EventKind.WRITE_BEFORE)) {
+                        addCallWithIntInt(units, s, "myWriteBefore", v1, v2, true);
+                    }
+                    if (emits(EventKind.WRITE_AFTER)) {
+                        addCallWithIntInt(units, s, "myWriteAfter", v1, v2, false);
+                    }
                 }
             }
         }
@@ -1,6 +1,10 @@
 package javato.activetesting.lockset;
 
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NavigableSet;
+import java.util.SortedSet;
 import java.util.TreeSet;
 
 /**
@@ -35,20 +39,131 @@ import java.util.TreeSet;
  * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
  * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
-public class LockSet extends TreeSet {
-    public final static LockSet emptySet = new LockSet();
+public class LockSet extends TreeSet<Integer> {
+    public final static LockSet emptySet = unmodifiable(Collections.<Integer>emptySet());
+
+    // set on the snapshots that are shared between callers
+    private boolean frozen;
 
     public LockSet() {
         super();
     }
 
-    public LockSet(Collection ls) {
+    public LockSet(Collection<Integer> ls) {
         super(ls);
     }
 
+    /**
+     * A lockset of the locks in ls that cannot be modified, so that it can be
+     * handed to several callers, which may keep it. Views and copies of it can
+     * be modified and do not change it.
+     */
+    public static LockSet unmodifiable(Collection<Integer> ls) {
+        LockSet set = new LockSet(ls);
+        set.frozen = true;
+        return set;
+    }
+
+    private void checkModifiable() {
+        if (frozen) throw new UnsupportedOperationException("shared lockset");
+    }
+
+    public boolean add(Integer o) {
+        checkModifiable();
+        return super.add(o);
+    }
+
+    public boolean addAll(Collection<? extends Integer> c) {
+        checkModifiable();
+        return super.addAll(c);
+    }
+
+    public boolean remove(Object o) {
+        checkModifiable();
+        return super.remove(o);
+    }
+
+    public boolean removeAll(Collection<?> c) {
+        checkModifiable();
+        return super.removeAll(c);
+    }
+
+    public boolean retainAll(Collection<?> c) {
+        checkModifiable();
+        return super.retainAll(c);
+    }
+
+    public void clear() {
+        checkModifiable();
+        super.clear();
+    }
+
+    public Integer pollFirst() {
+        checkModifiable();
+        return super.pollFirst();
+    }
+
+    public Integer pollLast() {
+        checkModifiable();
+        return super.pollLast();
+    }
+
+    public Iterator<Integer> iterator() {
+        final Iterator<Integer> it = super.iterator();
+        if (!frozen) return it;
+        return new Iterator<Integer>() {
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            public Integer next() {
+                return it.next();
+            }
+
+            public void remove() {
+                checkModifiable();
+            }
+        };
+    }
+
+    public Iterator<Integer> descendingIterator() {
+        return frozen ? descendingSet().iterator() : super.descendingIterator();
+    }
+
+    public NavigableSet<Integer> descendingSet() {
+        return frozen ? new TreeSet<Integer>(super.descendingSet()) : super.descendingSet();
+    }
+
+    public NavigableSet<Integer> subSet(Integer from, boolean fromInclusive, Integer to, boolean toInclusive) {
+        NavigableSet<Integer> set = super.subSet(from, fromInclusive, to, toInclusive);
+        return frozen ? new TreeSet<Integer>(set) : set;
+    }
+
+    public NavigableSet<Integer> headSet(Integer to, boolean inclusive) {
+        NavigableSet<Integer> set = super.headSet(to, inclusive);
+        return frozen ? new TreeSet<Integer>(set) : set;
+    }
+
+    public NavigableSet<Integer> tailSet(Integer from, boolean inclusive) {
+        NavigableSet<Integer> set = super.tailSet(from, inclusive);
+        return frozen ? new TreeSet<Integer>(set) : set;
+    }
+
+    public SortedSet<Integer> subSet(Integer from, Integer to) {
+        return subSet(from, true, to, false);
+    }
+
+    public SortedSet<Integer> headSet(Integer to) {
+        return headSet(to, false);
+    }
+
+    public SortedSet<Integer> tailSet(Integer from) {
+        return tailSet(from, true);
+    }
+
     public boolean intersects(LockSet ls) {
-        for (Object e : this) {
-            if (ls.contains(e)) return true;
+        for (Iterator<Integer> it = super.iterator(); it.hasNext();) {
+            if (ls.contains(it.next())) return true;
         }
         return false;
     }
@@ -0,0 +1,93 @@
+package javato.activetesting.lockset;
+
+import javato.activetesting.common.LongHashMap;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Copyright (c) 2007-2008,
+ * Koushik Sen    <ksen@cs.berkeley.edu>
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * <p/>
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * <p/>
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * <p/>
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class LockSetIds {
+    /*
+     * Numbers the distinct locksets, so that per-location state can hold the
+     * lockset of an access as an int, see javato.activetesting.analysis.ShadowState.
+     * Equal locksets get the same id, and whether two of them share a lock is
+     * worked out once per pair.
+     */
+
+    public static final int EMPTY = 0;
+
+    // id -> lockset
+    private final ArrayList<LockSet> sets = new ArrayList<LockSet>();
+    private final HashMap<LockSet, Integer> ids = new HashMap<LockSet, Integer>();
+    // smaller id << 32 | larger id -> whether the two locksets intersect
+    private final LongHashMap<Boolean> intersections = new LongHashMap<Boolean>();
+
+    public LockSetIds() {
+        sets.add(LockSet.emptySet);
+        ids.put(LockSet.emptySet, EMPTY);
+    }
+
+    public int id(LockSet ls) {
+        if (ls.isEmpty()) return EMPTY;
+        Integer id = ids.get(ls);
+        if (id == null) {
+            id = sets.size();
+            // the caller may change ls later
+            ls = LockSet.unmodifiable(ls);
+            sets.add(ls);
+            ids.put(ls, id);
+        }
+        return id;
+    }
+
+    public LockSet get(int id) {
+        return sets.get(id);
+    }
+
+    public int size() {
+        return sets.size();
+    }
+
+    public boolean intersects(int id1, int id2) {
+        if (id1 == EMPTY || id2 == EMPTY) return false;
+        if (id1 == id2) return true;
+        long key = id1 < id2 ? (long) id1 << 32 | id2 : (long) id2 << 32 | id1;
+        Boolean ret = intersections.get(key);
+        if (ret == null) {
+            ret = sets.get(id1).intersects(sets.get(id2));
+            intersections.put(key, ret);
+        }
+        return ret;
+    }
+}
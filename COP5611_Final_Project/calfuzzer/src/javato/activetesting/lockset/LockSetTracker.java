@@ -2,6 +2,7 @@ package javato.activetesting.lockset;
 
 
 import javato.activetesting.analysis.Observer;
+import javato.activetesting.common.IntHashMap;
 import javato.activetesting.igoodlock.Pair;
 
 import java.util.LinkedList;
@@ -46,6 +47,11 @@ public class LockSetTracker {
     private Map<Integer, LinkedList<Integer>> threadsToIidStack = new TreeMap<Integer, LinkedList<Integer>>();
     private Map<Integer, LinkedList<Integer>> threadsToLockStack = new TreeMap<Integer, LinkedList<Integer>>();
     private Map<Integer, Integer> holdsLockToThread = new TreeMap<Integer, Integer>();
+    // thread -> snapshot of its current lockset, dropped whenever the lock stack changes
+    private IntHashMap<LockSet> lockSetCache = new IntHashMap<LockSet>();
+    private LockSetIds lockSetIds = new LockSetIds();
+    // thread -> id of its current lockset, dropped with the snapshot
+    private IntHashMap<Integer> lockSetIdCache = new IntHashMap<Integer>();
     boolean isDeadlock = false;
     //private ArrayList<String> iidToLineMap = Observer.getIidToLineMap(Parameters.iidToLineMapFile);
 
@@ -70,6 +76,8 @@ public class LockSetTracker {
             threadsToLockStack.put(thread, lockStack);
         }
         iidStack.addLast(iid);
+        lockSetCache.remove(thread);
+        lockSetIdCache.remove(thread);
         if (!lockStack.isEmpty()) {
             holdsLockToThread.put(lockStack.getLast(), thread);
         }
@@ -114,6 +122,8 @@ public class LockSetTracker {
         LinkedList<Integer> lockStack = threadsToLockStack.get(thread);
         assert (lockStack != null);
         Integer lockId = lockStack.removeLast();
+        lockSetCache.remove(thread);
+        lockSetIdCache.remove(thread);
         if (thread.equals(holdsLockToThread.get(lockId)))
             holdsLockToThread.remove(lockId);
     }
@@ -184,18 +194,39 @@ public class LockSetTracker {
     }
 
     /**
-     * returns a list of locks currently held by the thread
-     * first element in the list being the oldest acquired lock
+     * returns the set of locks currently held by the thread
+     * the returned set is shared until the thread's locks change and cannot be modified
      *
      * @param thread
      * @return
      */
-    public LockSet getLockSet(Integer thread) {
-        LinkedList<Integer> ls = threadsToLockStack.get(thread);
+    public LockSet getLockSet(int thread) {
+        LockSet ls = lockSetCache.get(thread);
         if (ls == null) {
-            return (new LockSet());
+            LinkedList<Integer> locks = threadsToLockStack.get(thread);
+            ls = (locks == null || locks.isEmpty()) ? LockSet.emptySet : LockSet.unmodifiable(locks);
+            lockSetCache.put(thread, ls);
         }
-        return (new LockSet(ls));
+        return ls;
+    }
+
+    /**
+     * returns the id of the set of locks currently held by the thread, see LockSetIds
+     *
+     * @param thread
+     * @return
+     */
+    public int getLockSetId(int thread) {
+        Integer id = lockSetIdCache.get(thread);
+        if (id == null) {
+            id = lockSetIds.id(getLockSet(thread));
+            lockSetIdCache.put(thread, id);
+        }
+        return id;
+    }
+
+    public LockSetIds getLockSetIds() {
+        return lockSetIds;
     }
 
 
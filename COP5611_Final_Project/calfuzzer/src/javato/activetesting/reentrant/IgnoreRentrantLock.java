@@ -33,7 +33,8 @@ package javato.activetesting.reentrant;
  * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
 public class IgnoreRentrantLock {
-    public static ThreadLocal lockSet = new ThreadLocal() {
+    // per instance: analyses that run as several shards each track reentrancy themselves
+    private final ThreadLocal lockSet = new ThreadLocal() {
         public Object initialValue() {
             return new LockSetWithCount();
         }
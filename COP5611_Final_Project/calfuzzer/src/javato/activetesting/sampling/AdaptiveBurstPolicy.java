@@ -0,0 +1,81 @@
+package javato.activetesting.sampling;
+
+import javato.activetesting.analysis.Observer;
+import javato.activetesting.common.IIDAccessCounter;
+import javato.activetesting.common.Parameters;
+
+/**
+ * Copyright (c) 2007-2008,
+ * Koushik Sen    <ksen@cs.berkeley.edu>
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * <p/>
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * <p/>
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * <p/>
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class AdaptiveBurstPolicy extends SamplingPolicy {
+    private final IIDAccessCounter counters;
+    private final int burst;
+    private final int maxShift;
+
+    public AdaptiveBurstPolicy() {
+        this(new IIDAccessCounter(Observer.readInteger(Parameters.iidCountFile, 0)),
+                Parameters.samplingBurst, Parameters.samplingMinRate);
+    }
+
+    /**
+     * @param burst   number of consecutive executions of an iid analyzed together
+     * @param minRate rate below which a hot iid is never sampled
+     */
+    public AdaptiveBurstPolicy(IIDAccessCounter counters, int burst, double minRate) {
+        this.counters = counters;
+        this.burst = Math.max(1, burst);
+        int shift = 0;
+        while (shift < 30 && (1 << (shift + 1)) * minRate <= 1.0) {
+            shift++;
+        }
+        this.maxShift = shift;
+    }
+
+    /**
+     * Cold code is analyzed fully and hot code rarely: executions of an iid are
+     * grouped into bursts, and the fraction of bursts analyzed halves every time
+     * the execution count doubles, down to javato.sampling.min.rate. Races in
+     * rarely run code are thus never missed for lack of samples.
+     */
+    protected boolean filterIid(int iid, int thread) {
+        int n = counters.getAndIncrement(iid) / burst;
+        if (n == 0) {
+            return false;
+        }
+        int shift = Math.min(31 - Integer.numberOfLeadingZeros(n), maxShift);
+        return (n & ((1 << shift) - 1)) != 0;
+    }
+
+    public String getName() {
+        return "adaptive";
+    }
+}
@@ -1,9 +1,6 @@
-package javato.activetesting.hybridracedetection;
+package javato.activetesting.sampling;
 
-
-import javato.activetesting.activechecker.ActiveChecker;
-
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
@@ -38,39 +35,36 @@ import java.util.concurrent.atomic.AtomicLong;
  * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
  * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
-public class IIDAccessCounter {
-    private ConcurrentHashMap<Integer, AtomicLong> iidToCount;
+public class EventBudgetPolicy extends SamplingPolicy {
+    private static final long WINDOW_NANOS = 10000000L;
+    private static final int WINDOWS_PER_SECOND = 100;
+
+    private final int perWindow;
+    private final AtomicLong window = new AtomicLong();
+    private final AtomicInteger used = new AtomicInteger();
 
-    public IIDAccessCounter() {
-        iidToCount = new ConcurrentHashMap<Integer, AtomicLong>(7919);
+    /**
+     * @param eventsPerSecond accesses handed to the analysis per second, spread
+     *                        over 10ms windows so that a burst cannot use up a
+     *                        whole second at once
+     */
+    public EventBudgetPolicy(long eventsPerSecond) {
+        perWindow = (int) Math.max(1, Math.min(Integer.MAX_VALUE, eventsPerSecond / WINDOWS_PER_SECOND));
     }
 
-    public boolean needToIgnore(Integer iid) {
-//        return false;
-        AtomicLong tmp = iidToCount.get(iid);
-        if (tmp==null) {
-            tmp = new AtomicLong(1);
-            iidToCount.putIfAbsent(iid,tmp);
-            return false;
+    protected boolean filterIid(int iid, int thread) {
+        long now = System.nanoTime() / WINDOW_NANOS;
+        long w = window.get();
+        if (now != w && window.compareAndSet(w, now)) {
+            used.set(0);
         }
-        long val = tmp.addAndGet(2);
-        if (val%2==1) {
-            long x = val/128;
-            double r = 0.0d;
-            synchronized (ActiveChecker.rand) {
-                r = ActiveChecker.rand.nextDouble();
-            }
-            if (r<(1.0d/(x+1.0d))) {
-                tmp.addAndGet(1);
-                return false;
-            } else {
-                return true;
-            }
-        } else {
-            if (val%16==0) {
-                tmp.addAndGet(1);
-            }
-            return false;
+        if (used.get() >= perWindow) {
+            return true;
         }
+        return used.getAndIncrement() >= perWindow;
+    }
+
+    public String getName() {
+        return "budget";
     }
 }
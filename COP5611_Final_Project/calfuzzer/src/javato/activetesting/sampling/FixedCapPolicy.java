@@ -0,0 +1,67 @@
+package javato.activetesting.sampling;
+
+import javato.activetesting.analysis.IidGuards;
+import javato.activetesting.analysis.Observer;
+import javato.activetesting.common.IIDAccessCounter;
+import javato.activetesting.common.Parameters;
+
+/**
+ * Copyright (c) 2007-2008,
+ * Koushik Sen    <ksen@cs.berkeley.edu>
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * <p/>
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * <p/>
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * <p/>
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class FixedCapPolicy extends SamplingPolicy {
+    private final IIDAccessCounter counters;
+
+    public FixedCapPolicy() {
+        this(new IIDAccessCounter(Observer.readInteger(Parameters.iidCountFile, 0)));
+    }
+
+    public FixedCapPolicy(IIDAccessCounter counters) {
+        this.counters = counters;
+    }
+
+    /**
+     * The first javato.max.iid.count + 1 executions of every iid are analyzed,
+     * the rest are dropped.
+     */
+    protected boolean filterIid(int iid, int thread) {
+        if (counters.needToIgnore(iid)) {
+            // for good, so the instrumented code need not call in any more
+            IidGuards.retire(iid);
+            return true;
+        }
+        return false;
+    }
+
+    public String getName() {
+        return "fixed";
+    }
+}
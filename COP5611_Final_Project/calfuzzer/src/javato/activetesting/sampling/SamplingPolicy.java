@@ -0,0 +1,221 @@
+package javato.activetesting.sampling;
+
+import javato.activetesting.common.Parameters;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Copyright (c) 2007-2008,
+ * Koushik Sen    <ksen@cs.berkeley.edu>
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * <p/>
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * <p/>
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * <p/>
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public abstract class SamplingPolicy {
+    public static final String DEFAULT = "fixed";
+
+    // one thread's counts and the decision for its pending access, the last
+    // one whose before event was seen; only that thread writes it
+    private static final class Local {
+        long seen;
+        long skipped;
+        boolean pending;
+        // false if the access was skipped before its location was computed
+        boolean located;
+        long memory;
+        boolean skip;
+    }
+
+    private final List<Local> locals = new ArrayList<Local>();
+    private final ThreadLocal<Local> local = new ThreadLocal<Local>() {
+        protected Local initialValue() {
+            Local l = new Local();
+            synchronized (locals) {
+                locals.add(l);
+            }
+            return l;
+        }
+    };
+    // both off for the default policy, whose hooks thus touch no per-thread state
+    private volatile boolean counting;
+    private volatile boolean pairing;
+
+    /**
+     * Creates the policy named by javato.sampling.policy: fixed, adaptive,
+     * threadpair, budget, none, or the name of a SamplingPolicy subclass with a
+     * public no-argument constructor.
+     */
+    public static SamplingPolicy create(String name) {
+        if (name == null || name.equals(DEFAULT)) {
+            return new FixedCapPolicy();
+        }
+        SamplingPolicy p;
+        if (name.equals("adaptive")) {
+            p = new AdaptiveBurstPolicy();
+        } else if (name.equals("threadpair")) {
+            p = new ThreadPairPolicy();
+        } else if (name.equals("budget")) {
+            p = new EventBudgetPolicy(Parameters.samplingBudget);
+        } else if (name.equals("none")) {
+            p = new SampleAllPolicy();
+        } else {
+            try {
+                p = (SamplingPolicy) Class.forName(name).getDeclaredConstructor().newInstance();
+            } catch (Exception e) {
+                System.err.println("Cannot find or instantiate sampling policy: " + name);
+                e.printStackTrace();
+                System.exit(1);
+                return null;
+            }
+        }
+        // a policy picked by hand gets its rate reported
+        p.setCounting(true);
+        return p;
+    }
+
+    /**
+     * Counts the accesses seen and skipped, for report.
+     */
+    public void setCounting(boolean on) {
+        counting = on;
+    }
+
+    public boolean isCounting() {
+        return counting;
+    }
+
+    /**
+     * Makes every access decided once: skipAfter then follows the decision
+     * made for the before event of the same access. For analyses that take
+     * both the before and the after events of an access. The two events do
+     * not share an iid, so an after event is matched with the thread's
+     * pending access and, if it got that far, its location.
+     */
+    public void setPairing(boolean on) {
+        pairing = on;
+    }
+
+    /**
+     * Called for every memory access before its location is computed. Returns
+     * true if the access must not reach the analysis.
+     */
+    public final boolean skipIid(int iid, int thread) {
+        boolean skip = filterIid(iid, thread);
+        if (counting || pairing) {
+            Local l = local.get();
+            l.seen++;
+            if (skip) l.skipped++;
+            l.pending = true;
+            l.located = false;
+            l.skip = skip;
+        }
+        return skip;
+    }
+
+    /**
+     * Called for accesses that passed skipIid, once the accessed location is known.
+     */
+    public final boolean skipAccess(int iid, int thread, long memory) {
+        boolean skip = filterAccess(iid, thread, memory);
+        if (counting || pairing) {
+            Local l = local.get();
+            if (skip) l.skipped++;
+            l.located = true;
+            l.memory = memory;
+            l.skip = skip;
+        }
+        return skip;
+    }
+
+    /**
+     * Called for the after event of an access. If the thread's pending access
+     * is this one, its decision holds; otherwise, e.g. when the analysis
+     * takes no before events, the access is decided here.
+     */
+    public final boolean skipAfter(int iid, int thread, long memory) {
+        if (pairing) {
+            Local l = local.get();
+            if (l.pending && (!l.located || l.memory == memory)) {
+                l.pending = false;
+                return l.skip;
+            }
+        }
+        boolean skip = skipIid(iid, thread) || skipAccess(iid, thread, memory);
+        if (pairing) {
+            local.get().pending = false;
+        }
+        return skip;
+    }
+
+    /**
+     * Decision that only needs the iid and thread. Policies that can decide
+     * here should, since it spares the object id lookup.
+     */
+    protected boolean filterIid(int iid, int thread) {
+        return false;
+    }
+
+    protected boolean filterAccess(int iid, int thread, long memory) {
+        return false;
+    }
+
+    public abstract String getName();
+
+    public long getSeen() {
+        long n = 0;
+        synchronized (locals) {
+            for (Local l : locals) {
+                n += l.seen;
+            }
+        }
+        return n;
+    }
+
+    public long getSampled() {
+        long n = getSeen();
+        synchronized (locals) {
+            for (Local l : locals) {
+                n -= l.skipped;
+            }
+        }
+        return n;
+    }
+
+    public double getRate() {
+        long n = getSeen();
+        return n == 0 ? 1.0 : (double) getSampled() / n;
+    }
+
+    public void report(PrintStream out) {
+        out.println("Sampling policy " + getName() + ": analyzed " + getSampled() + " of "
+                + getSeen() + " memory accesses ("
+                + String.format("%.2f", 100 * getRate()) + "%)");
+    }
+}
@@ -0,0 +1,83 @@
+package javato.activetesting.sampling;
+
+import javato.activetesting.common.Parameters;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Copyright (c) 2007-2008,
+ * Koushik Sen    <ksen@cs.berkeley.edu>
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * <p/>
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * <p/>
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * <p/>
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class ThreadPairPolicy extends SamplingPolicy {
+    private static final int BITS = 16;
+    private static final int MASK = (1 << BITS) - 1;
+
+    // last thread seen at a location, hashed; a collision only costs accuracy
+    private final int[] lastThread = new int[1 << BITS];
+    private final AtomicIntegerArray pairCounts = new AtomicIntegerArray(1 << BITS);
+    private final int cap;
+
+    public ThreadPairPolicy() {
+        this(Parameters.samplingPairCap);
+    }
+
+    public ThreadPairPolicy(int cap) {
+        this.cap = cap;
+    }
+
+    /**
+     * Counts every iid separately for each (previous accessor, current accessor)
+     * pair of threads at the accessed location, and analyzes the first cap
+     * accesses of each. A new interleaving of an already hot access is thus
+     * still seen, which a plain per-iid cap would drop.
+     */
+    protected boolean filterAccess(int iid, int thread, long memory) {
+        int slot = hash(memory) & MASK;
+        int previous = lastThread[slot];
+        if (previous != thread) {
+            lastThread[slot] = thread;
+        }
+        int pair = hash(((long) previous * 31 + thread) * 31 + iid) & MASK;
+        if (pairCounts.get(pair) >= cap) {
+            return true;
+        }
+        return pairCounts.getAndIncrement(pair) >= cap;
+    }
+
+    private static int hash(long key) {
+        key *= 0x9E3779B97F4A7C15L;
+        return (int) (key ^ (key >>> 32));
+    }
+
+    public String getName() {
+        return "threadpair";
+    }
+}
@@ -0,0 +1,294 @@
+package javato.activetesting.trace;
+
+import javato.activetesting.common.IntHashMap;
+import javato.activetesting.common.Parameters;
+import javato.activetesting.hybridracedetection.HybridRaceTracker;
+import javato.activetesting.lockset.LockSet;
+import javato.activetesting.lockset.LockSetTracker;
+import javato.activetesting.reentrant.IgnoreRentrantLock;
+import javato.activetesting.vc.VectorClock;
+import javato.activetesting.vc.VectorClockTracker;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import static javato.activetesting.trace.TraceFormat.*;
+
+/**
+ * Copyright (c) 2007-2008,
+ * Koushik Sen    <ksen@cs.berkeley.edu>
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * <p/>
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * <p/>
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * <p/>
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class OfflineRaceAnalyzer {
+    private static final int FLAG_READ = 1;
+    private static final int FLAG_LOCK = 2;
+    private static final int FLAG_VOLATILE = 4;
+
+    private final TraceReader reader;
+    private final int partitions;
+    private final File workDir;
+
+    // vector clock and lockset of a thread between two of its synchronization events
+    private final List<VectorClock> snapshotClocks = new ArrayList<VectorClock>();
+    private final List<LockSet> snapshotLockSets = new ArrayList<LockSet>();
+
+    public OfflineRaceAnalyzer(TraceReader reader, int partitions) {
+        this.reader = reader;
+        this.partitions = partitions;
+        this.workDir = new File(reader.getDirectory(), "partitions");
+    }
+
+    /**
+     * Runs HybridAnalysis's race check over the trace and returns a tracker holding
+     * every race found, ready for dumpRaces().
+     */
+    public HybridRaceTracker analyze(ForkJoinPool pool) throws IOException {
+        if (!workDir.isDirectory() && !workDir.mkdirs()) {
+            throw new IOException("Cannot create " + workDir);
+        }
+        try {
+            partition();
+            return pool.invoke(new CheckPartitions(0, partitions));
+        } finally {
+            for (int p = 0; p < partitions; p++) {
+                partitionFile(p).delete();
+            }
+            workDir.delete();
+        }
+    }
+
+    private File partitionFile(int p) {
+        return new File(workDir, "part-" + p + ".bin");
+    }
+
+    private int partitionOf(long memory) {
+        int h = (int) (memory ^ (memory >>> 32)) * 0x9E3779B9;
+        return (h >>> 1) % partitions;
+    }
+
+    /*
+     * Pass 1: replays the synchronization events in trace order exactly as
+     * HybridAnalysis does and appends each access, with the id of its thread's
+     * current snapshot, to the file of the partition its memory location falls in.
+     */
+    private void partition() throws IOException {
+        VectorClockTracker vcTracker = new VectorClockTracker();
+        LockSetTracker lsTracker = new LockSetTracker();
+        IgnoreRentrantLock ignoreRentrantLock = new IgnoreRentrantLock();
+        // thread -> current snapshot; dropped when the thread's clock or lockset changes
+        IntHashMap<Integer> snapshots = new IntHashMap<Integer>();
+
+        DataOutputStream[] out = new DataOutputStream[partitions];
+        for (int p = 0; p < partitions; p++) {
+            out[p] = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(partitionFile(p)), 1 << 16));
+        }
+        try {
+            while (reader.next()) {
+                int kind = reader.kind();
+                int thread = reader.thread();
+                switch (kind) {
+                    case LOCK_BEFORE:
+                        if (ignoreRentrantLock.lockBefore(thread, reader.arg())) {
+                            lsTracker.lockBefore(reader.iid(), thread, reader.arg());
+                            snapshots.remove(thread);
+                        }
+                        break;
+                    case UNLOCK_AFTER:
+                        if (ignoreRentrantLock.unlockAfter(thread, reader.arg())) {
+                            lsTracker.unlockAfter(thread);
+                            snapshots.remove(thread);
+                        }
+                        break;
+                    case START_BEFORE:
+                        vcTracker.startBefore(thread, reader.arg());
+                        dropSnapshots(snapshots, thread);
+                        dropSnapshots(snapshots, reader.arg());
+                        break;
+                    case JOIN_AFTER:
+                        vcTracker.joinAfter(thread, reader.arg());
+                        dropSnapshots(snapshots, thread);
+                        break;
+                    case WAIT_BEFORE:
+                    case NOTIFY_BEFORE:
+                    case NOTIFY_ALL_BEFORE: {
+                        // a lock race on the monitor, checked against the acquiring lock site
+                        List<Integer> locks = lsTracker.getLockList(thread);
+                        int i = locks.indexOf(reader.arg());
+                        if (i < 0) break;
+                        int acquireIid = lsTracker.getLockSetIids(thread).get(i);
+                        int flags = FLAG_LOCK | (kind == WAIT_BEFORE ? 0 : FLAG_READ);
+                        write(out, acquireIid, thread, reader.arg(), flags,
+                                snapshot(snapshots, thread, vcTracker, null));
+                        break;
+                    }
+                    case READ_BEFORE:
+                    case WRITE_BEFORE: {
+                        int flags = (kind == READ_BEFORE ? FLAG_READ : 0) | (reader.isVolatile() ? FLAG_VOLATILE : 0);
+                        write(out, reader.iid(), thread, reader.value(), flags,
+                                snapshot(snapshots, thread, vcTracker, lsTracker));
+                        break;
+                    }
+                    default:
+                        break;
+                }
+            }
+        } finally {
+            for (DataOutputStream o : out) {
+                o.close();
+            }
+        }
+    }
+
+    private static void dropSnapshots(IntHashMap<Integer> snapshots, int thread) {
+        snapshots.remove(thread);
+        snapshots.remove(~thread);
+    }
+
+    private int snapshot(IntHashMap<Integer> snapshots, int thread, VectorClockTracker vcTracker,
+                         LockSetTracker lsTracker) {
+        // lock races are checked with an empty lockset, so they get their own snapshots
+        int key = lsTracker == null ? ~thread : thread;
+        Integer id = snapshots.get(key);
+        if (id == null) {
+            id = snapshotClocks.size();
+            snapshotClocks.add(new VectorClock(vcTracker.getVectorClock(thread)));
+            snapshotLockSets.add(lsTracker == null ? LockSet.emptySet : lsTracker.getLockSet(thread));
+            snapshots.put(key, id);
+        }
+        return id;
+    }
+
+    private void write(DataOutputStream[] out, int iid, int thread, long memory, int flags, int snapshot)
+            throws IOException {
+        DataOutputStream o = out[partitionOf(memory)];
+        o.writeInt(iid);
+        o.writeInt(thread);
+        o.writeLong(memory);
+        o.writeInt(snapshot);
+        o.writeByte(flags);
+    }
+
+    /*
+     * Pass 2: every partition owns a disjoint set of memory locations, so each runs
+     * its own tracker over its accesses in trace order; the trackers are merged as
+     * the fork/join tree unwinds.
+     */
+    private class CheckPartitions extends RecursiveTask<HybridRaceTracker> {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+
+        CheckPartitions(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        protected HybridRaceTracker compute() {
+            if (to - from == 1) {
+                return check(from);
+            }
+            int mid = (from + to) >>> 1;
+            CheckPartitions right = new CheckPartitions(mid, to);
+            right.fork();
+            HybridRaceTracker left = new CheckPartitions(from, mid).compute();
+            left.mergeRaces(right.join());
+            return left;
+        }
+
+        private HybridRaceTracker check(int p) {
+            HybridRaceTracker eb = new HybridRaceTracker();
+            try {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(
+                        new FileInputStream(partitionFile(p)), 1 << 16));
+                try {
+                    while (true) {
+                        int iid;
+                        try {
+                            iid = in.readInt();
+                        } catch (EOFException e) {
+                            break;
+                        }
+                        int thread = in.readInt();
+                        long memory = in.readLong();
+                        int snapshot = in.readInt();
+                        int flags = in.readByte();
+                        boolean isRead = (flags & FLAG_READ) != 0;
+                        VectorClock vc = snapshotClocks.get(snapshot);
+                        LockSet ls = snapshotLockSets.get(snapshot);
+                        eb.checkRace(iid, thread, memory, isRead, vc, ls,
+                                (flags & FLAG_LOCK) != 0, (flags & FLAG_VOLATILE) != 0);
+                        eb.addEvent(iid, thread, memory, isRead, vc, ls);
+                    }
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            return eb;
+        }
+    }
+
+    /**
+     * Usage: OfflineRaceAnalyzer traceDir [partitions]
+     * Writes error.log and error.list as HybridAnalysis would have.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: java javato.activetesting.trace.OfflineRaceAnalyzer <trace dir> [partitions]");
+            System.exit(1);
+        }
+        int threads = Parameters.offlineThreads;
+        int partitions = args.length > 1 ? Integer.parseInt(args[1]) : 4 * threads;
+        if (Parameters.LOG_IID_VISIT_COUNT && partitions > 1) {
+            // visit counts are per iid across all memory locations; only a single pass sees them all in order
+            System.out.println("javato.track.iid.visit.count is set; analyzing in a single partition");
+            partitions = 1;
+        }
+        long start = System.currentTimeMillis();
+        OfflineRaceAnalyzer analyzer = new OfflineRaceAnalyzer(new TraceReader(new File(args[0])), partitions);
+        HybridRaceTracker races = analyzer.analyze(new ForkJoinPool(threads));
+        races.dumpRaces();
+        System.out.println("Analyzed " + args[0] + " in " + (System.currentTimeMillis() - start) + " ms using "
+                + partitions + " partitions on " + threads + " threads");
+    }
+}
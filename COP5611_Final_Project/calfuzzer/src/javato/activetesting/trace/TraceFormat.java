@@ -0,0 +1,101 @@
+package javato.activetesting.trace;
+
+/**
+ * Copyright (c) 2007-2008,
+ * Koushik Sen    <ksen@cs.berkeley.edu>
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * <p/>
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * <p/>
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * <p/>
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class TraceFormat {
+    /*
+     * A trace directory holds:
+     *   segment-NNNNN.bin  fixed-size records, RECORD_SIZE bytes each, in the order the
+     *                      events were observed across all threads
+     *   strings.dat        the string table, written by DataOutputStream: count, then UTF strings
+     *   trace.meta         record count and segment geometry, as java.util.Properties
+     *
+     * Record layout (big endian):
+     *   0  byte  kind (0 = slot never written)
+     *   1  byte  flags
+     *   2  short unused
+     *   4  int   iid
+     *   8  int   thread (object for NEW_EXPR_AFTER, block id for deterministic blocks)
+     *   12 int   lock, child thread, object, method or string id, depending on kind
+     *   16 long  memory location, primitive value bits or string ids
+     */
+    public static final int RECORD_SIZE = 24;
+
+    public static final int OFFSET_KIND = 0;
+    public static final int OFFSET_FLAGS = 1;
+    public static final int OFFSET_IID = 4;
+    public static final int OFFSET_THREAD = 8;
+    public static final int OFFSET_ARG = 12;
+    public static final int OFFSET_VALUE = 16;
+
+    public static final int FLAG_VOLATILE = 1;
+
+    public static final int EMPTY = 0;
+    public static final int LOCK_BEFORE = 1;
+    public static final int LOCK_AFTER = 2;
+    public static final int UNLOCK_AFTER = 3;
+    public static final int NEW_EXPR_AFTER = 4;
+    public static final int METHOD_ENTER_BEFORE = 5;
+    public static final int METHOD_EXIT_AFTER = 6;
+    public static final int START_BEFORE = 7;
+    public static final int START_AFTER = 8;
+    public static final int WAIT_BEFORE = 9;
+    public static final int WAIT_AFTER = 10;
+    public static final int NOTIFY_BEFORE = 11;
+    public static final int NOTIFY_ALL_BEFORE = 12;
+    public static final int JOIN_AFTER = 13;
+    public static final int READ_BEFORE = 14;
+    public static final int READ_AFTER = 15;
+    public static final int WRITE_BEFORE = 16;
+    public static final int WRITE_AFTER = 17;
+    // arg: local name, value: type id << 32 | id of String.valueOf(value)
+    public static final int LOCAL_WRITE_AFTER = 18;
+    // arg: id of local + '\0' + type, value: raw bits
+    public static final int LOCAL_PRIMITIVE_WRITE_AFTER = 19;
+    public static final int OPEN_DETERMINISTIC_BLOCK = 20;
+    public static final int CLOSE_DETERMINISTIC_BLOCK = 21;
+    // value: id of String.valueOf(invariant)
+    public static final int REQUIRE_DETERMINISTIC = 22;
+    public static final int ASSERT_DETERMINISTIC = 23;
+
+    public static final String STRINGS_FILE = "strings.dat";
+    public static final String META_FILE = "trace.meta";
+
+    public static String segmentName(int segment) {
+        return "segment-" + String.format("%05d", segment) + ".bin";
+    }
+
+    public static boolean isAccess(int kind) {
+        return kind >= READ_BEFORE && kind <= WRITE_AFTER;
+    }
+}
@@ -0,0 +1,213 @@
+package javato.activetesting.trace;
+
+import javato.activetesting.analysis.Analysis;
+import javato.activetesting.analysis.LegacyAnalysisAdapter;
+import javato.activetesting.analysis.PrimitiveAnalysis;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Properties;
+
+import static javato.activetesting.trace.TraceFormat.*;
+
+/**
+ * Copyright (c) 2007-2008,
+ * Koushik Sen    <ksen@cs.berkeley.edu>
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * <p/>
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * <p/>
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * <p/>
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class TraceReader {
+    private final File dir;
+    private final long records;
+    private final int recordsPerSegment;
+    private final String[] strings;
+
+    // cursor
+    private long index = -1;
+    private int segmentIndex = -1;
+    private MappedByteBuffer segment;
+    private int offset;
+
+    public TraceReader(File dir) throws IOException {
+        this.dir = dir;
+        Properties meta = new Properties();
+        FileInputStream metaIn = new FileInputStream(new File(dir, META_FILE));
+        meta.load(metaIn);
+        metaIn.close();
+        if (Integer.parseInt(meta.getProperty("recordSize")) != RECORD_SIZE) {
+            throw new IOException("Unsupported trace record size in " + dir);
+        }
+        records = Long.parseLong(meta.getProperty("records"));
+        recordsPerSegment = Integer.parseInt(meta.getProperty("recordsPerSegment"));
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(new File(dir, STRINGS_FILE))));
+        strings = new String[in.readInt()];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = in.readUTF();
+        }
+        in.close();
+    }
+
+    public File getDirectory() {
+        return dir;
+    }
+
+    /** Number of record slots in the trace, including any left empty. */
+    public long size() {
+        return records;
+    }
+
+    public String string(int id) {
+        return id < 0 ? null : strings[id];
+    }
+
+    /** Moves to the next non-empty record. Returns false at the end of the trace. */
+    public boolean next() throws IOException {
+        while (++index < records) {
+            int seg = (int) (index / recordsPerSegment);
+            if (seg != segmentIndex) {
+                segment = map(seg);
+                segmentIndex = seg;
+            }
+            offset = (int) (index % recordsPerSegment) * RECORD_SIZE;
+            if (segment.get(offset + OFFSET_KIND) != EMPTY) {
+                return true;
+            }
+        }
+        segment = null;
+        return false;
+    }
+
+    private MappedByteBuffer map(int seg) throws IOException {
+        RandomAccessFile f = new RandomAccessFile(new File(dir, segmentName(seg)), "r");
+        try {
+            return f.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, f.length());
+        } finally {
+            f.close();
+        }
+    }
+
+    /** Position of the current record in the trace. */
+    public long index() {
+        return index;
+    }
+
+    public int kind() {
+        return segment.get(offset + OFFSET_KIND);
+    }
+
+    public boolean isVolatile() {
+        return (segment.get(offset + OFFSET_FLAGS) & FLAG_VOLATILE) != 0;
+    }
+
+    public int iid() {
+        return segment.getInt(offset + OFFSET_IID);
+    }
+
+    public int thread() {
+        return segment.getInt(offset + OFFSET_THREAD);
+    }
+
+    public int arg() {
+        return segment.getInt(offset + OFFSET_ARG);
+    }
+
+    public long value() {
+        return segment.getLong(offset + OFFSET_VALUE);
+    }
+
+    /** Feeds the current record to the analysis. */
+    public void dispatch(PrimitiveAnalysis a) {
+        int iid = iid();
+        int thread = thread();
+        int arg = arg();
+        long value = value();
+        switch (kind()) {
+            case LOCK_BEFORE: a.lockBefore(iid, thread, arg, null); break;
+            case LOCK_AFTER: a.lockAfter(iid, thread, arg, null); break;
+            case UNLOCK_AFTER: a.unlockAfter(iid, thread, arg); break;
+            case NEW_EXPR_AFTER: a.newExprAfter(iid, thread, arg); break;
+            case METHOD_ENTER_BEFORE: a.methodEnterBefore(iid, thread, arg); break;
+            case METHOD_EXIT_AFTER: a.methodExitAfter(iid, thread, arg); break;
+            case START_BEFORE: a.startBefore(iid, thread, arg); break;
+            case START_AFTER: a.startAfter(iid, thread, null); break;
+            case WAIT_BEFORE: a.waitBefore(iid, thread, arg); break;
+            case WAIT_AFTER: a.waitAfter(iid, thread, arg); break;
+            case NOTIFY_BEFORE: a.notifyBefore(iid, thread, arg); break;
+            case NOTIFY_ALL_BEFORE: a.notifyAllBefore(iid, thread, arg); break;
+            case JOIN_AFTER: a.joinAfter(iid, thread, arg); break;
+            case READ_BEFORE: a.readBefore(iid, thread, value, isVolatile()); break;
+            case READ_AFTER: a.readAfter(iid, thread, value, isVolatile()); break;
+            case WRITE_BEFORE: a.writeBefore(iid, thread, value, isVolatile()); break;
+            case WRITE_AFTER: a.writeAfter(iid, thread, value, isVolatile()); break;
+            case LOCAL_WRITE_AFTER:
+                a.writeAfter(iid, thread, string(arg), string((int) value), string((int) (value >> 32)));
+                break;
+            case LOCAL_PRIMITIVE_WRITE_AFTER: {
+                String localAndType = string(arg);
+                int sep = localAndType.indexOf('\0');
+                a.writePrimitiveAfter(iid, thread, localAndType.substring(0, sep), value,
+                        localAndType.substring(sep + 1));
+                break;
+            }
+            case OPEN_DETERMINISTIC_BLOCK: a.openDeterministicBlock(thread); break;
+            case CLOSE_DETERMINISTIC_BLOCK: a.closeDeterministicBlock(thread); break;
+            case REQUIRE_DETERMINISTIC: a.requireDeterministic(thread, string((int) value)); break;
+            case ASSERT_DETERMINISTIC: a.assertDeterministic(thread, string((int) value)); break;
+            default:
+                System.err.println("Unknown trace record kind " + kind() + " at " + index);
+        }
+    }
+
+    /**
+     * Replays the rest of the trace into the analysis in one pass. Object arguments
+     * (the lock object, the started thread) are not recorded and are passed as null;
+     * local values and deterministic invariants come back as strings. Does not call
+     * finish().
+     */
+    public long replay(PrimitiveAnalysis a) throws IOException {
+        long n = 0;
+        while (next()) {
+            dispatch(a);
+            n++;
+        }
+        return n;
+    }
+
+    public long replay(Analysis a) throws IOException {
+        return replay(new LegacyAnalysisAdapter(a));
+    }
+}
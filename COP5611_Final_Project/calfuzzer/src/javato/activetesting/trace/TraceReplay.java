@@ -0,0 +1,65 @@
+package javato.activetesting.trace;
+
+import javato.activetesting.analysis.Analysis;
+import javato.activetesting.analysis.LegacyAnalysisAdapter;
+import javato.activetesting.analysis.PrimitiveAnalysis;
+
+import java.io.File;
+
+/**
+ * Copyright (c) 2007-2008,
+ * Koushik Sen    <ksen@cs.berkeley.edu>
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * <p/>
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * <p/>
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * <p/>
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class TraceReplay {
+    /**
+     * Replays a recorded trace into an analysis and lets it report, as if it had run
+     * on the original execution.
+     * Usage: TraceReplay traceDir analysisClass
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2) {
+            System.err.println("Usage: java javato.activetesting.trace.TraceReplay <trace dir> <analysis class>");
+            System.exit(1);
+        }
+        TraceReader reader = new TraceReader(new File(args[0]));
+        Object a = Class.forName(args[1]).getDeclaredConstructor().newInstance();
+        // finish() is called below, once, after the whole trace has been seen
+        if (a instanceof Thread) {
+            Runtime.getRuntime().removeShutdownHook((Thread) a);
+        }
+        PrimitiveAnalysis analysis = a instanceof PrimitiveAnalysis
+                ? (PrimitiveAnalysis) a : new LegacyAnalysisAdapter((Analysis) a);
+        long start = System.currentTimeMillis();
+        long n = reader.replay(analysis);
+        analysis.finish();
+        System.out.println("Replayed " + n + " events in " + (System.currentTimeMillis() - start) + " ms");
+    }
+}
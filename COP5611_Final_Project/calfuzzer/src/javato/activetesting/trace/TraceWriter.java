@@ -0,0 +1,208 @@
+package javato.activetesting.trace;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static javato.activetesting.trace.TraceFormat.*;
+
+/**
+ * Copyright (c) 2007-2008,
+ * Koushik Sen    <ksen@cs.berkeley.edu>
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * <p/>
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * <p/>
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * <p/>
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class TraceWriter {
+    private static final int MAX_STRING_LENGTH = 8192;
+
+    private final File dir;
+    private final int recordsPerSegment;
+    // index of the next record; the reservation order is the order of the trace
+    private final AtomicLong next = new AtomicLong();
+    private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+    private final List<RandomAccessFile> files = new ArrayList<RandomAccessFile>();
+    private volatile boolean closed;
+
+    private final ConcurrentHashMap<String, Integer> stringIds = new ConcurrentHashMap<String, Integer>();
+    private final List<String> strings = new ArrayList<String>();
+    // values take at most this many entries of the string table, names are not limited
+    private final int maxValues;
+    private int values;
+    private final AtomicLong droppedValues = new AtomicLong();
+
+    public TraceWriter(File dir, long segmentBytes) throws IOException {
+        this(dir, segmentBytes, Integer.MAX_VALUE);
+    }
+
+    public TraceWriter(File dir, long segmentBytes, int maxValues) throws IOException {
+        this.dir = dir;
+        this.maxValues = maxValues;
+        long n = segmentBytes / RECORD_SIZE;
+        if (n < 1 || n * RECORD_SIZE > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Bad trace segment size " + segmentBytes);
+        }
+        recordsPerSegment = (int) n;
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create trace directory " + dir);
+        }
+        // leftovers of an older, longer trace would otherwise be read as part of this one
+        for (int i = 0; new File(dir, segmentName(i)).delete(); i++) {
+        }
+    }
+
+    public void write(int kind, boolean isVolatile, int iid, int thread, int arg, long value) {
+        if (closed) return;
+        long idx = next.getAndIncrement();
+        MappedByteBuffer b = segment((int) (idx / recordsPerSegment));
+        if (b == null) return;
+        int off = (int) (idx % recordsPerSegment) * RECORD_SIZE;
+        // three big-endian longs laid out as in TraceFormat
+        b.putLong(off + OFFSET_THREAD, ((long) thread << 32) | (arg & 0xffffffffL));
+        b.putLong(off + OFFSET_VALUE, value);
+        // kind last, so that a record cut short by a crash reads as empty
+        b.putLong(off + OFFSET_KIND, ((long) kind << 56) | ((long) (isVolatile ? FLAG_VOLATILE : 0) << 48)
+                | (iid & 0xffffffffL));
+    }
+
+    public int stringId(String s) {
+        if (s == null) return -1;
+        Integer id = stringIds.get(s);
+        if (id != null) return id;
+        synchronized (strings) {
+            id = stringIds.get(s);
+            if (id == null) {
+                id = strings.size();
+                strings.add(s.length() > MAX_STRING_LENGTH ? s.substring(0, MAX_STRING_LENGTH) : s);
+                stringIds.put(s, id);
+            }
+            return id;
+        }
+    }
+
+    /**
+     * Like stringId, for run-time values, whose number is not bounded by the
+     * program. Once maxValues new values have been added, unseen ones get -1
+     * and replay as null.
+     */
+    public int valueId(String s) {
+        if (s == null) return -1;
+        Integer id = stringIds.get(s);
+        if (id != null) return id;
+        synchronized (strings) {
+            if (values >= maxValues && !stringIds.containsKey(s)) {
+                droppedValues.incrementAndGet();
+                return -1;
+            }
+            int n = strings.size();
+            id = stringId(s);
+            if (id == n) values++;
+            return id;
+        }
+    }
+
+    /** Number of values written as -1 because the value table was full. */
+    public long getDroppedValues() {
+        return droppedValues.get();
+    }
+
+    private MappedByteBuffer segment(int seg) {
+        MappedByteBuffer[] s = segments;
+        if (seg < s.length) return s[seg];
+        return mapSegments(seg);
+    }
+
+    private synchronized MappedByteBuffer mapSegments(int seg) {
+        try {
+            while (segments.length <= seg) {
+                if (closed) return null;
+                int i = segments.length;
+                RandomAccessFile f = new RandomAccessFile(new File(dir, segmentName(i)), "rw");
+                f.setLength((long) recordsPerSegment * RECORD_SIZE);
+                MappedByteBuffer b = f.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+                        (long) recordsPerSegment * RECORD_SIZE);
+                files.add(f);
+                MappedByteBuffer[] s = new MappedByteBuffer[i + 1];
+                System.arraycopy(segments, 0, s, 0, i);
+                s[i] = b;
+                segments = s;
+            }
+            return segments[seg];
+        } catch (IOException e) {
+            e.printStackTrace();
+            closed = true;
+            return null;
+        }
+    }
+
+    /**
+     * Flushes the segments and writes the string table and meta data. Events written
+     * after this are dropped. Returns the number of records reserved.
+     */
+    public synchronized long close() throws IOException {
+        closed = true;
+        long records = Math.min(next.get(), (long) segments.length * recordsPerSegment);
+        for (MappedByteBuffer b : segments) {
+            b.force();
+        }
+        for (RandomAccessFile f : files) {
+            f.close();
+        }
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(new File(dir, STRINGS_FILE))));
+        synchronized (strings) {
+            out.writeInt(strings.size());
+            for (String s : strings) {
+                out.writeUTF(s);
+            }
+        }
+        out.close();
+
+        Properties meta = new Properties();
+        meta.setProperty("records", Long.toString(records));
+        meta.setProperty("recordSize", Integer.toString(RECORD_SIZE));
+        meta.setProperty("recordsPerSegment", Integer.toString(recordsPerSegment));
+        meta.setProperty("segments", Integer.toString(segments.length));
+        meta.setProperty("droppedValues", Long.toString(droppedValues.get()));
+        FileOutputStream metaOut = new FileOutputStream(new File(dir, META_FILE));
+        meta.store(metaOut, "CalFuzzer event trace");
+        metaOut.close();
+        return records;
+    }
+}
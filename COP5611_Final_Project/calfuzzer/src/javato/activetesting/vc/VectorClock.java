@@ -1,8 +1,7 @@
 package javato.activetesting.vc;
 
 
-import java.util.Map;
-import java.util.TreeMap;
+import javato.activetesting.common.IntHashMap;
 
 
 /**
@@ -39,7 +38,9 @@ import java.util.TreeMap;
  * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
 public class VectorClock implements java.io.Serializable {
-    public Map<Integer, LongCounter> vc;
+    // thread -> clock; keyed by primitive ints so that reading a component
+    // on every access does not box the thread id
+    public IntHashMap<LongCounter> vc;
 
     public VectorClock(VectorClock vc) {
         //PALLAVI : we need a deep copy of the map here; clone all LongCounter objects too
@@ -47,24 +48,26 @@ public class VectorClock implements java.io.Serializable {
         //otherwise the vectorClocks added in the database would change as the vectorClocks
         //for the corresponding threads would change
 
-        this.vc = new TreeMap<Integer, LongCounter>(vc.vc);
-        for (Integer tid : vc.vc.keySet()) {
-            LongCounter ctr = vc.vc.get(tid);
-            this.vc.put(tid, new LongCounter(ctr.val));
+        this.vc = new IntHashMap<LongCounter>(vc.vc.size());
+        for (int i = 0; i < vc.vc.capacity(); i++) {
+            LongCounter ctr = vc.vc.valueAt(i);
+            if (ctr != null) {
+                this.vc.put(vc.vc.keyAt(i), new LongCounter(ctr.val));
+            }
         }
     }
 
     public VectorClock() {
-        vc = new TreeMap<Integer, LongCounter>();
+        vc = new IntHashMap<LongCounter>();
     }
 
-    public long getValue(Integer thread) {
+    public long getValue(int thread) {
         LongCounter l = vc.get(thread);
         if (l == null) return 0;
         return l.val;
     }
 
-    public void inc(Integer parent) {
+    public void inc(int parent) {
         LongCounter l = vc.get(parent);
         if (l == null) {
             l = new LongCounter(0);
@@ -73,7 +76,7 @@ public class VectorClock implements java.io.Serializable {
         l.inc();
     }
 
-    private void set(Integer parent, long val) {
+    private void set(int parent, long val) {
         LongCounter l = vc.get(parent);
         if (l == null) {
             l = new LongCounter(val);
@@ -84,10 +87,13 @@ public class VectorClock implements java.io.Serializable {
     }
 
     public void updateMax(VectorClock vc2) {
-        for (Integer t : vc2.vc.keySet()) {
-            long l = vc2.getValue(t);
-            if (l > getValue(t)) {
-                set(t, l);
+        for (int i = 0; i < vc2.vc.capacity(); i++) {
+            LongCounter l = vc2.vc.valueAt(i);
+            if (l != null) {
+                int t = vc2.vc.keyAt(i);
+                if (l.val > getValue(t)) {
+                    set(t, l.val);
+                }
             }
         }
     }
@@ -103,31 +109,23 @@ public class VectorClock implements java.io.Serializable {
         if (vc1.vc.size() != vc2.vc.size()) {
             return false;
         }
-        for (Integer tid : vc1.vc.keySet()) {
-            LongCounter lc1 = vc1.vc.get(tid);
-            LongCounter lc2 = vc2.vc.get(tid);
-            if ((lc1 != null) && (lc2 != null)) {
-                if (lc1.val != lc2.val) {
+        for (int i = 0; i < vc1.vc.capacity(); i++) {
+            LongCounter lc1 = vc1.vc.valueAt(i);
+            if (lc1 != null) {
+                LongCounter lc2 = vc2.vc.get(vc1.vc.keyAt(i));
+                if (lc2 == null || lc1.val != lc2.val) {
                     return false;
                 }
             }
-            if ((lc1 != null) && (lc2 == null)) {
-                return false;
-            }
-            if ((lc1 == null) && (lc2 != null)) {
-                return false;
-            }
-
         }
         return true;
     }
 
     public static boolean isVC1LessThanOrEqualToVC2(VectorClock vc1, VectorClock vc2) {
 
-        for (Integer tid : vc1.vc.keySet()) {
-            long vc1val = vc1.getValue(tid);
-            long vc2val = vc2.getValue(tid);
-            if (vc1val > vc2val) {
+        for (int i = 0; i < vc1.vc.capacity(); i++) {
+            LongCounter lc1 = vc1.vc.valueAt(i);
+            if (lc1 != null && lc1.val > vc2.getValue(vc1.vc.keyAt(i))) {
                 return false;
             }
         }
@@ -136,10 +134,9 @@ public class VectorClock implements java.io.Serializable {
 
     public static boolean isVC1LessThanVC2(VectorClock vc1, VectorClock vc2) {
 
-        for (Integer tid : vc1.vc.keySet()) {
-            long vc1val = vc1.getValue(tid);
-            long vc2val = vc2.getValue(tid);
-            if (vc1val >= vc2val) {
+        for (int i = 0; i < vc1.vc.capacity(); i++) {
+            LongCounter lc1 = vc1.vc.valueAt(i);
+            if (lc1 != null && lc1.val >= vc2.getValue(vc1.vc.keyAt(i))) {
                 return false;
             }
         }
@@ -159,10 +156,12 @@ public class VectorClock implements java.io.Serializable {
         boolean notcomp = false;
         boolean greater = false;
 
-        for (Integer tid : vc1.vc.keySet()) {
+        for (int i = 0; i < vc1.vc.capacity(); i++) {
+            LongCounter lc1 = vc1.vc.valueAt(i);
+            if (lc1 == null) continue;
             /* if vc2 does not contain corresponding thread id, getValue returns 0 */
-            long vc1val = vc1.getValue(tid);
-            long vc2val = vc2.getValue(tid);
+            long vc1val = lc1.val;
+            long vc2val = vc2.getValue(vc1.vc.keyAt(i));
 
             if (vc1val > vc2val) {
                 greater = true;
@@ -182,18 +181,18 @@ public class VectorClock implements java.io.Serializable {
             return -1;
 
         /* check if vc1 is indeed greater than vc2 */
-        for (Integer tid : vc2.vc.keySet()) {
-            long vc1val = vc1.getValue(tid);
-            long vc2val = vc2.getValue(tid);
-
-            if (vc1val < vc2val)
+        for (int i = 0; i < vc2.vc.capacity(); i++) {
+            LongCounter lc2 = vc2.vc.valueAt(i);
+            if (lc2 != null && vc1.getValue(vc2.vc.keyAt(i)) < lc2.val)
                 return 0;
         }
         return 1;
     }
 
     public void print() {
-        for (Integer tid : vc.keySet()) {
+        int[] tids = vc.keys();
+        java.util.Arrays.sort(tids);
+        for (int tid : tids) {
             LongCounter lc = vc.get(tid);
             System.out.println(tid + " " + lc.val);
         }
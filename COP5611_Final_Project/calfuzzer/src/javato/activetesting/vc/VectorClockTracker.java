@@ -3,6 +3,8 @@ package javato.activetesting.vc;
 import java.util.HashMap;
 import java.util.Map;
 
+import javato.activetesting.common.IntHashMap;
+
 /**
  * Copyright (c) 2007-2008,
  * Koushik Sen    <ksen@cs.berkeley.edu>
@@ -36,10 +38,10 @@ import java.util.Map;
  * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
 public class VectorClockTracker {
-    private Map<Integer, VectorClock> threads = new HashMap<Integer, VectorClock>();
+    private IntHashMap<VectorClock> threads = new IntHashMap<VectorClock>();
     private Map<Integer, VectorClock> notifyMessages = new HashMap<Integer, VectorClock>();
 
-    public void startBefore(Integer parent, Integer child) {
+    public void startBefore(int parent, int child) {
         VectorClock vc = getVectorClock(parent);
         VectorClock vc2 = new VectorClock(vc);
         vc.inc(parent);
@@ -47,20 +49,20 @@ public class VectorClockTracker {
         vc2.inc(child);
     }
 
-    public void joinAfter(Integer parent, Integer child) {
+    public void joinAfter(int parent, int child) {
         VectorClock vc = getVectorClock(parent);
         VectorClock vc2 = getVectorClock(child);
         vc.updateMax(vc2);
         vc.inc(parent);
     }
 
-    public void notifyBefore(Integer thread, Integer lock) {
+    public void notifyBefore(int thread, int lock) {
         VectorClock vc = getVectorClock(thread);
         notifyMessages.put(lock, new VectorClock(vc));
         vc.inc(thread);
     }
 
-    public void waitAfter(Integer thread, Integer lock) {
+    public void waitAfter(int thread, int lock) {
         VectorClock vc = getVectorClock(thread);
         VectorClock vc2 = notifyMessages.get(lock);
         vc.updateMax(vc2);
@@ -69,7 +71,7 @@ public class VectorClockTracker {
 
     // make sure you make copy of this VC if you want to use in a Map
     // the returned VC changes during an execution
-    public VectorClock getVectorClock(Integer thread) {
+    public VectorClock getVectorClock(int thread) {
         VectorClock p = threads.get(thread);
         if (p == null) {
             p = new VectorClock();
@@ -0,0 +1,338 @@
+package javato.instrumentor;
+
+import soot.Body;
+import soot.DoubleType;
+import soot.FloatType;
+import soot.Local;
+import soot.PrimType;
+import soot.Trap;
+import soot.Unit;
+import soot.UnitBox;
+import soot.Value;
+import soot.ValueBox;
+import soot.jimple.AddExpr;
+import soot.jimple.ArrayRef;
+import soot.jimple.AssignStmt;
+import soot.jimple.BinopExpr;
+import soot.jimple.CastExpr;
+import soot.jimple.ConditionExpr;
+import soot.jimple.DivExpr;
+import soot.jimple.GeExpr;
+import soot.jimple.GotoStmt;
+import soot.jimple.GtExpr;
+import soot.jimple.IdentityStmt;
+import soot.jimple.IfStmt;
+import soot.jimple.InstanceFieldRef;
+import soot.jimple.IntConstant;
+import soot.jimple.LengthExpr;
+import soot.jimple.LongConstant;
+import soot.jimple.MonitorStmt;
+import soot.jimple.NewArrayExpr;
+import soot.jimple.NewExpr;
+import soot.jimple.NewMultiArrayExpr;
+import soot.jimple.NullConstant;
+import soot.jimple.RemExpr;
+import soot.jimple.Stmt;
+import soot.jimple.SubExpr;
+import soot.util.Chain;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Copyright (c) 2007-2008,
+ * Koushik Sen    <ksen@cs.berkeley.edu>
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * <p/>
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * <p/>
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * <p/>
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class ArrayLoopAnalysis {
+    private final Map<Unit, Range> ranges = new HashMap<Unit, Range>();
+    private int accesses;
+
+    /**
+     * The elements an array access in a counted loop touches over one run of
+     * the loop: array[index + offset] for every value of index from its value
+     * on entry up to the bound, exclusive unless inclusive is set. The bound
+     * is an int constant or local, or the length of lengthOf if that is set.
+     * This holds if the loop runs to its end, which it does unless one of its
+     * array accesses, all of them ranges, is out of bounds or on null.
+     */
+    public static final class Range {
+        private final Unit entry;
+        private final Unit head;
+        private final Local index;
+        private final Value bound;
+        private final Local lengthOf;
+        private final boolean inclusive;
+        private final Local array;
+        private final int offset;
+        private final List<Range> loopRanges;
+
+        Range(Unit entry, Unit head, Local index, Value bound, Local lengthOf, boolean inclusive,
+              Local array, int offset, List<Range> loopRanges) {
+            this.entry = entry;
+            this.head = head;
+            this.index = index;
+            this.bound = bound;
+            this.lengthOf = lengthOf;
+            this.inclusive = inclusive;
+            this.array = array;
+            this.offset = offset;
+            this.loopRanges = loopRanges;
+        }
+
+        // the statement that falls through into the loop, after which the range is known
+        public Unit getEntry() {
+            return entry;
+        }
+
+        public Unit getHead() {
+            return head;
+        }
+
+        public Local getIndex() {
+            return index;
+        }
+
+        public Value getBound() {
+            return bound;
+        }
+
+        public Local getLengthOf() {
+            return lengthOf;
+        }
+
+        public int getLoOffset() {
+            return offset;
+        }
+
+        public int getHiOffset() {
+            return inclusive ? offset + 1 : offset;
+        }
+
+        public Local getArray() {
+            return array;
+        }
+
+        // the ranges of all array accesses of the loop, this one included
+        public List<Range> getLoopRanges() {
+            return loopRanges;
+        }
+    }
+
+    /**
+     * Finds the array accesses of a method body that are in a counted loop of
+     * the shape javac gives a for loop over an array:
+     *
+     *   head: [n = lengthof b;] if i >= n (or i > n) goto exit;
+     *         ... array[i + c] ...
+     *         i = i + 1;
+     *         goto head;
+     *   exit:
+     *
+     * The body must be straight-line code with no call or monitor statement,
+     * define neither the array, the bound nor i except for the increment, and
+     * be entered only by falling into its head. Each of its array accesses
+     * must be of that form, and nothing else in it may throw: no field of an
+     * object, division by a variable, reference cast, allocation or store of
+     * a reference into an array. Each run of such a loop then accesses
+     * array[i + c] for a known range of i with one lockset and one vector
+     * clock, which one range event before the loop reports, unless a range is
+     * out of bounds; see getLoopRanges. Must run on the body before any call
+     * is inserted.
+     */
+    public ArrayLoopAnalysis(Body body) {
+        Chain units = body.getUnits();
+        Map<Unit, Integer> position = new HashMap<Unit, Integer>();
+        List<GotoStmt> gotos = new ArrayList<GotoStmt>();
+        for (Iterator it = units.iterator(); it.hasNext();) {
+            Stmt s = (Stmt) it.next();
+            position.put(s, position.size());
+            if (s.containsArrayRef()) accesses++;
+            if (s instanceof GotoStmt) gotos.add((GotoStmt) s);
+        }
+        for (GotoStmt back : gotos) {
+            Unit head = back.getTarget();
+            if (position.get(head) < position.get(back)) {
+                findRanges(body, position, head, back);
+            }
+        }
+    }
+
+    private void findRanges(Body body, Map<Unit, Integer> position, Unit head, GotoStmt back) {
+        Chain units = body.getUnits();
+        int first = position.get(head);
+        int last = position.get(back);
+        List<Stmt> loop = new ArrayList<Stmt>();
+        for (Unit u = head; u != back; u = (Unit) units.getSuccOf(u)) {
+            loop.add((Stmt) u);
+        }
+        loop.add(back);
+
+        int k = 0;
+        Local n = null;
+        Local lengthOf = null;
+        if (head instanceof AssignStmt && ((AssignStmt) head).getRightOp() instanceof LengthExpr) {
+            Value array = ((LengthExpr) ((AssignStmt) head).getRightOp()).getOp();
+            if (!(array instanceof Local) || !(((AssignStmt) head).getLeftOp() instanceof Local)) return;
+            lengthOf = (Local) array;
+            n = (Local) ((AssignStmt) head).getLeftOp();
+            k = 1;
+        }
+        // the test, at least one statement, the increment and the back jump
+        if (loop.size() < k + 4 || !(loop.get(k) instanceof IfStmt)) return;
+        IfStmt test = (IfStmt) loop.get(k);
+        Value cond = test.getCondition();
+        if (test.getTarget() != units.getSuccOf(back) || !(cond instanceof GeExpr || cond instanceof GtExpr)) return;
+        Value op1 = ((ConditionExpr) cond).getOp1();
+        Value bound = ((ConditionExpr) cond).getOp2();
+        if (!(op1 instanceof Local)) return;
+        Local index = (Local) op1;
+        if (lengthOf != null ? bound != n : !(bound instanceof Local || bound instanceof IntConstant)) return;
+        Stmt increment = loop.get(loop.size() - 2);
+        Integer step = offsetOf(increment, index);
+        if (step == null || step != 1 || ((AssignStmt) increment).getLeftOp() != index) return;
+
+        Map<Value, Stmt> defs = new HashMap<Value, Stmt>();
+        Set<Value> redefined = new HashSet<Value>();
+        for (Stmt s : loop) {
+            if (s != test && s != back && (s.branches() || !s.fallsThrough())) return;
+            if (s instanceof MonitorStmt || s instanceof IdentityStmt || s.containsInvokeExpr()) return;
+            for (Iterator it = s.getDefBoxes().iterator(); it.hasNext();) {
+                Value v = ((ValueBox) it.next()).getValue();
+                if (defs.put(v, s) != null) redefined.add(v);
+            }
+        }
+        if (redefined.contains(index)) return;
+        if (lengthOf != null ? defs.containsKey(lengthOf) || redefined.contains(n) : defs.containsKey(bound)) return;
+
+        Unit entry = (Unit) units.getPredOf(head);
+        if (entry == null || entry.branches() || !entry.fallsThrough()) return;
+        for (Iterator it = units.iterator(); it.hasNext();) {
+            Unit u = (Unit) it.next();
+            int p = position.get(u);
+            if (p >= first && p <= last) continue;
+            for (Iterator bit = u.getUnitBoxes().iterator(); bit.hasNext();) {
+                Integer target = position.get(((UnitBox) bit.next()).getUnit());
+                if (target != null && target >= first && target <= last) return;
+            }
+        }
+        // what the inserted events throw must be caught where the head's lengthof would be
+        int e = position.get(entry);
+        for (Iterator it = body.getTraps().iterator(); it.hasNext();) {
+            Trap t = (Trap) it.next();
+            int begin = position.get(t.getBeginUnit());
+            int end = position.get(t.getEndUnit());
+            if ((begin <= e && e < end) != (begin <= first && first < end)) return;
+        }
+
+        boolean inclusive = cond instanceof GtExpr;
+        List<Range> loopRanges = new ArrayList<Range>();
+        Map<Unit, Range> found = new HashMap<Unit, Range>();
+        for (int i = k + 1; i < loop.size() - 2; i++) {
+            Stmt s = loop.get(i);
+            for (Iterator it = s.getUseAndDefBoxes().iterator(); it.hasNext();) {
+                if (mayThrow(((ValueBox) it.next()).getValue())) return;
+            }
+            if (!s.containsArrayRef()) continue;
+            ArrayRef ref = s.getArrayRef();
+            if (!(ref.getBase() instanceof Local) || defs.containsKey(ref.getBase())) return;
+            // only a store of null into an array of references cannot fail its type check
+            if (s instanceof AssignStmt && ((AssignStmt) s).getLeftOp() == ref && !(ref.getType() instanceof PrimType)
+                    && !(((AssignStmt) s).getRightOp() instanceof NullConstant)) return;
+            Value at = ref.getIndex();
+            Integer offset = null;
+            if (at == index) {
+                offset = 0;
+            } else if (at instanceof Local && !redefined.contains(at) && defs.containsKey(at)
+                    && position.get(defs.get(at)) < position.get(s)) {
+                offset = offsetOf(defs.get(at), index);
+            }
+            if (offset == null) return;
+            Range range = new Range(entry, head, index, lengthOf != null ? null : bound, lengthOf, inclusive,
+                    (Local) ref.getBase(), offset, loopRanges);
+            loopRanges.add(range);
+            found.put(s, range);
+        }
+        ranges.putAll(found);
+    }
+
+    // whether evaluating v may throw, for values other than array elements and calls
+    private static boolean mayThrow(Value v) {
+        if (v instanceof InstanceFieldRef || v instanceof LengthExpr || v instanceof NewExpr
+                || v instanceof NewArrayExpr || v instanceof NewMultiArrayExpr) {
+            return true;
+        }
+        if (v instanceof CastExpr) {
+            return !(((CastExpr) v).getCastType() instanceof PrimType);
+        }
+        if (v instanceof DivExpr || v instanceof RemExpr) {
+            if (v.getType() instanceof FloatType || v.getType() instanceof DoubleType) return false;
+            Value divisor = ((BinopExpr) v).getOp2();
+            if (divisor instanceof IntConstant) return ((IntConstant) divisor).value == 0;
+            if (divisor instanceof LongConstant) return ((LongConstant) divisor).value == 0;
+            return true;
+        }
+        return false;
+    }
+
+    // c if s is x = i + c, x = c + i or x = i - c
+    private static Integer offsetOf(Stmt s, Local index) {
+        if (!(s instanceof AssignStmt)) return null;
+        Value right = ((AssignStmt) s).getRightOp();
+        if (right instanceof AddExpr) {
+            Value op1 = ((AddExpr) right).getOp1();
+            Value op2 = ((AddExpr) right).getOp2();
+            if (op1 == index && op2 instanceof IntConstant) return ((IntConstant) op2).value;
+            if (op2 == index && op1 instanceof IntConstant) return ((IntConstant) op1).value;
+        } else if (right instanceof SubExpr) {
+            Value op1 = ((SubExpr) right).getOp1();
+            Value op2 = ((SubExpr) right).getOp2();
+            if (op1 == index && op2 instanceof IntConstant) return -((IntConstant) op2).value;
+        }
+        return null;
+    }
+
+    /**
+     * The range of the loop around the array access s, or null if s is not
+     * such an access.
+     */
+    public Range rangeOf(Stmt s) {
+        return ranges.get(s);
+    }
+
+    public int getAccessCount() {
+        return accesses;
+    }
+}
@@ -0,0 +1,259 @@
+package javato.instrumentor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.Attribute;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+/**
+ * Copyright (c) 2007-2008,
+ * Koushik Sen    <ksen@cs.berkeley.edu>
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * <p/>
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * <p/>
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * <p/>
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class ClassScanner implements ClassVisitor, MethodVisitor, FieldVisitor {
+    // most iids the instrumentor hands out for one bytecode instruction
+    private static final int IIDS_PER_INVOKE = 8;
+    private static final int IIDS_PER_ACCESS = 2;
+    private static final int IIDS_PER_METHOD = 4;
+
+    private String className;
+    private int iidBound;
+    private final Set<String> symbols = new TreeSet<String>();
+    private final StringBuilder summary = new StringBuilder();
+    private byte[] bytes;
+
+    /**
+     * Reads one class file without Soot. Collects the class, field and method
+     * names that the instrumentor may put in its symbol table and an upper bound on
+     * the number of iids it may use for the class, so that classes can be
+     * instrumented in separate JVMs with disjoint iid ranges.
+     */
+    public static ClassScanner scan(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int n;
+        while ((n = in.read(buf)) > 0) {
+            out.write(buf, 0, n);
+        }
+        return scan(out.toByteArray());
+    }
+
+    public static ClassScanner scan(byte[] bytes) {
+        ClassScanner scanner = new ClassScanner();
+        scanner.bytes = bytes;
+        new ClassReader(bytes).accept(scanner, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        return scanner;
+    }
+
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    /**
+     * The parts of the class that the instrumentation of other classes
+     * depends on: its supertypes, its fields with their access flags
+     * (whether a field is static or volatile decides how accesses to it are
+     * instrumented) and its synchronized methods.
+     */
+    public String getSummary() {
+        return summary.toString();
+    }
+
+    public static String digest(byte[] data) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            StringBuilder sb = new StringBuilder();
+            for (byte b : md.digest(data)) {
+                sb.append(Integer.toHexString((b & 0xff) | 0x100).substring(1));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public String getClassName() {
+        return className;
+    }
+
+    public int getIidBound() {
+        return iidBound;
+    }
+
+    public Set<String> getSymbols() {
+        return symbols;
+    }
+
+    private static String dotted(String internalName) {
+        return internalName.replace('/', '.');
+    }
+
+    /**
+     * The symbol the instrumentors name a called method by: the signature
+     * "<Owner: ret name(args)>" of the method as the call refers to it,
+     * like Soot's SootMethodRef.getSignature().
+     */
+    public static String methodSymbol(String owner, String name, String desc) {
+        StringBuilder sb = new StringBuilder("<")
+                .append(owner.startsWith("[") ? "java.lang.Object" : dotted(owner)).append(": ")
+                .append(Type.getReturnType(desc).getClassName()).append(' ').append(name).append('(');
+        Type[] args = Type.getArgumentTypes(desc);
+        for (int i = 0; i < args.length; i++) {
+            if (i > 0) sb.append(',');
+            sb.append(args[i].getClassName());
+        }
+        return sb.append(")>").toString();
+    }
+
+    public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+        className = dotted(name);
+        symbols.add(className);
+        summary.append(name).append(' ').append(access).append(' ').append(superName);
+        if (superName != null) {
+            symbols.add(dotted(superName));
+        }
+        if (interfaces != null) {
+            for (String i : interfaces) {
+                symbols.add(dotted(i));
+                summary.append(' ').append(i);
+            }
+        }
+        summary.append('\n');
+    }
+
+    public FieldVisitor visitField(int access, String name, String desc, String signature, Object value) {
+        symbols.add(name);
+        summary.append(name).append(' ').append(desc).append(' ').append(access).append('\n');
+        return this;
+    }
+
+    public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+        if ((access & Opcodes.ACC_SYNCHRONIZED) != 0) {
+            summary.append(name).append(desc).append(' ').append(access).append('\n');
+        }
+        if ((access & (Opcodes.ACC_ABSTRACT | Opcodes.ACC_NATIVE)) != 0) {
+            return null;
+        }
+        iidBound += IIDS_PER_METHOD;
+        return this;
+    }
+
+    public void visitFieldInsn(int opcode, String owner, String name, String desc) {
+        iidBound += IIDS_PER_ACCESS;
+        symbols.add(name);
+        if (opcode == Opcodes.GETSTATIC || opcode == Opcodes.PUTSTATIC) {
+            symbols.add(dotted(owner));
+        }
+    }
+
+    public void visitMethodInsn(int opcode, String owner, String name, String desc) {
+        iidBound += IIDS_PER_INVOKE;
+        symbols.add(methodSymbol(owner, name, desc));
+        if (opcode == Opcodes.INVOKESTATIC) {
+            symbols.add(dotted(owner));
+        }
+    }
+
+    public void visitInsn(int opcode) {
+        switch (opcode) {
+            case Opcodes.IALOAD: case Opcodes.LALOAD: case Opcodes.FALOAD: case Opcodes.DALOAD:
+            case Opcodes.AALOAD: case Opcodes.BALOAD: case Opcodes.CALOAD: case Opcodes.SALOAD:
+            case Opcodes.IASTORE: case Opcodes.LASTORE: case Opcodes.FASTORE: case Opcodes.DASTORE:
+            case Opcodes.AASTORE: case Opcodes.BASTORE: case Opcodes.CASTORE: case Opcodes.SASTORE:
+            case Opcodes.MONITORENTER: case Opcodes.MONITOREXIT:
+                iidBound += IIDS_PER_ACCESS;
+                break;
+        }
+    }
+
+    public void visitTypeInsn(int opcode, String type) {
+        if (opcode == Opcodes.NEW || opcode == Opcodes.ANEWARRAY) {
+            iidBound++;
+        }
+    }
+
+    public void visitIntInsn(int opcode, int operand) {
+        if (opcode == Opcodes.NEWARRAY) {
+            iidBound++;
+        }
+    }
+
+    public void visitMultiANewArrayInsn(String desc, int dims) {
+        iidBound++;
+    }
+
+    // stores to locals are instrumented when javato.track.locals is set
+    public void visitVarInsn(int opcode, int var) {
+        if (opcode >= Opcodes.ISTORE && opcode <= Opcodes.ASTORE) {
+            iidBound++;
+        }
+    }
+
+    public void visitIincInsn(int var, int increment) {
+        iidBound++;
+    }
+
+    public void visitMaxs(int maxStack, int maxLocals) {
+        iidBound += maxLocals;
+    }
+
+    /* Nothing else matters for the scan. */
+    public void visitSource(String source, String debug) { }
+    public void visitOuterClass(String owner, String name, String desc) { }
+    public AnnotationVisitor visitAnnotation(String desc, boolean visible) { return null; }
+    public void visitAttribute(Attribute attr) { }
+    public void visitInnerClass(String name, String outerName, String innerName, int access) { }
+    public void visitEnd() { }
+    public AnnotationVisitor visitAnnotationDefault() { return null; }
+    public AnnotationVisitor visitParameterAnnotation(int parameter, String desc, boolean visible) { return null; }
+    public void visitCode() { }
+    public void visitFrame(int type, int nLocal, Object[] local, int nStack, Object[] stack) { }
+    public void visitJumpInsn(int opcode, Label label) { }
+    public void visitLabel(Label label) { }
+    public void visitLdcInsn(Object cst) { }
+    public void visitTableSwitchInsn(int min, int max, Label dflt, Label[] labels) { }
+    public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels) { }
+    public void visitTryCatchBlock(Label start, Label end, Label handler, String type) { }
+    public void visitLocalVariable(String name, String desc, String signature, Label start, Label end, int index) { }
+    public void visitLineNumber(int line, Label start) { }
+}
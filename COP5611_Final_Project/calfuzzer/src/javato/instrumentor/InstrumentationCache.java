@@ -0,0 +1,320 @@
+package javato.instrumentor;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javato.activetesting.analysis.EventKind;
+import javato.activetesting.common.Parameters;
+
+/**
+ * Copyright (c) 2007-2008,
+ * Koushik Sen    <ksen@cs.berkeley.edu>
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * <p/>
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * <p/>
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * <p/>
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class InstrumentationCache {
+    private static final String INDEX = "index";
+    private static final String CLASSES = "classes";
+
+    static class Entry implements Serializable {
+        String digest;
+        int iidBase;
+        int iidSize;
+        ArrayList<String> lines;
+    }
+
+    static class Index implements Serializable {
+        String key;
+        int nextIid;
+        HashMap<String, Entry> entries = new HashMap<String, Entry>();
+        HashMap<String, Integer> symbols = new HashMap<String, Integer>();
+    }
+
+    private final String[] args;
+    private final File dir;
+
+    public InstrumentationCache(String[] args) {
+        this.args = args;
+        // run.xml passes on ant's user.dir, which File.mkdirs resolves against where
+        // the streams use the working directory, so a relative cache must be resolved once
+        this.dir = new File(Parameters.instrCache).getAbsoluteFile();
+    }
+
+    /**
+     * Like sharding, caching needs the classes up front and cannot be
+     * combined with whole-program analyses.
+     */
+    public static boolean canCache(String[] args) {
+        return !Parameters.instrCache.equals("") && !Parameters.escapeAnalysis && !Parameters.mayRaceAnalysis
+                && !Parameters.lockOrderAnalysis
+                && Arrays.asList(args).contains("-process-dir");
+    }
+
+    /**
+     * Instruments only the -process-dir classes whose bytes changed since
+     * the last run with the same options, and copies the cached output of
+     * the others to the -d directory. A class keeps its iid range for as
+     * long as its iid bound fits in it, and symbol ids never change, so
+     * cached classes stay valid next to re-instrumented ones. Any change
+     * to a class hierarchy or to which methods are synchronized changes
+     * the key of the whole cache, since other classes were instrumented
+     * against it.
+     */
+    public void run(TransformClass processor, Visitor visitor) {
+        List<String> excludes = new ArrayList<String>();
+        List<String> inputs = new ArrayList<String>();
+        List<String> sootArgs = new ArrayList<String>();
+        String outDir = "sootOutput";
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-process-dir")) {
+                inputs.add(args[++i]);
+            } else if (args[i].equals("--app") || args[i].equals("-app")) {
+                // only the changed classes are application classes
+            } else if (i == args.length - 1) {
+                // the main class, which run.xml passes last
+            } else {
+                if (args[i].equals("-x") || args[i].equals("-exclude")) {
+                    excludes.add(args[i + 1]);
+                } else if (args[i].equals("-d") || args[i].equals("-output-dir")) {
+                    outDir = args[i + 1];
+                }
+                sootArgs.add(args[i]);
+            }
+        }
+
+        ShardPlan plan = new ShardPlan(excludes);
+        try {
+            for (String input : inputs) {
+                plan.addInput(new File(input));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+        List<ClassScanner> classes = plan.getClasses();
+        long total = 0;
+        for (ClassScanner c : classes) {
+            total += c.getIidBound();
+        }
+
+        String key = key(sootArgs, classes, visitor);
+        Index index = load();
+        // start over when the options changed or abandoned ranges waste half the iids
+        if (index == null || !index.key.equals(key) || index.nextIid > 2 * total) {
+            index = new Index();
+            index.key = key;
+            deleteAll(new File(dir, CLASSES));
+        }
+
+        Map<String, int[]> ranges = new HashMap<String, int[]>();
+        List<String> changed = new ArrayList<String>();
+        Set<String> present = new HashSet<String>();
+        for (ClassScanner c : classes) {
+            String name = c.getClassName();
+            String digest = ClassScanner.digest(c.getBytes());
+            present.add(name);
+            Entry e = index.entries.get(name);
+            if (e != null && e.digest.equals(digest) && cached(name).exists()) {
+                continue;
+            }
+            if (e == null || e.iidSize < c.getIidBound()) {
+                e = new Entry();
+                e.iidBase = index.nextIid;
+                e.iidSize = c.getIidBound();
+                index.nextIid += e.iidSize;
+                index.entries.put(name, e);
+            }
+            e.digest = digest;
+            ranges.put(name, new int[]{e.iidBase, e.iidBase + e.iidSize});
+            changed.add(name);
+        }
+        System.out.println("Instrumentation cache: reusing " + (classes.size() - changed.size())
+                + " of " + classes.size() + " classes");
+
+        Visitor.putSymbols(index.symbols);
+        if (!changed.isEmpty()) {
+            Visitor.setClassIidRanges(ranges);
+            // the unchanged classes are not loaded as application classes
+            Visitor.setPartialProgram(true);
+            List<String> argl = new ArrayList<String>(sootArgs);
+            argl.addAll(changed);
+            processor.processAllAtOnce(argl.toArray(new String[argl.size()]), visitor);
+            Visitor.setClassIidRanges(null);
+            for (String name : changed) {
+                Entry e = index.entries.get(name);
+                e.lines = new ArrayList<String>(Visitor.getIidLines(e.iidBase, e.iidSize));
+                copy(output(outDir, name), cached(name));
+            }
+        }
+
+        for (Iterator<Map.Entry<String, Entry>> it = index.entries.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<String, Entry> me = it.next();
+            if (!present.contains(me.getKey())) {
+                cached(me.getKey()).delete();
+                it.remove();
+            } else if (!ranges.containsKey(me.getKey())) {
+                copy(cached(me.getKey()), output(outDir, me.getKey()));
+                Visitor.putIidLines(me.getValue().iidBase, me.getValue().lines);
+            }
+        }
+        Visitor.putIidLines(index.nextIid, new ArrayList<String>());
+        index.symbols = new HashMap<String, Integer>(Visitor.getSymbols());
+        save(index);
+    }
+
+    private File cached(String className) {
+        return new File(new File(dir, CLASSES), className + ".class");
+    }
+
+    private static File output(String outDir, String className) {
+        return new File(outDir, className.replace('.', File.separatorChar) + ".class");
+    }
+
+    /**
+     * Everything besides a class's own bytes that its instrumentation
+     * depends on: the instrumentor options, the instrumented events, the
+     * instrumentor itself, and the supertypes and synchronized methods of
+     * every class.
+     */
+    private static String key(List<String> sootArgs, List<ClassScanner> classes, Visitor visitor) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            for (String arg : sootArgs) {
+                out.write((arg + "\n").getBytes("UTF-8"));
+            }
+            // leaving out those that only name the inputs and where things go, as the
+            // classes themselves are compared below
+            for (String p : new TreeSet<String>(System.getProperties().stringPropertyNames())) {
+                if (p.startsWith("javato.") && !p.startsWith("javato.instr.")
+                        && !p.startsWith("javato.activetesting.") && !p.startsWith("javato.app.")
+                        && !p.equals("javato.work.dir") && !p.equals("javato.home.dir")) {
+                    out.write((p + "=" + System.getProperty(p) + "\n").getBytes("UTF-8"));
+                }
+            }
+            out.write(("events=" + EventKind.forInstrumentation() + "\n").getBytes("UTF-8"));
+            for (Class c = visitor.getClass(); c != Object.class; c = c.getSuperclass()) {
+                InputStream in = c.getResourceAsStream("/" + c.getName().replace('.', '/') + ".class");
+                if (in != null) {
+                    copy(in, out);
+                }
+            }
+            for (ClassScanner c : classes) {
+                out.write(c.getSummary().getBytes("UTF-8"));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+        return ClassScanner.digest(out.toByteArray());
+    }
+
+    private Index load() {
+        File f = new File(dir, INDEX);
+        if (!f.exists()) {
+            return null;
+        }
+        try {
+            ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(f)));
+            try {
+                return (Index) in.readObject();
+            } finally {
+                in.close();
+            }
+        } catch (Exception e) {
+            System.err.println("Ignoring unreadable instrumentation cache " + f + ": " + e);
+            return null;
+        }
+    }
+
+    private void save(Index index) {
+        dir.mkdirs();
+        try {
+            ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(new File(dir, INDEX))));
+            out.writeObject(index);
+            out.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    private static void copy(File from, File to) {
+        to.getParentFile().mkdirs();
+        try {
+            InputStream in = new FileInputStream(from);
+            OutputStream out = new FileOutputStream(to);
+            try {
+                copy(in, out);
+            } finally {
+                in.close();
+                out.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Error while copying " + from + " to " + to);
+            System.exit(1);
+        }
+    }
+
+    private static void copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buf = new byte[8192];
+        int n;
+        while ((n = in.read(buf)) > 0) {
+            out.write(buf, 0, n);
+        }
+    }
+
+    private static void deleteAll(File f) {
+        File[] list = f.listFiles();
+        if (list != null) {
+            for (File aList : list) {
+                deleteAll(aList);
+            }
+        }
+        f.delete();
+    }
+}
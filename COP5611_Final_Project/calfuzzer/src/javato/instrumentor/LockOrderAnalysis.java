@@ -0,0 +1,472 @@
+package javato.instrumentor;
+
+import javato.activetesting.common.Parameters;
+import soot.Body;
+import soot.Local;
+import soot.MethodOrMethodContext;
+import soot.PointsToAnalysis;
+import soot.RefType;
+import soot.Scene;
+import soot.SceneTransformer;
+import soot.SootClass;
+import soot.SootMethod;
+import soot.Unit;
+import soot.Value;
+import soot.jimple.AssignStmt;
+import soot.jimple.ClassConstant;
+import soot.jimple.EnterMonitorStmt;
+import soot.jimple.ExitMonitorStmt;
+import soot.jimple.InstanceInvokeExpr;
+import soot.jimple.MonitorStmt;
+import soot.jimple.Stmt;
+import soot.jimple.spark.pag.AllocNode;
+import soot.jimple.spark.pag.Node;
+import soot.jimple.spark.pag.PAG;
+import soot.jimple.spark.sets.P2SetVisitor;
+import soot.jimple.spark.sets.PointsToSetInternal;
+import soot.jimple.toolkits.callgraph.CallGraph;
+import soot.jimple.toolkits.callgraph.Edge;
+import soot.jimple.toolkits.callgraph.Kind;
+import soot.toolkits.graph.ExceptionalUnitGraph;
+import soot.toolkits.graph.UnitGraph;
+import soot.toolkits.scalar.ForwardFlowAnalysis;
+import soot.toolkits.scalar.SimpleLocalDefs;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Copyright (c) 2007-2008,
+ * Koushik Sen    <ksen@cs.berkeley.edu>
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * <p/>
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * <p/>
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * <p/>
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class LockOrderAnalysis extends SceneTransformer {
+    private static LockOrderAnalysis instance = new LockOrderAnalysis();
+
+    // a lock Spark knows nothing about; it may be any other lock
+    private static final String UNKNOWN = "unknown";
+    // a Class object Spark cannot tell apart from the others; it may be any "class:" lock
+    private static final String CLASS_OBJECT = "class";
+
+    private PAG pag;
+    private CallGraph cg;
+    // the abstract locks of every monitor statement and synchronized method of the application classes
+    private final Map<Object, Set<Object>> locksOf = new HashMap<Object, Set<Object>>();
+    // lock -> the locks that may be acquired while it is held
+    private final Map<Object, Set<Object>> order = new HashMap<Object, Set<Object>>();
+    private final Set<Object> cyclic = new HashSet<Object>();
+    // the cyclic locks and those that may be held while one of them is
+    // acquired, which iGoodlock needs to tell a guarded cycle from a deadlock
+    private final Set<Object> needed = new HashSet<Object>();
+    private int sites;
+    private int prunedSites;
+
+    private LockOrderAnalysis() {
+    }
+
+    public static LockOrderAnalysis v() {
+        return instance;
+    }
+
+    /**
+     * Builds the order in which the application acquires its locks: an edge
+     * from l1 to l2 for every synchronized block or synchronized method that
+     * may lock l2 while l1 is held, directly or in any method called meanwhile,
+     * and for every call to a synchronized library method made holding l1.
+     * Locks are Spark allocation sites and class objects. A lock site whose
+     * locks are on no cycle of at most javato.deadlock.cycle.length edges
+     * (any length if 0), and are never held while a lock on such a cycle is
+     * acquired, cannot change what the goodlock analyses report, so it needs
+     * no lock events. Needs Spark, i.e. -w -p cg.spark enabled:true.
+     */
+    protected void internalTransform(String phaseName, Map options) {
+        locksOf.clear();
+        order.clear();
+        cyclic.clear();
+        needed.clear();
+        PointsToAnalysis pta = Scene.v().getPointsToAnalysis();
+        if (!(pta instanceof PAG)) {
+            System.err.println("Lock-order analysis needs Spark points-to sets; instrumenting all lock sites");
+            pag = null;
+            return;
+        }
+        pag = (PAG) pta;
+        cg = Scene.v().getCallGraph();
+
+        // the locks each application method takes itself, and the calls it makes holding a lock
+        Map<SootMethod, Set<Object>> acquired = new HashMap<SootMethod, Set<Object>>();
+        List<Object[]> heldCalls = new ArrayList<Object[]>();
+        for (Iterator cit = Scene.v().getApplicationClasses().iterator(); cit.hasNext();) {
+            SootClass c = (SootClass) cit.next();
+            for (Iterator mit = new ArrayList(c.getMethods()).iterator(); mit.hasNext();) {
+                SootMethod m = (SootMethod) mit.next();
+                if (m.isConcrete()) {
+                    collect(m, acquired, heldCalls);
+                }
+            }
+        }
+
+        // what the methods called with a lock held may acquire, transitively
+        Set<SootMethod> reachable = new HashSet<SootMethod>();
+        LinkedList<SootMethod> work = new LinkedList<SootMethod>();
+        for (Object[] call : heldCalls) {
+            for (Iterator it = cg.edgesOutOf((Unit) call[1]); it.hasNext();) {
+                Edge e = (Edge) it.next();
+                if (isSynchronous(e) && reachable.add(e.tgt())) work.add(e.tgt());
+            }
+        }
+        while (!work.isEmpty()) {
+            SootMethod m = work.removeFirst();
+            for (Iterator it = cg.edgesOutOf(m); it.hasNext();) {
+                Edge e = (Edge) it.next();
+                if (isSynchronous(e) && reachable.add(e.tgt())) work.add(e.tgt());
+            }
+        }
+        work.addAll(reachable);
+        while (!work.isEmpty()) {
+            SootMethod m = work.removeFirst();
+            Set<Object> locks = acquired.get(m);
+            if (locks == null) continue;
+            for (Iterator it = cg.edgesInto(m); it.hasNext();) {
+                Edge e = (Edge) it.next();
+                SootMethod caller = e.src();
+                if (!isSynchronous(e) || !reachable.contains(caller)) continue;
+                Set<Object> callerLocks = acquired.get(caller);
+                if (callerLocks == null) {
+                    callerLocks = new HashSet<Object>();
+                    acquired.put(caller, callerLocks);
+                }
+                if (callerLocks.addAll(locks)) work.add(caller);
+            }
+        }
+        for (Object[] call : heldCalls) {
+            for (Iterator it = cg.edgesOutOf((Unit) call[1]); it.hasNext();) {
+                Edge e = (Edge) it.next();
+                Set<Object> locks = acquired.get(e.tgt());
+                if (isSynchronous(e) && locks != null) {
+                    addOrder((Set<Object>) call[0], locks);
+                }
+            }
+        }
+
+        Set<Object> all = new HashSet<Object>(order.keySet());
+        for (Set<Object> succs : order.values()) {
+            all.addAll(succs);
+        }
+        Set<Object> classLocks = new HashSet<Object>();
+        for (Object lock : all) {
+            if (lock instanceof String && ((String) lock).startsWith("class:")) classLocks.add(lock);
+        }
+        mayBeAnyOf(CLASS_OBJECT, classLocks);
+        mayBeAnyOf(UNKNOWN, all);
+        for (Object lock : all) {
+            if (onShortCycle(lock)) cyclic.add(lock);
+        }
+        needed.addAll(cyclic);
+        for (Map.Entry<Object, Set<Object>> entry : order.entrySet()) {
+            if (!Collections.disjoint(entry.getValue(), cyclic)) needed.add(entry.getKey());
+        }
+        System.out.println("Lock-order analysis: " + cyclic.size() + " of " + all.size()
+                + " nested locks may be on a lock cycle, " + (needed.size() - cyclic.size())
+                + " more guard one");
+    }
+
+    private void collect(SootMethod m, Map<SootMethod, Set<Object>> acquired, List<Object[]> heldCalls) {
+        Body body = m.retrieveActiveBody();
+        UnitGraph graph = new ExceptionalUnitGraph(body);
+        SimpleLocalDefs defs = new SimpleLocalDefs(graph);
+        Set<Object> own = Collections.emptySet();
+        if (m.isSynchronized()) {
+            own = m.isStatic() ? lockOfClass(m.getDeclaringClass().getName())
+                    : locksOf(body.getThisLocal(), null, null);
+            locksOf.put(m, own);
+        }
+        Set<Object> direct = new HashSet<Object>(own);
+        for (Iterator it = body.getUnits().iterator(); it.hasNext();) {
+            Stmt s = (Stmt) it.next();
+            if (s instanceof MonitorStmt) {
+                Set<Object> locks = locksOf(((MonitorStmt) s).getOp(), s, defs);
+                locksOf.put(s, locks);
+                if (s instanceof EnterMonitorStmt) direct.addAll(locks);
+            } else if (s.containsInvokeExpr()) {
+                Set<Object> locks = libraryLocksOf(s, defs);
+                if (!locks.isEmpty()) {
+                    locksOf.put(s, locks);
+                    direct.addAll(locks);
+                }
+            }
+        }
+        if (direct.isEmpty()) return;
+        acquired.put(m, direct);
+
+        HeldMonitors held = new HeldMonitors(graph);
+        for (Iterator it = body.getUnits().iterator(); it.hasNext();) {
+            Stmt s = (Stmt) it.next();
+            Set<Object> holding = new HashSet<Object>(own);
+            for (Iterator hit = ((Set) held.getFlowBefore(s)).iterator(); hit.hasNext();) {
+                holding.addAll(locksOf.get(hit.next()));
+            }
+            if (holding.isEmpty()) continue;
+            if (s instanceof EnterMonitorStmt) {
+                addOrder(holding, locksOf.get(s));
+            } else if (s.containsInvokeExpr()) {
+                // the calls into the application are followed later
+                if (locksOf.containsKey(s)) addOrder(holding, locksOf.get(s));
+                heldCalls.add(new Object[]{holding, s});
+            }
+        }
+    }
+
+    /*
+     * The locks that the synchronized library methods a call at s may enter
+     * take: those of the receiver, or the class lock of a static method. The
+     * bodies of library methods are not analyzed, so these are the only locks
+     * they are known to take.
+     */
+    private Set<Object> libraryLocksOf(Stmt s, SimpleLocalDefs defs) {
+        Set<Object> locks = new HashSet<Object>();
+        for (Iterator it = cg.edgesOutOf(s); it.hasNext();) {
+            Edge e = (Edge) it.next();
+            SootMethod target = e.tgt();
+            if (!isSynchronous(e) || !target.isSynchronized() || target.getDeclaringClass().isApplicationClass()) {
+                continue;
+            }
+            if (target.isStatic()) {
+                locks.addAll(lockOfClass(target.getDeclaringClass().getName()));
+            } else if (s.getInvokeExpr() instanceof InstanceInvokeExpr) {
+                locks.addAll(locksOf(((InstanceInvokeExpr) s.getInvokeExpr()).getBase(), s, defs));
+            } else {
+                locks.add(UNKNOWN);
+            }
+        }
+        return locks;
+    }
+
+    // threads started and finalizers run while the lock is held do not hold it
+    private static boolean isSynchronous(Edge e) {
+        return e.kind() != Kind.THREAD && e.kind() != Kind.FINALIZE;
+    }
+
+    private static Set<Object> lockOfClass(String className) {
+        Set<Object> locks = new HashSet<Object>();
+        locks.add("class:" + className);
+        return locks;
+    }
+
+    // the abstract locks a monitor statement at s (or, without s, a synchronized method) takes
+    private Set<Object> locksOf(Value v, Unit s, SimpleLocalDefs defs) {
+        if (v instanceof ClassConstant) {
+            return lockOfClass(((ClassConstant) v).getValue().replace('/', '.'));
+        }
+        final Set<Object> locks = new HashSet<Object>();
+        if (!(v instanceof Local)) {
+            locks.add(UNKNOWN);
+            return locks;
+        }
+        if (defs != null) {
+            List d = defs.getDefsOfAt((Local) v, s);
+            if (d.size() == 1 && d.get(0) instanceof AssignStmt
+                    && ((AssignStmt) d.get(0)).getRightOp() instanceof ClassConstant) {
+                return locksOf(((AssignStmt) d.get(0)).getRightOp(), s, defs);
+            }
+        }
+        PointsToSetInternal p = (PointsToSetInternal) pag.reachingObjects((Local) v);
+        if (p.isEmpty()) {
+            locks.add(UNKNOWN);
+            return locks;
+        }
+        final RefType classType = RefType.v("java.lang.Class");
+        p.forall(new P2SetVisitor() {
+            public void visit(Node n) {
+                if (!(n instanceof AllocNode)) {
+                    locks.add(UNKNOWN);
+                } else if (classType.equals(n.getType())) {
+                    locks.add(CLASS_OBJECT);
+                } else {
+                    locks.add(n);
+                }
+            }
+        });
+        return locks;
+    }
+
+    private void addOrder(Set<Object> held, Set<Object> acquiredLocks) {
+        for (Object h : held) {
+            Set<Object> succs = order.get(h);
+            if (succs == null) {
+                succs = new HashSet<Object>();
+                order.put(h, succs);
+            }
+            succs.addAll(acquiredLocks);
+        }
+    }
+
+    // a lock that may be any of the given ones gets their edges too
+    private void mayBeAnyOf(Object lock, Set<Object> locks) {
+        Set<Object> succs = order.get(lock);
+        for (Map.Entry<Object, Set<Object>> entry : new ArrayList<Map.Entry<Object, Set<Object>>>(order.entrySet())) {
+            if (entry.getValue().contains(lock)) entry.getValue().addAll(locks);
+        }
+        if (succs == null) return;
+        for (Object other : locks) {
+            addOrder(Collections.<Object>singleton(other), succs);
+        }
+    }
+
+    // a cycle through two objects from one allocation site is a self-loop here
+    private boolean onShortCycle(Object lock) {
+        int bound = Parameters.deadlockCycleLength;
+        Set<Object> seen = new HashSet<Object>();
+        Set<Object> frontier = new HashSet<Object>();
+        frontier.add(lock);
+        for (int i = 0; !frontier.isEmpty() && (bound <= 0 || i < bound); i++) {
+            Set<Object> next = new HashSet<Object>();
+            for (Object l : frontier) {
+                Set<Object> succs = order.get(l);
+                if (succs == null) continue;
+                if (succs.contains(lock)) return true;
+                for (Object succ : succs) {
+                    if (seen.add(succ)) next.add(succ);
+                }
+            }
+            frontier = next;
+        }
+        return false;
+    }
+
+    private boolean mayBeNeeded(Set<Object> locks) {
+        if (locks == null || locks.contains(UNKNOWN)) return true;
+        for (Object lock : locks) {
+            if (needed.contains(lock)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * True if the lock events of s can be left out: s is an entermonitor or
+     * exitmonitor whose lock is on no short cycle and guards none (an enter
+     * and its exits use the same local, so they agree), or a call whose every
+     * synchronized target is such a method. The lock stack a call pushes is read by the
+     * myLockAfter of the callee, so the two are pruned together.
+     */
+    public boolean cannotDeadlock(Stmt s) {
+        sites++;
+        if (pag == null) return false;
+        boolean pruned;
+        if (s instanceof MonitorStmt) {
+            pruned = !mayBeNeeded(locksOf.get(s));
+        } else if (!(s.getInvokeExpr() instanceof InstanceInvokeExpr)) {
+            pruned = !mayBeNeeded(lockOfClass(s.getInvokeExpr().getMethod().getDeclaringClass().getName()));
+        } else {
+            pruned = false;
+            for (Iterator it = cg.edgesOutOf(s); it.hasNext();) {
+                SootMethod target = ((Edge) it.next()).tgt();
+                if (!target.isSynchronized()) continue;
+                Set<Object> locks = target.getDeclaringClass().isApplicationClass() ? locksOf.get(target)
+                        : locksOf(((InstanceInvokeExpr) s.getInvokeExpr()).getBase(), null, null);
+                if (mayBeNeeded(locks)) return false;
+                pruned = true;
+            }
+        }
+        if (pruned) prunedSites++;
+        return pruned;
+    }
+
+    /**
+     * True if the synchronized method m takes no lock that may be on a short
+     * cycle or guard one, so its body needs no myLockAfter.
+     */
+    public boolean cannotDeadlock(SootMethod m) {
+        sites++;
+        if (pag == null || mayBeNeeded(locksOf.get(m))) return false;
+        prunedSites++;
+        return true;
+    }
+
+    public void printStatistics() {
+        System.out.println("Lock-order analysis: skipped " + prunedSites + " of " + sites
+                + " lock sites that cannot be on a deadlock cycle");
+    }
+
+    /**
+     * The entermonitor statements that may be held before each statement of
+     * a method; an exitmonitor releases the ones on its local.
+     */
+    private static final class HeldMonitors extends ForwardFlowAnalysis {
+        HeldMonitors(UnitGraph graph) {
+            super(graph);
+            doAnalysis();
+        }
+
+        protected Object newInitialFlow() {
+            return new HashSet<Unit>();
+        }
+
+        protected Object entryInitialFlow() {
+            return new HashSet<Unit>();
+        }
+
+        protected void flowThrough(Object in, Object unit, Object out) {
+            Set<Unit> dest = (Set<Unit>) out;
+            copy(in, out);
+            if (unit instanceof EnterMonitorStmt) {
+                dest.add((Unit) unit);
+            } else if (unit instanceof ExitMonitorStmt) {
+                Value op = ((ExitMonitorStmt) unit).getOp();
+                for (Iterator<Unit> it = dest.iterator(); it.hasNext();) {
+                    if (((EnterMonitorStmt) it.next()).getOp() == op) it.remove();
+                }
+            }
+        }
+
+        protected void merge(Object in1, Object in2, Object out) {
+            Set<Unit> dest = (Set<Unit>) out;
+            if (dest == in2) {
+                dest.addAll((Set<Unit>) in1);
+            } else {
+                copy(in1, out);
+                dest.addAll((Set<Unit>) in2);
+            }
+        }
+
+        protected void copy(Object source, Object dest) {
+            if (source == dest) return;
+            ((Set) dest).clear();
+            ((Set) dest).addAll((Set) source);
+        }
+    }
+}
@@ -0,0 +1,363 @@
+package javato.instrumentor;
+
+import soot.Body;
+import soot.Local;
+import soot.Modifier;
+import soot.PointsToAnalysis;
+import soot.PointsToSet;
+import soot.PrimType;
+import soot.Scene;
+import soot.SceneTransformer;
+import soot.SootClass;
+import soot.SootField;
+import soot.SootMethod;
+import soot.Type;
+import soot.Unit;
+import soot.Value;
+import soot.ValueBox;
+import soot.jimple.ArrayRef;
+import soot.jimple.AssignStmt;
+import soot.jimple.ClassConstant;
+import soot.jimple.EnterMonitorStmt;
+import soot.jimple.ExitMonitorStmt;
+import soot.jimple.FieldRef;
+import soot.jimple.InstanceFieldRef;
+import soot.jimple.StaticFieldRef;
+import soot.jimple.Stmt;
+import soot.toolkits.graph.BriefUnitGraph;
+import soot.toolkits.graph.UnitGraph;
+import soot.toolkits.scalar.ForwardFlowAnalysis;
+import soot.toolkits.scalar.SimpleLocalDefs;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Copyright (c) 2007-2008,
+ * Koushik Sen    <ksen@cs.berkeley.edu>
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * <p/>
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * <p/>
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * <p/>
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class MayRaceAnalysis extends SceneTransformer {
+    private static MayRaceAnalysis instance = new MayRaceAnalysis();
+
+    // stands in an access's lockset for the lock of the object the accessed location is in
+    private static final String SELF = "self";
+    // the accesses to elements of arrays of references, which may alias each other whatever their static types
+    private static final Object REF_ARRAYS = new Object();
+
+    private static final class Access {
+        final Stmt stmt;
+        final Local base;
+        final boolean write;
+        final Set<String> locks;
+
+        Access(Stmt stmt, Local base, boolean write, Set<String> locks) {
+            this.stmt = stmt;
+            this.base = base;
+            this.write = write;
+            this.locks = locks;
+        }
+    }
+
+    private PointsToAnalysis pta;
+    private final Set<Unit> analyzed = new HashSet<Unit>();
+    private final Set<Unit> mayRace = new HashSet<Unit>();
+    private int sites;
+    private int prunedSites;
+
+    private MayRaceAnalysis() {
+    }
+
+    public static MayRaceAnalysis v() {
+        return instance;
+    }
+
+    /**
+     * Finds the field and array accesses of the application classes that may
+     * be part of a race: a pair of accesses, one of them a write, that may
+     * touch the same location of an object escaping its thread (or a static
+     * field) and hold no common lock. The locks an access holds are those of
+     * the synchronized blocks and methods around it in its own method, as far
+     * as they are known to be the same object wherever taken: class objects,
+     * objects in static final fields and the object the accessed location is
+     * in. Final fields, volatile fields and the statics a class initializer
+     * sets are left out, the latter two as they never race and the analyses
+     * need to see volatile accesses. Runs after ThreadEscapeAnalysis, in
+     * whole-program mode with Spark enabled.
+     */
+    protected void internalTransform(String phaseName, Map options) {
+        analyzed.clear();
+        mayRace.clear();
+        pta = Scene.v().getPointsToAnalysis();
+        Map<Object, List<Access>> byLocation = new HashMap<Object, List<Access>>();
+        for (Iterator cit = Scene.v().getApplicationClasses().iterator(); cit.hasNext();) {
+            SootClass c = (SootClass) cit.next();
+            for (Iterator mit = new ArrayList(c.getMethods()).iterator(); mit.hasNext();) {
+                SootMethod m = (SootMethod) mit.next();
+                if (m.isConcrete()) {
+                    collect(m, byLocation);
+                }
+            }
+        }
+        for (List<Access> accesses : byLocation.values()) {
+            for (int i = 0; i < accesses.size(); i++) {
+                Access a = accesses.get(i);
+                for (int j = i; j < accesses.size(); j++) {
+                    Access b = accesses.get(j);
+                    if ((a.write || b.write) && mayAlias(a, b) && !commonLock(a, b)) {
+                        mayRace.add(a.stmt);
+                        mayRace.add(b.stmt);
+                    }
+                }
+            }
+        }
+        System.out.println("Static race analysis: " + mayRace.size() + " of " + analyzed.size()
+                + " field and array access sites may race");
+    }
+
+    private void collect(SootMethod m, Map<Object, List<Access>> byLocation) {
+        Body body = m.retrieveActiveBody();
+        UnitGraph graph = new BriefUnitGraph(body);
+        HeldLocks held = new HeldLocks(graph, m);
+        for (Iterator it = body.getUnits().iterator(); it.hasNext();) {
+            Stmt s = (Stmt) it.next();
+            if (!(s instanceof AssignStmt)) continue;
+            Value left = ((AssignStmt) s).getLeftOp();
+            Value right = ((AssignStmt) s).getRightOp();
+            boolean write = left instanceof FieldRef || left instanceof ArrayRef;
+            Value ref = write ? left : right;
+            if (!(ref instanceof FieldRef) && !(ref instanceof ArrayRef)) continue;
+
+            Object location;
+            Local base = null;
+            if (ref instanceof ArrayRef) {
+                // an int[] is never a long[] or an Object[]
+                Type t = ref.getType();
+                location = t instanceof PrimType ? t : REF_ARRAYS;
+                base = (Local) ((ArrayRef) ref).getBase();
+            } else {
+                SootField f = ((FieldRef) ref).getField();
+                if (Modifier.isVolatile(f.getModifiers())) continue;
+                location = f;
+                if (ref instanceof InstanceFieldRef) {
+                    base = (Local) ((InstanceFieldRef) ref).getBase();
+                }
+            }
+            analyzed.add(s);
+            if (ref instanceof FieldRef && Modifier.isFinal(((FieldRef) ref).getField().getModifiers())) {
+                continue;
+            }
+            if (ref instanceof StaticFieldRef && m.getName().equals("<clinit>")
+                    && m.getDeclaringClass() == ((FieldRef) ref).getField().getDeclaringClass()) {
+                continue;
+            }
+            if (base != null && !ThreadEscapeAnalysis.v().mayEscape(base)) {
+                continue;
+            }
+            Set<String> locks = new HashSet<String>();
+            for (Iterator lit = ((LockSet) held.getFlowBefore(s)).locks.iterator(); lit.hasNext();) {
+                Object lock = lit.next();
+                if (lock instanceof String) {
+                    locks.add((String) lock);
+                } else if (lock == base) {
+                    locks.add(SELF);
+                }
+            }
+            List<Access> accesses = byLocation.get(location);
+            if (accesses == null) {
+                accesses = new ArrayList<Access>();
+                byLocation.put(location, accesses);
+            }
+            accesses.add(new Access(s, base, write, locks));
+        }
+    }
+
+    // bases that Spark knows nothing about, e.g. in methods it found unreachable, alias anything
+    private boolean mayAlias(Access a, Access b) {
+        if (a.base == null || b.base == null) {
+            return true;
+        }
+        PointsToSet p = pta.reachingObjects(a.base);
+        PointsToSet q = pta.reachingObjects(b.base);
+        return p.isEmpty() || q.isEmpty() || p.hasNonEmptyIntersection(q);
+    }
+
+    private static boolean commonLock(Access a, Access b) {
+        for (String lock : a.locks) {
+            if (b.locks.contains(lock)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * True if the access at s was analyzed and found never to be part of a
+     * race, so it needs no read/write events.
+     */
+    public boolean cannotRace(Stmt s) {
+        sites++;
+        if (analyzed.contains(s) && !mayRace.contains(s)) {
+            prunedSites++;
+            return true;
+        }
+        return false;
+    }
+
+    public void printStatistics() {
+        System.out.println("Static race analysis: skipped " + prunedSites + " of " + sites
+                + " field and array access sites that cannot race");
+    }
+
+    /**
+     * The locks certainly held before each statement of a method: a String
+     * for a class object or an object in a static final field, the local
+     * holding it for any other object.
+     */
+    private static final class HeldLocks extends ForwardFlowAnalysis {
+        private final SootMethod method;
+        private final SimpleLocalDefs defs;
+
+        HeldLocks(UnitGraph graph, SootMethod method) {
+            super(graph);
+            this.method = method;
+            this.defs = new SimpleLocalDefs(graph);
+            doAnalysis();
+        }
+
+        // what a monitor statement at s locks
+        private Object lockOf(Value v, Unit s) {
+            if (v instanceof ClassConstant) {
+                return "class:" + ((ClassConstant) v).getValue().replace('/', '.');
+            }
+            if (!(v instanceof Local)) {
+                return null;
+            }
+            List d = defs.getDefsOfAt((Local) v, s);
+            if (d.size() == 1 && d.get(0) instanceof AssignStmt) {
+                Value right = ((AssignStmt) d.get(0)).getRightOp();
+                if (right instanceof ClassConstant) {
+                    return "class:" + ((ClassConstant) right).getValue().replace('/', '.');
+                }
+                if (right instanceof StaticFieldRef) {
+                    SootField f = ((StaticFieldRef) right).getField();
+                    if (Modifier.isFinal(f.getModifiers())) {
+                        return "static:" + f.getSignature();
+                    }
+                }
+            }
+            return v;
+        }
+
+        protected Object newInitialFlow() {
+            return new LockSet(true);
+        }
+
+        protected Object entryInitialFlow() {
+            LockSet locks = new LockSet(false);
+            if (method.isSynchronized()) {
+                if (method.isStatic()) {
+                    locks.locks.add("class:" + method.getDeclaringClass().getName());
+                } else {
+                    locks.locks.add(method.getActiveBody().getThisLocal());
+                }
+            }
+            return locks;
+        }
+
+        protected void flowThrough(Object in, Object unit, Object out) {
+            LockSet dest = (LockSet) out;
+            dest.copyFrom((LockSet) in);
+            if (dest.all) return;
+            Stmt s = (Stmt) unit;
+            if (s instanceof EnterMonitorStmt) {
+                Object lock = lockOf(((EnterMonitorStmt) s).getOp(), s);
+                if (lock != null) dest.locks.add(lock);
+            } else if (s instanceof ExitMonitorStmt) {
+                dest.locks.remove(lockOf(((ExitMonitorStmt) s).getOp(), s));
+            }
+            for (Iterator it = s.getDefBoxes().iterator(); it.hasNext();) {
+                dest.locks.remove(((ValueBox) it.next()).getValue());
+            }
+        }
+
+        // a lock is held after a merge only if held on both paths
+        protected void merge(Object in1, Object in2, Object out) {
+            LockSet dest = (LockSet) out;
+            if (dest == in2) {
+                dest.retain((LockSet) in1);
+            } else {
+                dest.copyFrom((LockSet) in1);
+                dest.retain((LockSet) in2);
+            }
+        }
+
+        protected void copy(Object source, Object dest) {
+            ((LockSet) dest).copyFrom((LockSet) source);
+        }
+    }
+
+    // must-set of locks; "all" is the top element used before a unit is reached
+    private static final class LockSet {
+        private boolean all;
+        private final Set<Object> locks = new HashSet<Object>();
+
+        LockSet(boolean all) {
+            this.all = all;
+        }
+
+        void copyFrom(LockSet other) {
+            if (other == this) return;
+            all = other.all;
+            locks.clear();
+            locks.addAll(other.locks);
+        }
+
+        void retain(LockSet other) {
+            if (other.all) return;
+            if (all) {
+                copyFrom(other);
+            } else {
+                locks.retainAll(other.locks);
+            }
+        }
+
+        public boolean equals(Object o) {
+            return o instanceof LockSet && all == ((LockSet) o).all && locks.equals(((LockSet) o).locks);
+        }
+
+        public int hashCode() {
+            return all ? 1 : locks.hashCode();
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package javato.instrumentor;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import soot.Local;
+import soot.Modifier;
+import soot.SootField;
+import soot.Unit;
+import soot.Value;
+import soot.ValueBox;
+import soot.jimple.ArrayRef;
+import soot.jimple.AssignStmt;
+import soot.jimple.FieldRef;
+import soot.jimple.InstanceFieldRef;
+import soot.jimple.MonitorStmt;
+import soot.jimple.Stmt;
+import soot.toolkits.graph.DirectedGraph;
+import soot.toolkits.scalar.ForwardFlowAnalysis;
+
+/**
+ * Copyright (c) 2007-2008,
+ * Koushik Sen    <ksen@cs.berkeley.edu>
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * <p/>
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * <p/>
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * <p/>
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class RedundantAccessAnalysis extends ForwardFlowAnalysis {
+    private final Set<Unit> redundant = new HashSet<Unit>();
+    private int accesses;
+
+    /**
+     * Finds the field and array accesses in a method body that repeat an
+     * access of the same kind to the same base local and field (or index)
+     * with no monitor enter/exit, call or redefinition of the base in
+     * between on any path.  Such an access adds nothing to the read/write
+     * events the analyses have already seen for the current region.  Trap
+     * handlers start with nothing available, so the graph should be a
+     * BriefUnitGraph of the body before instrumentation.
+     */
+    public RedundantAccessAnalysis(DirectedGraph graph) {
+        super(graph);
+        doAnalysis();
+        for (Iterator it = graph.iterator(); it.hasNext();) {
+            Unit u = (Unit) it.next();
+            Access a = accessOf((Stmt) u);
+            if (a == null || a.isVolatile()) continue;
+            accesses++;
+            if (((AccessSet) getFlowBefore(u)).contains(a)) {
+                redundant.add(u);
+            }
+        }
+    }
+
+    public boolean isRedundant(Unit u) {
+        return redundant.contains(u);
+    }
+
+    public int getAccessCount() {
+        return accesses;
+    }
+
+    public int getRedundantCount() {
+        return redundant.size();
+    }
+
+    protected Object newInitialFlow() {
+        return new AccessSet(true);
+    }
+
+    protected Object entryInitialFlow() {
+        return new AccessSet(false);
+    }
+
+    protected void flowThrough(Object in, Object unit, Object out) {
+        AccessSet dest = (AccessSet) out;
+        dest.copyFrom((AccessSet) in);
+        Stmt s = (Stmt) unit;
+        // any call may lock, wait or notify, and a monitor ends the region
+        if (s instanceof MonitorStmt || s.containsInvokeExpr()) {
+            dest.clear();
+            return;
+        }
+        Access a = accessOf(s);
+        if (a != null) {
+            if (a.isVolatile()) {
+                dest.clear();
+                return;
+            }
+            dest.add(a);
+        }
+        for (Iterator it = s.getDefBoxes().iterator(); it.hasNext();) {
+            Value v = ((ValueBox) it.next()).getValue();
+            if (v instanceof Local) {
+                dest.killLocal(v);
+            }
+        }
+    }
+
+    protected void merge(Object in1, Object in2, Object out) {
+        AccessSet dest = (AccessSet) out;
+        if (dest == in2) {
+            dest.retain((AccessSet) in1);
+        } else {
+            dest.copyFrom((AccessSet) in1);
+            dest.retain((AccessSet) in2);
+        }
+    }
+
+    protected void copy(Object source, Object dest) {
+        ((AccessSet) dest).copyFrom((AccessSet) source);
+    }
+
+    private static Access accessOf(Stmt s) {
+        if (!(s instanceof AssignStmt)) return null;
+        AssignStmt as = (AssignStmt) s;
+        Value left = as.getLeftOp();
+        if (left instanceof FieldRef || left instanceof ArrayRef) {
+            return Access.of(left, true);
+        }
+        Value right = as.getRightOp();
+        if (right instanceof FieldRef || right instanceof ArrayRef) {
+            return Access.of(right, false);
+        }
+        return null;
+    }
+
+    private static final class Access {
+        final Value base;
+        final SootField field;
+        final Value index;
+        final boolean write;
+
+        private Access(Value base, SootField field, Value index, boolean write) {
+            this.base = base;
+            this.field = field;
+            this.index = index;
+            this.write = write;
+        }
+
+        static Access of(Value ref, boolean write) {
+            if (ref instanceof ArrayRef) {
+                ArrayRef ar = (ArrayRef) ref;
+                return new Access(ar.getBase(), null, ar.getIndex(), write);
+            }
+            FieldRef fr = (FieldRef) ref;
+            Value base = fr instanceof InstanceFieldRef ? ((InstanceFieldRef) fr).getBase() : null;
+            return new Access(base, fr.getField(), null, write);
+        }
+
+        boolean isVolatile() {
+            return field != null && Modifier.isVolatile(field.getModifiers());
+        }
+
+        boolean uses(Value local) {
+            return base == local || index == local;
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof Access)) return false;
+            Access a = (Access) o;
+            return base == a.base && field == a.field && write == a.write
+                    && (index == null ? a.index == null : index.equals(a.index));
+        }
+
+        public int hashCode() {
+            int h = System.identityHashCode(base) * 31 + System.identityHashCode(field);
+            return (h * 31 + (index == null ? 0 : index.hashCode())) * 2 + (write ? 1 : 0);
+        }
+    }
+
+    // must-set of accesses; "all" is the top element used before a unit is reached
+    private static final class AccessSet {
+        private boolean all;
+        private final Set<Access> set = new HashSet<Access>();
+
+        AccessSet(boolean all) {
+            this.all = all;
+        }
+
+        boolean contains(Access a) {
+            return all || set.contains(a);
+        }
+
+        void add(Access a) {
+            if (!all) set.add(a);
+        }
+
+        void clear() {
+            all = false;
+            set.clear();
+        }
+
+        void killLocal(Value local) {
+            if (all) return;
+            for (Iterator<Access> it = set.iterator(); it.hasNext();) {
+                if (it.next().uses(local)) it.remove();
+            }
+        }
+
+        void copyFrom(AccessSet other) {
+            if (other == this) return;
+            all = other.all;
+            set.clear();
+            set.addAll(other.set);
+        }
+
+        void retain(AccessSet other) {
+            if (other.all) return;
+            if (all) {
+                copyFrom(other);
+            } else {
+                set.retainAll(other.set);
+            }
+        }
+
+        public boolean equals(Object o) {
+            return o instanceof AccessSet && all == ((AccessSet) o).all && set.equals(((AccessSet) o).set);
+        }
+
+        public int hashCode() {
+            return all ? 1 : set.hashCode();
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package javato.instrumentor;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Copyright (c) 2007-2008,
+ * Koushik Sen    <ksen@cs.berkeley.edu>
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * <p/>
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * <p/>
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * <p/>
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class ShardPlan {
+    private final List<ClassScanner> classes = new ArrayList<ClassScanner>();
+    private final List<String> excludes;
+    private final List<Shard> shards = new ArrayList<Shard>();
+    private final Set<String> symbols = new TreeSet<String>();
+
+    public static class Shard {
+        private final int index;
+        private final int iidBase;
+        private int iidLimit;
+        private final List<String> classNames = new ArrayList<String>();
+
+        Shard(int index, int iidBase) {
+            this.index = index;
+            this.iidBase = iidBase;
+            this.iidLimit = iidBase;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public int getIidBase() {
+            return iidBase;
+        }
+
+        public int getIidLimit() {
+            return iidLimit;
+        }
+
+        public List<String> getClassNames() {
+            return classNames;
+        }
+    }
+
+    public ShardPlan(List<String> excludes) {
+        this.excludes = excludes;
+    }
+
+    /**
+     * Adds every class file under a directory, or in a jar or zip file,
+     * except those in an excluded package.
+     */
+    public void addInput(File f) throws IOException {
+        if (f.isDirectory()) {
+            File[] list = f.listFiles();
+            for (File aList : list) {
+                addInput(aList);
+            }
+        } else if (f.getName().endsWith(".class")) {
+            InputStream in = new FileInputStream(f);
+            try {
+                addClass(in);
+            } finally {
+                in.close();
+            }
+        } else if (f.getName().endsWith(".jar") || f.getName().endsWith(".zip")) {
+            ZipFile zip = new ZipFile(f);
+            try {
+                Enumeration<? extends ZipEntry> en = zip.entries();
+                while (en.hasMoreElements()) {
+                    ZipEntry e = en.nextElement();
+                    if (e.getName().endsWith(".class")) {
+                        addClass(zip.getInputStream(e));
+                    }
+                }
+            } finally {
+                zip.close();
+            }
+        }
+    }
+
+    public void addClass(InputStream in) throws IOException {
+        ClassScanner c = ClassScanner.scan(in);
+        for (String exclude : excludes) {
+            if (c.getClassName().startsWith(exclude)) {
+                return;
+            }
+        }
+        classes.add(c);
+    }
+
+    /**
+     * Splits the classes, sorted by name, into at most n runs of roughly
+     * equal iid bounds. Each shard owns the iids from its base up to the
+     * sum of its classes' bounds, so the result depends only on the input.
+     */
+    public List<Shard> partition(int n) {
+        shards.clear();
+        symbols.clear();
+        sortClasses();
+        long total = 0;
+        for (ClassScanner c : classes) {
+            total += c.getIidBound();
+            symbols.addAll(c.getSymbols());
+        }
+        n = Math.max(1, Math.min(n, classes.size()));
+        long target = (total + n - 1) / n;
+        Shard current = null;
+        int remaining = classes.size();
+        for (ClassScanner c : classes) {
+            boolean full = current != null && current.iidLimit - current.iidBase >= target
+                    && shards.size() < n;
+            // leave at least one class for every shard still to be opened
+            boolean needed = current != null && remaining <= n - shards.size();
+            if (current == null || full || needed) {
+                current = new Shard(shards.size(), current == null ? 0 : current.iidLimit);
+                shards.add(current);
+            }
+            current.classNames.add(c.getClassName());
+            current.iidLimit += c.getIidBound();
+            remaining--;
+        }
+        return shards;
+    }
+
+    public List<Shard> getShards() {
+        return shards;
+    }
+
+    /**
+     * Every class and field name the shards may look up, sorted, so that
+     * all shards give a name the same symbol id.
+     */
+    public List<String> getSymbols() {
+        return new ArrayList<String>(symbols);
+    }
+
+    /**
+     * The scanned classes in the order partition() puts them in.
+     */
+    public List<ClassScanner> getClasses() {
+        sortClasses();
+        return classes;
+    }
+
+    private void sortClasses() {
+        Collections.sort(classes, new Comparator<ClassScanner>() {
+            public int compare(ClassScanner a, ClassScanner b) {
+                return a.getClassName().compareTo(b.getClassName());
+            }
+        });
+    }
+
+    public int getClassCount() {
+        return classes.size();
+    }
+}
@@ -0,0 +1,223 @@
+package javato.instrumentor;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javato.activetesting.common.Parameters;
+
+/**
+ * Copyright (c) 2007-2008,
+ * Koushik Sen    <ksen@cs.berkeley.edu>
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * <p/>
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * <p/>
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * <p/>
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class ShardedInstrumentation {
+    private static final String SHARD_DIR = "tmpshards";
+    // names a shard may add to the symbol table beyond the pre-scanned ones
+    private static final int SYMBOLS_PER_SHARD = 1 << 16;
+
+    private static final String SHARD = "javato.instr.shard";
+    private static final String SHARD_CLASSES = "javato.instr.shard.classes";
+    private static final String SHARD_OUT = "javato.instr.shard.out";
+    private static final String SHARD_SYMBOLS = "javato.instr.shard.symbols";
+    private static final String SHARD_SYMBOL_BASE = "javato.instr.shard.symbol.base";
+    private static final String SHARD_IID_BASE = "javato.instr.shard.iid.base";
+    private static final String SHARD_IID_LIMIT = "javato.instr.shard.iid.limit";
+
+    private final String[] args;
+
+    public ShardedInstrumentation(String[] args) {
+        this.args = args;
+    }
+
+    public static boolean isShard() {
+        return System.getProperty(SHARD) != null;
+    }
+
+    /**
+     * Sharding needs the classes up front, i.e. -process-dir, and cannot be
+     * combined with whole-program analyses.
+     */
+    public static boolean canShard(String[] args) {
+        return Parameters.instrShards > 1 && !Parameters.escapeAnalysis && !Parameters.mayRaceAnalysis
+                && !Parameters.lockOrderAnalysis
+                && Arrays.asList(args).contains("-process-dir");
+    }
+
+    /**
+     * Instruments the classes under -process-dir in javato.instr.shards
+     * worker JVMs running mainClass, each on a disjoint iid range and with
+     * the same symbol ids for the pre-scanned names, then merges their
+     * iid-to-line maps and symbol tables into this JVM's Visitor.
+     */
+    public void run(String mainClass) {
+        List<String> excludes = new ArrayList<String>();
+        List<String> inputs = new ArrayList<String>();
+        List<String> shardArgs = new ArrayList<String>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-process-dir")) {
+                inputs.add(args[++i]);
+            } else if (args[i].equals("--app") || args[i].equals("-app")) {
+                // only the classes of the shard are application classes
+            } else if (i == args.length - 1) {
+                // the main class, which run.xml passes last
+            } else {
+                if (args[i].equals("-x") || args[i].equals("-exclude")) {
+                    excludes.add(args[i + 1]);
+                }
+                shardArgs.add(args[i]);
+            }
+        }
+
+        ShardPlan plan = new ShardPlan(excludes);
+        try {
+            for (String input : inputs) {
+                plan.addInput(new File(input));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+        List<ShardPlan.Shard> shards = plan.partition(Parameters.instrShards);
+        List<String> symbols = plan.getSymbols();
+        System.out.println("Instrumenting " + plan.getClassCount() + " classes in " + shards.size() + " shards");
+
+        File dir = new File(SHARD_DIR);
+        dir.mkdirs();
+        File symbolFile = new File(dir, "symbols");
+        writeLines(symbolFile, symbols);
+
+        List<Process> workers = new ArrayList<Process>();
+        try {
+            for (ShardPlan.Shard shard : shards) {
+                File classFile = new File(dir, "shard-" + shard.getIndex() + ".classes");
+                writeLines(classFile, shard.getClassNames());
+                List<String> cmd = new ArrayList<String>();
+                cmd.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+                cmd.add("-Xmx" + Parameters.instrShardHeap);
+                cmd.add("-cp");
+                cmd.add(System.getProperty("java.class.path"));
+                for (String key : System.getProperties().stringPropertyNames()) {
+                    if (key.startsWith("javato.")) {
+                        cmd.add("-D" + key + "=" + System.getProperty(key));
+                    }
+                }
+                cmd.add("-D" + SHARD + "=" + shard.getIndex());
+                cmd.add("-D" + SHARD_CLASSES + "=" + classFile.getPath());
+                cmd.add("-D" + SHARD_OUT + "=" + new File(dir, "shard-" + shard.getIndex() + ".out").getPath());
+                cmd.add("-D" + SHARD_SYMBOLS + "=" + symbolFile.getPath());
+                cmd.add("-D" + SHARD_SYMBOL_BASE + "=" + (symbols.size() + 1 + shard.getIndex() * SYMBOLS_PER_SHARD));
+                cmd.add("-D" + SHARD_IID_BASE + "=" + shard.getIidBase());
+                cmd.add("-D" + SHARD_IID_LIMIT + "=" + shard.getIidLimit());
+                cmd.add(mainClass);
+                cmd.addAll(shardArgs);
+                ProcessBuilder pb = new ProcessBuilder(cmd);
+                pb.redirectErrorStream(true);
+                pb.redirectOutput(new File(dir, "shard-" + shard.getIndex() + ".log"));
+                workers.add(pb.start());
+            }
+            boolean failed = false;
+            for (int i = 0; i < workers.size(); i++) {
+                if (workers.get(i).waitFor() != 0) {
+                    System.err.println("Shard " + i + " failed, see " + new File(dir, "shard-" + i + ".log"));
+                    failed = true;
+                }
+            }
+            if (failed) {
+                System.exit(1);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+
+        Visitor.setSymbols(symbols, symbols.size() + 1);
+        for (ShardPlan.Shard shard : shards) {
+            Visitor.loadShard(new File(dir, "shard-" + shard.getIndex() + ".out").getPath());
+        }
+    }
+
+    /**
+     * Body of a worker started by run(): instruments the classes of one
+     * shard and writes its part of the iid and symbol tables.
+     */
+    public static void runShard(String[] args, TransformClass processor, Visitor visitor) {
+        int symbolBase = Integer.getInteger(SHARD_SYMBOL_BASE);
+        Visitor.setSymbols(readLines(System.getProperty(SHARD_SYMBOLS)), symbolBase);
+        Visitor.setIidRange(Integer.getInteger(SHARD_IID_BASE), Integer.getInteger(SHARD_IID_LIMIT));
+        // subclasses in other shards are not loaded here
+        Visitor.setPartialProgram(true);
+        List<String> argl = new ArrayList<String>(Arrays.asList(args));
+        argl.addAll(readLines(System.getProperty(SHARD_CLASSES)));
+        processor.processAllAtOnce(argl.toArray(new String[argl.size()]), visitor);
+        if (Visitor.getSymbolTableSize() > symbolBase + SYMBOLS_PER_SHARD) {
+            System.err.println("Shard used more than " + SYMBOLS_PER_SHARD + " symbols of its own");
+            System.exit(1);
+        }
+        Visitor.dumpShard(System.getProperty(SHARD_OUT), symbolBase);
+    }
+
+    private static void writeLines(File file, List<String> lines) {
+        try {
+            PrintWriter pw = new PrintWriter(file);
+            for (String line : lines) {
+                pw.println(line);
+            }
+            pw.close();
+        } catch (IOException e) {
+            System.err.println("Error while writing to " + file);
+            System.exit(1);
+        }
+    }
+
+    private static List<String> readLines(String file) {
+        List<String> lines = new ArrayList<String>();
+        try {
+            BufferedReader in = new BufferedReader(new FileReader(file));
+            String line;
+            while ((line = in.readLine()) != null) {
+                lines.add(line);
+            }
+            in.close();
+        } catch (IOException e) {
+            System.err.println("Error while reading " + file);
+            System.exit(1);
+        }
+        return lines;
+    }
+}
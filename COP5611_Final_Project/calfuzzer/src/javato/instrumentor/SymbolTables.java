@@ -1,6 +1,8 @@
 package javato.instrumentor;
 
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Copyright (c) 2007-2008,
@@ -36,16 +38,55 @@ import java.util.HashMap;
  */
 public class SymbolTables {
     private HashMap<String,Integer> table = new HashMap<String,Integer>();
+    private int next = 1;
 
 
     public int get(String name) {
-        if (!table.containsKey(name)){
-            table.put(name,table.size()+1);
+        Integer id = table.get(name);
+        if (id == null) {
+            id = next++;
+            table.put(name, id);
         }
-        return table.get(name);
+        return id;
     }
     
     public int getSize(){
-    	return table.size()+1;
+    	return next;
+    }
+
+    /**
+     * Gives the names ids 1, 2, ... in order, so that separate instrumentor
+     * runs seeded with the same list agree on them.
+     */
+    public void preload(List<String> names) {
+        for (String name : names) {
+            get(name);
+        }
+    }
+
+    // names first seen after this are numbered from id on
+    public void setNextId(int id) {
+        next = id;
+    }
+
+    public Integer lookup(String name) {
+        return table.get(name);
+    }
+
+    public void put(String name, int id) {
+        table.put(name, id);
+        if (id >= next) {
+            next = id + 1;
+        }
+    }
+
+    public Map<String,Integer> entriesFrom(int id) {
+        Map<String,Integer> ret = new HashMap<String,Integer>();
+        for (Map.Entry<String,Integer> e : table.entrySet()) {
+            if (e.getValue() >= id) {
+                ret.put(e.getKey(), e.getValue());
+            }
+        }
+        return ret;
     }
 }
@@ -0,0 +1,225 @@
+package javato.instrumentor;
+
+import soot.ArrayType;
+import soot.Local;
+import soot.MethodOrMethodContext;
+import soot.PointsToAnalysis;
+import soot.PointsToSet;
+import soot.RefLikeType;
+import soot.RefType;
+import soot.Scene;
+import soot.SceneTransformer;
+import soot.SootClass;
+import soot.SootField;
+import soot.SootMethod;
+import soot.Type;
+import soot.Value;
+import soot.jimple.InstanceInvokeExpr;
+import soot.jimple.InvokeExpr;
+import soot.jimple.Stmt;
+import soot.jimple.spark.pag.AllocNode;
+import soot.jimple.spark.pag.Node;
+import soot.jimple.spark.pag.PAG;
+import soot.jimple.spark.sets.HashPointsToSet;
+import soot.jimple.spark.sets.P2SetVisitor;
+import soot.jimple.spark.sets.PointsToSetInternal;
+import soot.util.queue.QueueReader;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Copyright (c) 2007-2008,
+ * Koushik Sen    <ksen@cs.berkeley.edu>
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * <p/>
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * <p/>
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * <p/>
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class ThreadEscapeAnalysis extends SceneTransformer {
+    private static ThreadEscapeAnalysis instance = new ThreadEscapeAnalysis();
+
+    // library classes through which an object is handed to another thread
+    private static final String[] HANDOFF_PREFIXES = {
+            "java.util.concurrent.", "java.util.Timer", "java.awt.EventQueue", "javax.swing.SwingUtilities"
+    };
+
+    private PAG pag;
+    private final Set<AllocNode> escaping = new HashSet<AllocNode>();
+    private int sites;
+    private int threadLocalSites;
+
+    private ThreadEscapeAnalysis() {
+    }
+
+    public static ThreadEscapeAnalysis v() {
+        return instance;
+    }
+
+    /**
+     * Marks every allocation site whose objects may be seen by more than one
+     * thread: objects reachable from static fields, from started threads and
+     * their constructor arguments, and from anything handed to the
+     * java.util.concurrent library. Needs Spark, i.e. -w -p cg.spark enabled:true.
+     */
+    protected void internalTransform(String phaseName, Map options) {
+        escaping.clear();
+        PointsToAnalysis pta = Scene.v().getPointsToAnalysis();
+        if (!(pta instanceof PAG)) {
+            System.err.println("Thread-escape analysis needs Spark points-to sets; instrumenting all accesses");
+            pag = null;
+            return;
+        }
+        pag = (PAG) pta;
+        LinkedList<AllocNode> work = new LinkedList<AllocNode>();
+
+        for (Iterator it = Scene.v().getClasses().iterator(); it.hasNext();) {
+            SootClass c = (SootClass) it.next();
+            for (Iterator fit = c.getFields().iterator(); fit.hasNext();) {
+                SootField f = (SootField) fit.next();
+                if (f.isStatic() && f.getType() instanceof RefLikeType) {
+                    addEscaping(pag.reachingObjects(f), work);
+                }
+            }
+        }
+
+        QueueReader reachable = Scene.v().getReachableMethods().listener();
+        while (reachable.hasNext()) {
+            SootMethod m = ((MethodOrMethodContext) reachable.next()).method();
+            if (!m.hasActiveBody()) continue;
+            for (Iterator uit = m.getActiveBody().getUnits().iterator(); uit.hasNext();) {
+                Stmt s = (Stmt) uit.next();
+                if (!s.containsInvokeExpr()) continue;
+                InvokeExpr ie = s.getInvokeExpr();
+                if (!isHandoff(ie.getMethod())) continue;
+                if (ie instanceof InstanceInvokeExpr) {
+                    addEscaping(((InstanceInvokeExpr) ie).getBase(), work);
+                }
+                for (int i = 0; i < ie.getArgCount(); i++) {
+                    addEscaping(ie.getArg(i), work);
+                }
+            }
+        }
+
+        // everything reachable from an escaping object escapes too
+        while (!work.isEmpty()) {
+            AllocNode n = work.removeFirst();
+            PointsToSetInternal single = new HashPointsToSet(n.getType(), pag);
+            single.add(n);
+            Type t = n.getType();
+            if (t instanceof ArrayType) {
+                addEscaping(pag.reachingObjectsOfArrayElement(single), work);
+            } else if (t instanceof RefType) {
+                SootClass c = ((RefType) t).getSootClass();
+                while (true) {
+                    for (Iterator fit = c.getFields().iterator(); fit.hasNext();) {
+                        SootField f = (SootField) fit.next();
+                        if (!f.isStatic() && f.getType() instanceof RefLikeType) {
+                            addEscaping(pag.reachingObjects(single, f), work);
+                        }
+                    }
+                    if (!c.hasSuperclass()) break;
+                    c = c.getSuperclass();
+                }
+            }
+        }
+        System.out.println("Thread-escape analysis: " + escaping.size() + " allocation sites may escape their thread");
+    }
+
+    private static boolean isHandoff(SootMethod m) {
+        SootClass c = m.getDeclaringClass();
+        if (Visitor.isThreadSubType(c) && (m.getName().equals("<init>") || m.getSubSignature().equals("void start()"))) {
+            return true;
+        }
+        String name = c.getName();
+        for (String prefix : HANDOFF_PREFIXES) {
+            if (name.startsWith(prefix)) return true;
+        }
+        return false;
+    }
+
+    private void addEscaping(Value v, LinkedList<AllocNode> work) {
+        if (v instanceof Local && v.getType() instanceof RefLikeType) {
+            addEscaping(pag.reachingObjects((Local) v), work);
+        }
+    }
+
+    private void addEscaping(PointsToSet p, final LinkedList<AllocNode> work) {
+        ((PointsToSetInternal) p).forall(new P2SetVisitor() {
+            public void visit(Node n) {
+                if (n instanceof AllocNode && escaping.add((AllocNode) n)) {
+                    work.add((AllocNode) n);
+                }
+            }
+        });
+    }
+
+    /**
+     * True if every object the base of a field or array access may point to
+     * stays in the thread that allocated it, so the access cannot race. Locals
+     * unknown to Spark, e.g. in methods it found unreachable, are never
+     * thread-local.
+     */
+    public boolean isThreadLocal(Value base) {
+        sites++;
+        if (mayEscape(base)) {
+            return false;
+        }
+        threadLocalSites++;
+        return true;
+    }
+
+    /**
+     * The test isThreadLocal makes, without counting the site.
+     */
+    public boolean mayEscape(Value base) {
+        if (pag == null || !(base instanceof Local)) {
+            return true;
+        }
+        PointsToSetInternal p = (PointsToSetInternal) pag.reachingObjects((Local) base);
+        if (p.isEmpty()) {
+            return true;
+        }
+        final boolean[] escapes = {false};
+        p.forall(new P2SetVisitor() {
+            public void visit(Node n) {
+                if (!(n instanceof AllocNode) || escaping.contains(n)) {
+                    escapes[0] = true;
+                }
+            }
+        });
+        return escapes[0];
+    }
+
+    public void printStatistics() {
+        System.out.println("Thread-escape analysis: skipped " + threadLocalSites + " of " + sites
+                + " field and array access sites on thread-local objects");
+    }
+}
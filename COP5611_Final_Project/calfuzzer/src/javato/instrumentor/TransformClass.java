@@ -1,9 +1,11 @@
 package javato.instrumentor;
 
+import javato.activetesting.common.Parameters;
 import org.objectweb.asm.ClassReader;
 import soot.PackManager;
 import soot.Scene;
 import soot.Transform;
+import soot.options.Options;
 
 import java.io.File;
 import java.io.FileInputStream;
@@ -146,8 +148,32 @@ public class TransformClass {
     public void processAllAtOnce(String[] args, Visitor visitor) {
         Scene.v().setSootClassPath(System.getProperty("sun.boot.class.path")
                 + File.pathSeparator + System.getProperty("java.class.path"));
+        boolean wholeProgram = Parameters.escapeAnalysis || Parameters.mayRaceAnalysis
+                || Parameters.lockOrderAnalysis;
+        // set before the observer is loaded, or the library classes it refers to stay
+        // at HIERARCHY and Spark later fails on them instead of resolving their bodies
+        Options.v().set_whole_program(wholeProgram);
         Scene.v().loadClassAndSupport(Visitor.observerClass);
         TransformerForInstrumentation.v().setVisitor(visitor);
+        if (wholeProgram) {
+            // whole-program mode so that Spark runs before the bodies are instrumented
+            if (Parameters.escapeAnalysis || Parameters.mayRaceAnalysis) {
+                PackManager.v().getPack("wjtp").add(new Transform("wjtp.escape", ThreadEscapeAnalysis.v()));
+            }
+            if (Parameters.mayRaceAnalysis) {
+                PackManager.v().getPack("wjtp").add(new Transform("wjtp.mayrace", MayRaceAnalysis.v()));
+            }
+            if (Parameters.lockOrderAnalysis) {
+                PackManager.v().getPack("wjtp").add(new Transform("wjtp.lockorder", LockOrderAnalysis.v()));
+            }
+            String[] wargs = new String[args.length + 4];
+            wargs[0] = "-w";
+            wargs[1] = "-p";
+            wargs[2] = "cg.spark";
+            wargs[3] = "enabled:true";
+            System.arraycopy(args, 0, wargs, 4, args.length);
+            args = wargs;
+        }
         PackManager.v().getPack("jtp").add(new Transform("jtp.instrumenter", TransformerForInstrumentation.v()));
         soot.Main.main(args);
         soot.G.reset();
@@ -9,7 +9,10 @@ import soot.util.Chain;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Copyright (c) 2007-2008,
@@ -48,6 +51,15 @@ import java.util.LinkedList;
 public class Visitor {
     protected Visitor nextVisitor;
     static private int counter = 0;
+    // iids this run may hand out; only a shard of a sharded run is limited
+    static private int counterBase = 0;
+    static private int counterLimit = Integer.MAX_VALUE;
+    // per-class iid ranges {next, limit} of an incremental run, or null
+    static private Map<String, int[]> classIidRanges;
+    // set when only part of the application is loaded, so the class
+    // hierarchy seen here may miss overriding methods
+    static protected boolean partialProgram = false;
+    static private final String UNKNOWN_LINE = "unknown.java.html#0";
     static protected SymbolTables st = new SymbolTables();
     static public String observerClass;// = System.getProperty("javato.call", "javato.observer.Observer");
     static public Stmt thisStmt;
@@ -81,14 +93,180 @@ public class Visitor {
     }
 
     public static int getAndIncCounter() {
-        iidToLineMap.add(getFileName(thisClass) + ".html#" + getLineNum(thisStmt));
-        return counter++;
+        int iid;
+        if (classIidRanges != null) {
+            int[] range = classIidRanges.get(thisClass.getName());
+            if (range == null || range[0] >= range[1]) {
+                System.err.println("Instrumentation used more iids than estimated for " + thisClass.getName());
+                System.exit(1);
+            }
+            iid = range[0]++;
+        } else {
+            if (counter >= counterLimit) {
+                System.err.println("Instrumentation used more than the " + (counterLimit - counterBase)
+                        + " iids estimated for this shard");
+                System.exit(1);
+            }
+            iid = counter++;
+        }
+        setLine(iid, getFileName(thisClass) + ".html#" + getLineNum(thisStmt));
+        return iid;
+    }
+
+    private static void setLine(int iid, String line) {
+        int i = iid - counterBase;
+        while (iidToLineMap.size() <= i) {
+            iidToLineMap.add(UNKNOWN_LINE);
+        }
+        iidToLineMap.set(i, line);
+        if (iid >= counter) {
+            counter = iid + 1;
+        }
+    }
+
+    /**
+     * Places lines recorded by another run at iids base, base + 1, ...;
+     * iids that no line is placed at point nowhere.
+     */
+    public static void putIidLines(int base, List<String> lines) {
+        for (int i = 0; i < lines.size(); i++) {
+            setLine(base + i, lines.get(i));
+        }
+        while (counter < base) {
+            setLine(counter, UNKNOWN_LINE);
+        }
+    }
+
+    public static List<String> getIidLines(int base, int size) {
+        List<String> ret = new ArrayList<String>(size);
+        for (int i = base - counterBase; i < base - counterBase + size; i++) {
+            ret.add(i < iidToLineMap.size() ? iidToLineMap.get(i) : UNKNOWN_LINE);
+        }
+        return ret;
+    }
+
+    /**
+     * Gives each class its own iid range, for runs that instrument only the
+     * classes that changed since the last one.
+     */
+    public static void setClassIidRanges(Map<String, int[]> ranges) {
+        classIidRanges = ranges;
+    }
+
+    public static void setPartialProgram(boolean partial) {
+        partialProgram = partial;
+    }
+
+    public static Map<String, Integer> getSymbols() {
+        return st.entriesFrom(1);
+    }
+
+    public static void putSymbols(Map<String, Integer> symbols) {
+        for (Map.Entry<String, Integer> e : symbols.entrySet()) {
+            st.put(e.getKey(), e.getValue());
+        }
+    }
+
+    public static int getSymbolTableSize() {
+        return st.getSize();
+    }
+
+    public static void setIidRange(int base, int limit) {
+        counter = base;
+        counterBase = base;
+        counterLimit = limit;
+    }
+
+    /**
+     * Shard side of a sharded run: preloads the symbol names shared by all
+     * shards and numbers any other name from symbolBase on.
+     */
+    public static void setSymbols(List<String> names, int symbolBase) {
+        st.preload(names);
+        st.setNextId(symbolBase);
+    }
+
+    /**
+     * Writes what a shard adds to the iid and symbol tables, to be merged by
+     * loadShard() in the JVM that started it.
+     */
+    public static void dumpShard(String file, int symbolBase) {
+        try {
+            ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            out.writeInt(counterBase);
+            out.writeObject(iidToLineMap);
+            out.writeObject(new HashMap<String, Integer>(st.entriesFrom(symbolBase)));
+            out.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    public static void loadShard(String file) {
+        try {
+            ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)));
+            int base = in.readInt();
+            ArrayList<String> lines = (ArrayList<String>) in.readObject();
+            HashMap<String, Integer> symbols = (HashMap<String, Integer>) in.readObject();
+            in.close();
+            // iids a shard estimated but did not use point nowhere
+            putIidLines(base, lines);
+            // the shard's classes already carry its ids, so a name that two
+            // shards numbered differently cannot be merged
+            boolean conflict = false;
+            for (Map.Entry<String, Integer> e : symbols.entrySet()) {
+                Integer old = st.lookup(e.getKey());
+                if (old != null && !old.equals(e.getValue())) {
+                    System.err.println("Error: " + e.getKey() + " has symbol ids " + old + " and " + e.getValue()
+                            + " in different shards");
+                    conflict = true;
+                } else {
+                    st.put(e.getKey(), e.getValue());
+                }
+            }
+            if (conflict) {
+                System.err.println("Shards numbered names the pre-scan missed differently; instrument without javato.instr.shards");
+                System.exit(1);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+        } catch (ClassNotFoundException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
     }
 
     public static void setObserverClass(String s) {
         observerClass = s;
     }
 
+    /**
+     * Writes methods.map, which lists each symbol id that names a called
+     * method, see ClassScanner.methodSymbol, with its signature. Other ids
+     * are null there.
+     */
+    public static void dumpMethodTable() {
+        ArrayList<String> methods = new ArrayList<String>();
+        for (Map.Entry<String, Integer> e : st.entriesFrom(1).entrySet()) {
+            if (e.getKey().startsWith("<")) {
+                while (methods.size() <= e.getValue()) {
+                    methods.add(null);
+                }
+                methods.set(e.getValue(), e.getKey());
+            }
+        }
+        try {
+            ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(Parameters.methodTableFile)));
+            out.writeObject(methods);
+            out.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
     public static void dumpIidToLine() {
         ObjectOutputStream out = null;
         PrintStream out2 = null;
@@ -530,6 +708,21 @@ public class Visitor {
         }
     }
 
+    protected void addCallWithObjectBoolean(Chain units, Stmt s, String methodName, Value v1, boolean v2, boolean before) {
+        SootMethodRef mr;
+
+        LinkedList args = new LinkedList();
+        args.addLast(IntConstant.v(getAndIncCounter()));
+        args.addLast(v1);
+        args.addLast(IntConstant.v(v2 ? 1 : 0));
+        mr = Scene.v().getMethod("<" + observerClass + ": void " + methodName + "(int,java.lang.Object,boolean)>").makeRef();
+        if (before) {
+            units.insertBefore(Jimple.v().newInvokeStmt(Jimple.v().newStaticInvokeExpr(mr, args)), s);
+        } else {
+            units.insertAfter(Jimple.v().newInvokeStmt(Jimple.v().newStaticInvokeExpr(mr, args)), s);
+        }
+    }
+
     protected void addCallWithObjectStringStringInt(Chain units, Stmt s, String methodName,
                                                     Value v1, Value v2, Value v3, Value v4, boolean before) {
         SootMethodRef mr;
@@ -648,6 +841,10 @@ public class Visitor {
         writeInteger(Parameters.usedObjectId, st.getSize());
     }
 
+    public void writeIidCount() {
+        writeInteger(Parameters.iidCountFile, counter);
+    }
+
     public static void writeInteger(String file, int val) {
         try {
             PrintWriter pw = new PrintWriter(new FileWriter(file));
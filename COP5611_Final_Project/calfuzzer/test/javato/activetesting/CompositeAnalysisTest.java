@@ -0,0 +1,132 @@
+package javato.activetesting;
+
+import javato.activetesting.analysis.PrimitiveAnalysis;
+import javato.activetesting.analysis.PrimitiveAnalysisImpl;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Copyright (c) 2007-2008,
+ * Koushik Sen    <ksen@cs.berkeley.edu>
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * <p/>
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * <p/>
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * <p/>
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class CompositeAnalysisTest {
+    private static final int MAIN = 1;
+    private static final int T1 = 2;
+    private static final int T2 = 3;
+    private static final int A = 50;
+    private static final int B = 60;
+    private static final long SHARED = (7L << 32) | 1;
+    private static final long GUARDED = (7L << 32) | 2;
+
+    private File dir;
+
+    @After
+    public void deleteFiles() {
+        if (dir == null) return;
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    private static String firstLine(File f) throws Exception {
+        BufferedReader in = new BufferedReader(new FileReader(f));
+        try {
+            return in.readLine();
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void oneRunFeedsAllAnalyses() throws Exception {
+        dir = File.createTempFile("javato-composite", "");
+        dir.delete();
+        dir.mkdirs();
+        LocksetAnalysis lockset = new LocksetAnalysis();
+        List<PrimitiveAnalysis> analyses = new ArrayList<PrimitiveAnalysis>();
+        analyses.add(new HybridAnalysis());
+        analyses.add(new IGoodlockAnalysis());
+        analyses.add(lockset);
+        CompositeAnalysis c = new CompositeAnalysis(analyses,
+                new File(dir, "error.list").getPath(), new File(dir, "error.log").getPath());
+
+        c.startBefore(1, MAIN, T1);
+        c.startBefore(2, MAIN, T2);
+        // T1 takes A then B, re-entering A on the way; T2 takes B then A
+        c.lockBefore(10, T1, A, null);
+        c.lockBefore(11, T1, A, null);
+        c.lockBefore(12, T1, B, null);
+        c.writeBefore(13, T1, GUARDED, false);
+        c.unlockAfter(14, T1, B);
+        c.unlockAfter(15, T1, A);
+        c.writeBefore(16, T1, GUARDED, false);
+        c.unlockAfter(17, T1, A);
+        c.writeBefore(18, T1, SHARED, false);
+
+        c.lockBefore(20, T2, B, null);
+        c.lockBefore(21, T2, A, null);
+        c.writeBefore(22, T2, GUARDED, false);
+        c.unlockAfter(23, T2, A);
+        c.unlockAfter(24, T2, B);
+        c.writeBefore(25, T2, SHARED, false);
+        c.finish();
+        // the files are deleted before the JVM exits
+        PrimitiveAnalysisImpl.detachShutdownHook(c);
+
+        // only the unguarded write races, GUARDED is always written holding A
+        assertEquals("1", firstLine(new File(dir, "hybrid.error.list")));
+        assertTrue(new File(dir, "hybrid.error.log").exists());
+        assertEquals("1", firstLine(new File(dir, "igoodlock.error.list")));
+        assertTrue(new File(dir, "igoodlock.error.log").exists());
+        assertEquals(1, lockset.raceDetections.size());
+        assertTrue(lockset.raceDetections.containsKey(SHARED));
+    }
+
+    @Test
+    public void errorFilesArePrefixedWithTheAnalysisName() {
+        assertEquals(new File("work", "hybrid.error.list").getPath(),
+                CompositeAnalysis.errorFile(new File("work", "error.list").getPath(), "hybrid"));
+        assertEquals("lockset.error.log", CompositeAnalysis.errorFile("error.log", "lockset"));
+    }
+}
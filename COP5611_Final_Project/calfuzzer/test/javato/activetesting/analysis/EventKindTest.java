@@ -0,0 +1,94 @@
+package javato.activetesting.analysis;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.EnumSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Copyright (c) 2007-2008,
+ * Koushik Sen    <ksen@cs.berkeley.edu>
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * <p/>
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * <p/>
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * <p/>
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class EventKindTest {
+    @Subscribes({EventKind.LOCK_BEFORE, EventKind.READ_BEFORE})
+    static class Annotated {
+    }
+
+    static class Inheriting extends Annotated {
+    }
+
+    static class Undeclared {
+    }
+
+    @Subscribes(EventKind.LOCK_BEFORE)
+    static class Configured {
+        public static EnumSet<EventKind> subscribedEvents() {
+            return EnumSet.of(EventKind.WRITE_BEFORE);
+        }
+    }
+
+    @Test
+    public void readsTheAnnotation() {
+        assertEquals(EnumSet.of(EventKind.LOCK_BEFORE, EventKind.READ_BEFORE), EventKind.subscribedBy(Annotated.class));
+        assertEquals(EnumSet.of(EventKind.LOCK_BEFORE, EventKind.READ_BEFORE), EventKind.subscribedBy(Inheriting.class));
+    }
+
+    @Test
+    public void undeclaredGetsEverything() {
+        assertEquals(EnumSet.allOf(EventKind.class), EventKind.subscribedBy(Undeclared.class));
+        assertEquals(EnumSet.allOf(EventKind.class), EventKind.subscribedBy((String) null));
+    }
+
+    @Test
+    public void staticMethodWinsOverAnnotation() {
+        assertEquals(EnumSet.of(EventKind.WRITE_BEFORE), EventKind.subscribedBy(Configured.class));
+    }
+
+    @Test
+    public void resolvesAnalysesByName() {
+        assertEquals(EnumSet.of(EventKind.LOCK_BEFORE, EventKind.UNLOCK_AFTER),
+                EventKind.subscribedBy("javato.activetesting.DeadlockFuzzerAnalysis"));
+    }
+
+    @Test
+    public void writesAndReadsBack() throws Exception {
+        File f = File.createTempFile("events", null);
+        f.deleteOnExit();
+        EnumSet<EventKind> events = EnumSet.of(EventKind.START_AFTER, EventKind.DETERMINISM);
+        EventKind.write(f.getPath(), events);
+        assertEquals(events, EventKind.read(f.getPath()));
+        f.delete();
+        assertNull(EventKind.read(f.getPath()));
+    }
+}
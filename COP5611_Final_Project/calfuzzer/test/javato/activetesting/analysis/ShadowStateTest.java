@@ -0,0 +1,89 @@
+package javato.activetesting.analysis;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Copyright (c) 2007-2008,
+ * Koushik Sen    <ksen@cs.berkeley.edu>
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * <p/>
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * <p/>
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * <p/>
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class ShadowStateTest {
+    @Test
+    public void firstObjectKeepsTheState() {
+        ShadowState s = new ShadowState();
+        Object original = new Object();
+        Object clone = new Object();
+        assertTrue(s.claim(original));
+        assertFalse(s.claim(clone));
+        assertTrue(s.claim(original));
+    }
+
+    @Test
+    public void lastReadOfEachThreadIsKept() {
+        ShadowState s = new ShadowState();
+        assertEquals(0, s.getReaders());
+        s.read(1, 7, 1, 0);
+        s.read(2, 7, 3, 5);
+        assertEquals(1, s.getReaders());
+        assertEquals(2, s.getReadIid(0));
+        assertEquals(3, s.getReadClock(0));
+        assertEquals(5, s.getReadLocks(0));
+        for (int t = 1; t <= 4; t++) {
+            s.read(10 + t, t, t, 0);
+        }
+        s.read(20, 2, 9, 6);
+        assertEquals(5, s.getReaders());
+        int[] threads = {7, 1, 2, 3, 4};
+        int[] iids = {2, 11, 20, 13, 14};
+        for (int i = 0; i < threads.length; i++) {
+            assertEquals(threads[i], s.getReadThread(i));
+            assertEquals(iids[i], s.getReadIid(i));
+        }
+        assertEquals(9, s.getReadClock(2));
+        assertEquals(6, s.getReadLocks(2));
+    }
+
+    @Test
+    public void writeReplacesTheLastWrite() {
+        ShadowState s = new ShadowState();
+        assertFalse(s.hasWrite());
+        s.write(1, 2, 3, 4);
+        s.write(5, 6, 7, 8);
+        assertTrue(s.hasWrite());
+        assertEquals(5, s.getWriteIid());
+        assertEquals(6, s.getWriteThread());
+        assertEquals(7, s.getWriteClock());
+        assertEquals(8, s.getWriteLocks());
+    }
+}
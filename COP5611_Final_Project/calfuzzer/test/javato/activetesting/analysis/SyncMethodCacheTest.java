@@ -0,0 +1,108 @@
+package javato.activetesting.analysis;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Copyright (c) 2007-2008,
+ * Koushik Sen    <ksen@cs.berkeley.edu>
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * <p/>
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * <p/>
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * <p/>
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class SyncMethodCacheTest {
+    static class Base {
+        public synchronized void put(int x) {
+        }
+
+        public void put(String x) {
+        }
+
+        public void get(int[] x) {
+        }
+    }
+
+    static class Derived extends Base {
+        public void put(int x) {
+        }
+
+        public synchronized void get(int[] x) {
+        }
+    }
+
+    interface Source<T> {
+        T next();
+    }
+
+    static class StringSource implements Source<String> {
+        public synchronized String next() {
+            return "";
+        }
+    }
+
+    @Test
+    public void tellsOverloadsApart() {
+        SyncMethodCache cache = new SyncMethodCache();
+        Base b = new Base();
+        assertTrue(cache.isSynchronized(1, b, "put(int)"));
+        assertFalse(cache.isSynchronized(2, b, "put(java.lang.String)"));
+        assertFalse(cache.isSynchronized(3, b, "get(int[])"));
+    }
+
+    @Test
+    public void followsTheReceiverClass() {
+        SyncMethodCache cache = new SyncMethodCache();
+        assertTrue(cache.isSynchronized(1, new Base(), "put(int)"));
+        assertFalse(cache.isSynchronized(1, new Derived(), "put(int)"));
+        assertTrue(cache.isSynchronized(3, new Derived(), "get(int[])"));
+        // inherited unchanged
+        assertFalse(cache.isSynchronized(2, new Derived(), "put(java.lang.String)"));
+    }
+
+    @Test
+    public void bridgeMethodsLockLikeTheirTarget() {
+        SyncMethodCache cache = new SyncMethodCache();
+        assertTrue(cache.isSynchronized(1, new StringSource(), "next()"));
+    }
+
+    @Test
+    public void keepsAnswersForManyIids() {
+        SyncMethodCache cache = new SyncMethodCache();
+        Base b = new Base();
+        for (int iid = 0; iid < 1000; iid++) {
+            assertEquals(iid % 2 == 0, cache.isSynchronized(iid, b, iid % 2 == 0 ? "put(int)" : "put(java.lang.String)"));
+        }
+        for (int iid = 0; iid < 1000; iid++) {
+            // answered from the table, the signature is not looked at again
+            assertEquals(iid % 2 == 0, cache.isSynchronized(iid, b, "unknown()"));
+        }
+    }
+}
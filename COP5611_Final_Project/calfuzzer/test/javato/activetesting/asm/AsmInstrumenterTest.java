@@ -0,0 +1,414 @@
+package javato.activetesting.asm;
+
+import javato.activetesting.analysis.EventKind;
+import javato.activetesting.analysis.IidGuards;
+import javato.activetesting.analysis.ObjectIdHolder;
+import javato.activetesting.analysis.Observer;
+import javato.activetesting.analysis.ObserverForActiveTesting;
+import javato.activetesting.analysis.PrimitiveAnalysis;
+import javato.activetesting.analysis.PrimitiveAnalysisImpl;
+import javato.activetesting.analysis.ShadowAnalysis;
+import javato.activetesting.analysis.ShadowState;
+import javato.activetesting.common.Parameters;
+import javato.instrumentor.ClassScanner;
+import org.junit.After;
+import org.junit.Test;
+import org.objectweb.asm.ClassAdapter;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodAdapter;
+import org.objectweb.asm.MethodVisitor;
+
+import java.io.InputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Copyright (c) 2007-2008,
+ * Koushik Sen    <ksen@cs.berkeley.edu>
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * <p/>
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * <p/>
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * <p/>
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class AsmInstrumenterTest {
+    public static class Sample implements Runnable {
+        int x;
+        long y;
+        int[] a = {5, 0};
+        static long s;
+        final Object lock = new Object();
+
+        public void run() {
+            synchronized (lock) {
+                x++;
+                lock.notify();
+            }
+            a[1] = a[0];
+            s += 2;
+            add(3);
+            Thread t = new Thread();
+            t.start();
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        synchronized void add(long d) {
+            y += d;
+        }
+    }
+
+    public static class Saved implements Serializable {
+        int x;
+    }
+
+    public static class Repeats implements Runnable {
+        int x = 1;
+        int[] a = {1, 2, 3};
+        static int s;
+        volatile int v;
+
+        public void run() {
+            int[] b = a;
+            int i = 1;
+            int t = x + x;
+            t += b[i] + b[i];
+            s = t;
+            s = t + 1;
+            i++;
+            t += b[i];
+            v = t;
+            t += x;
+            x = t;
+        }
+    }
+
+    public static class Shared implements Runnable {
+        int x;
+        volatile int v;
+        static int s;
+
+        public void run() {
+            x++;
+            v = x;
+            s = v;
+        }
+    }
+
+    private static class Recorder extends PrimitiveAnalysisImpl {
+        final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+
+        public void lockBefore(int iid, int thread, int lock, Object actualLock) { events.add("lock"); }
+        public void lockAfter(int iid, int thread, int lock, Object actualLock) { events.add("locked"); }
+        public void unlockAfter(int iid, int thread, int lock) { events.add("unlock"); }
+        public void newExprAfter(int iid, int object, int objOnWhichMethodIsInvoked) { events.add("new"); }
+        public void startBefore(int iid, int parent, int child) { events.add("start"); }
+        public void startAfter(int iid, int parent, Object child) { events.add("started"); }
+        public void notifyBefore(int iid, int thread, int lock) { events.add("notify"); }
+        public void joinAfter(int iid, int parent, int child) { events.add("joined"); }
+        public void readBefore(int iid, int thread, long memory, boolean isVolatile) { events.add("r"); }
+        public void readAfter(int iid, int thread, long memory, boolean isVolatile) { events.add("r'"); }
+        public void writeBefore(int iid, int thread, long memory, boolean isVolatile) { events.add("w"); }
+        public void writeAfter(int iid, int thread, long memory, boolean isVolatile) { events.add("w'"); }
+    }
+
+    private static class ShadowRecorder extends Recorder implements ShadowAnalysis {
+        final List<ShadowState> states = Collections.synchronizedList(new ArrayList<ShadowState>());
+
+        public void readBefore(int iid, int thread, long memory, ShadowState state) {
+            events.add("R");
+            states.add(state);
+        }
+
+        public void writeBefore(int iid, int thread, long memory, ShadowState state) {
+            events.add("W");
+            states.add(state);
+        }
+    }
+
+    private static class InstrumentingLoader extends ClassLoader {
+        final IidTable table = new IidTable();
+        final String name;
+
+        InstrumentingLoader(String name) {
+            super(AsmInstrumenterTest.class.getClassLoader());
+            this.name = name;
+        }
+
+        protected synchronized Class<?> loadClass(String n, boolean resolve) throws ClassNotFoundException {
+            if (!n.equals(name)) {
+                return super.loadClass(n, resolve);
+            }
+            Class<?> c = findLoadedClass(n);
+            if (c == null) {
+                try {
+                    InputStream in = getResourceAsStream(n.replace('.', '/') + ".class");
+                    byte[] bytes = AsmInstrumenter.instrument(ClassScanner.scan(in).getBytes(), this, table);
+                    in.close();
+                    c = defineClass(n, bytes, 0, bytes.length);
+                } catch (Exception e) {
+                    throw new ClassNotFoundException(n, e);
+                }
+            }
+            return c;
+        }
+    }
+
+    private PrimitiveAnalysis saved = ObserverForActiveTesting.analysis;
+
+    @After
+    public void restoreAnalysis() {
+        ObserverForActiveTesting.analysis = saved;
+        ObserverMethodAdapter.guards = false;
+        ObserverMethodAdapter.eliminateRedundant = false;
+        ObserverClassAdapter.oidField = Parameters.oidField;
+        ObserverClassAdapter.shadowClasses = Parameters.shadowClasses;
+        for (EventKind k : EventKind.values()) {
+            ObserverForActiveTesting.enableEvent(k);
+        }
+    }
+
+    @Test
+    public void instrumentedClassReportsItsEvents() throws Exception {
+        InstrumentingLoader loader = new InstrumentingLoader(Sample.class.getName());
+        Class<?> c = loader.loadClass(Sample.class.getName());
+        Recorder recorder = new Recorder();
+        PrimitiveAnalysisImpl.detachShutdownHook(recorder);
+        ObserverForActiveTesting.analysis = recorder;
+
+        Runnable r = (Runnable) c.getDeclaredConstructor().newInstance();
+        recorder.events.clear();
+        r.run();
+
+        assertEquals(Arrays.asList(
+                // synchronized (lock) { x++; lock.notify(); }
+                "r", "r'", "lock", "locked", "r", "r'", "w", "w'", "r", "r'", "notify", "unlock",
+                // a[1] = a[0]
+                "r", "r'", "r", "r'", "r", "r'", "w", "w'",
+                // s += 2
+                "r", "r'", "w", "w'",
+                // add(3), a synchronized method
+                "lock", "locked", "r", "r'", "w", "w'", "unlock",
+                "new", "start", "started", "joined"), recorder.events);
+
+        // the code around the hooks still computes the same values
+        assertEquals(1, field(c, "x").getInt(r));
+        assertEquals(3L, field(c, "y").getLong(r));
+        assertEquals(5, ((int[]) field(c, "a").get(r))[1]);
+        assertEquals(2L, field(c, "s").getLong(null));
+        assertFalse(java.lang.reflect.Modifier.isSynchronized(c.getDeclaredMethod("add", long.class).getModifiers()));
+        assertTrue(loader.table.getLines().size() >= recorder.events.size());
+    }
+
+    @Test
+    public void switchedOffSitesAreSkipped() throws Exception {
+        ObserverMethodAdapter.guards = true;
+        InstrumentingLoader loader = new InstrumentingLoader(Sample.class.getName());
+        Class<?> c = loader.loadClass(Sample.class.getName());
+        for (int i = 0; i < loader.table.getLines().size(); i++) {
+            IidGuards.resetIid(i);
+        }
+        Recorder recorder = new Recorder();
+        PrimitiveAnalysisImpl.detachShutdownHook(recorder);
+        ObserverForActiveTesting.analysis = recorder;
+        ObserverForActiveTesting.disableEvent(EventKind.READ_BEFORE);
+        ObserverForActiveTesting.disableEvent(EventKind.READ_AFTER);
+        ObserverForActiveTesting.disableEvent(EventKind.WRITE_AFTER);
+
+        Runnable r = (Runnable) c.getDeclaredConstructor().newInstance();
+        List<String> expected = Arrays.asList(
+                "lock", "locked", "w", "notify", "unlock", "w", "w",
+                "lock", "locked", "w", "unlock", "new", "start", "started", "joined");
+        // the first run learns which sites to switch off, the second skips them in place
+        for (int run = 1; run <= 2; run++) {
+            recorder.events.clear();
+            r.run();
+            assertEquals(expected, recorder.events);
+        }
+        assertEquals(2, field(c, "x").getInt(r));
+        assertEquals(6L, field(c, "y").getLong(r));
+        assertEquals(5, ((int[]) field(c, "a").get(r))[1]);
+        assertEquals(4L, field(c, "s").getLong(null));
+
+        ObserverForActiveTesting.enableEvent(EventKind.READ_BEFORE);
+        recorder.events.clear();
+        r.run();
+        assertEquals(8, Collections.frequency(recorder.events, "r"));
+        assertFalse(recorder.events.contains("r'"));
+    }
+
+    @Test
+    public void objectIdsAreCachedThroughTheAccessors() throws Exception {
+        ObserverClassAdapter.oidField = true;
+        InstrumentingLoader loader = new InstrumentingLoader(Sample.class.getName());
+        Class<?> c = loader.loadClass(Sample.class.getName());
+        Recorder recorder = new Recorder();
+        PrimitiveAnalysisImpl.detachShutdownHook(recorder);
+        ObserverForActiveTesting.analysis = recorder;
+
+        Object o = c.getDeclaredConstructor().newInstance();
+        assertTrue(o instanceof ObjectIdHolder);
+        ObjectIdHolder h = (ObjectIdHolder) o;
+        recorder.events.clear();
+        int id = Observer.uniqueId(o);
+        assertEquals(id, h.javato$getOid());
+        assertEquals(id, Observer.uniqueId(o));
+        assertTrue(Observer.idToObject(id) == o);
+        // the accessors themselves are not instrumented
+        assertTrue(recorder.events.isEmpty());
+
+        // the interface would change the default serialVersionUID
+        loader = new InstrumentingLoader(Saved.class.getName());
+        c = loader.loadClass(Saved.class.getName());
+        assertFalse(ObjectIdHolder.class.isAssignableFrom(c));
+        assertEquals(ObjectStreamClass.lookup(Saved.class).getSerialVersionUID(),
+                ObjectStreamClass.lookup(c).getSerialVersionUID());
+        field(c, Observer.OID_FIELD);
+    }
+
+    @Test
+    public void guardsDoNotIndexTheTableThemselves() throws Exception {
+        ObserverMethodAdapter.guards = true;
+        InputStream in = getClass().getResourceAsStream("/" + Sample.class.getName().replace('.', '/') + ".class");
+        byte[] bytes = AsmInstrumenter.instrument(ClassScanner.scan(in).getBytes(), getClass().getClassLoader(), new IidTable());
+        in.close();
+        final List<String> guardRefs = new ArrayList<String>();
+        new ClassReader(bytes).accept(new ClassAdapter(new ClassWriter(0)) {
+            public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+                return new MethodAdapter(super.visitMethod(access, name, desc, signature, exceptions)) {
+                    public void visitFieldInsn(int opcode, String owner, String name, String desc) {
+                        if (owner.endsWith("/IidGuards")) guardRefs.add(name);
+                        super.visitFieldInsn(opcode, owner, name, desc);
+                    }
+
+                    public void visitMethodInsn(int opcode, String owner, String name, String desc) {
+                        if (owner.endsWith("/IidGuards")) guardRefs.add(name);
+                        super.visitMethodInsn(opcode, owner, name, desc);
+                    }
+                };
+            }
+        }, 0);
+        // an iid past the end of the table, e.g. with no iid count file, is on
+        assertFalse(guardRefs.isEmpty());
+        assertEquals(Collections.frequency(guardRefs, "isOff"), guardRefs.size());
+        assertFalse(IidGuards.isOff(Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void repeatedAccessesInABlockAreNotReported() throws Exception {
+        ObserverMethodAdapter.eliminateRedundant = true;
+        InstrumentingLoader loader = new InstrumentingLoader(Repeats.class.getName());
+        Class<?> c = loader.loadClass(Repeats.class.getName());
+        Recorder recorder = new Recorder();
+        PrimitiveAnalysisImpl.detachShutdownHook(recorder);
+        ObserverForActiveTesting.analysis = recorder;
+
+        Runnable r = (Runnable) c.getDeclaredConstructor().newInstance();
+        recorder.events.clear();
+        r.run();
+
+        assertEquals(Arrays.asList(
+                // b = a; x + x; b[i] + b[i]
+                "r", "r'", "r", "r'", "r", "r'",
+                // s = t; s = t + 1
+                "w", "w'",
+                // i++ changes the index: b[i]
+                "r", "r'",
+                // the volatile write ends the region: v = t; t += x; x = t
+                "w", "r", "r'", "w", "w'"), recorder.events);
+        assertEquals(10, field(c, "x").getInt(r));
+        assertEquals(7, field(c, "s").getInt(null));
+    }
+
+    @Test
+    public void shadowedFieldsPassTheirState() throws Exception {
+        ObserverClassAdapter.shadowClasses = Shared.class.getName();
+        InstrumentingLoader loader = new InstrumentingLoader(Shared.class.getName());
+        Class<?> c = loader.loadClass(Shared.class.getName());
+        ShadowRecorder recorder = new ShadowRecorder();
+        PrimitiveAnalysisImpl.detachShutdownHook(recorder);
+        ObserverForActiveTesting.analysis = recorder;
+
+        Runnable r = (Runnable) c.getDeclaredConstructor().newInstance();
+        recorder.events.clear();
+        r.run();
+
+        assertEquals(Arrays.asList(
+                // x++
+                "R", "r'", "W", "w'",
+                // v = x, a volatile write
+                "R", "r'", "w",
+                // s = v, a volatile read and a static write
+                "r", "w", "w'"), recorder.events);
+        assertEquals(1, field(c, "x").getInt(r));
+        assertEquals(1, field(c, "s").getInt(null));
+
+        Field shadow = field(c, ShadowState.companion("x"));
+        int m = shadow.getModifiers();
+        assertTrue(Modifier.isFinal(m) && Modifier.isTransient(m) && shadow.isSynthetic());
+        Object state = shadow.get(r);
+        assertTrue(state instanceof ShadowState);
+        assertEquals(3, recorder.states.size());
+        for (ShadowState s : recorder.states) {
+            assertTrue(s == state);
+        }
+        for (String name : new String[]{"v", "s"}) {
+            try {
+                c.getDeclaredField(ShadowState.companion(name));
+                fail(name + " has a shadow field");
+            } catch (NoSuchFieldException expected) {
+            }
+        }
+    }
+
+    private static Field field(Class<?> c, String name) throws Exception {
+        Field f = c.getDeclaredField(name);
+        f.setAccessible(true);
+        return f;
+    }
+
+    @Test
+    public void systemAndCalfuzzerClassesAreLeftAlone() {
+        assertFalse(AsmInstrumenter.shouldInstrument("java/lang/Thread"));
+        assertFalse(AsmInstrumenter.shouldInstrument("javato/activetesting/analysis/ObserverForActiveTesting"));
+        assertTrue(AsmInstrumenter.shouldInstrument("benchmarks/testcases/TestRace1"));
+    }
+}
@@ -0,0 +1,144 @@
+package javato.activetesting.async;
+
+import javato.activetesting.analysis.PrimitiveAnalysis;
+import javato.activetesting.analysis.PrimitiveAnalysisImpl;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Copyright (c) 2007-2008,
+ * Koushik Sen    <ksen@cs.berkeley.edu>
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * <p/>
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * <p/>
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * <p/>
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class AsyncAnalysisTest {
+    private static final int THREADS = 4;
+    private static final int WRITES = 2000;
+    private static final int LOCK = 100;
+
+    // records "thread kind memory" triples in the order the shard applied them
+    public static class Recording extends PrimitiveAnalysisImpl implements ShardedAnalysis {
+        final List<long[]> events = new ArrayList<long[]>();
+        final List<Recording> merged = new ArrayList<Recording>();
+        boolean finished;
+
+        public void lockBefore(int iid, int thread, int lock, Object actualLock) {
+            events.add(new long[]{thread, AsyncAnalysis.LOCK_BEFORE, lock});
+        }
+
+        public void unlockAfter(int iid, int thread, int lock) {
+            events.add(new long[]{thread, AsyncAnalysis.UNLOCK_AFTER, lock});
+        }
+
+        public void writeBefore(int iid, int thread, long memory, boolean isVolatile) {
+            events.add(new long[]{thread, AsyncAnalysis.WRITE_BEFORE, memory});
+        }
+
+        public PrimitiveAnalysis newShard() {
+            return new Recording();
+        }
+
+        public void mergeShard(PrimitiveAnalysis shard) {
+            merged.add((Recording) shard);
+        }
+
+        public void finish() {
+            finished = true;
+        }
+    }
+
+    @Test
+    public void shardsSeeSyncEventsAndOrderedAccesses() throws Exception {
+        final Recording root = new Recording();
+        final AsyncAnalysis async = new AsyncAnalysis(root, 3, 64);
+        final Object monitor = new Object();
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            final int tid = t + 1;
+            threads[t] = new Thread() {
+                public void run() {
+                    synchronized (monitor) {
+                        async.lockBefore(1, tid, LOCK, monitor);
+                        for (int i = 0; i < WRITES; i++) {
+                            async.writeBefore(2, tid, ((long) tid << 32) | i, false);
+                        }
+                        async.unlockAfter(3, tid, LOCK);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        async.finish();
+        Runtime.getRuntime().removeShutdownHook(async);
+
+        assertTrue(root.finished);
+        assertEquals(2, root.merged.size());
+        List<Recording> shards = new ArrayList<Recording>(root.merged);
+        shards.add(root);
+
+        int writes = 0;
+        for (Recording shard : shards) {
+            int locks = 0;
+            int unlocks = 0;
+            int holder = 0;
+            long[] lastWrite = new long[THREADS + 1];
+            java.util.Arrays.fill(lastWrite, -1);
+            for (long[] e : shard.events) {
+                int tid = (int) e[0];
+                if (e[1] == AsyncAnalysis.LOCK_BEFORE) {
+                    assertEquals("lock handed out twice", 0, holder);
+                    holder = tid;
+                    locks++;
+                } else if (e[1] == AsyncAnalysis.UNLOCK_AFTER) {
+                    assertEquals(tid, holder);
+                    holder = 0;
+                    unlocks++;
+                } else {
+                    // every write is applied inside its thread's critical section, in program order
+                    assertEquals(tid, holder);
+                    long i = e[2] & 0xffffffffL;
+                    assertTrue(i > lastWrite[tid]);
+                    lastWrite[tid] = i;
+                    writes++;
+                }
+            }
+            assertEquals(THREADS, locks);
+            assertEquals(THREADS, unlocks);
+        }
+        assertEquals(THREADS * WRITES, writes);
+    }
+}
@@ -0,0 +1,85 @@
+package javato.activetesting.common;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Copyright (c) 2007-2008,
+ * Koushik Sen    <ksen@cs.berkeley.edu>
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * <p/>
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * <p/>
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * <p/>
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class IIDAccessCounterTest {
+    private static final int ALLOWED = Parameters.maxPausesInActiveTesting + 1;
+
+    @Test
+    public void capsEachIidSeparately() {
+        IIDAccessCounter c = new IIDAccessCounter(4);
+        for (int i = 0; i < ALLOWED; i++) {
+            assertEquals(false, c.needToIgnore(1));
+        }
+        assertTrue(c.needToIgnore(1));
+        assertEquals(false, c.needToIgnore(2));
+    }
+
+    @Test
+    public void growsPastTheAnnouncedIidCount() {
+        IIDAccessCounter c = new IIDAccessCounter(0);
+        for (int i = 0; i < ALLOWED; i++) {
+            assertEquals(false, c.needToIgnore(5000));
+        }
+        assertTrue(c.needToIgnore(5000));
+        assertEquals(false, c.needToIgnore(3));
+    }
+
+    @Test
+    public void concurrentThreadsShareTheCap() throws Exception {
+        final IIDAccessCounter c = new IIDAccessCounter(16);
+        final AtomicInteger passed = new AtomicInteger();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread() {
+                public void run() {
+                    for (int i = 0; i < 10 * ALLOWED; i++) {
+                        if (!c.needToIgnore(7)) passed.incrementAndGet();
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertEquals(ALLOWED, passed.get());
+    }
+}
@@ -0,0 +1,115 @@
+package javato.activetesting.common;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Copyright (c) 2007-2008,
+ * Koushik Sen    <ksen@cs.berkeley.edu>
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * <p/>
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * <p/>
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * <p/>
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class ObjectIdRegistryTest {
+    @Test
+    public void sameObjectSameId() {
+        ObjectIdRegistry r = new ObjectIdRegistry(10);
+        Object a = new Object();
+        Object b = new Object();
+        int ida = r.getOrAssign(a);
+        int idb = r.getOrAssign(b);
+        assertEquals(10, ida);
+        assertEquals(11, idb);
+        assertEquals(ida, r.getOrAssign(a));
+        assertEquals(idb, r.get(b));
+        assertEquals(ObjectIdRegistry.NO_ID, r.get(new Object()));
+        assertSame(a, r.getObject(ida));
+    }
+
+    @Test
+    public void identityNotEquality() {
+        ObjectIdRegistry r = new ObjectIdRegistry(1);
+        String s1 = new String("x");
+        String s2 = new String("x");
+        assertTrue(r.getOrAssign(s1) != r.getOrAssign(s2));
+    }
+
+    @Test
+    public void growsAndKeepsIds() {
+        ObjectIdRegistry r = new ObjectIdRegistry(1, 4, 2);
+        Object[] objs = new Object[10000];
+        for (int i = 0; i < objs.length; i++) {
+            objs[i] = new Object();
+            assertEquals(i + 1, r.getOrAssign(objs[i]));
+        }
+        for (int i = 0; i < objs.length; i++) {
+            assertEquals(i + 1, r.get(objs[i]));
+        }
+        assertEquals(objs.length, r.size());
+    }
+
+    @Test
+    public void concurrentAssignmentIsUnique() throws InterruptedException {
+        final ObjectIdRegistry r = new ObjectIdRegistry(1);
+        final Object[] objs = new Object[5000];
+        for (int i = 0; i < objs.length; i++) {
+            objs[i] = new Object();
+        }
+        final int[][] seen = new int[8][objs.length];
+        Thread[] ts = new Thread[seen.length];
+        for (int t = 0; t < ts.length; t++) {
+            final int tid = t;
+            ts[t] = new Thread() {
+                public void run() {
+                    for (int i = 0; i < objs.length; i++) {
+                        int j = (i * 7 + tid * 131) % objs.length;
+                        seen[tid][j] = r.getOrAssign(objs[j]);
+                    }
+                }
+            };
+            ts[t].start();
+        }
+        for (Thread t : ts) {
+            t.join();
+        }
+        Set<Integer> ids = new HashSet<Integer>();
+        for (int i = 0; i < objs.length; i++) {
+            for (int t = 1; t < seen.length; t++) {
+                assertEquals(seen[0][i], seen[t][i]);
+            }
+            assertTrue(ids.add(seen[0][i]));
+        }
+        assertEquals(objs.length + 1, r.nextId());
+    }
+}
@@ -0,0 +1,214 @@
+package javato.activetesting.hybridracedetection;
+
+import javato.activetesting.analysis.Observer;
+import javato.activetesting.analysis.ShadowState;
+import javato.activetesting.lockset.LockSet;
+import javato.activetesting.lockset.LockSetIds;
+import javato.activetesting.vc.VectorClock;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Copyright (c) 2007-2008,
+ * Koushik Sen    <ksen@cs.berkeley.edu>
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * <p/>
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * <p/>
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * <p/>
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class HybridRaceTrackerTest {
+    private static final int ARRAY = 42;
+    private static final int T1 = 1;
+    private static final int T2 = 2;
+
+    private static VectorClock clock(int thread) {
+        VectorClock vc = new VectorClock();
+        vc.inc(thread);
+        return vc;
+    }
+
+    private static void element(HybridRaceTracker tracker, int iid, int t, int i, boolean isRead) {
+        long m = Observer.idInt(ARRAY, i);
+        tracker.checkRace(iid, t, m, isRead, clock(t), new LockSet(), false, false);
+        tracker.addEvent(iid, t, m, isRead, clock(t), new LockSet());
+    }
+
+    private static void range(HybridRaceTracker tracker, int iid, int t, int lo, int hi, boolean isRead) {
+        tracker.checkRangeRace(iid, t, ARRAY, lo, hi, isRead, clock(t), new LockSet());
+        tracker.addRangeEvent(iid, t, ARRAY, lo, hi, isRead, clock(t), new LockSet());
+    }
+
+    private static void shadowed(HybridRaceTracker tracker, LockSetIds ids, ShadowState s, int iid, int t,
+                                 boolean isRead, int... locks) {
+        LockSet ls = new LockSet();
+        for (int lock : locks) {
+            ls.add(lock);
+        }
+        tracker.checkRace(iid, t, isRead, clock(t), ids.id(ls), ids, s);
+    }
+
+    @Test
+    public void elementInsideRangeRaces() {
+        HybridRaceTracker tracker = new HybridRaceTracker();
+        range(tracker, 1, T1, 0, 10, false);
+        element(tracker, 2, T2, 5, true);
+        assertEquals(1, tracker.getRaces().size());
+    }
+
+    @Test
+    public void elementOutsideRangeDoesNotRace() {
+        HybridRaceTracker tracker = new HybridRaceTracker();
+        range(tracker, 1, T1, 0, 10, false);
+        element(tracker, 2, T2, 10, true);
+        assertEquals(0, tracker.getRaces().size());
+    }
+
+    @Test
+    public void disjointRangesDoNotRace() {
+        HybridRaceTracker tracker = new HybridRaceTracker();
+        range(tracker, 1, T1, 0, 10, false);
+        range(tracker, 2, T2, 10, 20, false);
+        assertEquals(0, tracker.getRaces().size());
+    }
+
+    @Test
+    public void overlappingRangesRace() {
+        HybridRaceTracker tracker = new HybridRaceTracker();
+        range(tracker, 1, T1, 0, 10, false);
+        range(tracker, 2, T2, 9, 20, true);
+        assertEquals(1, tracker.getRaces().size());
+    }
+
+    @Test
+    public void rangeReadsDoNotRace() {
+        HybridRaceTracker tracker = new HybridRaceTracker();
+        range(tracker, 1, T1, 0, 10, true);
+        range(tracker, 2, T2, 0, 10, true);
+        assertEquals(0, tracker.getRaces().size());
+    }
+
+    @Test
+    public void elementBeforeRangeRaces() {
+        HybridRaceTracker tracker = new HybridRaceTracker();
+        element(tracker, 1, T1, 3, false);
+        range(tracker, 2, T2, 0, 10, true);
+        assertEquals(1, tracker.getRaces().size());
+    }
+    @Test
+    public void splitRangeKeepsItsAccesses() {
+        HybridRaceTracker tracker = new HybridRaceTracker();
+        range(tracker, 1, T1, 0, 10, false);
+        range(tracker, 3, T1, 4, 6, false);
+        element(tracker, 2, T2, 8, true);
+        assertEquals(1, tracker.getRaces().size());
+        element(tracker, 4, T2, 5, true);
+        assertEquals(3, tracker.getRaces().size());
+    }
+
+    @Test
+    public void accessToPartOfRangeStaysInThatPart() {
+        HybridRaceTracker tracker = new HybridRaceTracker();
+        range(tracker, 1, T1, 0, 10, false);
+        range(tracker, 3, T1, 0, 5, false);
+        element(tracker, 2, T2, 7, true);
+        assertEquals(1, tracker.getRaces().size());
+    }
+
+    @Test
+    public void rangeOverGapRaces() {
+        HybridRaceTracker tracker = new HybridRaceTracker();
+        range(tracker, 1, T1, 0, 3, false);
+        range(tracker, 1, T1, 6, 9, false);
+        range(tracker, 3, T1, 0, 9, false);
+        element(tracker, 2, T2, 4, true);
+        assertEquals(1, tracker.getRaces().size());
+    }
+
+    @Test
+    public void shadowedWritesRace() {
+        HybridRaceTracker tracker = new HybridRaceTracker();
+        LockSetIds ids = new LockSetIds();
+        ShadowState s = new ShadowState();
+        shadowed(tracker, ids, s, 1, T1, false);
+        shadowed(tracker, ids, s, 2, T2, false);
+        assertEquals(1, tracker.getRaces().size());
+        shadowed(tracker, ids, s, 3, T2, true);
+        assertEquals(1, tracker.getRaces().size());
+    }
+
+    @Test
+    public void shadowedAccessesUnderACommonLockDoNotRace() {
+        HybridRaceTracker tracker = new HybridRaceTracker();
+        LockSetIds ids = new LockSetIds();
+        ShadowState s = new ShadowState();
+        shadowed(tracker, ids, s, 1, T1, false, 10, 20);
+        shadowed(tracker, ids, s, 2, T2, false, 20);
+        assertEquals(0, tracker.getRaces().size());
+        shadowed(tracker, ids, s, 3, T1, true, 30);
+        assertEquals(1, tracker.getRaces().size());
+    }
+
+    @Test
+    public void orderedShadowedAccessesDoNotRace() {
+        HybridRaceTracker tracker = new HybridRaceTracker();
+        LockSetIds ids = new LockSetIds();
+        ShadowState s = new ShadowState();
+        shadowed(tracker, ids, s, 1, T1, false);
+        // T2 joined T1 after the write
+        VectorClock vc = clock(T2);
+        vc.updateMax(clock(T1));
+        tracker.checkRace(2, T2, false, vc, LockSetIds.EMPTY, ids, s);
+        assertEquals(0, tracker.getRaces().size());
+    }
+
+    @Test
+    public void shadowedWriteRacesEachReader() {
+        HybridRaceTracker tracker = new HybridRaceTracker();
+        LockSetIds ids = new LockSetIds();
+        ShadowState s = new ShadowState();
+        shadowed(tracker, ids, s, 1, T1, true);
+        shadowed(tracker, ids, s, 2, T2, true);
+        assertEquals(0, tracker.getRaces().size());
+        shadowed(tracker, ids, s, 3, 3, false);
+        assertEquals(2, tracker.getRaces().size());
+    }
+
+    @Test
+    public void shadowedAccessIsComparedWithTheLastWriteOnly() {
+        HybridRaceTracker tracker = new HybridRaceTracker();
+        LockSetIds ids = new LockSetIds();
+        ShadowState s = new ShadowState();
+        shadowed(tracker, ids, s, 1, T1, false);
+        // races with 1, then takes its place
+        shadowed(tracker, ids, s, 2, T2, false, 10);
+        assertEquals(1, tracker.getRaces().size());
+        // would race with 1 too, which the maps would report
+        shadowed(tracker, ids, s, 3, T2, true, 10);
+        assertEquals(1, tracker.getRaces().size());
+    }
+}
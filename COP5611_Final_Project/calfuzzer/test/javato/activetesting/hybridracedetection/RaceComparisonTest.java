@@ -0,0 +1,76 @@
+package javato.activetesting.hybridracedetection;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Copyright (c) 2007-2008,
+ * Koushik Sen    <ksen@cs.berkeley.edu>
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * <p/>
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * <p/>
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * <p/>
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class RaceComparisonTest {
+    private static CommutativePair race(int x, int y) {
+        return new CommutativePair(x, 1L, false, y, 1L, true, false, false);
+    }
+
+    @Test
+    public void racesAreMatchedByLineNotByIid() {
+        List<String> before = Arrays.asList("A#3", "A#4", "B#7", "B#9");
+        // the second instrumentation dropped the site at A#4 and numbered the rest anew
+        List<String> after = Arrays.asList("A#3", "B#7", "B#9");
+        Set<String> lost = RaceComparison.missing(
+                Arrays.asList(race(0, 2), race(3, 1)), before,
+                Arrays.asList(race(1, 0)), after);
+        assertEquals(1, lost.size());
+        assertTrue(lost.contains("A#4||B#9"));
+    }
+
+    @Test
+    public void theOrderOfTheAccessesDoesNotMatter() {
+        List<String> lines = Arrays.asList("A#3", "B#7");
+        assertTrue(RaceComparison.missing(Arrays.asList(race(0, 1)), lines,
+                Arrays.asList(race(1, 0)), lines).isEmpty());
+    }
+
+    @Test
+    public void lockRacesAreNotCompared() {
+        List<String> lines = Arrays.asList("A#3", "B#7");
+        CommutativePair lockRace = new CommutativePair(0, 1L, true, 1, 1L, false, true, false);
+        assertTrue(RaceComparison.byLines(Arrays.asList(lockRace), lines).isEmpty());
+        assertTrue(RaceComparison.missing(Arrays.asList(lockRace), lines,
+                Arrays.<CommutativePair>asList(), lines).isEmpty());
+    }
+}
@@ -0,0 +1,124 @@
+package javato.activetesting.lockset;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Copyright (c) 2007-2008,
+ * Koushik Sen    <ksen@cs.berkeley.edu>
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * <p/>
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * <p/>
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * <p/>
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class LockSetTrackerTest {
+    @Test
+    public void lockSetIsSharedUntilTheLocksChange() {
+        LockSetTracker tracker = new LockSetTracker();
+        tracker.lockBefore(1, 1, 10);
+        LockSet ls = tracker.getLockSet(1);
+        assertSame(ls, tracker.getLockSet(1));
+        tracker.lockBefore(2, 1, 20);
+        assertEquals(new LockSet(Arrays.asList(10, 20)), tracker.getLockSet(1));
+        assertEquals(new LockSet(Arrays.asList(10)), ls);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void sharedLockSetCannotBeModified() {
+        LockSetTracker tracker = new LockSetTracker();
+        tracker.lockBefore(1, 1, 10);
+        tracker.getLockSet(1).add(20);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void emptySetCannotBeModified() {
+        LockSet.emptySet.add(10);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void sharedLockSetIteratorCannotRemove() {
+        LockSetTracker tracker = new LockSetTracker();
+        tracker.lockBefore(1, 1, 10);
+        java.util.Iterator<Integer> it = tracker.getLockSet(1).iterator();
+        it.next();
+        it.remove();
+    }
+
+    @Test
+    public void equalLockSetsGetTheSameId() {
+        LockSetTracker tracker = new LockSetTracker();
+        assertEquals(LockSetIds.EMPTY, tracker.getLockSetId(1));
+        tracker.lockBefore(1, 1, 10);
+        tracker.lockBefore(2, 1, 20);
+        tracker.lockBefore(3, 2, 20);
+        tracker.lockBefore(4, 2, 10);
+        int id = tracker.getLockSetId(1);
+        assertEquals(id, tracker.getLockSetId(2));
+        assertEquals(new LockSet(Arrays.asList(10, 20)), tracker.getLockSetIds().get(id));
+        tracker.unlockAfter(1);
+        int inner = tracker.getLockSetId(1);
+        assertFalse(id == inner);
+        assertEquals(new LockSet(Arrays.asList(10)), tracker.getLockSetIds().get(inner));
+        tracker.unlockAfter(1);
+        assertEquals(LockSetIds.EMPTY, tracker.getLockSetId(1));
+    }
+
+    @Test
+    public void lockSetIdsIntersectLikeTheirLockSets() {
+        LockSetIds ids = new LockSetIds();
+        LockSet ls = new LockSet(Arrays.asList(10, 20));
+        int a = ids.id(ls);
+        int b = ids.id(new LockSet(Arrays.asList(20, 30)));
+        int c = ids.id(new LockSet(Arrays.asList(30)));
+        // the table keeps its own copy
+        ls.add(30);
+        assertEquals(a, ids.id(new LockSet(Arrays.asList(10, 20))));
+        assertEquals(4, ids.size());
+        assertTrue(ids.intersects(a, b));
+        assertTrue(ids.intersects(b, a));
+        assertTrue(ids.intersects(b, c));
+        assertFalse(ids.intersects(a, c));
+        assertFalse(ids.intersects(c, a));
+        assertTrue(ids.intersects(a, a));
+        assertFalse(ids.intersects(a, LockSetIds.EMPTY));
+        assertFalse(ids.intersects(LockSetIds.EMPTY, LockSetIds.EMPTY));
+    }
+
+    @Test
+    public void copiesCanBeModified() {
+        LockSet copy = new LockSet(LockSet.emptySet);
+        copy.add(10);
+        assertTrue(copy.contains(10));
+        assertTrue(LockSet.emptySet.isEmpty());
+    }
+}
@@ -0,0 +1,83 @@
+package javato.activetesting.perf;
+
+import javato.activetesting.analysis.Analysis;
+import javato.activetesting.analysis.LegacyAnalysisAdapter;
+import javato.activetesting.analysis.PrimitiveAnalysis;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Copyright (c) 2007-2008,
+ * Koushik Sen    <ksen@cs.berkeley.edu>
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * <p/>
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * <p/>
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * <p/>
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class AllocationPerEventBenchmark {
+    private static final int OBJECTS = 64;
+    private static final int IIDS = 16;
+
+    public static volatile Object sink;
+
+    public static void main(String[] args) throws Exception {
+        String[] classes = args.length > 0 ? args : new String[]{
+                "javato.activetesting.HybridAnalysis",
+                "javato.activetesting.LocksetAnalysis",
+                "javato.activetesting.BlankAnalysis"};
+        int events = Integer.getInteger("javato.bench.events", 2000000);
+        com.sun.management.ThreadMXBean mx =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long tid = Thread.currentThread().getId();
+
+        System.out.println("Heap allocation per read/write event (bytes)");
+        for (String name : classes) {
+            Object a = Class.forName(name).getDeclaredConstructor().newInstance();
+            // the analyses register themselves as shutdown hooks; keep their
+            // finish() from writing error files for a benchmark run
+            if (a instanceof Thread) {
+                Runtime.getRuntime().removeShutdownHook((Thread) a);
+            }
+            PrimitiveAnalysis analysis = a instanceof PrimitiveAnalysis
+                    ? (PrimitiveAnalysis) a : new LegacyAnalysisAdapter((Analysis) a);
+
+            double bytes = 0;
+            for (int r = 0; r < MicroBenchmark.warmups + MicroBenchmark.runs; r++) {
+                long before = mx.getThreadAllocatedBytes(tid);
+                for (int i = 0; i < events; i += 2) {
+                    long memory = ((long) (1 + (i & (OBJECTS - 1))) << 32) | 3;
+                    analysis.readBefore(5000 + (i & (IIDS - 1)), 1, memory, false);
+                    analysis.writeBefore(6000 + (i & (IIDS - 1)), 1, memory, false);
+                }
+                long after = mx.getThreadAllocatedBytes(tid);
+                bytes = (double) (after - before) / events;
+            }
+            sink = analysis;
+            System.out.printf("%-45s %8.1f%n", name, bytes);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package javato.activetesting.perf;
+
+import javato.activetesting.HybridAnalysis;
+import javato.activetesting.analysis.Observer;
+
+/**
+ * Copyright (c) 2007-2008,
+ * Koushik Sen    <ksen@cs.berkeley.edu>
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * <p/>
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * <p/>
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * <p/>
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+/**
+ * Sweeps over an array as HybridAnalysis sees them, one event per element
+ * or one range event per sweep, as javato.array.ranges reports the accesses
+ * of a counted loop. Every thread sweeps its own array.
+ */
+public class ArrayRangeBenchmark {
+    private static final int LENGTH = 256;
+
+    public static volatile int sink;
+
+    public static void main(String[] args) {
+        int ops = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int[] threads = MicroBenchmark.threadCounts(args, 1);
+
+        MicroBenchmark.printHeader("array sweeps of " + LENGTH + " (sweeps/ms)",
+                new String[]{"elements", "ranges", "speedup"});
+        for (int t : threads) {
+            double e = MicroBenchmark.measure(t, ops, sweeps(new HybridAnalysis(), false));
+            double r = MicroBenchmark.measure(t, ops, sweeps(new HybridAnalysis(), true));
+            MicroBenchmark.printRow(t, new double[]{e, r, r / e});
+        }
+    }
+
+    private static MicroBenchmark.Workload sweeps(final HybridAnalysis a, final boolean ranges) {
+        return new MicroBenchmark.Workload() {
+            public void run(int thread, int n) {
+                int array = thread + 1;
+                for (int k = 0; k < n; k++) {
+                    boolean write = (k & 1) == 0;
+                    if (ranges) {
+                        if (write) {
+                            a.writeRangeBefore(1, thread, array, 0, LENGTH);
+                        } else {
+                            a.readRangeBefore(2, thread, array, 0, LENGTH);
+                        }
+                    } else {
+                        for (int i = 0; i < LENGTH; i++) {
+                            long m = Observer.idInt(array, i);
+                            if (write) {
+                                a.writeBefore(1, thread, m, false);
+                            } else {
+                                a.readBefore(2, thread, m, false);
+                            }
+                        }
+                    }
+                }
+                sink = array;
+            }
+        };
+    }
+}
@@ -0,0 +1,115 @@
+package javato.activetesting.perf;
+
+import javato.activetesting.LocksetAnalysis;
+import javato.activetesting.analysis.Observer;
+import javato.activetesting.analysis.ObserverForActiveTesting;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+
+/**
+ * Copyright (c) 2007-2008,
+ * Koushik Sen    <ksen@cs.berkeley.edu>
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * <p/>
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * <p/>
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * <p/>
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+/**
+ * Method enter and exit events through the observer hooks, which keep the
+ * call stacks of LocksetAnalysis, against the String signatures and shared
+ * LinkedList stacks LocksetAnalysis had before method ids.
+ */
+public class MethodEventBenchmark {
+    private static final int DEPTH = 8;
+
+    // what LocksetAnalysis did before method ids
+    private static class Legacy {
+        private final HashMap<Integer, LinkedList<Integer>> stacks = new HashMap<Integer, LinkedList<Integer>>();
+
+        void methodEnterBefore(int iid, int thread, String method) {
+            synchronized (stacks) {
+                LinkedList<Integer> st = stacks.get(thread);
+                if (st == null) {
+                    st = new LinkedList<Integer>();
+                    stacks.put(thread, st);
+                }
+                st.addFirst(iid);
+            }
+        }
+
+        void methodExitAfter(int iid, int thread, String method) {
+            synchronized (stacks) {
+                stacks.get(thread).removeFirst();
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        int[] threadCounts = MicroBenchmark.threadCounts(args, 0);
+        int ops = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+        // read when ObserverForActiveTesting is initialized below
+        System.setProperty("javato.activetesting.analysis.class", LocksetAnalysis.class.getName());
+        final String[] signatures = new String[DEPTH];
+        for (int i = 0; i < DEPTH; i++) {
+            signatures[i] = "<benchmarks.Foo: void bar" + i + "(int)>";
+        }
+
+        MicroBenchmark.printHeader("Method enter/exit pairs (ops/ms)", new String[]{"strings", "method-ids", "speedup"});
+        for (int threads : threadCounts) {
+            final Legacy legacy = new Legacy();
+            double l = MicroBenchmark.measure(threads, ops, new MicroBenchmark.Workload() {
+                public void run(int thread, int n) {
+                    int id = Observer.currentThreadId();
+                    for (int i = 0; i < n; i += DEPTH) {
+                        for (int d = 0; d < DEPTH; d++) {
+                            // the instrumentor put one String constant per call site
+                            legacy.methodEnterBefore(2 * d, id, signatures[d]);
+                        }
+                        for (int d = DEPTH - 1; d >= 0; d--) {
+                            legacy.methodExitAfter(2 * d + 1, id, signatures[d]);
+                        }
+                    }
+                }
+            });
+            double m = MicroBenchmark.measure(threads, ops, new MicroBenchmark.Workload() {
+                public void run(int thread, int n) {
+                    for (int i = 0; i < n; i += DEPTH) {
+                        for (int d = 0; d < DEPTH; d++) {
+                            ObserverForActiveTesting.myMethodEnterBefore(2 * d, d);
+                        }
+                        for (int d = DEPTH - 1; d >= 0; d--) {
+                            ObserverForActiveTesting.myMethodExitAfter(2 * d + 1, d);
+                        }
+                    }
+                }
+            });
+            MicroBenchmark.printRow(threads, new double[]{l, m, m / l});
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package javato.activetesting.perf;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Copyright (c) 2007-2008,
+ * Koushik Sen    <ksen@cs.berkeley.edu>
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * <p/>
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * <p/>
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * <p/>
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+/**
+ * Minimal harness for the multi-threaded micro benchmarks in this package.
+ * Each measurement starts all threads on a latch, runs a fixed number of
+ * operations per thread and reports the median throughput over several runs
+ * after discarding the warm-up runs.
+ */
+public class MicroBenchmark {
+    public interface Workload {
+        /**
+         * Performs ops operations on behalf of benchmark thread number thread.
+         */
+        void run(int thread, int ops);
+    }
+
+    public static int warmups = Integer.getInteger("javato.bench.warmups", 3);
+    public static int runs = Integer.getInteger("javato.bench.runs", 5);
+
+    public static int[] threadCounts(String[] args, int argIndex) {
+        String spec = args.length > argIndex ? args[argIndex] : null;
+        if (spec == null) {
+            int max = Runtime.getRuntime().availableProcessors();
+            int n = 0;
+            for (int t = 1; t <= max; t <<= 1) n++;
+            int[] ret = new int[n];
+            n = 0;
+            for (int t = 1; t <= max; t <<= 1) ret[n++] = t;
+            return ret;
+        }
+        String[] parts = spec.split(",");
+        int[] ret = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            ret[i] = Integer.parseInt(parts[i].trim());
+        }
+        return ret;
+    }
+
+    /**
+     * Returns the median throughput in operations per millisecond.
+     */
+    public static double measure(final int threads, final int opsPerThread, final Workload w) {
+        double[] results = new double[runs];
+        for (int r = -warmups; r < runs; r++) {
+            double tput = runOnce(threads, opsPerThread, w);
+            if (r >= 0) results[r] = tput;
+        }
+        java.util.Arrays.sort(results);
+        return results[runs / 2];
+    }
+
+    private static double runOnce(final int threads, final int opsPerThread, final Workload w) {
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] ts = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final int tid = i;
+            ts[i] = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                    w.run(tid, opsPerThread);
+                }
+            };
+            ts[i].start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread t : ts) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+        long elapsed = System.nanoTime() - begin;
+        return ((double) threads * opsPerThread) / (elapsed / 1e6);
+    }
+
+    public static void printHeader(String title, String[] columns) {
+        System.out.println(title);
+        System.out.print("threads");
+        for (String c : columns) {
+            System.out.print("\t" + c);
+        }
+        System.out.println();
+    }
+
+    public static void printRow(int threads, double[] values) {
+        System.out.print(threads);
+        for (double v : values) {
+            System.out.print("\t" + String.format("%.1f", v));
+        }
+        System.out.println();
+    }
+}
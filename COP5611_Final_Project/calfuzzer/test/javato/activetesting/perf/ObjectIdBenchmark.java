@@ -0,0 +1,167 @@
+package javato.activetesting.perf;
+
+import javato.activetesting.analysis.ObjectIdHolder;
+import javato.activetesting.analysis.Observer;
+import javato.activetesting.common.ObjectIdRegistry;
+import javato.activetesting.common.WeakIdentityHashMap;
+
+/**
+ * Copyright (c) 2007-2008,
+ * Koushik Sen    <ksen@cs.berkeley.edu>
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * <p/>
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * <p/>
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * <p/>
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+/**
+ * Compares object id assignment through the old synchronized
+ * WeakIdentityHashMap with the striped ObjectIdRegistry used by Observer.
+ * <p/>
+ * Usage: java javato.activetesting.perf.ObjectIdBenchmark [threads,...] [ops per thread]
+ * <p/>
+ * Every operation looks up an object from a pool shared by all threads; one in
+ * every 64 operations assigns an id to a freshly allocated object, mimicking
+ * the mix of hot and new objects seen by the observer.
+ */
+public class ObjectIdBenchmark {
+    private static final int POOL_SIZE = 1 << 14;
+    private static final Object[] pool = new Object[POOL_SIZE];
+    private static final Object[] carriers = new Object[POOL_SIZE];
+    private static final Object[] holders = new Object[POOL_SIZE];
+
+    static {
+        for (int i = 0; i < POOL_SIZE; i++) {
+            pool[i] = new Object();
+            carriers[i] = new Carrier();
+            holders[i] = new Holder();
+        }
+    }
+
+    // a class the instrumentor gave only the field, e.g. a Serializable one
+    private static class Carrier {
+        private transient int javato$oid;
+    }
+
+    // any other class
+    private static class Holder implements ObjectIdHolder {
+        private transient int javato$oid;
+
+        public int javato$getOid() {
+            return javato$oid;
+        }
+
+        public void javato$setOid(int id) {
+            javato$oid = id;
+        }
+    }
+
+    // the implementation Observer.uniqueId had before ObjectIdRegistry
+    private static class Legacy {
+        private WeakIdentityHashMap objectMap = new WeakIdentityHashMap(3511);
+        private int currentId = 1;
+
+        synchronized Integer uniqueId(Object o) {
+            Object val = objectMap.get(o);
+            if (val == null) {
+                val = currentId++;
+                objectMap.put(o, val);
+            }
+            return (Integer) val;
+        }
+    }
+
+    public static volatile int sink;
+
+    public static void main(String[] args) {
+        // before Parameters is loaded
+        System.setProperty("javato.oid.field", "true");
+        int[] threadCounts = MicroBenchmark.threadCounts(args, 0);
+        int ops = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+
+        MicroBenchmark.printHeader("Object id assignment (ops/ms)", new String[]{"synchronized", "registry", "speedup"});
+        for (int threads : threadCounts) {
+            final Legacy legacy = new Legacy();
+            double l = MicroBenchmark.measure(threads, ops, new MicroBenchmark.Workload() {
+                public void run(int thread, int n) {
+                    int seed = thread * 0x9E3779B9 + 1;
+                    int acc = 0;
+                    for (int i = 0; i < n; i++) {
+                        seed ^= seed << 13;
+                        seed ^= seed >>> 17;
+                        seed ^= seed << 5;
+                        Object o = (i & 63) == 0 ? new Object() : pool[seed & (POOL_SIZE - 1)];
+                        acc += legacy.uniqueId(o);
+                    }
+                    sink = acc;
+                }
+            });
+            final ObjectIdRegistry registry = new ObjectIdRegistry(1);
+            double r = MicroBenchmark.measure(threads, ops, new MicroBenchmark.Workload() {
+                public void run(int thread, int n) {
+                    int seed = thread * 0x9E3779B9 + 1;
+                    int acc = 0;
+                    for (int i = 0; i < n; i++) {
+                        seed ^= seed << 13;
+                        seed ^= seed >>> 17;
+                        seed ^= seed << 5;
+                        Object o = (i & 63) == 0 ? new Object() : pool[seed & (POOL_SIZE - 1)];
+                        acc += registry.getOrAssign(o);
+                    }
+                    sink = acc;
+                }
+            });
+            MicroBenchmark.printRow(threads, new double[]{l, r, r / l});
+        }
+
+        MicroBenchmark.printHeader("Observer.uniqueId (ops/ms)",
+                new String[]{"registry", "reflection", "accessor", "speedup"});
+        for (int threads : threadCounts) {
+            double r = MicroBenchmark.measure(threads, ops, observerIds(pool));
+            double f = MicroBenchmark.measure(threads, ops, observerIds(carriers));
+            double a = MicroBenchmark.measure(threads, ops, observerIds(holders));
+            MicroBenchmark.printRow(threads, new double[]{r, f, a, a / r});
+        }
+    }
+
+    private static MicroBenchmark.Workload observerIds(final Object[] objects) {
+        return new MicroBenchmark.Workload() {
+            public void run(int thread, int n) {
+                int seed = thread * 0x9E3779B9 + 1;
+                int acc = 0;
+                for (int i = 0; i < n; i++) {
+                    seed ^= seed << 13;
+                    seed ^= seed >>> 17;
+                    seed ^= seed << 5;
+                    Object o = (i & 63) != 0 ? objects[seed & (POOL_SIZE - 1)]
+                            : objects == carriers ? new Carrier() : objects == holders ? new Holder() : new Object();
+                    acc += Observer.uniqueId(o);
+                }
+                sink = acc;
+            }
+        };
+    }
+}
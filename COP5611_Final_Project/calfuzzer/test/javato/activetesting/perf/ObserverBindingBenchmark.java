@@ -0,0 +1,181 @@
+package javato.activetesting.perf;
+
+import javato.activetesting.analysis.ObserverForActiveTesting;
+import javato.activetesting.analysis.PrimitiveAnalysisImpl;
+import javato.activetesting.asm.ObserverSpecializer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Copyright (c) 2007-2008,
+ * Koushik Sen    <ksen@cs.berkeley.edu>
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * <p/>
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * <p/>
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * <p/>
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class ObserverBindingBenchmark {
+    private static final int METHOD = 3;
+
+    /**
+     * Stands in for instrumented code: a method entry event per iteration.
+     */
+    public static class Loop {
+        public static void run(int ops) {
+            for (int i = 0; i < ops; i++) {
+                ObserverForActiveTesting.myMethodEnterBefore(1 + (i & 15), METHOD);
+            }
+        }
+    }
+
+    public static class Measured extends PrimitiveAnalysisImpl {
+        public int hits;
+
+        public void methodEnterBefore(int iid, int thread, int method) {
+            if (method < 0) hits++;
+        }
+    }
+
+    public static class Other1 extends PrimitiveAnalysisImpl {
+        public int hits;
+
+        public void methodEnterBefore(int iid, int thread, int method) {
+            if (iid < 0) hits++;
+        }
+    }
+
+    public static class Other2 extends PrimitiveAnalysisImpl {
+        public int hits;
+
+        public void methodEnterBefore(int iid, int thread, int method) {
+            if (thread < 0) hits++;
+        }
+    }
+
+    /**
+     * Loads the observer afresh, so that each column starts with clean
+     * profiles, and with bind the Loop calling BoundObserver.
+     */
+    static class IsolatedLoader extends URLClassLoader {
+        private final boolean bind;
+
+        IsolatedLoader(URL[] urls, boolean bind) {
+            super(urls, null);
+            this.bind = bind;
+        }
+
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            if (bind && name.equals(ObserverSpecializer.BOUND.replace('/', '.'))) {
+                byte[] b = ObserverSpecializer.generate();
+                return defineClass(name, b, 0, b.length);
+            }
+            if (bind && name.equals(Loop.class.getName())) {
+                byte[] b = ObserverSpecializer.retarget(read(name));
+                return defineClass(name, b, 0, b.length);
+            }
+            return super.findClass(name);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int[] threads = MicroBenchmark.threadCounts(args, 0);
+        final int ops = Integer.getInteger("javato.bench.ops", 20000000);
+        System.setProperty("javato.activetesting.analysis.class", Measured.class.getName());
+        List<URL> urls = new ArrayList<URL>();
+        for (String p : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            urls.add(new File(p).toURI().toURL());
+        }
+        URL[] cp = urls.toArray(new URL[urls.size()]);
+
+        MicroBenchmark.printHeader("Method entry events through the observer (ops/ms)",
+                new String[]{"field", "field-3-analyses", "bound"});
+        for (int t : threads) {
+            double[] row = new double[3];
+            row[0] = MicroBenchmark.measure(t, ops, loop(new IsolatedLoader(cp, false), null));
+            row[1] = MicroBenchmark.measure(t, ops, loop(new IsolatedLoader(cp, false), new String[]{
+                    Other1.class.getName(), Other2.class.getName(), Measured.class.getName()}));
+            row[2] = MicroBenchmark.measure(t, ops, loop(new IsolatedLoader(cp, true), null));
+            MicroBenchmark.printRow(t, row);
+        }
+    }
+
+    /**
+     * Returns the Loop of the loader, after running it through
+     * ObserverForActiveTesting with each of the analyses in turn.
+     */
+    private static MicroBenchmark.Workload loop(ClassLoader loader, String[] analyses) throws Exception {
+        final Method run = loader.loadClass(Loop.class.getName()).getMethod("run", int.class);
+        if (analyses != null) {
+            Class<?> observer = loader.loadClass(ObserverForActiveTesting.class.getName());
+            for (String a : analyses) {
+                Object analysis = loader.loadClass(a).getDeclaredConstructor().newInstance();
+                observer.getField("analysis").set(null, analysis);
+                for (int i = 0; i < 20; i++) {
+                    run.invoke(null, 100000);
+                }
+            }
+        }
+        return new MicroBenchmark.Workload() {
+            public void run(int thread, int ops) {
+                try {
+                    run.invoke(null, ops);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+    }
+
+    private static byte[] read(String name) throws ClassNotFoundException {
+        InputStream in = ObserverBindingBenchmark.class.getClassLoader()
+                .getResourceAsStream(name.replace('.', '/') + ".class");
+        if (in == null) throw new ClassNotFoundException(name);
+        try {
+            try {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buf = new byte[8192];
+                int n;
+                while ((n = in.read(buf)) > 0) {
+                    out.write(buf, 0, n);
+                }
+                return out.toByteArray();
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            throw new ClassNotFoundException(name, e);
+        }
+    }
+}
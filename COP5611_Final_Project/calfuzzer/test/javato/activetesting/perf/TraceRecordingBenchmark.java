@@ -0,0 +1,112 @@
+package javato.activetesting.perf;
+
+import javato.activetesting.HybridAnalysis;
+import javato.activetesting.TraceRecordingAnalysis;
+import javato.activetesting.analysis.PrimitiveAnalysis;
+import javato.activetesting.analysis.PrimitiveAnalysisImpl;
+
+import java.io.File;
+
+/**
+ * Copyright (c) 2007-2008,
+ * Koushik Sen    <ksen@cs.berkeley.edu>
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * <p/>
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * <p/>
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * <p/>
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+/**
+ * Field accesses and locks as the observer passes them on, either analyzed
+ * inline by HybridAnalysis or recorded by TraceRecordingAnalysis for an
+ * offline run.
+ * <p/>
+ * Usage: java javato.activetesting.perf.TraceRecordingBenchmark [ops per thread] [threads,...]
+ */
+public class TraceRecordingBenchmark {
+    private static final int LOCATIONS = 1 << 12;
+
+    public static volatile int sink;
+
+    public static void main(String[] args) throws Exception {
+        File dir = File.createTempFile("javato-trace", "");
+        dir.delete();
+        // before Parameters is loaded
+        System.setProperty("javato.trace.dir", dir.getPath());
+        int ops = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int[] threads = MicroBenchmark.threadCounts(args, 1);
+
+        MicroBenchmark.printHeader("events (ops/ms)", new String[]{"HybridAnalysis", "recording", "speedup"});
+        for (int t : threads) {
+            double h = MicroBenchmark.measure(t, ops, events(new HybridAnalysis()));
+            TraceRecordingAnalysis r = new TraceRecordingAnalysis();
+            PrimitiveAnalysisImpl.detachShutdownHook(r);
+            double w = MicroBenchmark.measure(t, ops, events(r));
+            r.finish();
+            MicroBenchmark.printRow(t, new double[]{h, w, w / h});
+        }
+
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    // one lock and unlock in every 16 operations, the rest reads and writes
+    private static MicroBenchmark.Workload events(final PrimitiveAnalysis a) {
+        return new MicroBenchmark.Workload() {
+            public void run(int thread, int n) {
+                int seed = thread * 0x9E3779B9 + 1;
+                for (int i = 0; i < n; i++) {
+                    seed ^= seed << 13;
+                    seed ^= seed >>> 17;
+                    seed ^= seed << 5;
+                    long m = ((long) ((seed & (LOCATIONS - 1)) + 1) << 32) | 3;
+                    int iid = seed & 1023;
+                    switch (i & 15) {
+                        case 0:
+                            a.lockBefore(iid, thread, 7, null);
+                            a.lockAfter(iid, thread, 7, null);
+                            break;
+                        case 8:
+                            a.unlockAfter(iid, thread, 7);
+                            break;
+                        default:
+                            if ((seed & 3) == 0) {
+                                a.writeBefore(iid, thread, m, false);
+                            } else {
+                                a.readBefore(iid, thread, m, false);
+                            }
+                    }
+                }
+                sink = seed;
+            }
+        };
+    }
+}
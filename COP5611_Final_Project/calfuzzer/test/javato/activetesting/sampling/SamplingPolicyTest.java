@@ -0,0 +1,161 @@
+package javato.activetesting.sampling;
+
+import javato.activetesting.common.IIDAccessCounter;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Copyright (c) 2007-2008,
+ * Koushik Sen    <ksen@cs.berkeley.edu>
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * <p/>
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * <p/>
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * <p/>
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class SamplingPolicyTest {
+
+    private static int analyzed(SamplingPolicy p, int iid, int times) {
+        int n = 0;
+        for (int i = 0; i < times; i++) {
+            if (!p.skipIid(iid, 1) && !p.skipAccess(iid, 1, 42L)) n++;
+        }
+        return n;
+    }
+
+    @Test
+    public void fixedCapReportsItsRate() {
+        FixedCapPolicy p = new FixedCapPolicy(new IIDAccessCounter(4));
+        p.setCounting(true);
+        int n = analyzed(p, 3, 1000);
+        assertEquals(n, p.getSampled());
+        assertEquals(1000, p.getSeen());
+        assertTrue(p.getRate() < 1.0);
+    }
+
+    @Test
+    public void adaptiveKeepsColdCodeAndThinsHotCode() {
+        AdaptiveBurstPolicy p = new AdaptiveBurstPolicy(new IIDAccessCounter(4), 10, 0.01);
+        assertEquals(10, analyzed(p, 1, 10));
+        // bursts 1..127 keep 1, 2, 4, ..., 64 -> 7 more bursts of 10
+        assertEquals(70, analyzed(p, 1, 1270));
+        assertEquals(10, analyzed(p, 2, 10));
+        // below min rate of 1% the rate stays at 1/64 bursts
+        int hot = analyzed(p, 1, 64000);
+        assertEquals(1000, hot);
+    }
+
+    @Test
+    public void threadPairSamplesNewInterleavings() {
+        ThreadPairPolicy p = new ThreadPairPolicy(5);
+        int n = 0;
+        for (int i = 0; i < 100; i++) {
+            if (!p.skipAccess(7, 1, 42L)) n++;
+        }
+        // first access (no previous accessor) plus the cap for thread 1 after itself
+        assertEquals(6, n);
+        // same iid, but thread 2 now follows thread 1 at the location
+        assertFalse(p.skipAccess(7, 2, 42L));
+        assertFalse(p.skipAccess(7, 1, 42L));
+    }
+
+    @Test
+    public void budgetCapsEventsPerWindow() {
+        EventBudgetPolicy p = new EventBudgetPolicy(100 * 50);
+        int n = analyzed(p, 1, 1000);
+        // the loop may straddle a window boundary
+        assertTrue(n >= 50 && n <= 100);
+    }
+
+    @Test
+    public void onlyPoliciesPickedByHandCount() {
+        assertFalse(SamplingPolicy.create(SamplingPolicy.DEFAULT).isCounting());
+        assertTrue(SamplingPolicy.create("adaptive").isCounting());
+    }
+
+    private static boolean before(SamplingPolicy p, int iid, long memory) {
+        return p.skipIid(iid, 1) || p.skipAccess(iid, 1, memory);
+    }
+
+    @Test
+    public void afterEventsFollowTheirBeforeEvent() {
+        // two sites executed 1280 times each; the instrumentors give the
+        // after hook of an access the iid following that of its before hook
+        AdaptiveBurstPolicy p = new AdaptiveBurstPolicy(new IIDAccessCounter(4), 3, 0.01);
+        p.setPairing(true);
+        p.setCounting(true);
+        int before = 0, after = 0;
+        for (int i = 0; i < 1280; i++) {
+            boolean b = before(p, 10, 42L);
+            boolean a = p.skipAfter(11, 1, 42L);
+            assertEquals(b, a);
+            if (!b) before++;
+            if (!a) after++;
+            b = before(p, 20, 43L);
+            a = p.skipAfter(21, 1, 43L);
+            assertEquals(b, a);
+        }
+        assertEquals(before, after);
+        assertTrue(before < 1280);
+        // each access was decided once
+        assertEquals(2 * 1280, p.getSeen());
+    }
+
+    @Test
+    public void afterEventsOfOtherAccessesAreDecidedOnTheirOwn() {
+        SamplingPolicy p = new SamplingPolicy() {
+            protected boolean filterAccess(int iid, int thread, long memory) {
+                return memory == 42L;
+            }
+
+            public String getName() {
+                return "test";
+            }
+        };
+        p.setPairing(true);
+        p.setCounting(true);
+        assertTrue(before(p, 10, 42L));
+        // a volatile read has no after event; the next one is of another location
+        assertFalse(p.skipAfter(31, 1, 43L));
+        // and the pending access was consumed by the first after event only
+        assertFalse(before(p, 40, 43L));
+        assertFalse(p.skipAfter(41, 1, 43L));
+        assertTrue(p.skipAfter(41, 1, 42L));
+        assertEquals(4, p.getSeen());
+        // an after event without a before event is decided on its own
+        assertFalse(new AdaptiveBurstPolicy(new IIDAccessCounter(4), 3, 0.01).skipAfter(1, 1, 42L));
+    }
+
+    @Test
+    public void noneAnalyzesEverything() {
+        SamplingPolicy p = SamplingPolicy.create("none");
+        assertEquals(500, analyzed(p, 1, 500));
+        assertEquals(1.0, p.getRate(), 0.0);
+    }
+}
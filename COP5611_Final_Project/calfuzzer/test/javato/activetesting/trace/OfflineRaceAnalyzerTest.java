@@ -0,0 +1,113 @@
+package javato.activetesting.trace;
+
+import javato.activetesting.hybridracedetection.CommutativePair;
+import javato.activetesting.hybridracedetection.HybridRaceTracker;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Copyright (c) 2007-2008,
+ * Koushik Sen    <ksen@cs.berkeley.edu>
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * <p/>
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * <p/>
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * <p/>
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class OfflineRaceAnalyzerTest {
+    private static final int MAIN = 1;
+    private static final int T1 = 2;
+    private static final int T2 = 3;
+    private static final int LOCK = 50;
+
+    private File dir;
+
+    @After
+    public void deleteTrace() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    private static long mem(int object, int field) {
+        return ((long) object << 32) | field;
+    }
+
+    private TraceReader record() throws Exception {
+        dir = File.createTempFile("javato-trace", "");
+        dir.delete();
+        TraceWriter w = new TraceWriter(dir, 1 << 16);
+        // written by main before the children start: ordered by start
+        w.write(TraceFormat.WRITE_BEFORE, false, 100, MAIN, 0, mem(7, 1));
+        w.write(TraceFormat.START_BEFORE, false, 101, MAIN, T1, 0);
+        w.write(TraceFormat.START_BEFORE, false, 102, MAIN, T2, 0);
+        for (int i = 0; i < 3; i++) {
+            for (int t = T1; t <= T2; t++) {
+                // unprotected: races
+                w.write(TraceFormat.WRITE_BEFORE, false, 200 + t, t, 0, mem(8, i));
+                // protected by the same lock: no race
+                w.write(TraceFormat.LOCK_BEFORE, false, 300 + t, t, LOCK, 0);
+                w.write(TraceFormat.WRITE_BEFORE, false, 400 + t, t, 0, mem(9, i));
+                w.write(TraceFormat.UNLOCK_AFTER, false, 500 + t, t, LOCK, 0);
+                // read of main's write: ordered
+                w.write(TraceFormat.READ_BEFORE, false, 600 + t, t, 0, mem(7, 1));
+            }
+        }
+        w.close();
+        return new TraceReader(dir);
+    }
+
+    @Test
+    public void partitionedMatchesSinglePass() throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        HybridRaceTracker single = new OfflineRaceAnalyzer(record(), 1).analyze(pool);
+        deleteTrace();
+        HybridRaceTracker parallel = new OfflineRaceAnalyzer(record(), 8).analyze(pool);
+
+        assertEquals(new HashSet<CommutativePair>(single.getRaces()),
+                new HashSet<CommutativePair>(parallel.getRaces()));
+        assertEquals(single.getRaces().size(), parallel.getRaces().size());
+        boolean unprotected = false;
+        for (CommutativePair cp : parallel.getRaces()) {
+            unprotected |= cp.contains(200 + T1) && cp.contains(200 + T2);
+            assertFalse(cp.contains(400 + T1) || cp.contains(400 + T2));
+            assertFalse(cp.contains(100));
+        }
+        assertTrue(unprotected);
+    }
+}
@@ -0,0 +1,171 @@
+package javato.activetesting.trace;
+
+import javato.activetesting.analysis.PrimitiveAnalysisImpl;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Copyright (c) 2007-2008,
+ * Koushik Sen    <ksen@cs.berkeley.edu>
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * <p/>
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * <p/>
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * <p/>
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class TraceRecordingTest {
+    private final List<File> dirs = new ArrayList<File>();
+
+    private File tempDir() throws Exception {
+        File dir = File.createTempFile("javato-trace", "");
+        dir.delete();
+        dirs.add(dir);
+        return dir;
+    }
+
+    @After
+    public void deleteTraces() {
+        for (File dir : dirs) {
+            File[] files = dir.listFiles();
+            if (files != null) {
+                for (File f : files) {
+                    f.delete();
+                }
+            }
+            dir.delete();
+        }
+    }
+
+    private static class Recording extends PrimitiveAnalysisImpl {
+        final List<String> events = new ArrayList<String>();
+
+        public void lockBefore(int iid, int thread, int lock, Object actualLock) {
+            events.add("lock " + iid + " " + thread + " " + lock);
+        }
+
+        public void methodEnterBefore(int iid, int thread, int method) {
+            events.add("enter " + iid + " " + thread + " " + method);
+        }
+
+        public void writeBefore(int iid, int thread, long memory, boolean isVolatile) {
+            events.add("write " + iid + " " + thread + " " + memory + " " + isVolatile);
+        }
+
+        public void writePrimitiveAfter(int iid, int thread, String local, long bits, String type) {
+            events.add("local " + iid + " " + thread + " " + local + " " + bits + " " + type);
+        }
+    }
+
+    @Test
+    public void roundTripAcrossSegments() throws Exception {
+        File dir = tempDir();
+        // seven records per segment, so the trace rolls over several times
+        TraceWriter w = new TraceWriter(dir, 7 * TraceFormat.RECORD_SIZE);
+        w.write(TraceFormat.LOCK_BEFORE, false, 1, 2, 3, 0);
+        w.write(TraceFormat.METHOD_ENTER_BEFORE, false, 4, 2, 17, 0);
+        for (int i = 0; i < 20; i++) {
+            w.write(TraceFormat.WRITE_BEFORE, (i & 1) == 1, 10 + i, 2, 0, (5L << 32) | i);
+        }
+        w.write(TraceFormat.LOCAL_PRIMITIVE_WRITE_AFTER, false, 9, 2, w.stringId("x" + '\0' + "java.lang.Long"), -42);
+        assertEquals(23, w.close());
+
+        Recording r = new Recording();
+        Runtime.getRuntime().removeShutdownHook(r);
+        TraceReader reader = new TraceReader(dir);
+        assertEquals(23, reader.replay(r));
+
+        assertEquals("lock 1 2 3", r.events.get(0));
+        assertEquals("enter 4 2 17", r.events.get(1));
+        for (int i = 0; i < 20; i++) {
+            assertEquals("write " + (10 + i) + " 2 " + ((5L << 32) | i) + " " + ((i & 1) == 1), r.events.get(2 + i));
+        }
+        assertEquals("local 9 2 x -42 java.lang.Long", r.events.get(22));
+    }
+
+    @Test
+    public void valuesStopAtTheLimitButNamesDoNot() throws Exception {
+        File dir = tempDir();
+        TraceWriter w = new TraceWriter(dir, 100 * TraceFormat.RECORD_SIZE, 2);
+        int local = w.stringId("x");
+        assertEquals(1, w.valueId("a"));
+        assertEquals(2, w.valueId("b"));
+        assertEquals(-1, w.valueId("c"));
+        // already known values and names keep their ids
+        assertEquals(1, w.valueId("a"));
+        assertEquals(local, w.valueId("x"));
+        assertEquals(3, w.stringId("y"));
+        assertEquals(1, w.getDroppedValues());
+        w.close();
+
+        TraceReader reader = new TraceReader(dir);
+        assertEquals("b", reader.string(2));
+        assertEquals(null, reader.string(-1));
+    }
+
+    @Test
+    public void concurrentWritersKeepTheirOwnOrder() throws Exception {
+        File dir = tempDir();
+        final TraceWriter w = new TraceWriter(dir, 1000 * TraceFormat.RECORD_SIZE);
+        final int threads = 4;
+        final int events = 5000;
+        Thread[] ts = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int tid = t;
+            ts[t] = new Thread() {
+                public void run() {
+                    for (int i = 0; i < events; i++) {
+                        w.write(TraceFormat.READ_BEFORE, false, i, tid, 0, i);
+                    }
+                }
+            };
+            ts[t].start();
+        }
+        for (Thread t : ts) {
+            t.join();
+        }
+        assertEquals(threads * events, w.close());
+
+        TraceReader reader = new TraceReader(dir);
+        long[] last = new long[threads];
+        java.util.Arrays.fill(last, -1);
+        int n = 0;
+        while (reader.next()) {
+            assertEquals(TraceFormat.READ_BEFORE, reader.kind());
+            int tid = reader.thread();
+            assertTrue(reader.value() > last[tid]);
+            last[tid] = reader.value();
+            n++;
+        }
+        assertEquals(threads * events, n);
+    }
+}
@@ -0,0 +1,175 @@
+package javato.instrumentor;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Copyright (c) 2007-2008,
+ * Koushik Sen    <ksen@cs.berkeley.edu>
+ * All rights reserved.
+ * <p/>
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * <p/>
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * <p/>
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ * <p/>
+ * 3. The names of the contributors may not be used to endorse or promote
+ * products derived from this software without specific prior written
+ * permission.
+ * <p/>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+public class ShardPlanTest {
+    /*
+     * The classes scanned here are written with ASM in the 1.5 format rather
+     * than read from the test's own class files: ASM 3.1 cannot parse what a
+     * newer javac emits unless the tests are compiled with -target 1.7, as
+     * build.xml does.
+     */
+
+    private static final String[] CLASSES = {
+            "javato.instrumentor.ClassScanner", "javato.instrumentor.ShardPlan", "javato.instrumentor.ShardPlan$Shard",
+            "javato.instrumentor.SymbolTables", "javato.instrumentor.ShardPlanTest"
+    };
+
+    // class name with the int fields, methods m (with the given access) and n reading them
+    private static byte[] classFile(String name, int fieldAccess, int mAccess, String... fields) {
+        String internal = name.replace('.', '/');
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V1_5, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, internal, null, "java/lang/Object", null);
+        for (String f : fields) {
+            cw.visitField(fieldAccess, f, "I", null, null).visitEnd();
+        }
+        for (String m : new String[]{"m", "n"}) {
+            MethodVisitor mv = cw.visitMethod(m.equals("m") ? mAccess : 0, m, "()V", null, null);
+            mv.visitCode();
+            for (String f : fields) {
+                mv.visitVarInsn(Opcodes.ALOAD, 0);
+                mv.visitFieldInsn(Opcodes.GETFIELD, internal, f, "I");
+                mv.visitInsn(Opcodes.POP);
+            }
+            mv.visitInsn(Opcodes.RETURN);
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+        }
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    private static ClassScanner scan(byte[] classFile) throws IOException {
+        return ClassScanner.scan(new ByteArrayInputStream(classFile));
+    }
+
+    private static ShardPlan plan(List<String> excludes) throws IOException {
+        ShardPlan plan = new ShardPlan(excludes);
+        for (String c : CLASSES) {
+            plan.addClass(new ByteArrayInputStream(classFile(c, 0, 0, "f")));
+        }
+        return plan;
+    }
+
+    @Test
+    public void scanFindsSymbolsAndBoundsIids() throws IOException {
+        ClassScanner c = scan(classFile("javato.instrumentor.SymbolTables", 0, 0, "table", "next"));
+        assertEquals("javato.instrumentor.SymbolTables", c.getClassName());
+        assertTrue(c.getSymbols().contains("table"));
+        assertTrue(c.getSymbols().contains("next"));
+        assertTrue(c.getIidBound() > 0);
+    }
+
+    @Test
+    public void shardsAreSortedContiguousAndCoverEveryClass() throws IOException {
+        ShardPlan plan = plan(new ArrayList<String>());
+        List<ShardPlan.Shard> shards = plan.partition(3);
+        assertEquals(3, shards.size());
+        List<String> all = new ArrayList<String>();
+        int next = 0;
+        for (ShardPlan.Shard s : shards) {
+            assertFalse(s.getClassNames().isEmpty());
+            assertEquals(next, s.getIidBase());
+            assertTrue(s.getIidLimit() > s.getIidBase());
+            next = s.getIidLimit();
+            all.addAll(s.getClassNames());
+        }
+        List<String> sorted = new ArrayList<String>(all);
+        java.util.Collections.sort(sorted);
+        assertEquals(sorted, all);
+        assertEquals(CLASSES.length, all.size());
+
+        // same input, same plan
+        List<ShardPlan.Shard> again = plan(new ArrayList<String>()).partition(3);
+        for (int i = 0; i < shards.size(); i++) {
+            assertEquals(shards.get(i).getClassNames(), again.get(i).getClassNames());
+            assertEquals(shards.get(i).getIidLimit(), again.get(i).getIidLimit());
+        }
+    }
+
+    @Test
+    public void moreShardsThanClassesAndExcludes() throws IOException {
+        assertEquals(CLASSES.length, plan(new ArrayList<String>()).partition(100).size());
+        ShardPlan plan = plan(Arrays.asList("javato.instrumentor.Shard"));
+        assertEquals(2, plan.getClassCount());
+        assertEquals(1, plan.partition(1).size());
+    }
+
+    @Test
+    public void summaryListsSupertypesAndSynchronizedMethods() throws IOException {
+        ClassScanner c = scan(classFile("Synced", 0, Opcodes.ACC_SYNCHRONIZED, "f"));
+        assertTrue(c.getSummary().contains("java/lang/Object"));
+        assertTrue(c.getSummary().contains("m()V"));
+        assertFalse(c.getSummary().contains("n()V"));
+        assertEquals(40, ClassScanner.digest(c.getBytes()).length());
+    }
+
+    @Test
+    public void summaryChangesWithFieldAccessFlags() throws IOException {
+        ClassScanner plain = scan(classFile("Fields", 0, 0, "f"));
+        ClassScanner marked = scan(classFile("Fields", Opcodes.ACC_VOLATILE, 0, "f"));
+        assertTrue(plain.getSummary().contains("\nf I 0\n"));
+        assertTrue(marked.getSummary().contains("\nf I " + Opcodes.ACC_VOLATILE + "\n"));
+    }
+
+    @Test
+    public void preloadedSymbolsAgreeAcrossTables() {
+        List<String> names = Arrays.asList("A", "f", "g");
+        SymbolTables a = new SymbolTables();
+        SymbolTables b = new SymbolTables();
+        a.preload(names);
+        b.preload(names);
+        a.setNextId(100);
+        b.setNextId(200);
+        assertEquals(b.get("g"), a.get("g"));
+        assertEquals(100, a.get("h"));
+        assertEquals(200, b.get("h"));
+        assertEquals(1, a.entriesFrom(100).size());
+        assertEquals(101, a.getSize());
+    }
+}